@@ -18,6 +18,14 @@ import com.eharmony.matching.vw.webservice.common.example.Example;
  */
 public interface ExamplesIterable extends Iterable<Example> {
 
+	/*
+	 * The attribute that holds the size, in bytes, of the request the examples
+	 * were read from, if known. Along with the number of examples, this lets
+	 * components further down the pipeline pick a way of submitting the
+	 * examples that suits the size of the request.
+	 */
+	String CONTENT_LENGTH_ATTRIBUTE = "contentLength";
+
 	/*
 	 * Returns the number of examples, or Integer.MAX_VALUE if it's a stream of
 	 * examples. This value can be used by components further down the pipeline
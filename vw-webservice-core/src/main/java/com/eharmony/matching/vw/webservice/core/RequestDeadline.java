@@ -0,0 +1,112 @@
+/**
+ * 
+ */
+package com.eharmony.matching.vw.webservice.core;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.primitives.Longs;
+
+/**
+ * @author vrahimtoola
+ * 
+ *         The point in time after which the caller of a request no longer
+ *         cares about it's predictions. Once the deadline has passed, examples
+ *         stop being submitted to VW and predictions stop being read.
+ * 
+ *         If partial results are allowed, the predictions read before the
+ *         deadline are still sent back, followed by a marker saying the
+ *         predictions were cut short.
+ * 
+ *         Deadlines are carried through the pipeline as attributes of the
+ *         examples iterable.
+ */
+public class RequestDeadline {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RequestDeadline.class);
+
+	/*
+	 * The examples attribute that holds the deadline, in milliseconds since
+	 * the epoch.
+	 */
+	public static final String DEADLINE_ATTRIBUTE = "deadline";
+
+	/*
+	 * The examples attribute that says whether partial results are allowed
+	 * ("true" or "false").
+	 */
+	public static final String PARTIAL_RESULTS_ATTRIBUTE = "partialResults";
+
+	/*
+	 * No deadline.
+	 */
+	public static final RequestDeadline NONE = new RequestDeadline(Long.MAX_VALUE, false);
+
+	private final long deadlineMillis;
+	private final boolean partialResultsAllowed;
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param deadlineMillis The deadline, in milliseconds since the epoch.
+	 * Long.MAX_VALUE means there's no deadline.
+	 * 
+	 * @param partialResultsAllowed Whether the predictions read before the
+	 * deadline should still be sent back.
+	 */
+	public RequestDeadline(long deadlineMillis, boolean partialResultsAllowed) {
+		this.deadlineMillis = deadlineMillis;
+		this.partialResultsAllowed = partialResultsAllowed;
+	}
+
+	/*
+	 * Returns the deadline of a set of examples, or NONE if they don't have
+	 * one.
+	 */
+	public static RequestDeadline fromAttributes(ExamplesIterable examples) {
+
+		String deadline = examples.getAttribute(DEADLINE_ATTRIBUTE);
+
+		if (StringUtils.isBlank(deadline)) return NONE;
+
+		Long deadlineMillis = Longs.tryParse(deadline.trim());
+
+		if (deadlineMillis == null) {
+			LOGGER.warn("Ignoring invalid deadline: {}", deadline);
+			return NONE;
+		}
+
+		return new RequestDeadline(deadlineMillis, Boolean.parseBoolean(examples.getAttribute(PARTIAL_RESULTS_ATTRIBUTE)));
+	}
+
+	public boolean isSet() {
+		return deadlineMillis != Long.MAX_VALUE;
+	}
+
+	public boolean hasPassed() {
+		return isSet() && System.currentTimeMillis() >= deadlineMillis;
+	}
+
+	/*
+	 * Returns the number of milliseconds left before the deadline, which is
+	 * 0 once it has passed, and Long.MAX_VALUE if there's no deadline.
+	 */
+	public long getRemainingMillis() {
+		return isSet() ? Math.max(0, deadlineMillis - System.currentTimeMillis()) : Long.MAX_VALUE;
+	}
+
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	public boolean isPartialResultsAllowed() {
+		return partialResultsAllowed;
+	}
+
+	@Override
+	public String toString() {
+		return "RequestDeadline [deadlineMillis=" + deadlineMillis + ", partialResultsAllowed=" + partialResultsAllowed + "]";
+	}
+}
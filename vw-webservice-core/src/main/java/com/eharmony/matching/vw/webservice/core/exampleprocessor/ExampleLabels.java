@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StructuredExample;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tells labeled examples, which VW learns from, apart from unlabeled
+ *         ones, which it only makes predictions for.
+ *
+ *         Plain text examples count as labeled if there's a label before the
+ *         first pipe. A token right up against the pipe is a tag, and tokens
+ *         starting with a quote are tags too.
+ */
+public final class ExampleLabels {
+
+	private ExampleLabels() {
+	}
+
+	/*
+	 * Returns true if the example has a label.
+	 *
+	 * @param vwString The example as it's sent to VW.
+	 */
+	public static boolean isLabeled(Example example, String vwString) {
+
+		if (example instanceof StructuredExample) return StringUtils.isBlank(((StructuredExample) example).getLabel()) == false;
+
+		//everything before the first pipe is the label, importance, base and tag
+		int pipe = vwString.indexOf('|');
+
+		String header = pipe >= 0 ? vwString.substring(0, pipe) : vwString;
+
+		String[] tokens = StringUtils.split(header);
+
+		int numTokens = tokens.length;
+
+		//a token right up against the pipe is a tag, not a label
+		if (numTokens > 0 && pipe > 0 && Character.isWhitespace(header.charAt(header.length() - 1)) == false) numTokens--;
+
+		for (int x = 0; x < numTokens; x++)
+			if (tokens[x].startsWith("'") == false) return true;
+
+		return false;
+	}
+}
@@ -30,6 +30,18 @@ public interface ExampleProcessingManager {
 	 */
 	void stopAll();
 
+	/*
+	 * Cancels the request outright, eg, because the client went away. Unlike
+	 * 'stopAll()', this also closes the connection to VW right away, so that
+	 * both example submission and prediction fetching stop as soon as
+	 * possible. Predictions not yet fetched are thrown away, and the
+	 * prediction fetch state becomes 'Cancelled'. Has no effect if the
+	 * request is already done or cancelled.
+	 * 
+	 * @returns True if this call cancelled the request.
+	 */
+	boolean cancel();
+
 	/*
 	 * Gets the total number of examples submitted thus far.
 	 * 
@@ -31,5 +31,17 @@ public enum PredictionFetchState {
 	/*
 	 * Predictions are currently being fetched.
 	 */
-	OnGoing
+	OnGoing,
+
+	/*
+	 * The request was cancelled before all predictions were fetched. The
+	 * remaining predictions were thrown away.
+	 */
+	Cancelled,
+
+	/*
+	 * The request's deadline passed before all predictions were fetched. The
+	 * remaining predictions were thrown away.
+	 */
+	DeadlineExceeded
 }
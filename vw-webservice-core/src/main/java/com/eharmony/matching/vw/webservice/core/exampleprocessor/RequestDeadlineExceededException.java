@@ -0,0 +1,22 @@
+/**
+ * 
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor;
+
+/**
+ * @author vrahimtoola
+ * 
+ *         Exception thrown when a request's deadline passes before any
+ *         examples have been submitted to VW, so the request is shed instead.
+ */
+public class RequestDeadlineExceededException extends ExampleSubmissionException {
+
+	/**
+	 * The serial version UID.
+	 */
+	private static final long serialVersionUID = -3150749254218722618L;
+
+	public RequestDeadlineExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * 
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+
+/**
+ * @author vrahimtoola
+ * 
+ *         A long-lived session with VW, into which examples can be submitted
+ *         as they become available. Predictions are delivered asynchronously
+ *         to the StreamingPredictionListener the session was opened with, in
+ *         the order in which the examples were submitted.
+ */
+public interface StreamingExampleSession {
+
+	/*
+	 * Submits a batch of examples to VW, and makes sure they're sent out
+	 * before returning, so that predictions for them can come back right
+	 * away. Invalid examples are skipped and reported to the listener.
+	 * 
+	 * @param examples The examples to submit.
+	 * 
+	 * @returns The number of examples that were submitted (ie, not skipped).
+	 */
+	int submitExamples(Iterable<Example> examples) throws ExampleSubmissionException;
+
+	/*
+	 * Closes the session. Predictions for examples already submitted will
+	 * still be delivered to the listener, after which the listener's
+	 * 'onPredictionFetchComplete' is fired. Has no effect if the session has
+	 * already been closed.
+	 */
+	void close();
+
+	/*
+	 * Whether or not this session has been closed, either by a call to
+	 * 'close()' or because of a failure talking to VW.
+	 * 
+	 * @returns True if the session is closed, false otherwise.
+	 */
+	boolean isClosed();
+
+	/*
+	 * Gets the total number of examples submitted thus far.
+	 * 
+	 * @returns The total number of examples submitted thus far.
+	 */
+	long getTotalNumberOfExamplesSubmitted();
+
+	/*
+	 * Gets the total number of predictions fetched from VW.
+	 * 
+	 * @returns The total number of predictions fetched from VW.
+	 */
+	long getTotalNumberOfPredictionsFetched();
+}
@@ -0,0 +1,48 @@
+/**
+ * 
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor;
+
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+
+/**
+ * @author vrahimtoola
+ * 
+ *         Callbacks fired by a long-lived streaming session as predictions
+ *         arrive from VW. Callbacks for a given session are fired on a single
+ *         thread, in the order in which the predictions were read from VW.
+ */
+public interface StreamingPredictionListener {
+
+	/*
+	 * Fired for every prediction read from VW.
+	 * 
+	 * @param prediction The prediction.
+	 */
+	void onPrediction(Prediction prediction);
+
+	/*
+	 * Fired whenever an invalid example is submitted to the session. The
+	 * example is skipped, so there will be no prediction for it. This is fired
+	 * in order with the predictions, ie, after the predictions for all the
+	 * examples submitted before the invalid one have been delivered.
+	 * 
+	 * @param theException The exception that occurred.
+	 */
+	void onExampleFormatException(ExampleFormatException theException);
+
+	/*
+	 * Fired whenever there's an exception fetching predictions. No more
+	 * predictions will be fetched, and the session is closed.
+	 * 
+	 * @param theException The exception that occurred.
+	 */
+	void onPredictionFetchException(PredictionFetchException theException);
+
+	/*
+	 * Fired when the session has been closed and all predictions have been
+	 * fetched. This is always the last callback fired for a session.
+	 */
+	void onPredictionFetchComplete();
+}
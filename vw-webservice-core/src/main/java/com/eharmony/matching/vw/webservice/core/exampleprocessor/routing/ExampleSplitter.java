@@ -0,0 +1,294 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.routing;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleLabels;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Splits a single stream of examples into a stream of labeled examples,
+ *         for the training daemon, and a stream of unlabeled examples, for the
+ *         serving daemons, and remembers which stream each example went to, so
+ *         that the predictions can be put back together in order.
+ *
+ *         Examples are read off of the source by whoever needs one next:
+ *         either of the streams, or whoever is putting the predictions back
+ *         together. An example read for one stream, that belongs to the
+ *         other, is held on to until the other stream gets to it.
+ *
+ *         Examples must be a single, non-empty line, so that each one gets
+ *         exactly one prediction. Examples that aren't, or can't be rendered,
+ *         are skipped, and never make it to either stream.
+ *
+ *         Making this package-private for now.
+ */
+class ExampleSplitter {
+
+	/*
+	 * The streams an example can go to.
+	 */
+	enum Route {
+		Training, Serving
+	}
+
+	/*
+	 * A run of consecutive examples that went to the same stream.
+	 */
+	private static class Run {
+
+		private final Route route;
+		private long length = 1;
+
+		Run(Route route) {
+			this.route = route;
+		}
+	}
+
+	private final Iterator<Example> source;
+	private final LabelRoutingExampleProcessingManager manager;
+
+	//held while reading from the source, so that examples are routed in the order they're read
+	private final Object readLock = new Object();
+
+	//the rest is guarded by 'this'
+	private final Map<Route, Deque<Example>> buffers = new EnumMap<Route, Deque<Example>>(Route.class);
+	private final Deque<Run> runs = new ArrayDeque<Run>();
+
+	private boolean exhausted = false;
+	private ExampleReadException readFailure = null;
+
+	private long numExamplesRead = 0;
+
+	//bumped every time an example is routed, so that a reader can tell whether anything changed while it waited
+	private long version = 0;
+
+	public ExampleSplitter(Iterator<Example> source, LabelRoutingExampleProcessingManager manager) {
+
+		this.source = source;
+		this.manager = manager;
+
+		for (Route route : Route.values())
+			buffers.put(route, new ArrayDeque<Example>());
+	}
+
+	/*
+	 * Returns the stream of examples that go to a route.
+	 */
+	public Iterator<Example> getExamples(final Route route) {
+
+		return new Iterator<Example>() {
+
+			@Override
+			public boolean hasNext() {
+
+				while (true) {
+
+					long seenVersion;
+
+					synchronized (ExampleSplitter.this) {
+
+						if (buffers.get(route).isEmpty() == false) return true;
+
+						if (exhausted) {
+
+							if (readFailure != null) throw readFailure;
+
+							return false;
+						}
+
+						seenVersion = version;
+					}
+
+					readNext(seenVersion);
+				}
+			}
+
+			@Override
+			public Example next() {
+
+				if (hasNext() == false) throw new NoSuchElementException();
+
+				synchronized (ExampleSplitter.this) {
+					return buffers.get(route).poll();
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/*
+	 * Takes the route of the next example, in the order they were read.
+	 *
+	 * @returns The route, or null if there are no more examples.
+	 *
+	 * @throws ExampleReadException If reading the examples failed.
+	 */
+	public Route nextRoute() {
+
+		while (true) {
+
+			long seenVersion;
+
+			synchronized (this) {
+
+				Run run = runs.peek();
+
+				if (run != null) {
+
+					if (--run.length == 0) runs.poll();
+
+					return run.route;
+				}
+
+				if (exhausted) {
+
+					if (readFailure != null) throw readFailure;
+
+					return null;
+				}
+
+				seenVersion = version;
+			}
+
+			readNext(seenVersion);
+		}
+	}
+
+	/*
+	 * Stops reading examples. The examples already read are still handed
+	 * out.
+	 */
+	public synchronized void stop() {
+		exhausted = true;
+		version++;
+	}
+
+	/*
+	 * Stops handing out examples, eg, because the request is over. Examples
+	 * not yet handed out are dropped.
+	 */
+	public synchronized void close() {
+
+		exhausted = true;
+		version++;
+
+		for (Deque<Example> buffer : buffers.values())
+			buffer.clear();
+	}
+
+	/*
+	 * Reads the next example, and routes it, unless someone else did while
+	 * we were waiting to.
+	 *
+	 * @param seenVersion The version the caller last saw.
+	 */
+	private void readNext(long seenVersion) {
+
+		synchronized (readLock) {
+
+			synchronized (this) {
+				if (exhausted || version != seenVersion) return;
+			}
+
+			while (true) {
+
+				Example example;
+
+				try {
+					if (source.hasNext() == false) {
+
+						synchronized (this) {
+							exhausted = true;
+							version++;
+						}
+
+						return;
+					}
+
+					example = source.next();
+				}
+				catch (ExampleReadException e) {
+
+					synchronized (this) {
+						exhausted = true;
+						readFailure = e;
+						version++;
+					}
+
+					throw e;
+				}
+
+				long exampleNumber;
+
+				synchronized (this) {
+					exampleNumber = ++numExamplesRead;
+				}
+
+				String vwString;
+
+				try {
+					vwString = example.getVWStringRepresentation();
+
+					if (StringUtils.isBlank(vwString) || vwString.indexOf('\n') >= 0 || vwString.indexOf('\r') >= 0) throw new ExampleFormatException(exampleNumber, "Examples must be a single, non-empty line to be routed by label!");
+				}
+				catch (ExampleFormatException e) {
+
+					e.setExampleNumber(exampleNumber);
+
+					manager.onExampleFormatException(e);
+
+					continue;
+				}
+
+				Route route = isLabeled(example, vwString) ? Route.Training : Route.Serving;
+
+				synchronized (this) {
+
+					if (exhausted) return;
+
+					buffers.get(route).add(new StringExample(vwString));
+
+					version++;
+
+					Run last = runs.peekLast();
+
+					if (last != null && last.route == route)
+						last.length++;
+					else {
+						runs.add(new Run(route));
+					}
+				}
+
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Returns true if the example has a label (see ExampleLabels).
+	 *
+	 * @param vwString The example as it's sent to VW.
+	 */
+	static boolean isLabeled(Example example, String vwString) {
+		return ExampleLabels.isLabeled(example, vwString);
+	}
+}
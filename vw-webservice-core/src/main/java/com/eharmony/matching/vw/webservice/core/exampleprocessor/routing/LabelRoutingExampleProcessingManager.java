@@ -0,0 +1,437 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.routing;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An implementation of ExampleProcessingManager for use by the
+ *         LabelRoutingExampleProcessor. The examples are split up by label
+ *         (see ExampleSplitter), and whoever iterates over the predictions
+ *         takes them from the training and serving requests in the order the
+ *         examples were read. Each of the two requests is only started once
+ *         it's first prediction is needed, so a request without labels never
+ *         touches the training daemon, and vice versa.
+ *
+ *         If either request ends before all of it's predictions have been
+ *         read, eg, because it's daemon failed or the deadline passed, the
+ *         other one is cancelled, and the request ends the same way.
+ *
+ *         Making this package-private for now.
+ */
+class LabelRoutingExampleProcessingManager implements ExampleProcessingManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LabelRoutingExampleProcessingManager.class);
+
+	/*
+	 * The examples of one of the routes, with the same attributes as the
+	 * request's, except that their number and size aren't known.
+	 */
+	private static class RoutedExamples implements ExamplesIterable {
+
+		private final ExamplesIterable request;
+		private final Iterator<Example> examples;
+
+		RoutedExamples(ExamplesIterable request, Iterator<Example> examples) {
+			this.request = request;
+			this.examples = examples;
+		}
+
+		@Override
+		public Iterator<Example> iterator() {
+			return examples;
+		}
+
+		@Override
+		public int getNumberOfExamples() {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public String getAttribute(String attributeKey) {
+			return CONTENT_LENGTH_ATTRIBUTE.equals(attributeKey) ? null : request.getAttribute(attributeKey);
+		}
+	}
+
+	/*
+	 * Passes on the exceptions of the training and serving requests. Their
+	 * completion is reported once the whole request is done.
+	 */
+	private final ExampleProcessingEventHandler routeEventHandler = new ExampleProcessingEventHandler() {
+
+		@Override
+		public void onExampleReadException(ExampleProcessingManager exampleProcessingManager, ExampleReadException theException) {
+			LabelRoutingExampleProcessingManager.this.onExampleReadException(theException);
+		}
+
+		@Override
+		public void onExampleFormatException(ExampleProcessingManager exampleProcessingManager, ExampleFormatException theException) {
+			if (callback != null) callback.onExampleFormatException(LabelRoutingExampleProcessingManager.this, theException);
+		}
+
+		@Override
+		public void onExampleSubmissionException(ExampleProcessingManager exampleProcessingManager, ExampleSubmissionException theException) {
+			if (callback != null) callback.onExampleSubmissionException(LabelRoutingExampleProcessingManager.this, theException);
+		}
+
+		@Override
+		public void onExampleSubmissionComplete(ExampleProcessingManager exampleProcessingManager) {
+		}
+
+		@Override
+		public void onPredictionFetchException(ExampleProcessingManager exampleProcessingManager, PredictionFetchException theException) {
+			if (callback != null) callback.onPredictionFetchException(LabelRoutingExampleProcessingManager.this, theException);
+		}
+
+		@Override
+		public void onPredictionFetchComplete(ExampleProcessingManager exampleProcessingManager) {
+		}
+	};
+
+	private final ExamplesIterable examples;
+	private final Map<ExampleSplitter.Route, ExampleProcessorFactory> factories;
+	private final ExampleProcessingEventHandler callback;
+	private final ExampleSplitter splitter;
+
+	//guarded by 'this'
+	private final Map<ExampleSplitter.Route, ExampleProcessingManager> managers = new EnumMap<ExampleSplitter.Route, ExampleProcessingManager>(ExampleSplitter.Route.class);
+
+	private long numExamplesSkipped, numPredictionsFetched;
+	private ExampleSubmissionState exampleSubmissionState = ExampleSubmissionState.OnGoing;
+	private PredictionFetchState predictionFetchState = PredictionFetchState.OnGoing;
+	private boolean readFault = false, submissionFault = false;
+
+	private Iterator<Prediction> predictionsIterator = null;
+
+	public LabelRoutingExampleProcessingManager(ExamplesIterable examples, ExampleProcessorFactory trainingExampleProcessorFactory, ExampleProcessorFactory servingExampleProcessorFactory, ExampleProcessingEventHandler callback) {
+
+		this.examples = examples;
+		this.callback = callback;
+
+		this.factories = new EnumMap<ExampleSplitter.Route, ExampleProcessorFactory>(ExampleSplitter.Route.class);
+
+		this.factories.put(ExampleSplitter.Route.Training, trainingExampleProcessorFactory);
+		this.factories.put(ExampleSplitter.Route.Serving, servingExampleProcessorFactory);
+
+		this.splitter = new ExampleSplitter(examples.iterator(), this);
+	}
+
+	/*
+	 * Takes the predictions from the training and serving requests, in the
+	 * order the examples were read.
+	 */
+	private class PredictionsIterator extends AbstractIterator<Prediction> {
+
+		private final Map<ExampleSplitter.Route, Iterator<Prediction>> predictions = new EnumMap<ExampleSplitter.Route, Iterator<Prediction>>(ExampleSplitter.Route.class);
+
+		@Override
+		protected Prediction computeNext() {
+
+			ExampleSplitter.Route route;
+
+			try {
+				route = splitter.nextRoute();
+			}
+			catch (ExampleReadException e) {
+
+				LOGGER.error("ExampleReadException when routing examples: {}", e.getMessage(), e);
+
+				onExampleReadException(e);
+
+				finish(PredictionFetchState.Complete);
+
+				return endOfData();
+			}
+
+			if (route == null) {
+
+				//let the training and serving requests see that they're done
+				for (Iterator<Prediction> iterator : predictions.values())
+					if (iterator.hasNext()) LOGGER.warn("More predictions than examples!");
+
+				finish(PredictionFetchState.Complete);
+
+				return endOfData();
+			}
+
+			Iterator<Prediction> iterator = predictions.get(route);
+
+			if (iterator == null) {
+
+				ExampleProcessingManager manager;
+
+				try {
+					manager = start(route);
+				}
+				catch (RequestDeadlineExceededException e) {
+
+					LOGGER.warn("The deadline passed before the {} examples could be submitted.", route);
+
+					finish(PredictionFetchState.DeadlineExceeded);
+
+					return endOfData();
+				}
+				catch (ExampleSubmissionException e) {
+
+					LOGGER.error("ExampleSubmissionException when submitting the {} examples: {}", route, e.getMessage(), e);
+
+					synchronized (LabelRoutingExampleProcessingManager.this) {
+						submissionFault = true;
+					}
+
+					if (callback != null) callback.onExampleSubmissionException(LabelRoutingExampleProcessingManager.this, e);
+
+					finish(PredictionFetchState.PredictionFetchFault);
+
+					return endOfData();
+				}
+
+				if (manager == null) return endOfData();
+
+				iterator = manager.getPredictionsIterable().iterator();
+
+				predictions.put(route, iterator);
+			}
+
+			if (iterator.hasNext() == false) {
+
+				PredictionFetchState finalState;
+
+				synchronized (LabelRoutingExampleProcessingManager.this) {
+					finalState = managers.get(route).getPredictionFetchState();
+				}
+
+				LOGGER.warn("The {} request ended ({}) before all of it's predictions were read.", route, finalState);
+
+				finish(finalState == PredictionFetchState.Complete || finalState == PredictionFetchState.OnGoing ? PredictionFetchState.PredictionFetchFault : finalState);
+
+				return endOfData();
+			}
+
+			synchronized (LabelRoutingExampleProcessingManager.this) {
+				numPredictionsFetched++;
+			}
+
+			return iterator.next();
+		}
+	}
+
+	/*
+	 * Starts the request of a route.
+	 *
+	 * @returns It's manager, or null if this request is already over.
+	 */
+	private ExampleProcessingManager start(ExampleSplitter.Route route) throws ExampleSubmissionException {
+
+		synchronized (this) {
+			if (predictionFetchState != PredictionFetchState.OnGoing) return null;
+		}
+
+		LOGGER.debug("Starting the {} request.", route);
+
+		ExampleProcessingManager manager = factories.get(route).getExampleProcessor(new RoutedExamples(examples, splitter.getExamples(route))).submitExamples(routeEventHandler);
+
+		boolean over;
+
+		synchronized (this) {
+
+			over = predictionFetchState != PredictionFetchState.OnGoing;
+
+			if (over == false) managers.put(route, manager);
+		}
+
+		if (over) {
+			manager.cancel();
+			return null;
+		}
+
+		return manager;
+	}
+
+	/*
+	 * Ends the request, cancelling whichever of the training and serving
+	 * requests aren't done yet.
+	 *
+	 * @returns True if this call ended the request.
+	 */
+	private boolean finish(PredictionFetchState finalState) {
+
+		Map<ExampleSplitter.Route, ExampleProcessingManager> toFinish;
+
+		synchronized (this) {
+
+			if (predictionFetchState != PredictionFetchState.OnGoing) return false;
+
+			predictionFetchState = finalState;
+
+			toFinish = new EnumMap<ExampleSplitter.Route, ExampleProcessingManager>(managers);
+		}
+
+		splitter.close();
+
+		ExampleSubmissionState finalSubmissionState = finalState == PredictionFetchState.Complete ? ExampleSubmissionState.Complete : ExampleSubmissionState.Stopped;
+
+		for (ExampleProcessingManager manager : toFinish.values()) {
+
+			if (finalState != PredictionFetchState.Complete) manager.cancel();
+
+			ExampleSubmissionState state = manager.getExampleSubmissionState();
+
+			if (state != ExampleSubmissionState.Complete && state != ExampleSubmissionState.OnGoing && finalSubmissionState == ExampleSubmissionState.Complete) finalSubmissionState = state;
+		}
+
+		synchronized (this) {
+
+			if (readFault)
+				exampleSubmissionState = ExampleSubmissionState.ExampleReadFault;
+			else if (submissionFault)
+				exampleSubmissionState = ExampleSubmissionState.ExampleSubmissionFault;
+			else {
+				exampleSubmissionState = finalSubmissionState;
+			}
+		}
+
+		if (callback != null) {
+			callback.onExampleSubmissionComplete(this);
+			callback.onPredictionFetchComplete(this);
+		}
+
+		return true;
+	}
+
+	/*
+	 * Called by the splitter when it skips an example.
+	 */
+	void onExampleFormatException(ExampleFormatException e) {
+
+		synchronized (this) {
+			numExamplesSkipped++;
+		}
+
+		if (callback != null) callback.onExampleFormatException(this, e);
+	}
+
+	/*
+	 * Reports a failure to read the examples, just the once, whether it's
+	 * hit by the training request, the serving request or the splitter.
+	 */
+	private void onExampleReadException(ExampleReadException e) {
+
+		synchronized (this) {
+
+			if (readFault) return;
+
+			readFault = true;
+		}
+
+		if (callback != null) callback.onExampleReadException(this, e);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessingManager#getPredictionsIterable()
+	 */
+	@Override
+	public Iterable<Prediction> getPredictionsIterable() {
+
+		return new Iterable<Prediction>() {
+
+			@Override
+			public Iterator<Prediction> iterator() {
+
+				synchronized (LabelRoutingExampleProcessingManager.this) {
+
+					if (predictionsIterator == null) predictionsIterator = new PredictionsIterator();
+
+					return predictionsIterator;
+				}
+			}
+		};
+	}
+
+	/*
+	 * Stops reading examples. The predictions of the examples already handed
+	 * to the training and serving requests can still be read.
+	 */
+	@Override
+	public void stopAll() {
+
+		Map<ExampleSplitter.Route, ExampleProcessingManager> toStop;
+
+		synchronized (this) {
+			toStop = new EnumMap<ExampleSplitter.Route, ExampleProcessingManager>(managers);
+		}
+
+		splitter.stop();
+
+		for (ExampleProcessingManager manager : toStop.values())
+			manager.stopAll();
+	}
+
+	@Override
+	public boolean cancel() {
+		return finish(PredictionFetchState.Cancelled);
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfExamplesSubmitted() {
+
+		long total = 0;
+
+		for (ExampleProcessingManager manager : managers.values())
+			total += manager.getTotalNumberOfExamplesSubmitted();
+
+		return total;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfExamplesSkipped() {
+
+		long total = numExamplesSkipped;
+
+		for (ExampleProcessingManager manager : managers.values())
+			total += manager.getTotalNumberOfExamplesSkipped();
+
+		return total;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfPredictionsFetched() {
+		return numPredictionsFetched;
+	}
+
+	@Override
+	public synchronized ExampleSubmissionState getExampleSubmissionState() {
+		return exampleSubmissionState;
+	}
+
+	@Override
+	public synchronized PredictionFetchState getPredictionFetchState() {
+		return predictionFetchState;
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.routing;
+
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeatures;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeaturesImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An example processor that sends the labeled examples of a request to
+ *         the training daemon, and the unlabeled ones to the serving daemons,
+ *         and hands the predictions back in the order of the examples (see
+ *         LabelRoutingExampleProcessingManager).
+ *
+ *         Nothing is read, or sent to VW, until the predictions are iterated
+ *         over.
+ *
+ *         Making this package-private for now.
+ */
+class LabelRoutingExampleProcessor implements ExampleProcessor {
+
+	private final ExamplesIterable examples;
+	private final ExampleProcessorFactory trainingExampleProcessorFactory;
+	private final ExampleProcessorFactory servingExampleProcessorFactory;
+
+	public LabelRoutingExampleProcessor(ExamplesIterable examples, ExampleProcessorFactory trainingExampleProcessorFactory, ExampleProcessorFactory servingExampleProcessorFactory) {
+		this.examples = examples;
+		this.trainingExampleProcessorFactory = trainingExampleProcessorFactory;
+		this.servingExampleProcessorFactory = servingExampleProcessorFactory;
+	}
+
+	@Override
+	public ExampleProcessingManager submitExamples(ExampleProcessingEventHandler callback) throws ExampleSubmissionException {
+
+		if (RequestDeadline.fromAttributes(examples).hasPassed()) throw new RequestDeadlineExceededException("The deadline passed before the examples could be submitted!");
+
+		return new LabelRoutingExampleProcessingManager(examples, trainingExampleProcessorFactory, servingExampleProcessorFactory, callback);
+	}
+
+	@Override
+	public ExampleProcessorFeatures getExampleProcessorFeatures() {
+		return new ExampleProcessorFeaturesImpl(true, null);
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.routing;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A factory that returns example processors that keep learning and
+ *         serving apart. The examples of a request that have a label go to
+ *         the training daemon, which learns from them, and the rest go to the
+ *         serving daemons, eg, replicas of the model running with '-t', so
+ *         scoring never waits on the learner. The predictions of both are
+ *         handed back in the order of the examples.
+ *
+ *         Plain text examples count as labeled if there's a label before the
+ *         first '|', and structured examples if they have one. Every example
+ *         must be a single, non-empty line.
+ *
+ *         The serving daemons can be scaled separately from the training
+ *         daemon, eg, by giving the serving example processor factory a
+ *         RoundRobinTCPIPSocketFactory over the replicas.
+ *
+ *         With routing turned off, every request is handed to the training
+ *         example processor factory as is.
+ */
+public class LabelRoutingExampleProcessorFactory implements ExampleProcessorFactory {
+
+	private final ExampleProcessorFactory trainingExampleProcessorFactory;
+	private final ExampleProcessorFactory servingExampleProcessorFactory;
+	private final boolean routingEnabled;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param trainingExampleProcessorFactory Sends examples to the training
+	 * daemon.
+	 *
+	 * @param servingExampleProcessorFactory Sends examples to the serving
+	 * daemons.
+	 *
+	 * @param routingEnabled False to send every request to the training
+	 * daemon, as if there were no serving daemons.
+	 */
+	public LabelRoutingExampleProcessorFactory(ExampleProcessorFactory trainingExampleProcessorFactory, ExampleProcessorFactory servingExampleProcessorFactory, boolean routingEnabled) {
+
+		checkNotNull(trainingExampleProcessorFactory, "A null training example processor factory cannot be provided!");
+		checkNotNull(servingExampleProcessorFactory, "A null serving example processor factory cannot be provided!");
+
+		this.trainingExampleProcessorFactory = trainingExampleProcessorFactory;
+		this.servingExampleProcessorFactory = servingExampleProcessorFactory;
+		this.routingEnabled = routingEnabled;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessorFactory#getExampleProcessor(com.eharmony.matching.vw.
+	 * webservice.core.ExamplesIterable)
+	 */
+	@Override
+	public ExampleProcessor getExampleProcessor(ExamplesIterable theExamples) {
+
+		if (routingEnabled == false) return trainingExampleProcessorFactory.getExampleProcessor(theExamples);
+
+		return new LabelRoutingExampleProcessor(theExamples, trainingExampleProcessorFactory, servingExampleProcessorFactory);
+	}
+
+	public boolean isRoutingEnabled() {
+		return routingEnabled;
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.routing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.DaemonWriterPool;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.FlushPolicy;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.InlineSubmissionPolicy;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.RoundRobinTCPIPSocketFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPExampleProcessorSettings;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPSocketFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TransportProfile;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A registry of named models, each served by an example processor
+ *         factory of it's own (see ModelSettings), with it's own daemons,
+ *         flush policy and limits. The factories all share the same thread
+ *         pool, scheduler and memory budget, and the buffers in
+ *         ByteArrayPool.SHARED.
+ *
+ *         The models are read from a properties file, which is checked for
+ *         changes every 'reloadIntervalMillis', and can be reloaded at any
+ *         time with 'reload()'. Models whose settings haven't changed keep
+ *         their factories. The daemon writers of models that were changed or
+ *         removed are shut down 'retireDelayMillis' later, to give the
+ *         requests already using them a chance to finish. A file that can't
+ *         be read, or has a bad setting in it, leaves the models as they
+ *         were.
+ *
+ *         'start()' must be called for the models to be loaded.
+ */
+public class ModelRegistry {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ModelRegistry.class);
+
+	private final String configFile;
+	private final ExecutorService executorService;
+	private final ScheduledExecutorService scheduler;
+	private final InFlightMemoryBudget memoryBudget;
+	private final long reloadIntervalMillis;
+	private final long retireDelayMillis;
+
+	//replaced as a whole on every reload, so lookups don't need to lock
+	private volatile Map<String, Model> models = Collections.emptyMap();
+
+	/*
+	 * Guarded by 'this'.
+	 */
+	private ScheduledExecutorService reloader = null;
+	private long lastModified = 0, numReloads = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param configFile The properties file the models are read from. If
+	 * blank, there are no models.
+	 *
+	 * @param executorService The thread pool shared by all the models.
+	 *
+	 * @param scheduler The scheduler shared by all the models, for flushing
+	 * idle writers and abandoning requests.
+	 *
+	 * @param memoryBudget The memory budget shared by all the models.
+	 *
+	 * @param reloadIntervalMillis How often to check the file for changes. 0
+	 * means the models are only reloaded when asked to.
+	 *
+	 * @param retireDelayMillis How long to wait before shutting down the
+	 * daemon writers of a model that was changed or removed.
+	 */
+	public ModelRegistry(String configFile, ExecutorService executorService, ScheduledExecutorService scheduler, InFlightMemoryBudget memoryBudget, long reloadIntervalMillis, long retireDelayMillis) {
+
+		checkNotNull(executorService, "A null executor service cannot be provided!");
+		checkNotNull(scheduler, "A null scheduler cannot be provided!");
+		checkNotNull(memoryBudget, "A null memory budget cannot be provided!");
+		checkArgument(reloadIntervalMillis >= 0, "The reload interval must be >= 0!");
+		checkArgument(retireDelayMillis >= 0, "The retire delay must be >= 0!");
+
+		this.configFile = StringUtils.trimToNull(configFile);
+		this.executorService = executorService;
+		this.scheduler = scheduler;
+		this.memoryBudget = memoryBudget;
+		this.reloadIntervalMillis = reloadIntervalMillis;
+		this.retireDelayMillis = retireDelayMillis;
+	}
+
+	public synchronized void start() throws IOException {
+
+		if (configFile == null) {
+			LOGGER.info("No models are configured.");
+			return;
+		}
+
+		if (reloader != null) return;
+
+		reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("vw-model-registry-%d").setDaemon(true).build());
+
+		reload();
+
+		if (reloadIntervalMillis > 0) {
+
+			reloader.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					reloadIfModified();
+				}
+			}, reloadIntervalMillis, reloadIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		LOGGER.info("Serving models {} from {}.", models.keySet(), configFile);
+	}
+
+	public synchronized void shutdown() {
+
+		if (reloader != null) {
+			reloader.shutdownNow();
+			reloader = null;
+		}
+
+		for (Model model : models.values())
+			model.shutdown();
+
+		models = Collections.emptyMap();
+	}
+
+	/*
+	 * Returns the example processor factory of a model.
+	 *
+	 * @returns The factory, or null if there's no such model.
+	 */
+	public ExampleProcessorFactory getExampleProcessorFactory(String name) {
+
+		Model model = models.get(name);
+
+		return model == null ? null : model.exampleProcessorFactory;
+	}
+
+	/*
+	 * Returns the settings of a model.
+	 *
+	 * @returns The settings, or null if there's no such model.
+	 */
+	public ModelSettings getModelSettings(String name) {
+
+		Model model = models.get(name);
+
+		return model == null ? null : model.settings;
+	}
+
+	/*
+	 * Returns the daemon writers of a model.
+	 *
+	 * @returns The writers, or null if there's no such model.
+	 */
+	public DaemonWriterPool getDaemonWriterPool(String name) {
+
+		Model model = models.get(name);
+
+		return model == null ? null : model.daemonWriterPool;
+	}
+
+	/*
+	 * Returns the names of the models, in order.
+	 */
+	public List<String> getModelNames() {
+		return new ArrayList<String>(models.keySet());
+	}
+
+	/*
+	 * Returns the number of times the models have been reloaded.
+	 */
+	public synchronized long getNumberOfReloads() {
+		return numReloads;
+	}
+
+	/*
+	 * Reads the models from the file again.
+	 *
+	 * @returns True if any model was added, changed or removed.
+	 *
+	 * @throws IOException If the file can't be read.
+	 *
+	 * @throws IllegalArgumentException If the file has a bad setting in it.
+	 */
+	public synchronized boolean reload() throws IOException {
+
+		checkArgument(configFile != null, "No models are configured!");
+
+		File file = new File(configFile);
+
+		lastModified = file.lastModified();
+
+		Properties properties = new Properties();
+
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+
+		Map<String, ModelSettings> allSettings = ModelSettings.parse(properties);
+
+		Map<String, Model> current = models, updated = new TreeMap<String, Model>();
+
+		List<Model> added = new ArrayList<Model>();
+
+		try {
+			for (ModelSettings settings : allSettings.values()) {
+
+				Model model = current.get(settings.getName());
+
+				if (model == null || model.settings.equals(settings) == false) {
+					model = new Model(settings);
+					added.add(model);
+				}
+
+				updated.put(settings.getName(), model);
+			}
+		}
+		catch (RuntimeException e) {
+
+			for (Model model : added)
+				model.shutdown();
+
+			throw e;
+		}
+
+		for (Model model : added)
+			model.start();
+
+		models = Collections.unmodifiableMap(updated);
+
+		numReloads++;
+
+		boolean changed = added.isEmpty() == false;
+
+		for (Map.Entry<String, Model> entry : current.entrySet()) {
+
+			if (updated.get(entry.getKey()) == entry.getValue()) continue;
+
+			changed = true;
+
+			retire(entry.getValue());
+		}
+
+		if (changed) LOGGER.info("Reloaded models from {}, now serving {}.", configFile, updated.keySet());
+
+		return changed;
+	}
+
+	private synchronized void reloadIfModified() {
+
+		if (new File(configFile).lastModified() == lastModified) return;
+
+		try {
+			reload();
+		}
+		catch (Exception e) {
+			LOGGER.error("Failed to reload models from {}, keeping the current ones: {}", configFile, e.getMessage(), e);
+		}
+	}
+
+	/*
+	 * Shuts down the daemon writers of a model that's no longer served, once
+	 * the requests already using them have had a chance to finish.
+	 */
+	private void retire(final Model model) {
+
+		if (retireDelayMillis == 0 || reloader == null) {
+			model.shutdown();
+			return;
+		}
+
+		reloader.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				model.shutdown();
+			}
+		}, retireDelayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * A model, and the factory that serves it.
+	 */
+	private class Model {
+
+		private final ModelSettings settings;
+		private final DaemonWriterPool daemonWriterPool;
+		private final TCPIPExampleProcessorFactory exampleProcessorFactory;
+
+		private Model(ModelSettings settings) {
+
+			TCPIPSocketFactory socketFactory = new RoundRobinTCPIPSocketFactory(settings.getDaemons(), settings.getConnectTimeoutMillis(), settings.getReadTimeoutMillis());
+
+			TransportProfile transportProfile = new TransportProfile(settings.getName(), new FlushPolicy(settings.getMaxExamplesPerFlush(), settings.getMaxIdleMicros()), settings.getWriteBufferSize(), settings.isTcpNoDelay(), 0, 0);
+
+			this.settings = settings;
+			this.daemonWriterPool = new DaemonWriterPool(socketFactory, transportProfile, settings.getNumWriters(), settings.getBatchSize(), settings.getMaxBatchesInFlight());
+
+			TCPIPExampleProcessorSettings processorSettings = new TCPIPExampleProcessorSettings();
+
+			processorSettings.setScheduler(scheduler);
+			processorSettings.setTransportProfiles(Collections.singletonList(transportProfile));
+			processorSettings.setDefaultTransportProfileName(transportProfile.getName());
+			processorSettings.setAbandonmentTimeoutMillis(settings.getAbandonmentTimeoutMillis());
+			processorSettings.setInlineSubmissionPolicy(new InlineSubmissionPolicy(settings.getInlineMaxExamples(), settings.getInlineMaxContentLength()));
+			processorSettings.setMemoryBudget(memoryBudget);
+			processorSettings.setDaemonWriterPool(daemonWriterPool);
+
+			this.exampleProcessorFactory = new TCPIPExampleProcessorFactory(socketFactory, executorService, processorSettings);
+		}
+
+		private void start() {
+			daemonWriterPool.start();
+		}
+
+		private void shutdown() {
+			daemonWriterPool.shutdown();
+		}
+	}
+}
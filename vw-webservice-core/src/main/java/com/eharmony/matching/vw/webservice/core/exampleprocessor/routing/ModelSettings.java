@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.routing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The settings of a single model served at /predict/{model}: the VW
+ *         daemons that serve it, the flush policy used to send examples to
+ *         them, and the limits on it's requests.
+ *
+ *         Models are configured with properties of the form
+ *         '{model}.{setting}', eg, 'spam.daemons=vw1:26542,vw2:26542'. Only
+ *         'daemons' is required, the rest of the settings have defaults.
+ *         Settings that aren't known are rejected, so that a misspelt setting
+ *         doesn't silently fall back to it's default.
+ */
+public class ModelSettings {
+
+	public static final String DAEMONS = "daemons";
+	public static final String CONNECT_TIMEOUT_MILLIS = "connectTimeoutMillis";
+	public static final String READ_TIMEOUT_MILLIS = "readTimeoutMillis";
+	public static final String MAX_EXAMPLES_PER_FLUSH = "maxExamplesPerFlush";
+	public static final String MAX_IDLE_MICROS = "maxIdleMicros";
+	public static final String WRITE_BUFFER_SIZE = "writeBufferSize";
+	public static final String TCP_NO_DELAY = "tcpNoDelay";
+	public static final String ABANDONMENT_TIMEOUT_MILLIS = "abandonmentTimeoutMillis";
+	public static final String INLINE_MAX_EXAMPLES = "inlineMaxExamples";
+	public static final String INLINE_MAX_CONTENT_LENGTH = "inlineMaxContentLength";
+	public static final String NUM_WRITERS = "numWriters";
+	public static final String BATCH_SIZE = "batchSize";
+	public static final String MAX_BATCHES_IN_FLIGHT = "maxBatchesInFlight";
+
+	private static final Set<String> SETTINGS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(DAEMONS, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, MAX_EXAMPLES_PER_FLUSH, MAX_IDLE_MICROS, WRITE_BUFFER_SIZE, TCP_NO_DELAY, ABANDONMENT_TIMEOUT_MILLIS, INLINE_MAX_EXAMPLES, INLINE_MAX_CONTENT_LENGTH, NUM_WRITERS, BATCH_SIZE, MAX_BATCHES_IN_FLIGHT)));
+
+	private static final Pattern MODEL_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+	private final String name;
+
+	//the settings as they were configured, to tell whether a model has changed
+	private final Map<String, String> values;
+
+	private final String daemons;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final int maxExamplesPerFlush;
+	private final long maxIdleMicros;
+	private final int writeBufferSize;
+	private final boolean tcpNoDelay;
+	private final long abandonmentTimeoutMillis;
+	private final int inlineMaxExamples;
+	private final long inlineMaxContentLength;
+	private final int numWriters;
+	private final int batchSize;
+	private final int maxBatchesInFlight;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param name The name of the model, made up of letters, digits, '_' and
+	 * '-'.
+	 *
+	 * @param values The settings of the model, keyed by setting name.
+	 */
+	public ModelSettings(String name, Map<String, String> values) {
+
+		checkArgument(name != null && MODEL_NAME.matcher(name).matches(), "Invalid model name: " + name + "!");
+		checkNotNull(values, "A null map of settings cannot be provided!");
+
+		for (String setting : values.keySet())
+			checkArgument(SETTINGS.contains(setting), "Unknown setting: " + name + "." + setting + "!");
+
+		this.name = name;
+		this.values = Collections.unmodifiableMap(new HashMap<String, String>(values));
+
+		this.daemons = values.get(DAEMONS);
+
+		checkArgument(StringUtils.isBlank(daemons) == false, "The daemons of model " + name + " must be provided!");
+
+		this.connectTimeoutMillis = getInt(CONNECT_TIMEOUT_MILLIS, 1000);
+		this.readTimeoutMillis = getInt(READ_TIMEOUT_MILLIS, 30000);
+		this.maxExamplesPerFlush = getInt(MAX_EXAMPLES_PER_FLUSH, 0);
+		this.maxIdleMicros = getLong(MAX_IDLE_MICROS, 5000);
+		this.writeBufferSize = getInt(WRITE_BUFFER_SIZE, 65536);
+		this.tcpNoDelay = Boolean.parseBoolean(StringUtils.defaultIfBlank(values.get(TCP_NO_DELAY), "false").trim());
+		this.abandonmentTimeoutMillis = getLong(ABANDONMENT_TIMEOUT_MILLIS, 60000);
+		this.inlineMaxExamples = getInt(INLINE_MAX_EXAMPLES, 16);
+		this.inlineMaxContentLength = getLong(INLINE_MAX_CONTENT_LENGTH, 4096);
+		this.numWriters = getInt(NUM_WRITERS, 0);
+		this.batchSize = getInt(BATCH_SIZE, 256);
+		this.maxBatchesInFlight = getInt(MAX_BATCHES_IN_FLIGHT, 4);
+
+		checkArgument(connectTimeoutMillis >= 0, "The connect timeout of model " + name + " must be >= 0!");
+		checkArgument(readTimeoutMillis >= 0, "The read timeout of model " + name + " must be >= 0!");
+	}
+
+	/*
+	 * Reads the settings of all the models out of a set of properties.
+	 *
+	 * @returns The settings of each model, keyed and ordered by model name.
+	 */
+	public static Map<String, ModelSettings> parse(Properties properties) {
+
+		Map<String, Map<String, String>> valuesByModel = new TreeMap<String, Map<String, String>>();
+
+		for (String key : properties.stringPropertyNames()) {
+
+			int dot = key.indexOf('.');
+
+			checkArgument(dot > 0 && dot < key.length() - 1, "Invalid model setting: " + key + "!");
+
+			String model = key.substring(0, dot);
+
+			Map<String, String> values = valuesByModel.get(model);
+
+			if (values == null) {
+				values = new HashMap<String, String>();
+				valuesByModel.put(model, values);
+			}
+
+			values.put(key.substring(dot + 1), properties.getProperty(key));
+		}
+
+		Map<String, ModelSettings> settings = new TreeMap<String, ModelSettings>();
+
+		for (Map.Entry<String, Map<String, String>> entry : valuesByModel.entrySet())
+			settings.put(entry.getKey(), new ModelSettings(entry.getKey(), entry.getValue()));
+
+		return settings;
+	}
+
+	private int getInt(String setting, int defaultValue) {
+
+		String value = values.get(setting);
+
+		return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private long getLong(String setting, long defaultValue) {
+
+		String value = values.get(setting);
+
+		return StringUtils.isBlank(value) ? defaultValue : Long.parseLong(value.trim());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/*
+	 * Returns the daemons that serve the model, as a comma separated list of
+	 * host:port pairs.
+	 */
+	public String getDaemons() {
+		return daemons;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	public int getMaxExamplesPerFlush() {
+		return maxExamplesPerFlush;
+	}
+
+	public long getMaxIdleMicros() {
+		return maxIdleMicros;
+	}
+
+	public int getWriteBufferSize() {
+		return writeBufferSize;
+	}
+
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	public long getAbandonmentTimeoutMillis() {
+		return abandonmentTimeoutMillis;
+	}
+
+	public int getInlineMaxExamples() {
+		return inlineMaxExamples;
+	}
+
+	public long getInlineMaxContentLength() {
+		return inlineMaxContentLength;
+	}
+
+	public int getNumWriters() {
+		return numWriters;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public int getMaxBatchesInFlight() {
+		return maxBatchesInFlight;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj) return true;
+
+		if (obj instanceof ModelSettings == false) return false;
+
+		ModelSettings other = (ModelSettings) obj;
+
+		return name.equals(other.name) && values.equals(other.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode() * 31 + values.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name + values;
+	}
+}
@@ -3,19 +3,26 @@
  */
 package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.util.Iterator;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.LoggerFactory;
 
 import com.eharmony.matching.vw.webservice.common.example.Example;
 import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
 import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleLabels;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
@@ -23,6 +30,9 @@ import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcesso
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeaturesImpl;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.eharmony.matching.vw.webservice.core.pipeline.PipelinedExampleIterator;
 import com.google.common.base.Charsets;
 
 /**
@@ -31,6 +41,40 @@ import com.google.common.base.Charsets;
  *         An asynchronous, fail fast example processor to submit examples to VW
  *         over a TCP IP socket.
  * 
+ *         The transport profile decides the options set on the socket, and
+ *         when examples are flushed to VW. It's flow control policy can hold
+ *         the submitter up until enough predictions have been read back, in
+ *         which case the examples written so far are flushed first, so that VW
+ *         can answer them.
+ * 
+ *         Examples aren't submitted until the predictions are first asked for,
+ *         so that no VW capacity is spent on a request nobody reads the
+ *         predictions of. Such a request is abandoned after
+ *         'abandonmentTimeoutMillis', which closes it's socket.
+ * 
+ *         A request whose deadline has already passed never reaches VW. Once
+ *         the deadline of a request in flight passes, the request is stopped
+ *         just like a cancelled one, except that the prediction fetch state
+ *         becomes 'DeadlineExceeded'.
+ * 
+ *         The memory taken by the example writer, and by the prediction
+ *         reader, is reserved from the memory budget. A request that can't get
+ *         it's share faults.
+ * 
+ *         If the transport profile is pipelined, examples are parsed and
+ *         rendered on threads of their own (see PipelinedExampleIterator),
+ *         leaving the submitter to just write them to VW, and predictions are
+ *         read ahead of whoever is iterating over them.
+ * 
+ *         A sample of the examples written, and their predictions, can be
+ *         teed into a shadow mirror (see ShadowMirror).
+ * 
+ *         With a replay policy, the examples written but not yet answered are
+ *         kept, and if the connection to VW fails, they're sent again over a
+ *         new one, rather than the request faulting (see ReplayingSocket).
+ *         That stops as soon as a labeled example comes up, since VW could
+ *         learn from it twice.
+ * 
  *         Making this package-private for now.
  */
 class AsyncFailFastTCPIPExampleProcessor implements ExampleProcessor {
@@ -40,22 +84,74 @@ class AsyncFailFastTCPIPExampleProcessor implements ExampleProcessor {
 	private final ExecutorService executorService;
 	private final TCPIPSocketFactory socketFactory;
 	private final Iterable<Example> examples;
+	private final TransportProfile transportProfile;
+	private final ScheduledExecutorService scheduler;
+	private final long abandonmentTimeoutMillis;
+	private final RequestDeadline deadline;
+	private final InFlightMemoryBudget memoryBudget;
+	private final ShadowMirror shadowMirror;
+	private final ReplayPolicy replayPolicy;
 
 	public AsyncFailFastTCPIPExampleProcessor(TCPIPSocketFactory socketFactory, ExecutorService executorService, Iterable<Example> examples) {
+		this(socketFactory, executorService, examples, TransportProfile.DEFAULT, RequestDeadline.NONE, new TCPIPExampleProcessorSettings());
+	}
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param transportProfile The socket options and flush policy to use.
+	 * 
+	 * @param deadline The request's deadline. If there is one, and the
+	 * settings have a scheduler, the request is stopped as soon as the
+	 * deadline passes. Otherwise, the deadline is only checked between
+	 * examples.
+	 * 
+	 * @param settings The scheduler, abandonment timeout, memory budget,
+	 * shadow mirror and replay policy to use. The scheduler is needed if the
+	 * flush policy flushes idle writers, or there's an abandonment timeout.
+	 * The rest of the settings are the factory's business.
+	 */
+	public AsyncFailFastTCPIPExampleProcessor(TCPIPSocketFactory socketFactory, ExecutorService executorService, Iterable<Example> examples, TransportProfile transportProfile, RequestDeadline deadline, TCPIPExampleProcessorSettings settings) {
+
+		checkArgument(transportProfile.getFlushPolicy().isIdleFlushingEnabled() == false || settings.getScheduler() != null, "A scheduler must be provided to flush idle writers!");
+		checkArgument(settings.getAbandonmentTimeoutMillis() == 0 || settings.getScheduler() != null, "A scheduler must be provided to abandon requests!");
 
 		this.executorService = executorService;
 		this.socketFactory = socketFactory;
 		this.examples = examples;
+		this.transportProfile = transportProfile;
+		this.scheduler = settings.getScheduler();
+		this.abandonmentTimeoutMillis = settings.getAbandonmentTimeoutMillis();
+		this.deadline = deadline;
+		this.memoryBudget = settings.getMemoryBudget();
+		this.shadowMirror = settings.getShadowMirror();
+		this.replayPolicy = settings.getReplayPolicy();
 	}
 
 	public ExampleProcessingManager submitExamples(final ExampleProcessingEventHandler callback) throws ExampleSubmissionException {
 
+		if (deadline.hasPassed()) throw new RequestDeadlineExceededException("The deadline passed before the examples could be submitted!");
+
+		Socket theSocket = null;
+
 		try {
-			final Socket socket = socketFactory.getSocket();
+			final ReplayingSocket replayingSocket = replayPolicy.isEnabled() ? new ReplayingSocket(socketFactory, transportProfile, replayPolicy) : null;
+
+			final Socket socket = theSocket = replayingSocket != null ? replayingSocket : socketFactory.getSocket();
+
+			transportProfile.configure(socket);
+
+			final ExampleSubmissionWindow window = transportProfile.getFlowControlPolicy().newWindow();
+
+			final TCPIPExampleProcessingManager exampleProcessingManager = new TCPIPExampleProcessingManager(socket, callback, window, deadline, memoryBudget);
+
+			final ShadowTap shadowTap = shadowMirror.newTap();
+
+			if (shadowTap != null) exampleProcessingManager.mirrorTo(shadowTap);
 
-			final TCPIPExampleProcessingManager exampleProcessingManager = new TCPIPExampleProcessingManager(socket, callback);
+			if (transportProfile.isPipelined()) exampleProcessingManager.prefetchPredictions(executorService, transportProfile.getPipelineRingSize());
 
-			executorService.submit(new Callable<Void>() {
+			exampleProcessingManager.setExampleSubmitter(executorService, new Callable<Void>() {
 
 				public Void call() {
 
@@ -67,32 +163,102 @@ class AsyncFailFastTCPIPExampleProcessor implements ExampleProcessor {
 
 					BufferedWriter writer = null;
 
+					IdleFlusher idleFlusher = null;
+
+					FlushPolicy flushPolicy = transportProfile.getFlushPolicy();
+
 					long numExamplesSent = 0;
 
+					//only predict-only requests are replayed
+					boolean checkLabels = replayingSocket != null;
+
+					int numExamplesSinceFlush = 0;
+
+					//the writer's char buffer, plus the byte buffer of the encoder underneath it, plus the examples kept for replaying
+					long writerBytes = 2L * transportProfile.getWriteBufferSize() + 8192 + (replayingSocket != null ? replayPolicy.getMaxBufferedBytes() : 0), reservedBytes = 0;
+
+					PipelinedExampleIterator pipeline = null;
+
 					try {
 
 						outputStream = socket.getOutputStream();
 
 						LOGGER.info("Starting to submit examples to VW...");
 
-						writer = new BufferedWriter(new OutputStreamWriter(outputStream, Charsets.UTF_8));
+						memoryBudget.reserve(writerBytes);
+
+						reservedBytes = writerBytes;
+
+						writer = new BufferedWriter(new OutputStreamWriter(outputStream, Charsets.UTF_8), transportProfile.getWriteBufferSize());
+
+						if (flushPolicy.isIdleFlushingEnabled()) idleFlusher = new IdleFlusher(writer, flushPolicy.getMaxIdleMicros(), scheduler);
+
+						Iterator<Example> iterator = examples.iterator();
+
+						if (transportProfile.isPipelined()) iterator = pipeline = new PipelinedExampleIterator(iterator, transportProfile.getPipelineRingSize(), executorService);
+
+						while (iterator.hasNext()) {
+
+							Example example = iterator.next();
+
+							if (deadline.hasPassed()) {
+								LOGGER.warn("The deadline passed while submitting examples!");
+								exampleProcessingManager.expire();
+								break;
+							}
+
+							if (window != null && window.hasRoom() == false) {
+
+								writer.flush();
 
-						for (Example example : examples) {
+								numExamplesSinceFlush = 0;
+
+								if (idleFlusher != null) idleFlusher.onFlush();
+
+								if (window.awaitRoom() == false) {
+									LOGGER.warn("Example submission process was stopped while waiting for predictions to be read!");
+									stoppedPrematurely = true;
+									break;
+								}
+							}
 
 							String toWrite = null;
 
 							try {
 								toWrite = example.getVWStringRepresentation();
+
+								//before it's written, since the writer can pass it on to the socket right away
+								if (checkLabels && ExampleLabels.isLabeled(example, toWrite)) {
+									replayingSocket.stopReplaying("a labeled example was submitted");
+									checkLabels = false;
+								}
+
 								writer.write(toWrite);
 								writer.newLine();
 
 								numExamplesSent++;
 
+								if (shadowTap != null) shadowTap.onExampleWritten(numExamplesSent - 1, toWrite);
+
 								if (numExamplesSent == 1) LOGGER.debug("First example: {}", toWrite);
 
 								exampleProcessingManager.incrementNumberOfExamplesSubmitted();
 
+								if (window != null) window.onSubmitted();
+
 								LOGGER.trace("Submitted example #{}: {}", numExamplesSent, toWrite);
+
+								if (flushPolicy.shouldFlush(++numExamplesSinceFlush)) {
+
+									writer.flush();
+
+									numExamplesSinceFlush = 0;
+
+									if (idleFlusher != null) idleFlusher.onFlush();
+								}
+								else if (idleFlusher != null) {
+									idleFlusher.onWrite();
+								}
 							}
 							catch (ExampleFormatException e) {
 
@@ -112,30 +278,48 @@ class AsyncFailFastTCPIPExampleProcessor implements ExampleProcessor {
 
 						LOGGER.info("Sent a total of {} examples to VW", numExamplesSent);
 
+						if (window != null) LOGGER.info("Flow control: {}", window);
+
 					}
-					catch (ExampleReadException e) {
+					catch (Exception e) {
 
-						exampleProcessingManager.setExampleSubmissionState(ExampleSubmissionState.ExampleReadFault);
+						if (exampleProcessingManager.isCancelled()) {
 
-						if (callback != null) callback.onExampleReadException(exampleProcessingManager, e);
+							//closing the socket or interrupting us is how a cancel stops us, so this is expected
+							LOGGER.debug("Example submission cancelled: {}", e.getMessage());
 
-						LOGGER.error("ExampleReadException in ExampleSubmitter: {}", e.getMessage(), e);
+							stoppedPrematurely = true;
+						}
+						else if (e instanceof ExampleReadException) {
 
-						faulted = true;
-					}
-					catch (Exception e) {
+							exampleProcessingManager.setExampleSubmissionState(ExampleSubmissionState.ExampleReadFault);
+
+							if (callback != null) callback.onExampleReadException(exampleProcessingManager, (ExampleReadException) e);
+
+							LOGGER.error("ExampleReadException in ExampleSubmitter: {}", e.getMessage(), e);
 
-						exampleProcessingManager.setExampleSubmissionState(ExampleSubmissionState.ExampleSubmissionFault);
+							faulted = true;
+						}
+						else {
 
-						if (callback != null) callback.onExampleSubmissionException(exampleProcessingManager, new ExampleSubmissionException(e));
+							exampleProcessingManager.setExampleSubmissionState(ExampleSubmissionState.ExampleSubmissionFault);
+
+							if (callback != null) callback.onExampleSubmissionException(exampleProcessingManager, new ExampleSubmissionException(e));
 
-						LOGGER.error("Other Exception in ExampleSubmitter: {}", e.getMessage(), e);
+							LOGGER.error("Other Exception in ExampleSubmitter: {}", e.getMessage(), e);
 
-						faulted = true;
+							faulted = true;
+						}
 					}
 					finally {
 
-						if (writer != null) try {
+						if (exampleProcessingManager.isCancelled()) stoppedPrematurely = true; //even if the examples ran out first
+
+						if (idleFlusher != null) idleFlusher.stop();
+
+						if (pipeline != null) pipeline.stop();
+
+						if (writer != null && exampleProcessingManager.isCancelled() == false) try {
 							writer.flush(); //make sure that anything buffered by the bufferedwriter is flushed to the underlying stream
 						}
 						catch (IOException e) {
@@ -149,7 +333,7 @@ class AsyncFailFastTCPIPExampleProcessor implements ExampleProcessor {
 							faulted = true;
 						}
 
-						if (socket != null) try {
+						if (socket != null && exampleProcessingManager.isCancelled() == false) try {
 
 							socket.shutdownOutput();
 						}
@@ -172,6 +356,8 @@ class AsyncFailFastTCPIPExampleProcessor implements ExampleProcessor {
 							}
 						}
 
+						memoryBudget.release(reservedBytes);
+
 						if (callback != null) callback.onExampleSubmissionComplete(exampleProcessingManager);
 
 					}
@@ -181,12 +367,35 @@ class AsyncFailFastTCPIPExampleProcessor implements ExampleProcessor {
 
 			});
 
+			if (abandonmentTimeoutMillis > 0) exampleProcessingManager.cancelWhenDone(scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					if (exampleProcessingManager.abandonIfUnread()) LOGGER.warn("Nobody asked for the predictions in {} ms, abandoned the request.", abandonmentTimeoutMillis);
+				}
+			}, abandonmentTimeoutMillis, TimeUnit.MILLISECONDS));
+
+			if (deadline.isSet() && scheduler != null) exampleProcessingManager.cancelWhenDone(scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					if (exampleProcessingManager.expire()) LOGGER.warn("The deadline passed, stopped the request.");
+				}
+			}, deadline.getRemainingMillis(), TimeUnit.MILLISECONDS));
+
 			return exampleProcessingManager;
 		}
 		catch (Exception e1) {
 
 			LOGGER.error("Exception in submitExamples(): {}", e1.getMessage());
 
+			if (theSocket != null) try {
+				theSocket.close();
+			}
+			catch (IOException e2) {
+				LOGGER.warn("Failed to close socket after exception in submitExamples(): {}", e2.getMessage(), e2);
+			}
+
 			throw new ExampleSubmissionException(e1);
 		}
 
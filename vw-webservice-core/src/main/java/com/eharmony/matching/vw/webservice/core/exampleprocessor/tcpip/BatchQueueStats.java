@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Counts of the examples that some group of requests, eg, a tenant,
+ *         has had queued on the daemon writers and written, and how long they
+ *         waited.
+ */
+public class BatchQueueStats {
+
+	private final AtomicLong numExamplesQueued = new AtomicLong(), numBatchesWritten = new AtomicLong(), numExamplesWritten = new AtomicLong();
+	private final AtomicLong totalQueueNanos = new AtomicLong(), maxQueueNanos = new AtomicLong();
+
+	/*
+	 * Records that a batch was queued on a daemon writer.
+	 */
+	void onQueued(ExampleBatch batch) {
+		numExamplesQueued.addAndGet(batch.size());
+	}
+
+	/*
+	 * Records that a batch was taken off of a daemon writer's queue.
+	 *
+	 * @param written True if it was written to VW, false if it was cancelled
+	 * or failed first.
+	 */
+	void onDequeued(ExampleBatch batch, boolean written) {
+
+		numExamplesQueued.addAndGet(-batch.size());
+
+		if (written == false) return;
+
+		long queueNanos = System.nanoTime() - batch.getQueuedAtNanos();
+
+		numBatchesWritten.incrementAndGet();
+		numExamplesWritten.addAndGet(batch.size());
+		totalQueueNanos.addAndGet(queueNanos);
+
+		long max;
+
+		while ((max = maxQueueNanos.get()) < queueNanos && maxQueueNanos.compareAndSet(max, queueNanos) == false) {
+			//someone else got there first, try again
+		}
+	}
+
+	/*
+	 * Returns the number of examples waiting to be written.
+	 */
+	public long getQueueDepth() {
+		return numExamplesQueued.get();
+	}
+
+	public long getNumberOfBatchesWritten() {
+		return numBatchesWritten.get();
+	}
+
+	public long getNumberOfExamplesWritten() {
+		return numExamplesWritten.get();
+	}
+
+	/*
+	 * Returns how long, on average, the batches waited to be written.
+	 */
+	public double getAverageQueueMillis() {
+
+		long batches = numBatchesWritten.get();
+
+		return batches == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(totalQueueNanos.get()) / batches / 1000;
+	}
+
+	public double getMaxQueueMillis() {
+		return (double) TimeUnit.NANOSECONDS.toMicros(maxQueueNanos.get()) / 1000;
+	}
+}
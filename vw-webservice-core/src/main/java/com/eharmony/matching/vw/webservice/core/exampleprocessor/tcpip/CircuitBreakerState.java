@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The states in which the circuit breaker in front of a VW daemon can
+ *         be.
+ */
+public enum CircuitBreakerState {
+
+	/*
+	 * The daemon is healthy, connections are handed out as usual.
+	 */
+	Closed,
+
+	/*
+	 * The daemon has failed too often. Requests for connections fail right
+	 * away, until the daemon passes a health check or the open period expires.
+	 */
+	Open,
+
+	/*
+	 * The open period has expired, and a single trial connection has been let
+	 * through. It's outcome decides whether the breaker closes or opens again.
+	 */
+	HalfOpen
+}
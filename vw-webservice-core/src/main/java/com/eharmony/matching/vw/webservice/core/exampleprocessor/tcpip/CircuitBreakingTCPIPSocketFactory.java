@@ -0,0 +1,255 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A socket factory that puts a circuit breaker in front of a single VW
+ *         daemon.
+ *
+ *         The sockets handed out are watched: failing to connect, timing out
+ *         while waiting on predictions, an error on the connection, or taking
+ *         longer than 'slowResponseMillis' to return the first prediction all
+ *         count as failures. After 'failureThreshold' failures in a row the
+ *         breaker opens, and for the next 'openMillis' any attempt to get a
+ *         socket fails right away with a CircuitOpenException instead of
+ *         waiting on a daemon that's known to be in trouble. After that, a
+ *         single trial connection is let through, and the breaker closes again
+ *         if it succeeds.
+ *
+ *         A DaemonHealthChecker can also report on the daemon, which lets an
+ *         open breaker close as soon as the daemon recovers.
+ */
+public class CircuitBreakingTCPIPSocketFactory implements TCPIPSocketFactory {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreakingTCPIPSocketFactory.class);
+
+	private final String name;
+	private final TCPIPSocketFactory daemonSocketFactory;
+	private final int failureThreshold;
+	private final long openMillis;
+	private final long slowResponseMillis;
+
+	/*
+	 * All guarded by 'this'.
+	 */
+	private CircuitBreakerState state = CircuitBreakerState.Closed;
+	private int numConsecutiveFailures = 0;
+	private long openedAt = 0;
+	private boolean trialInFlight = false;
+	private long numRejectedRequests = 0;
+	private String lastFailure = null;
+
+	//what the sockets handed out report to
+	private final MonitoredSocket.Listener monitor = new MonitoredSocket.Listener() {
+
+		@Override
+		public void onResponse(long latencyMillis) {
+			CircuitBreakingTCPIPSocketFactory.this.onResponse(latencyMillis);
+		}
+
+		@Override
+		public void onFailure(String failure) {
+			CircuitBreakingTCPIPSocketFactory.this.onFailure(failure);
+		}
+
+		@Override
+		public void onClosed(boolean outcomeReported) {
+			if (outcomeReported == false) onAbandoned();
+		}
+	};
+
+	/*
+	 * Constructor.
+	 *
+	 * @param name The name of the daemon, for logging and reporting.
+	 *
+	 * @param daemonSocketFactory Connects to the daemon.
+	 *
+	 * @param failureThreshold The number of failures in a row that opens the
+	 * breaker.
+	 *
+	 * @param openMillis How long the breaker stays open before a trial
+	 * connection is let through.
+	 *
+	 * @param slowResponseMillis A first prediction that takes longer than this
+	 * counts as a failure. 0 means responses are never too slow.
+	 */
+	public CircuitBreakingTCPIPSocketFactory(String name, TCPIPSocketFactory daemonSocketFactory, int failureThreshold, long openMillis, long slowResponseMillis) {
+
+		checkArgument(StringUtils.isBlank(name) == false, "A name must be provided!");
+		checkNotNull(daemonSocketFactory, "A null daemon socket factory cannot be provided!");
+		checkArgument(failureThreshold > 0, "The failure threshold must be > 0!");
+		checkArgument(openMillis >= 0, "The open period must be >= 0!");
+		checkArgument(slowResponseMillis >= 0, "The slow response threshold must be >= 0!");
+
+		this.name = name;
+		this.daemonSocketFactory = daemonSocketFactory;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+		this.slowResponseMillis = slowResponseMillis;
+	}
+
+	@Override
+	public Socket getSocket() throws UnknownHostException, IOException {
+
+		if (allowRequest() == false) throw new CircuitOpenException("The circuit breaker for VW daemon " + name + " is open!");
+
+		Socket socket;
+
+		try {
+			socket = daemonSocketFactory.getSocket();
+		}
+		catch (IOException e) {
+			onFailure("Failed to connect: " + e.getMessage());
+			throw e;
+		}
+
+		return new MonitoredSocket(socket, monitor);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized CircuitBreakerState getState() {
+		return state;
+	}
+
+	public synchronized int getNumberOfConsecutiveFailures() {
+		return numConsecutiveFailures;
+	}
+
+	/*
+	 * Returns the number of requests for sockets that were turned away because
+	 * the breaker was open.
+	 */
+	public synchronized long getNumberOfRejectedRequests() {
+		return numRejectedRequests;
+	}
+
+	/*
+	 * Returns a description of the most recent failure, or null if there
+	 * hasn't been one.
+	 */
+	public synchronized String getLastFailure() {
+		return lastFailure;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	TCPIPSocketFactory getDaemonSocketFactory() {
+		return daemonSocketFactory;
+	}
+
+	private synchronized boolean allowRequest() {
+
+		switch (state) {
+
+			case Closed:
+				return true;
+
+			case Open:
+
+				if (System.currentTimeMillis() - openedAt >= openMillis) {
+
+					LOGGER.info("Letting a trial connection through to VW daemon {}.", name);
+
+					state = CircuitBreakerState.HalfOpen;
+					trialInFlight = true;
+					return true;
+				}
+
+				break;
+
+			case HalfOpen:
+
+				if (trialInFlight == false) {
+					trialInFlight = true;
+					return true;
+				}
+
+				break;
+		}
+
+		numRejectedRequests++;
+
+		return false;
+	}
+
+	/*
+	 * Called when the daemon returns a first prediction on a socket.
+	 */
+	synchronized void onResponse(long latencyMillis) {
+
+		if (slowResponseMillis > 0 && latencyMillis > slowResponseMillis) {
+			onFailure("Slow response: " + latencyMillis + " ms");
+			return;
+		}
+
+		closeBreaker();
+	}
+
+	/*
+	 * Called when the daemon passes a health check.
+	 */
+	synchronized void onHealthCheckPassed() {
+		closeBreaker();
+	}
+
+	synchronized void onFailure(String failure) {
+
+		lastFailure = failure;
+
+		numConsecutiveFailures++;
+
+		LOGGER.debug("Failure #{} on VW daemon {}: {}", numConsecutiveFailures, name, failure);
+
+		if (state == CircuitBreakerState.HalfOpen || numConsecutiveFailures >= failureThreshold) {
+
+			if (state != CircuitBreakerState.Open) LOGGER.warn("Opening the circuit breaker for VW daemon {} after {} failure(s), the last being: {}", name, numConsecutiveFailures, failure);
+
+			state = CircuitBreakerState.Open;
+			openedAt = System.currentTimeMillis();
+			trialInFlight = false;
+		}
+	}
+
+	/*
+	 * Called when a socket is closed before anything was learned about the
+	 * daemon from it, so that an unfinished trial doesn't keep the breaker
+	 * half open forever.
+	 */
+	synchronized void onAbandoned() {
+		if (state == CircuitBreakerState.HalfOpen) trialInFlight = false;
+	}
+
+	private void closeBreaker() {
+
+		numConsecutiveFailures = 0;
+
+		if (state != CircuitBreakerState.Closed) {
+
+			LOGGER.info("Closing the circuit breaker for VW daemon {}.", name);
+
+			state = CircuitBreakerState.Closed;
+			trialInFlight = false;
+		}
+	}
+}
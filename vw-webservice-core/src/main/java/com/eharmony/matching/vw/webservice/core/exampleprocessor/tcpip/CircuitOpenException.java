@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.IOException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Thrown instead of connecting to a VW daemon whose circuit breaker is
+ *         open.
+ */
+public class CircuitOpenException extends IOException {
+
+	/**
+	 * The serial version UID.
+	 */
+	private static final long serialVersionUID = 4410598227063017395L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.IOException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Thrown instead of connecting to a VW daemon that's already serving
+ *         as many requests as it's concurrency limit allows, once the request
+ *         has waited as long as it can for one of them to finish.
+ */
+public class ConcurrencyLimitExceededException extends IOException {
+
+	/**
+	 * The serial version UID.
+	 */
+	private static final long serialVersionUID = -2817465093157204716L;
+
+	public ConcurrencyLimitExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.core.stats.LatencyTracker;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A socket factory that limits how many sockets to a single VW daemon
+ *         can be open at once, and adapts the limit to how the daemon is
+ *         doing. A VW daemon only works on so many examples at once, and past
+ *         that, more connections just queue up inside it.
+ *
+ *         The limit is adjusted the way TCP Vegas adjusts it's congestion
+ *         window. Each socket reports the time from it's first example written
+ *         to it's first prediction read (see MonitoredSocket). Compared with
+ *         the lowest such time seen recently, this estimates how many requests
+ *         are queued up inside the daemon: limit * (1 - minRtt / rtt). While
+ *         that's fewer than ALPHA, the limit goes up by one, and when it's more
+ *         than BETA, it goes down by one. Failures on a socket cut the limit
+ *         by a tenth. The limit only goes up while at least half of it is in
+ *         use, so that an idle daemon doesn't end up with a limit it was never
+ *         tested at. The lowest time is forgotten every MIN_RTT_RESET_SAMPLES
+ *         responses, so that it follows the daemon, eg, when a bigger model is
+ *         loaded.
+ *
+ *         A request for a socket beyond the limit waits up to
+ *         'maxQueueMillis' for one to be closed, and then fails with a
+ *         ConcurrencyLimitExceededException, which a FailoverTCPIPSocketFactory
+ *         treats like any other failure to connect.
+ */
+public class ConcurrencyLimitingTCPIPSocketFactory implements TCPIPSocketFactory {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimitingTCPIPSocketFactory.class);
+
+	private static final int ALPHA = 3, BETA = 6;
+
+	private static final int MIN_RTT_RESET_SAMPLES = 1000;
+
+	private static final int NUM_LATENCY_SAMPLES = 1000;
+
+	private final String name;
+	private final TCPIPSocketFactory daemonSocketFactory;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long maxQueueMillis;
+
+	private final LatencyTracker latencyTracker = new LatencyTracker(NUM_LATENCY_SAMPLES);
+
+	/*
+	 * All guarded by 'this'.
+	 */
+	private int limit;
+	private int numInFlight = 0, numQueued = 0;
+	private long minRttMillis = Long.MAX_VALUE;
+	private long numSamplesSinceMinRttReset = 0;
+	private long numRejectedRequests = 0;
+
+	//what the sockets handed out report to
+	private final MonitoredSocket.Listener monitor = new MonitoredSocket.Listener() {
+
+		@Override
+		public void onResponse(long latencyMillis) {
+			ConcurrencyLimitingTCPIPSocketFactory.this.onResponse(latencyMillis);
+		}
+
+		@Override
+		public void onFailure(String failure) {
+			ConcurrencyLimitingTCPIPSocketFactory.this.onFailure(failure);
+		}
+
+		@Override
+		public void onClosed(boolean outcomeReported) {
+			release();
+		}
+	};
+
+	/*
+	 * Constructor.
+	 *
+	 * @param name The name of the daemon, for logging and reporting.
+	 *
+	 * @param daemonSocketFactory Connects to the daemon.
+	 *
+	 * @param initialLimit The number of sockets allowed before anything has
+	 * been learned about the daemon.
+	 *
+	 * @param minLimit The limit never drops below this.
+	 *
+	 * @param maxLimit The limit never rises above this.
+	 *
+	 * @param maxQueueMillis How long a request for a socket can wait for one
+	 * to be closed. 0 means it fails right away.
+	 */
+	public ConcurrencyLimitingTCPIPSocketFactory(String name, TCPIPSocketFactory daemonSocketFactory, int initialLimit, int minLimit, int maxLimit, long maxQueueMillis) {
+
+		checkArgument(StringUtils.isBlank(name) == false, "A name must be provided!");
+		checkNotNull(daemonSocketFactory, "A null daemon socket factory cannot be provided!");
+		checkArgument(minLimit > 0, "The minimum limit must be > 0!");
+		checkArgument(maxLimit >= minLimit, "The maximum limit must be >= the minimum limit!");
+		checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit, "The initial limit must be between the minimum and maximum limits!");
+		checkArgument(maxQueueMillis >= 0, "The max queueing time must be >= 0!");
+
+		this.name = name;
+		this.daemonSocketFactory = daemonSocketFactory;
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.maxQueueMillis = maxQueueMillis;
+	}
+
+	@Override
+	public Socket getSocket() throws UnknownHostException, IOException {
+
+		acquire();
+
+		Socket socket = null;
+
+		try {
+			socket = daemonSocketFactory.getSocket();
+
+			return new MonitoredSocket(socket, monitor);
+		}
+		catch (IOException | RuntimeException e) {
+
+			release();
+
+			if (socket != null) socket.close();
+
+			throw e;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/*
+	 * Returns the number of sockets currently allowed.
+	 */
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	public synchronized int getNumberInFlight() {
+		return numInFlight;
+	}
+
+	/*
+	 * Returns the number of requests waiting for a socket.
+	 */
+	public synchronized int getNumberQueued() {
+		return numQueued;
+	}
+
+	/*
+	 * Returns the number of requests that gave up waiting for a socket.
+	 */
+	public synchronized long getNumberOfRejectedRequests() {
+		return numRejectedRequests;
+	}
+
+	/*
+	 * Returns the lowest recent response time, or 0 if there hasn't been a
+	 * response yet.
+	 */
+	public synchronized long getMinRttMillis() {
+		return minRttMillis == Long.MAX_VALUE ? 0 : minRttMillis;
+	}
+
+	/*
+	 * Returns a percentile of the recent response times, or 0 if there hasn't
+	 * been a response yet.
+	 */
+	public long getRttMillis(double percentile) {
+		return latencyTracker.getPercentile(percentile, 0);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	private synchronized void acquire() throws IOException {
+
+		if (numInFlight < limit) {
+			numInFlight++;
+			return;
+		}
+
+		long deadline = System.currentTimeMillis() + maxQueueMillis;
+
+		numQueued++;
+
+		try {
+			while (numInFlight >= limit) {
+
+				long remainingMillis = deadline - System.currentTimeMillis();
+
+				if (remainingMillis <= 0) {
+
+					numRejectedRequests++;
+
+					throw new ConcurrencyLimitExceededException("VW daemon " + name + " is at it's concurrency limit of " + limit + "!");
+				}
+
+				wait(remainingMillis);
+			}
+
+			numInFlight++;
+		}
+		catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException("Interrupted while waiting for a socket to VW daemon " + name + "!");
+		}
+		finally {
+			numQueued--;
+		}
+	}
+
+	private synchronized void release() {
+
+		numInFlight--;
+
+		notify();
+	}
+
+	/*
+	 * Called when the daemon returns a first prediction on a socket.
+	 */
+	synchronized void onResponse(long latencyMillis) {
+
+		latencyTracker.record(latencyMillis);
+
+		//a response time of 0 ms is too fine for the clock, and would make every other look infinitely slower
+		long rttMillis = Math.max(1, latencyMillis);
+
+		if (++numSamplesSinceMinRttReset > MIN_RTT_RESET_SAMPLES) {
+			minRttMillis = rttMillis;
+			numSamplesSinceMinRttReset = 0;
+		}
+		else {
+			minRttMillis = Math.min(minRttMillis, rttMillis);
+		}
+
+		double queueSize = limit * (1 - (double) minRttMillis / rttMillis);
+
+		if (queueSize < ALPHA) {
+
+			if (numInFlight * 2 >= limit) setLimit(limit + 1);
+		}
+		else if (queueSize > BETA) {
+			setLimit(limit - 1);
+		}
+	}
+
+	/*
+	 * Called when a socket times out, or has an error, while waiting on
+	 * predictions.
+	 */
+	synchronized void onFailure(String failure) {
+
+		LOGGER.debug("Failure on VW daemon {}: {}", name, failure);
+
+		setLimit((int) (limit * 0.9));
+	}
+
+	private void setLimit(int newLimit) {
+
+		newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+		if (newLimit == limit) return;
+
+		LOGGER.debug("Concurrency limit of VW daemon {}: {} -> {}", name, limit, newLimit);
+
+		if (newLimit > limit) notifyAll();
+
+		limit = newLimit;
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Periodically scores a canary example against each VW daemon, and
+ *         tells the daemon's circuit breaker how it went. This catches daemons
+ *         that have wedged while no requests are coming in, and lets an open
+ *         breaker close as soon as it's daemon is healthy again, rather than
+ *         waiting for the open period to expire.
+ *
+ *         The health checks go straight to the daemons, bypassing the circuit
+ *         breakers. Daemons are checked one after the other on a single
+ *         background thread.
+ *
+ *         'start()' must be called for checks to be made.
+ */
+public class DaemonHealthChecker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DaemonHealthChecker.class);
+
+	private final List<CircuitBreakingTCPIPSocketFactory> daemons;
+	private final String canaryExample;
+	private final long intervalMillis;
+	private final int timeoutMillis;
+
+	private ScheduledExecutorService scheduler = null;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param daemons The daemons to check.
+	 *
+	 * @param canaryExample The example to score. Should be an example without
+	 * a label, so the daemon doesn't learn from it.
+	 *
+	 * @param intervalMillis How often to check the daemons. 0 turns health
+	 * checking off.
+	 *
+	 * @param timeoutMillis How long a daemon gets to return a prediction for
+	 * the canary example. Connecting is bounded by the connect timeout of the
+	 * daemon's own socket factory.
+	 */
+	public DaemonHealthChecker(List<CircuitBreakingTCPIPSocketFactory> daemons, String canaryExample, long intervalMillis, int timeoutMillis) {
+
+		checkNotNull(daemons, "A null list of daemons cannot be provided!");
+		checkArgument(StringUtils.isBlank(canaryExample) == false, "A canary example must be provided!");
+		checkArgument(intervalMillis >= 0, "The health check interval must be >= 0!");
+		checkArgument(timeoutMillis > 0, "The health check timeout must be > 0!");
+
+		this.daemons = Collections.unmodifiableList(new ArrayList<CircuitBreakingTCPIPSocketFactory>(daemons));
+		this.canaryExample = canaryExample;
+		this.intervalMillis = intervalMillis;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public synchronized void start() {
+
+		if (intervalMillis == 0) {
+			LOGGER.info("Health checking of VW daemons is turned off.");
+			return;
+		}
+
+		if (scheduler != null) return;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("vw-health-checker-%d").setDaemon(true).build());
+
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				checkAll();
+			}
+		}, 0, intervalMillis, TimeUnit.MILLISECONDS);
+
+		LOGGER.info("Health checking {} every {} ms.", daemons, intervalMillis);
+	}
+
+	public synchronized void shutdown() {
+
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/*
+	 * Returns the daemons being checked.
+	 */
+	public List<CircuitBreakingTCPIPSocketFactory> getDaemons() {
+		return daemons;
+	}
+
+	/*
+	 * Checks all the daemons once.
+	 */
+	public void checkAll() {
+
+		for (CircuitBreakingTCPIPSocketFactory daemon : daemons) {
+
+			try {
+				check(daemon);
+			}
+			catch (Throwable e) {
+				LOGGER.error("Unexpected error when health checking VW daemon {}: {}", daemon, e.getMessage(), e);
+			}
+		}
+	}
+
+	/*
+	 * Checks a single daemon.
+	 *
+	 * @returns True if the daemon returned a prediction for the canary example
+	 * in time, false otherwise.
+	 */
+	boolean check(CircuitBreakingTCPIPSocketFactory daemon) {
+
+		String failure;
+
+		try (Socket socket = daemon.getDaemonSocketFactory().getSocket()) {
+
+			socket.setSoTimeout(timeoutMillis);
+
+			OutputStream outputStream = socket.getOutputStream();
+			outputStream.write((canaryExample + "\n").getBytes(Charsets.UTF_8));
+			outputStream.flush();
+			socket.shutdownOutput();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+
+			if (reader.readLine() != null) {
+
+				LOGGER.trace("VW daemon {} passed it's health check.", daemon);
+
+				daemon.onHealthCheckPassed();
+
+				return true;
+			}
+
+			failure = "Health check failed: no prediction for the canary example.";
+		}
+		catch (IOException e) {
+			failure = "Health check failed: " + e.getMessage();
+		}
+
+		LOGGER.warn("VW daemon {} failed it's health check: {}", daemon, failure);
+
+		daemon.onFailure(failure);
+
+		return false;
+	}
+}
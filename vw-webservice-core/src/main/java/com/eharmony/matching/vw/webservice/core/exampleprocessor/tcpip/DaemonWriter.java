@@ -0,0 +1,387 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.core.io.BoundedLineReader;
+import com.eharmony.matching.vw.webservice.core.io.ByteArrayPool;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A long-lived connection to a VW daemon, shared by many requests. A
+ *         single writer thread drains a queue of example batches, from
+ *         whichever requests submitted them, and writes them to VW one after
+ *         the other. The connection is only flushed once the queue runs dry,
+ *         so under load many batches go out in a single write, except after an
+ *         interactive batch, which is flushed right away rather than held up
+ *         behind the batch traffic queued after it. The batches of more
+ *         urgent classes of requests are written first, and when several
+ *         tenants have batches queued, they take turns according to their
+ *         shares (see LanedBatchQueue).
+ *
+ *         VW answers the examples on a connection in the order they were
+ *         written, so a reader thread hands the predictions it reads to the
+ *         batches in that same order. If the connection fails, every batch
+ *         still waiting on predictions fails with it, and the next batch opens
+ *         a new connection.
+ *
+ *         'start()' must be called before batches are submitted.
+ */
+public class DaemonWriter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DaemonWriter.class);
+
+	/*
+	 * A connection to VW, along with the batches written to it that are still
+	 * waiting on predictions.
+	 */
+	private class Connection implements Runnable {
+
+		private final Socket socket;
+		private final BufferedWriter writer;
+		private final Queue<ExampleBatch> awaitingPredictions = new ConcurrentLinkedQueue<ExampleBatch>();
+
+		private volatile boolean failed = false;
+
+		private boolean unflushed = false;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8), transportProfile.getWriteBufferSize());
+		}
+
+		void write(ExampleBatch batch) throws IOException {
+
+			awaitingPredictions.add(batch);
+
+			//the reader may have failed the connection before the batch was added, in which case it won't fail the batch
+			if (failed) throw new IOException("The connection to VW was lost!");
+
+			for (String example : batch.getExamples()) {
+				writer.write(example);
+				writer.write('\n');
+			}
+
+			unflushed = true;
+		}
+
+		void flushIfNeeded() throws IOException {
+
+			if (unflushed) {
+				writer.flush();
+				unflushed = false;
+			}
+		}
+
+		/*
+		 * Reads predictions, and hands them to the batches they belong to,
+		 * until the connection fails.
+		 */
+		@Override
+		public void run() {
+
+			try (BoundedLineReader reader = new BoundedLineReader(socket.getInputStream(), Charsets.UTF_8, TCPIPPredictionsIterator.MAX_PREDICTION_LENGTH, ByteArrayPool.SHARED)) {
+
+				String prediction;
+
+				while ((prediction = reader.readLine()) != null) {
+
+					ExampleBatch batch = awaitingPredictions.peek();
+
+					if (batch == null) throw new IOException("Read a prediction that no example was waiting on!");
+
+					if (batch.onPrediction(prediction)) awaitingPredictions.poll();
+				}
+
+				fail(new EOFException("VW closed the connection!"));
+			}
+			catch (IOException e) {
+				fail(e);
+			}
+		}
+
+		void fail(IOException e) {
+
+			if (failed == false) LOGGER.warn("Lost the connection to VW on {}: {}", name, e.getMessage());
+
+			failed = true;
+
+			try {
+				socket.close();
+			}
+			catch (IOException e2) {
+				LOGGER.warn("Failed to close the connection to VW on {}: {}", name, e2.getMessage());
+			}
+
+			ExampleBatch batch;
+
+			while ((batch = awaitingPredictions.poll()) != null)
+				batch.fail(e);
+		}
+	}
+
+	private final String name;
+	private final TCPIPSocketFactory socketFactory;
+	private final TransportProfile transportProfile;
+
+	private final LanedBatchQueue queue;
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicLong numBatchesWritten = new AtomicLong(), numExamplesWritten = new AtomicLong(), numConnections = new AtomicLong();
+
+	private volatile Thread writerThread = null;
+	private volatile boolean running = false;
+
+	//only touched by the writer thread
+	private Connection connection = null;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param name The name of the writer, used to name it's threads.
+	 *
+	 * @param socketFactory The socket factory to connect to VW with.
+	 *
+	 * @param transportProfile The socket options and write buffer size to use.
+	 */
+	public DaemonWriter(String name, TCPIPSocketFactory socketFactory, TransportProfile transportProfile) {
+		this(name, socketFactory, transportProfile, TenantShares.DEFAULT.getQuantum());
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param name The name of the writer, used to name it's threads.
+	 *
+	 * @param socketFactory The socket factory to connect to VW with.
+	 *
+	 * @param transportProfile The socket options and write buffer size to use.
+	 *
+	 * @param quantum The number of examples a tenant of weight 1 gets to write
+	 * in each turn.
+	 */
+	public DaemonWriter(String name, TCPIPSocketFactory socketFactory, TransportProfile transportProfile, int quantum) {
+
+		checkNotNull(name, "A null name cannot be provided!");
+		checkNotNull(socketFactory, "A null socket factory cannot be provided!");
+		checkNotNull(transportProfile, "A null transport profile cannot be provided!");
+		checkArgument(quantum > 0, "The quantum must be > 0!");
+
+		this.name = name;
+		this.socketFactory = socketFactory;
+		this.transportProfile = transportProfile;
+		this.queue = new LanedBatchQueue(quantum);
+	}
+
+	public synchronized void start() {
+
+		if (writerThread != null) return;
+
+		running = true;
+
+		writerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeBatches();
+			}
+		}, name);
+
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/*
+	 * Stops the writer. Batches still queued, or still waiting on predictions,
+	 * are failed.
+	 */
+	public synchronized void shutdown() {
+
+		if (writerThread == null) return;
+
+		running = false;
+
+		LockSupport.unpark(writerThread);
+
+		writerThread = null;
+	}
+
+	/*
+	 * Queues a batch to be written to VW.
+	 */
+	public void submit(ExampleBatch batch) {
+
+		batch.setQueuedAtNanos(System.nanoTime());
+
+		if (batch.getTenant() != null) batch.getTenant().onQueued(batch);
+
+		if (batch.getRequestClassStats() != null) batch.getRequestClassStats().onQueued(batch);
+
+		queue.add(batch);
+		queueDepth.incrementAndGet();
+
+		Thread thread = writerThread;
+
+		if (thread == null)
+			failQueued(new IOException("The daemon writer " + name + " isn't running!"));
+		else {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private void writeBatches() {
+
+		LOGGER.info("Daemon writer {} started.", name);
+
+		while (running) {
+
+			ExampleBatch batch = queue.poll();
+
+			if (batch == null) {
+
+				//nothing more to write for now, so send what's been written
+				if (connection != null) try {
+					connection.flushIfNeeded();
+				}
+				catch (IOException e) {
+					connection.fail(e);
+					connection = null;
+				}
+
+				LockSupport.park(this);
+
+				continue;
+			}
+
+			queueDepth.decrementAndGet();
+
+			if (batch.isCancelled()) {
+				onDequeued(batch, false);
+				continue;
+			}
+
+			try {
+				if (connection == null || connection.failed) connection = connect();
+
+				connection.write(batch);
+
+				//someone's waiting on these, so they can't wait for the queue to run dry
+				if (batch.getRequestClass() == RequestClass.Interactive) connection.flushIfNeeded();
+
+				numBatchesWritten.incrementAndGet();
+				numExamplesWritten.addAndGet(batch.size());
+
+				onDequeued(batch, true);
+			}
+			catch (IOException e) {
+
+				onDequeued(batch, false);
+
+				batch.fail(e);
+
+				if (connection != null) connection.fail(e);
+
+				connection = null;
+			}
+		}
+
+		IOException shutdown = new IOException("The daemon writer " + name + " was shut down!");
+
+		if (connection != null) connection.fail(shutdown);
+
+		failQueued(shutdown);
+
+		LOGGER.info("Daemon writer {} stopped.", name);
+	}
+
+	private Connection connect() throws IOException {
+
+		Socket socket = socketFactory.getSocket();
+
+		try {
+			transportProfile.configure(socket);
+
+			Connection newConnection = new Connection(socket);
+
+			Thread readerThread = new Thread(newConnection, name + "-reader-" + numConnections.incrementAndGet());
+
+			readerThread.setDaemon(true);
+			readerThread.start();
+
+			LOGGER.info("Daemon writer {} connected to VW.", name);
+
+			return newConnection;
+		}
+		catch (IOException | RuntimeException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	private void failQueued(IOException e) {
+
+		ExampleBatch batch;
+
+		while ((batch = queue.poll()) != null) {
+			queueDepth.decrementAndGet();
+			onDequeued(batch, false);
+			batch.fail(e);
+		}
+	}
+
+	private static void onDequeued(ExampleBatch batch, boolean written) {
+
+		if (batch.getTenant() != null) batch.getTenant().onDequeued(batch, written);
+
+		if (batch.getRequestClassStats() != null) batch.getRequestClassStats().onDequeued(batch, written);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/*
+	 * Returns the number of batches waiting to be written.
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	public long getNumberOfBatchesWritten() {
+		return numBatchesWritten.get();
+	}
+
+	public long getNumberOfExamplesWritten() {
+		return numExamplesWritten.get();
+	}
+
+	/*
+	 * Returns the number of connections made to VW, including the current one.
+	 */
+	public long getNumberOfConnections() {
+		return numConnections.get();
+	}
+
+	@Override
+	public String toString() {
+		return "DaemonWriter [name=" + name + ", socketFactory=" + socketFactory + "]";
+	}
+}
@@ -0,0 +1,300 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A fixed number of DaemonWriters that streamed requests share,
+ *         instead of each request getting a connection, and a thread to write
+ *         it's examples on, of it's own. So the number of threads writing to
+ *         VW stays the same no matter how many requests are in flight.
+ *
+ *         A request's examples are read, 'batchSize' at a time, by whoever is
+ *         iterating over it's predictions, and each batch goes to the writer
+ *         with the fewest batches queued. At most 'maxBatchesInFlight' batches
+ *         of a request are waiting on predictions at any time.
+ *
+ *         Each request belongs to a tenant, and when several tenants have
+ *         batches queued on a writer they take turns, according to their
+ *         TenantShares, rather than going in the order they arrived.
+ *
+ *         Each request also belongs to a class (see RequestClass). Writers can
+ *         be reserved for a class, according to the RequestLanes, and a
+ *         request's batches only go to the writers reserved for it's class or
+ *         to the writers that aren't reserved at all. On every writer, the
+ *         batches of more urgent classes go first.
+ *
+ *         A pool with no writers turns this off. 'start()' must be called
+ *         before the pool is used.
+ */
+public class DaemonWriterPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DaemonWriterPool.class);
+
+	public static final DaemonWriterPool DISABLED = new DaemonWriterPool(null, TransportProfile.DEFAULT, 0, 1, 1);
+
+	private final List<DaemonWriter> writers;
+	private final int batchSize;
+	private final int maxBatchesInFlight;
+	private final TenantShares tenantShares;
+	private final RequestLanes requestLanes;
+
+	//the writers that the batches of each class can go to
+	private final Map<RequestClass, List<DaemonWriter>> writersByClass = new EnumMap<RequestClass, List<DaemonWriter>>(RequestClass.class);
+
+	private final Map<RequestClass, RequestClassStats> requestClasses = new EnumMap<RequestClass, RequestClassStats>(RequestClass.class);
+
+	private final ConcurrentMap<String, TenantStats> tenants = new ConcurrentHashMap<String, TenantStats>();
+
+	private final AtomicInteger nextWriter = new AtomicInteger();
+
+	/*
+	 * Constructor.
+	 *
+	 * @param socketFactory The socket factory the writers connect to VW with.
+	 * Can be null if there are no writers.
+	 *
+	 * @param transportProfile The socket options and write buffer size the
+	 * writers use.
+	 *
+	 * @param numWriters The number of writers, each with a connection of it's
+	 * own. 0 turns the pool off.
+	 *
+	 * @param batchSize The most examples per batch.
+	 *
+	 * @param maxBatchesInFlight The most batches of a request waiting on
+	 * predictions at any time.
+	 */
+	public DaemonWriterPool(TCPIPSocketFactory socketFactory, TransportProfile transportProfile, int numWriters, int batchSize, int maxBatchesInFlight) {
+		this(socketFactory, transportProfile, numWriters, batchSize, maxBatchesInFlight, TenantShares.DEFAULT);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param socketFactory The socket factory the writers connect to VW with.
+	 * Can be null if there are no writers.
+	 *
+	 * @param transportProfile The socket options and write buffer size the
+	 * writers use.
+	 *
+	 * @param numWriters The number of writers, each with a connection of it's
+	 * own. 0 turns the pool off.
+	 *
+	 * @param batchSize The most examples per batch.
+	 *
+	 * @param maxBatchesInFlight The most batches of a request waiting on
+	 * predictions at any time.
+	 *
+	 * @param tenantShares The shares of the writers each tenant gets.
+	 */
+	public DaemonWriterPool(TCPIPSocketFactory socketFactory, TransportProfile transportProfile, int numWriters, int batchSize, int maxBatchesInFlight, TenantShares tenantShares) {
+		this(socketFactory, transportProfile, numWriters, batchSize, maxBatchesInFlight, tenantShares, RequestLanes.DEFAULT);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param socketFactory The socket factory the writers connect to VW with.
+	 * Can be null if there are no writers.
+	 *
+	 * @param transportProfile The socket options and write buffer size the
+	 * writers use.
+	 *
+	 * @param numWriters The number of writers, each with a connection of it's
+	 * own. 0 turns the pool off.
+	 *
+	 * @param batchSize The most examples per batch.
+	 *
+	 * @param maxBatchesInFlight The most batches of a request waiting on
+	 * predictions at any time.
+	 *
+	 * @param tenantShares The shares of the writers each tenant gets.
+	 *
+	 * @param requestLanes The writers reserved for each class of requests. At
+	 * least one writer must be left for all of the classes to share.
+	 */
+	public DaemonWriterPool(TCPIPSocketFactory socketFactory, TransportProfile transportProfile, int numWriters, int batchSize, int maxBatchesInFlight, TenantShares tenantShares, RequestLanes requestLanes) {
+
+		checkArgument(numWriters >= 0, "The number of writers must be >= 0!");
+		checkArgument(numWriters == 0 || socketFactory != null, "A socket factory must be provided!");
+		checkNotNull(transportProfile, "A null transport profile cannot be provided!");
+		checkArgument(batchSize > 0, "The batch size must be > 0!");
+		checkArgument(maxBatchesInFlight > 0, "The max number of batches in flight must be > 0!");
+		checkNotNull(tenantShares, "Null tenant shares cannot be provided!");
+		checkNotNull(requestLanes, "Null request lanes cannot be provided!");
+		checkArgument(numWriters == 0 || requestLanes.getTotalReservedWriters() < numWriters, "At least one daemon writer must be left unreserved!");
+
+		List<DaemonWriter> theWriters = new ArrayList<DaemonWriter>(numWriters);
+
+		List<DaemonWriter> sharedWriters = new ArrayList<DaemonWriter>();
+
+		for (RequestClass requestClass : RequestClass.values()) {
+
+			int reservedWriters = numWriters == 0 ? 0 : requestLanes.getReservedWriters(requestClass);
+
+			List<DaemonWriter> classWriters = new ArrayList<DaemonWriter>();
+
+			for (int x = 0; x < reservedWriters; x++) {
+
+				DaemonWriter writer = new DaemonWriter("vw-daemon-writer-" + theWriters.size() + "-" + requestClass.name().toLowerCase(), socketFactory, transportProfile, tenantShares.getQuantum());
+
+				theWriters.add(writer);
+				classWriters.add(writer);
+			}
+
+			writersByClass.put(requestClass, classWriters);
+			requestClasses.put(requestClass, new RequestClassStats(requestClass, reservedWriters));
+		}
+
+		while (theWriters.size() < numWriters) {
+
+			DaemonWriter writer = new DaemonWriter("vw-daemon-writer-" + theWriters.size(), socketFactory, transportProfile, tenantShares.getQuantum());
+
+			theWriters.add(writer);
+			sharedWriters.add(writer);
+		}
+
+		for (List<DaemonWriter> classWriters : writersByClass.values())
+			classWriters.addAll(sharedWriters);
+
+		this.writers = Collections.unmodifiableList(theWriters);
+		this.batchSize = batchSize;
+		this.maxBatchesInFlight = maxBatchesInFlight;
+		this.tenantShares = tenantShares;
+		this.requestLanes = requestLanes;
+	}
+
+	public void start() {
+
+		if (writers.isEmpty()) {
+			LOGGER.info("Daemon writers are turned off.");
+			return;
+		}
+
+		for (DaemonWriter writer : writers)
+			writer.start();
+
+		LOGGER.info("Started {} daemon writers.", writers.size());
+	}
+
+	public void shutdown() {
+
+		for (DaemonWriter writer : writers)
+			writer.shutdown();
+	}
+
+	public boolean isEnabled() {
+		return writers.isEmpty() == false;
+	}
+
+	/*
+	 * Returns the writer, out of those the batches of the class can go to,
+	 * with the fewest batches queued. Ties go round robin, so that an idle
+	 * pool still spreads the batches out.
+	 */
+	DaemonWriter getWriter(RequestClass requestClass) {
+
+		List<DaemonWriter> candidates = writersByClass.get(requestClass);
+
+		int start = (nextWriter.getAndIncrement() & Integer.MAX_VALUE) % candidates.size();
+
+		DaemonWriter best = null;
+
+		for (int x = 0; x < candidates.size(); x++) {
+
+			DaemonWriter writer = candidates.get((start + x) % candidates.size());
+
+			if (best == null || writer.getQueueDepth() < best.getQueueDepth()) best = writer;
+		}
+
+		return best;
+	}
+
+	/*
+	 * Returns the tenant with the given name, or the default tenant if the
+	 * name is blank, or if there are already as many tenants as the shares
+	 * allow (unless the tenant is listed in them).
+	 */
+	public TenantStats getTenant(String name) {
+
+		String tenant = StringUtils.isBlank(name) ? TenantShares.DEFAULT_TENANT : name.trim();
+
+		TenantStats stats = tenants.get(tenant);
+
+		if (stats != null) return stats;
+
+		if (tenants.size() >= tenantShares.getMaxTenants() && tenantShares.isListed(tenant) == false) {
+
+			LOGGER.debug("Too many tenants, counting {} as the default tenant.", tenant);
+
+			tenant = TenantShares.DEFAULT_TENANT;
+
+			stats = tenants.get(tenant);
+
+			if (stats != null) return stats;
+		}
+
+		TenantStats newStats = new TenantStats(tenant, tenantShares.getWeight(tenant));
+
+		stats = tenants.putIfAbsent(tenant, newStats);
+
+		return stats != null ? stats : newStats;
+	}
+
+	public Collection<TenantStats> getTenants() {
+		return tenants.values();
+	}
+
+	public TenantShares getTenantShares() {
+		return tenantShares;
+	}
+
+	public RequestClassStats getRequestClass(RequestClass requestClass) {
+		return requestClasses.get(requestClass);
+	}
+
+	public Collection<RequestClassStats> getRequestClasses() {
+		return requestClasses.values();
+	}
+
+	public RequestLanes getRequestLanes() {
+		return requestLanes;
+	}
+
+	public List<DaemonWriter> getWriters() {
+		return writers;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public int getMaxBatchesInFlight() {
+		return maxBatchesInFlight;
+	}
+
+	@Override
+	public String toString() {
+		return "DaemonWriterPool [numWriters=" + writers.size() + ", batchSize=" + batchSize + ", maxBatchesInFlight=" + maxBatchesInFlight + ", tenantShares=" + tenantShares + ", requestLanes=" + requestLanes + "]";
+	}
+}
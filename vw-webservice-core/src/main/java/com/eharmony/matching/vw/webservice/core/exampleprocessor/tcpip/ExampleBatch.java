@@ -0,0 +1,203 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A batch of examples from a single request, handed to a DaemonWriter
+ *         to be written to VW, along with the predictions VW has made for them
+ *         so far. VW answers the examples on a connection in the order they
+ *         were written, so the daemon writer can hand each prediction it reads
+ *         to the batch it belongs to.
+ *
+ *         Making this package-private for now.
+ */
+class ExampleBatch {
+
+	private final List<String> examples;
+	private final String[] predictions;
+	private final TenantStats tenant;
+	private final RequestClassStats requestClass;
+	private final long deadlineMillis;
+
+	//set by the daemon writer when the batch is queued
+	private volatile long queuedAtNanos = 0;
+
+	//set by the queue the batch waits in, to break ties between deadlines
+	private long sequence = 0;
+
+	private int numPredictions = 0;
+	private IOException failure = null;
+	private boolean cancelled = false;
+
+	//true while someone is waiting on a prediction, so that the daemon writer only wakes them up when it needs to
+	private boolean waiting = false;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param examples The examples, already rendered, with no line breaks.
+	 */
+	public ExampleBatch(List<String> examples) {
+		this(examples, null);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param examples The examples, already rendered, with no line breaks.
+	 *
+	 * @param tenant The tenant the examples belong to, or null for the
+	 * default tenant.
+	 */
+	public ExampleBatch(List<String> examples, TenantStats tenant) {
+		this(examples, tenant, null, Long.MAX_VALUE);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param examples The examples, already rendered, with no line breaks.
+	 *
+	 * @param tenant The tenant the examples belong to, or null for the
+	 * default tenant.
+	 *
+	 * @param requestClass The class of the request the examples belong to, or
+	 * null for the Batch class.
+	 *
+	 * @param deadlineMillis The request's deadline, or Long.MAX_VALUE if it
+	 * has none.
+	 */
+	public ExampleBatch(List<String> examples, TenantStats tenant, RequestClassStats requestClass, long deadlineMillis) {
+		this.examples = examples;
+		this.predictions = new String[examples.size()];
+		this.tenant = tenant;
+		this.requestClass = requestClass;
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	public List<String> getExamples() {
+		return examples;
+	}
+
+	public int size() {
+		return examples.size();
+	}
+
+	public TenantStats getTenant() {
+		return tenant;
+	}
+
+	public RequestClassStats getRequestClassStats() {
+		return requestClass;
+	}
+
+	public RequestClass getRequestClass() {
+		return requestClass != null ? requestClass.getRequestClass() : RequestClass.Batch;
+	}
+
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	long getQueuedAtNanos() {
+		return queuedAtNanos;
+	}
+
+	void setQueuedAtNanos(long queuedAtNanos) {
+		this.queuedAtNanos = queuedAtNanos;
+	}
+
+	/*
+	 * Hands the batch the next prediction read from VW.
+	 *
+	 * @returns True if the batch now has all of it's predictions.
+	 */
+	public synchronized boolean onPrediction(String prediction) {
+
+		//a cancelled batch's predictions are read, but nobody wants them
+		predictions[numPredictions++] = cancelled ? null : prediction;
+
+		if (waiting) notifyAll();
+
+		return numPredictions == predictions.length;
+	}
+
+	/*
+	 * Fails the batch, eg, because the connection to VW was lost. Predictions
+	 * already read can still be had.
+	 */
+	public synchronized void fail(IOException e) {
+
+		if (failure == null) failure = e;
+
+		notifyAll();
+	}
+
+	/*
+	 * Cancels the batch. The daemon writer doesn't write a cancelled batch,
+	 * and anyone waiting on a prediction stops waiting.
+	 */
+	public synchronized void cancel() {
+
+		cancelled = true;
+
+		notifyAll();
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/*
+	 * Waits for a prediction.
+	 *
+	 * @param index The index of the example to wait for the prediction of.
+	 *
+	 * @param timeoutMillis How long to wait. 0 means forever.
+	 *
+	 * @returns The prediction, or null if the batch was cancelled, or the
+	 * timeout expired, first.
+	 *
+	 * @throws IOException If the batch failed before the prediction was read.
+	 */
+	public synchronized String awaitPrediction(int index, long timeoutMillis) throws IOException, InterruptedException {
+
+		long waitUntil = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+
+		waiting = true;
+
+		try {
+			while (numPredictions <= index) {
+
+				if (cancelled) return null;
+
+				if (failure != null) throw failure;
+
+				long remaining = waitUntil - System.currentTimeMillis();
+
+				if (remaining <= 0) return null;
+
+				wait(waitUntil == Long.MAX_VALUE ? 0 : remaining);
+			}
+		}
+		finally {
+			waiting = false;
+		}
+
+		return cancelled ? null : predictions[index];
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Bounds the number of examples outstanding for a request, ie,
+ *         submitted to VW but whose predictions haven't been fetched yet. When
+ *         the window is full the example submitter waits, which leaves the
+ *         rest of the examples with the client instead of piling them up in
+ *         socket buffers and memory.
+ *
+ *         The window adapts to the throughput of the request, much like a TCP
+ *         congestion window. Time is divided into rounds, each lasting until
+ *         a window's worth of predictions has been fetched. After a round in
+ *         which the submitter had to wait, the window grows by 'minWindow' if
+ *         predictions came back at least about as fast as in the round before,
+ *         and is halved if they came back more than DECREASE_THRESHOLD slower.
+ *         Rounds in which the submitter never waited say more about the
+ *         client than about VW, and leave the window alone.
+ */
+public class ExampleSubmissionWindow {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ExampleSubmissionWindow.class);
+
+	/*
+	 * The drop in throughput, from one round to the next, that shrinks the
+	 * window.
+	 */
+	static final double DECREASE_THRESHOLD = 0.25;
+
+	private final FlowControlPolicy flowControlPolicy;
+
+	/*
+	 * All guarded by 'this'.
+	 */
+	private int window;
+	private long numSubmitted = 0, numFetched = 0, maxOutstanding = 0;
+	private long numStalls = 0, stalledNanos = 0;
+	private boolean closed = false, disabled = false;
+
+	private long roundStartNanos = System.nanoTime(), roundStartFetched = 0;
+	private boolean roundLimited = false;
+	private double lastRoundRate = 0;
+
+	/*
+	 * Constructor. Use FlowControlPolicy.newWindow() instead.
+	 */
+	ExampleSubmissionWindow(FlowControlPolicy flowControlPolicy) {
+		this.flowControlPolicy = flowControlPolicy;
+		this.window = flowControlPolicy.getInitialWindow();
+	}
+
+	/*
+	 * Returns true if another example can be submitted without waiting.
+	 */
+	public synchronized boolean hasRoom() {
+		return closed || disabled || numSubmitted - numFetched < window;
+	}
+
+	/*
+	 * Waits until another example can be submitted. Anything buffered for VW
+	 * should be flushed before calling this, or the predictions being waited
+	 * on may never come.
+	 * 
+	 * @returns False if the window was closed, ie, the request was stopped.
+	 */
+	public synchronized boolean awaitRoom() throws InterruptedException {
+
+		if (hasRoom() == false) {
+
+			long startNanos = System.nanoTime();
+
+			long lastFetched = numFetched;
+
+			long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(flowControlPolicy.getMaxStallMillis());
+
+			numStalls++;
+
+			roundLimited = true;
+
+			while (hasRoom() == false) {
+
+				long remaining = deadline - System.nanoTime();
+
+				if (remaining <= 0) {
+
+					if (numFetched == lastFetched) {
+						LOGGER.warn("No predictions read in {} ms with {} examples outstanding, turning off flow control for the request.", flowControlPolicy.getMaxStallMillis(), numSubmitted - numFetched);
+						disabled = true;
+						break;
+					}
+
+					lastFetched = numFetched;
+
+					deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flowControlPolicy.getMaxStallMillis());
+
+					continue;
+				}
+
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+
+			stalledNanos += System.nanoTime() - startNanos;
+		}
+
+		return closed == false;
+	}
+
+	/*
+	 * Called after an example has been submitted.
+	 */
+	public synchronized void onSubmitted() {
+
+		numSubmitted++;
+
+		maxOutstanding = Math.max(maxOutstanding, numSubmitted - numFetched);
+	}
+
+	/*
+	 * Called after a prediction has been fetched.
+	 */
+	public synchronized void onFetched() {
+
+		numFetched++;
+
+		if (numFetched - roundStartFetched >= window) endRound();
+
+		notifyAll();
+	}
+
+	/*
+	 * Lets the submitter through for good. Called when the request is
+	 * stopped.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	private void endRound() {
+
+		long now = System.nanoTime();
+
+		double rate = (numFetched - roundStartFetched) / (double) Math.max(1, now - roundStartNanos);
+
+		if (roundLimited == false)
+			lastRoundRate = 0; //the client set the pace, so there's nothing to compare the next round to
+		else {
+
+			if (lastRoundRate > 0 && rate < lastRoundRate * (1 - DECREASE_THRESHOLD))
+				window = Math.max(flowControlPolicy.getMinWindow(), window / 2);
+			else {
+				window = Math.min(flowControlPolicy.getMaxWindow(), window + flowControlPolicy.getMinWindow());
+			}
+
+			lastRoundRate = rate;
+
+			LOGGER.trace("Window is now {}", window);
+		}
+
+		roundStartNanos = now;
+		roundStartFetched = numFetched;
+		roundLimited = false;
+	}
+
+	public synchronized int getWindow() {
+		return window;
+	}
+
+	public synchronized long getNumberOfOutstandingExamples() {
+		return numSubmitted - numFetched;
+	}
+
+	public synchronized long getMaxOutstandingExamples() {
+		return maxOutstanding;
+	}
+
+	/*
+	 * Gets the number of times the submitter had to wait for room.
+	 */
+	public synchronized long getNumberOfStalls() {
+		return numStalls;
+	}
+
+	public synchronized long getStalledMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(stalledNanos);
+	}
+
+	public synchronized boolean isDisabled() {
+		return disabled;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ExampleSubmissionWindow [window=" + window + ", outstanding=" + (numSubmitted - numFetched) + ", maxOutstanding=" + maxOutstanding + ", numStalls=" + numStalls + ", stalledMillis=" + getStalledMillis() + ", disabled=" + disabled + "]";
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A socket factory that tries a list of VW daemons in order, and
+ *         returns a socket to the first one it can connect to. Meant to be
+ *         used with CircuitBreakingTCPIPSocketFactory's, so that daemons that
+ *         are known to be down are skipped right away rather than after a
+ *         connect timeout.
+ *
+ *         A daemon that's merely at it's concurrency limit isn't down, so a
+ *         ConcurrencyLimitExceededException is passed on to the caller rather
+ *         than sending the overflow to the next daemon.
+ */
+public class FailoverTCPIPSocketFactory implements TCPIPSocketFactory {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FailoverTCPIPSocketFactory.class);
+
+	private final List<TCPIPSocketFactory> socketFactories;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param socketFactories The daemons to connect to, in order of
+	 * preference.
+	 */
+	public FailoverTCPIPSocketFactory(List<TCPIPSocketFactory> socketFactories) {
+
+		checkNotNull(socketFactories, "A null list of socket factories cannot be provided!");
+		checkArgument(socketFactories.isEmpty() == false, "At least one socket factory must be provided!");
+
+		this.socketFactories = new ArrayList<TCPIPSocketFactory>(socketFactories);
+	}
+
+	/*
+	 * Returns a socket to the first daemon that can be connected to.
+	 *
+	 * @throws ConcurrencyLimitExceededException If a daemon turned the
+	 * connection down because it's at it's concurrency limit.
+	 *
+	 * @throws IOException The exception thrown by the last daemon, if none of
+	 * them could be connected to.
+	 */
+	@Override
+	public Socket getSocket() throws UnknownHostException, IOException {
+
+		IOException lastException = null;
+
+		for (TCPIPSocketFactory socketFactory : socketFactories) {
+
+			try {
+				return socketFactory.getSocket();
+			}
+			catch (ConcurrencyLimitExceededException e) {
+				throw e;
+			}
+			catch (IOException e) {
+
+				LOGGER.debug("Failed to get socket from {}, trying the next one: {}", socketFactory, e.getMessage());
+
+				lastException = e;
+			}
+		}
+
+		LOGGER.error("Failed to get a socket to any of the VW daemons: {}", socketFactories);
+
+		throw lastException;
+	}
+}
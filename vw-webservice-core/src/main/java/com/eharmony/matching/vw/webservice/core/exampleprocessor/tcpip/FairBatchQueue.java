@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The queue of a DaemonWriter. Each tenant's batches wait in a queue of
+ *         their own, and the tenants with batches waiting take turns, deficit
+ *         round robin style: at the start of it's turn a tenant is credited
+ *         with 'quantum * weight' examples, and it's batches are taken off the
+ *         queue for as long as the credit covers them. Credit that's left over
+ *         carries over to the tenant's next turn, so large batches still get
+ *         their turn, but is forfeited if the tenant runs out of batches.
+ *
+ *         A tenant's own batches are taken earliest deadline first, and in
+ *         the order they were added when their deadlines are the same, as
+ *         they are for the batches of a single request.
+ *
+ *         Making this package-private for now.
+ */
+class FairBatchQueue {
+
+	private static final Comparator<ExampleBatch> EARLIEST_DEADLINE_FIRST = new Comparator<ExampleBatch>() {
+
+		@Override
+		public int compare(ExampleBatch first, ExampleBatch second) {
+
+			if (first.getDeadlineMillis() != second.getDeadlineMillis()) return first.getDeadlineMillis() < second.getDeadlineMillis() ? -1 : 1;
+
+			return first.getSequence() < second.getSequence() ? -1 : first.getSequence() == second.getSequence() ? 0 : 1;
+		}
+	};
+
+	private static class TenantQueue {
+
+		private final Queue<ExampleBatch> batches = new PriorityQueue<ExampleBatch>(16, EARLIEST_DEADLINE_FIRST);
+		private final int weight;
+
+		private long deficit = 0;
+		private boolean turnStarted = false;
+
+		TenantQueue(int weight) {
+			this.weight = weight;
+		}
+	}
+
+	private final int quantum;
+
+	private final Map<String, TenantQueue> queues = new HashMap<String, TenantQueue>();
+
+	//the tenants with batches waiting, the one at the head is having it's turn
+	private final Deque<TenantQueue> active = new ArrayDeque<TenantQueue>();
+
+	private int size = 0;
+
+	private long nextSequence = 0;
+
+	public FairBatchQueue(int quantum) {
+		this.quantum = quantum;
+	}
+
+	public synchronized void add(ExampleBatch batch) {
+
+		String tenant = getTenantName(batch);
+
+		TenantQueue queue = queues.get(tenant);
+
+		if (queue == null) {
+
+			queue = new TenantQueue(batch.getTenant() != null ? batch.getTenant().getWeight() : 1);
+
+			queues.put(tenant, queue);
+
+			active.add(queue);
+		}
+
+		batch.setSequence(nextSequence++);
+
+		queue.batches.add(batch);
+
+		size++;
+	}
+
+	/*
+	 * Takes the next batch off of the queue.
+	 *
+	 * @returns The batch, or null if there are none.
+	 */
+	public synchronized ExampleBatch poll() {
+
+		while (true) {
+
+			TenantQueue queue = active.peek();
+
+			if (queue == null) return null;
+
+			if (queue.turnStarted == false) {
+				queue.deficit += (long) quantum * queue.weight;
+				queue.turnStarted = true;
+			}
+
+			ExampleBatch batch = queue.batches.peek();
+
+			if (batch.size() <= queue.deficit) {
+
+				queue.batches.poll();
+				queue.deficit -= batch.size();
+
+				size--;
+
+				//no more batches, so the tenant is done until it adds some
+				if (queue.batches.isEmpty()) {
+					active.poll();
+					queues.remove(getTenantName(batch));
+				}
+
+				return batch;
+			}
+
+			//out of credit, so on to the next tenant
+			active.poll();
+			queue.turnStarted = false;
+			active.add(queue);
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private static String getTenantName(ExampleBatch batch) {
+		return batch.getTenant() != null ? batch.getTenant().getName() : TenantShares.DEFAULT_TENANT;
+	}
+}
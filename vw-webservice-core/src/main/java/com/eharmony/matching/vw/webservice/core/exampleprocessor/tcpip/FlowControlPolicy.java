@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Decides how many examples can be sent to VW ahead of the predictions
+ *         read back for them. See ExampleSubmissionWindow for how the window
+ *         grows and shrinks between 'minWindow' and 'maxWindow'.
+ *
+ *         A request whose predictions aren't being read for 'maxStallMillis'
+ *         stops being flow controlled, so that a request VW doesn't answer one
+ *         line at a time (eg, multiline examples) can't hang.
+ */
+public class FlowControlPolicy {
+
+	/*
+	 * No window, ie, examples are sent as fast as the socket takes them.
+	 */
+	public static final FlowControlPolicy UNBOUNDED = new FlowControlPolicy(0, 0, 0, 0);
+
+	private final int initialWindow;
+	private final int minWindow;
+	private final int maxWindow;
+	private final long maxStallMillis;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param initialWindow The number of outstanding examples allowed to
+	 * begin with.
+	 *
+	 * @param minWindow The window never shrinks below this. It is also the
+	 * amount the window grows by.
+	 *
+	 * @param maxWindow The window never grows past this. 0 turns flow control
+	 * off.
+	 *
+	 * @param maxStallMillis How long the submitter can be held up without a
+	 * single prediction being read before flow control is turned off for the
+	 * request.
+	 */
+	public FlowControlPolicy(int initialWindow, int minWindow, int maxWindow, long maxStallMillis) {
+
+		checkArgument(maxWindow >= 0, "The max window must be >= 0!");
+
+		if (maxWindow > 0) {
+			checkArgument(minWindow > 0, "The min window must be > 0!");
+			checkArgument(minWindow <= initialWindow && initialWindow <= maxWindow, "The initial window must be between the min and max windows!");
+			checkArgument(maxStallMillis > 0, "The max stall time must be > 0!");
+		}
+
+		this.initialWindow = initialWindow;
+		this.minWindow = minWindow;
+		this.maxWindow = maxWindow;
+		this.maxStallMillis = maxStallMillis;
+	}
+
+	public int getInitialWindow() {
+		return initialWindow;
+	}
+
+	public int getMinWindow() {
+		return minWindow;
+	}
+
+	public int getMaxWindow() {
+		return maxWindow;
+	}
+
+	public long getMaxStallMillis() {
+		return maxStallMillis;
+	}
+
+	public boolean isEnabled() {
+		return maxWindow > 0;
+	}
+
+	/*
+	 * Returns a new window for a request, or null if flow control is off.
+	 */
+	public ExampleSubmissionWindow newWindow() {
+		return isEnabled() ? new ExampleSubmissionWindow(this) : null;
+	}
+
+	@Override
+	public String toString() {
+		return "FlowControlPolicy [initialWindow=" + initialWindow + ", minWindow=" + minWindow + ", maxWindow=" + maxWindow + ", maxStallMillis=" + maxStallMillis + "]";
+	}
+}
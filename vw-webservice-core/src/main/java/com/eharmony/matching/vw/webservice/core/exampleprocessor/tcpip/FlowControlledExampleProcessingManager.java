@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An example processing manager whose example submission is flow
+ *         controlled by an ExampleSubmissionWindow.
+ */
+public interface FlowControlledExampleProcessingManager extends ExampleProcessingManager {
+
+	/*
+	 * Gets the window for the request.
+	 * 
+	 * @returns The window, or null if the request isn't flow controlled.
+	 */
+	ExampleSubmissionWindow getExampleSubmissionWindow();
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Decides when examples buffered up for VW get flushed to the socket.
+ *
+ *         Examples are always flushed once all of them have been written. On
+ *         top of that, they can be flushed every 'maxExamplesPerFlush'
+ *         examples, and/or once no example has been written for
+ *         'maxIdleMicros' microseconds (eg, because the client is slow to send
+ *         the next one). Flushing often gets VW started on the first examples
+ *         sooner, at the cost of smaller writes.
+ */
+public class FlushPolicy {
+
+	/*
+	 * Only flushes once all the examples have been written (and whenever the
+	 * write buffer fills up).
+	 */
+	public static final FlushPolicy WHEN_DONE = new FlushPolicy(0, 0);
+
+	/*
+	 * Flushes after every example.
+	 */
+	public static final FlushPolicy PER_EXAMPLE = new FlushPolicy(1, 0);
+
+	private final int maxExamplesPerFlush;
+	private final long maxIdleMicros;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param maxExamplesPerFlush Flush after this many examples. 0 means don't
+	 * flush based on the number of examples.
+	 *
+	 * @param maxIdleMicros Flush if no example has been written for this many
+	 * microseconds. 0 means don't flush when idle.
+	 */
+	public FlushPolicy(int maxExamplesPerFlush, long maxIdleMicros) {
+
+		checkArgument(maxExamplesPerFlush >= 0, "The max number of examples per flush must be >= 0!");
+		checkArgument(maxIdleMicros >= 0, "The max idle time must be >= 0!");
+
+		this.maxExamplesPerFlush = maxExamplesPerFlush;
+		this.maxIdleMicros = maxIdleMicros;
+	}
+
+	public int getMaxExamplesPerFlush() {
+		return maxExamplesPerFlush;
+	}
+
+	public long getMaxIdleMicros() {
+		return maxIdleMicros;
+	}
+
+	/*
+	 * Returns true if enough examples have been written since the last flush
+	 * to flush again.
+	 */
+	public boolean shouldFlush(int numExamplesSinceFlush) {
+		return maxExamplesPerFlush > 0 && numExamplesSinceFlush >= maxExamplesPerFlush;
+	}
+
+	public boolean isIdleFlushingEnabled() {
+		return maxIdleMicros > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "FlushPolicy [maxExamplesPerFlush=" + maxExamplesPerFlush + ", maxIdleMicros=" + maxIdleMicros + "]";
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.common.prediction.StringPrediction;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An implementation of ExampleProcessingManager for use by the
+ *         HedgingTCPIPExampleProcessor. Since hedged requests are small, the
+ *         predictions of the winning daemon are collected in full before
+ *         they're handed out, so iterating over the predictions blocks until
+ *         the outcome of the request is known.
+ */
+class HedgedExampleProcessingManager implements ExampleProcessingManager {
+
+	private final CountDownLatch outcomeLatch = new CountDownLatch(1);
+
+	private final List<HedgingTCPIPExampleProcessor.HedgeAttempt> attempts = new ArrayList<HedgingTCPIPExampleProcessor.HedgeAttempt>();
+
+	private long numExamplesSubmitted, numExamplesSkipped, numPredictionsFetched;
+	private ExampleSubmissionState exampleSubmissionState = ExampleSubmissionState.OnGoing;
+	private PredictionFetchState predictionFetchState = PredictionFetchState.OnGoing;
+
+	private List<String> predictions = Collections.emptyList();
+
+	private boolean isStopped = false, isCancelled = false;
+
+	@Override
+	public Iterable<Prediction> getPredictionsIterable() {
+
+		return new Iterable<Prediction>() {
+
+			@Override
+			public Iterator<Prediction> iterator() {
+
+				return new AbstractIterator<Prediction>() {
+
+					private Iterator<String> lines = null;
+
+					@Override
+					protected Prediction computeNext() {
+
+						if (lines == null) lines = awaitPredictions().iterator();
+
+						return lines.hasNext() ? new StringPrediction(lines.next()) : endOfData();
+					}
+				};
+			}
+		};
+	}
+
+	/*
+	 * Closes the connections to both daemons, after which no predictions
+	 * will be returned.
+	 */
+	@Override
+	public void stopAll() {
+
+		List<HedgingTCPIPExampleProcessor.HedgeAttempt> toCancel;
+
+		synchronized (this) {
+			isStopped = true;
+			toCancel = new ArrayList<HedgingTCPIPExampleProcessor.HedgeAttempt>(attempts);
+		}
+
+		for (HedgingTCPIPExampleProcessor.HedgeAttempt attempt : toCancel)
+			attempt.cancel();
+	}
+
+	/*
+	 * Stops the request, and makes sure it ends up as cancelled rather than
+	 * faulted.
+	 */
+	@Override
+	public boolean cancel() {
+
+		synchronized (this) {
+
+			if (isCancelled || outcomeLatch.getCount() == 0) return false;
+
+			isCancelled = true;
+		}
+
+		stopAll();
+
+		return true;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfExamplesSubmitted() {
+		return numExamplesSubmitted;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfExamplesSkipped() {
+		return numExamplesSkipped;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfPredictionsFetched() {
+		return numPredictionsFetched;
+	}
+
+	@Override
+	public synchronized ExampleSubmissionState getExampleSubmissionState() {
+		return exampleSubmissionState;
+	}
+
+	@Override
+	public synchronized PredictionFetchState getPredictionFetchState() {
+		return predictionFetchState;
+	}
+
+	public synchronized boolean isStopped() {
+		return isStopped;
+	}
+
+	public synchronized boolean isCancelled() {
+		return isCancelled;
+	}
+
+	synchronized void incrementNumberOfExamplesSkipped() {
+		numExamplesSkipped++;
+	}
+
+	/*
+	 * Registers an attempt, so that it gets cancelled if the manager is
+	 * stopped.
+	 *
+	 * @returns False if the manager has already been stopped, in which case
+	 * the attempt shouldn't be started.
+	 */
+	synchronized boolean addAttempt(HedgingTCPIPExampleProcessor.HedgeAttempt attempt) {
+
+		if (isStopped) return false;
+
+		attempts.add(attempt);
+
+		return true;
+	}
+
+	/*
+	 * Sets the outcome of the request, and releases anyone waiting on the
+	 * predictions.
+	 */
+	void setOutcome(ExampleSubmissionState exampleSubmissionState, PredictionFetchState predictionFetchState, long numExamplesSubmitted, List<String> predictions) {
+
+		synchronized (this) {
+			this.exampleSubmissionState = exampleSubmissionState;
+			this.predictionFetchState = predictionFetchState;
+			this.numExamplesSubmitted = numExamplesSubmitted;
+			this.numPredictionsFetched = predictions.size();
+			this.predictions = predictions;
+		}
+
+		outcomeLatch.countDown();
+	}
+
+	private List<String> awaitPredictions() {
+
+		try {
+			outcomeLatch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Collections.emptyList();
+		}
+
+		synchronized (this) {
+			return predictions;
+		}
+	}
+}
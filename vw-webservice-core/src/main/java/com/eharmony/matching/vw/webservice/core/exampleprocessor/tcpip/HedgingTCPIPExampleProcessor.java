@@ -0,0 +1,422 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleLabels;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeatures;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeaturesImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+import com.eharmony.matching.vw.webservice.core.io.BoundedLineReader;
+import com.eharmony.matching.vw.webservice.core.io.ByteArrayPool;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An example processor that hedges small requests across two VW
+ *         daemons. See HedgingTCPIPExampleProcessorFactory for the details.
+ *
+ *         Up to 'maxHedgeableExamples' examples are read up front. If there
+ *         turn out to be more than that, the request isn't hedged, and is
+ *         handed to the primary daemon's example processor factory instead.
+ *         The same goes for requests with labeled examples, which VW would
+ *         otherwise learn from twice, on two different models.
+ *
+ *         If the primary daemon fails outright, the request is sent to the
+ *         secondary daemon right away (subject to the same hedge rate cap).
+ *
+ *         Once the request's deadline passes, all attempts are cancelled.
+ *
+ *         Making this package-private for now.
+ */
+class HedgingTCPIPExampleProcessor implements ExampleProcessor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HedgingTCPIPExampleProcessor.class);
+
+	private final HedgingTCPIPExampleProcessorFactory factory;
+	private final Iterable<Example> examples;
+	private final TransportProfile transportProfile;
+	private final RequestDeadline deadline;
+	private final String tenant;
+	private final RequestClass requestClass;
+
+	public HedgingTCPIPExampleProcessor(HedgingTCPIPExampleProcessorFactory factory, Iterable<Example> examples, TransportProfile transportProfile, RequestDeadline deadline, String tenant, RequestClass requestClass) {
+		this.factory = factory;
+		this.examples = examples;
+		this.transportProfile = transportProfile;
+		this.deadline = deadline;
+		this.tenant = tenant;
+		this.requestClass = requestClass;
+	}
+
+	@Override
+	public ExampleProcessingManager submitExamples(final ExampleProcessingEventHandler callback) throws ExampleSubmissionException {
+
+		if (deadline.hasPassed()) throw new RequestDeadlineExceededException("The deadline passed before the examples could be submitted!");
+
+		final HedgedExampleProcessingManager manager = new HedgedExampleProcessingManager();
+
+		final Iterator<Example> iterator = examples.iterator();
+
+		List<Example> buffered = new ArrayList<Example>();
+
+		try {
+			while (buffered.size() <= factory.getMaxHedgeableExamples() && iterator.hasNext())
+				buffered.add(iterator.next());
+		}
+		catch (ExampleReadException e) {
+
+			LOGGER.error("ExampleReadException when buffering examples for hedging: {}", e.getMessage(), e);
+
+			manager.setOutcome(ExampleSubmissionState.ExampleReadFault, PredictionFetchState.Complete, 0, Collections.<String> emptyList());
+
+			if (callback != null) {
+				callback.onExampleReadException(manager, e);
+				callback.onExampleSubmissionComplete(manager);
+				callback.onPredictionFetchComplete(manager);
+			}
+
+			return manager;
+		}
+
+		if (buffered.size() > factory.getMaxHedgeableExamples()) {
+
+			LOGGER.debug("More than {} examples, not hedging.", factory.getMaxHedgeableExamples());
+
+			return submitUnhedged(buffered, iterator, callback);
+		}
+
+		final List<String> lines = new ArrayList<String>(buffered.size());
+
+		List<ExampleFormatException> formatExceptions = new ArrayList<ExampleFormatException>();
+
+		boolean labeled = false;
+
+		for (Example example : buffered) {
+			try {
+				String line = example.getVWStringRepresentation();
+
+				labeled |= ExampleLabels.isLabeled(example, line);
+
+				lines.add(line);
+			}
+			catch (ExampleFormatException e) {
+				formatExceptions.add(e);
+			}
+		}
+
+		//VW learns from labeled examples, so they must only ever reach the primary daemon, and only once
+		if (labeled) {
+
+			LOGGER.debug("Labeled examples, not hedging.");
+
+			return submitUnhedged(buffered, iterator, callback);
+		}
+
+		for (ExampleFormatException e : formatExceptions) {
+
+			manager.incrementNumberOfExamplesSkipped();
+
+			if (callback != null) callback.onExampleFormatException(manager, e);
+		}
+
+		factory.onHedgeableRequest();
+
+		factory.getExecutorService().submit(new Runnable() {
+
+			@Override
+			public void run() {
+				hedge(lines, manager, callback);
+			}
+		});
+
+		return manager;
+	}
+
+	/*
+	 * Hands the request to the primary daemon's example processor factory,
+	 * starting with the examples that were read up front.
+	 */
+	private ExampleProcessingManager submitUnhedged(List<Example> buffered, final Iterator<Example> iterator, ExampleProcessingEventHandler callback) throws ExampleSubmissionException {
+
+		Iterable<Example> remaining = new Iterable<Example>() {
+
+			@Override
+			public Iterator<Example> iterator() {
+				return iterator;
+			}
+		};
+
+		return factory.getPrimaryExampleProcessorFactory().getExampleProcessor(Iterables.concat(buffered, remaining), transportProfile, deadline, tenant, requestClass).submitExamples(callback);
+	}
+
+	@Override
+	public ExampleProcessorFeatures getExampleProcessorFeatures() {
+		return new ExampleProcessorFeaturesImpl(true, null);
+	}
+
+	private void hedge(List<String> lines, HedgedExampleProcessingManager manager, ExampleProcessingEventHandler callback) {
+
+		long startTime = System.currentTimeMillis();
+
+		CompletionService<List<String>> completionService = new ExecutorCompletionService<List<String>>(factory.getExecutorService());
+
+		Map<Future<List<String>>, HedgeAttempt> attempts = new HashMap<Future<List<String>>, HedgeAttempt>();
+
+		HedgeAttempt primary = launch(new HedgeAttempt(factory.getPrimarySocketFactory(), transportProfile, lines, factory.getPrimaryExampleProcessorFactory().getMemoryBudget()), completionService, attempts, manager);
+
+		int numOutstanding = primary != null ? 1 : 0;
+
+		boolean canHedge = true;
+
+		long hedgeDelay = factory.getHedgeDelayMillis();
+
+		List<String> predictions = null;
+		HedgeAttempt winner = null;
+		Throwable lastFailure = null;
+
+		boolean expired = false;
+
+		try {
+			while (numOutstanding > 0) {
+
+				Future<List<String>> done;
+
+				if (canHedge) {
+
+					done = completionService.poll(Math.min(Math.max(0, startTime + hedgeDelay - System.currentTimeMillis()), deadline.getRemainingMillis()), TimeUnit.MILLISECONDS);
+
+					if (done == null && deadline.hasPassed()) {
+						expired = true;
+						break;
+					}
+
+					if (done == null) {
+
+						canHedge = false;
+
+						if (factory.tryHedge()) {
+
+							LOGGER.debug("No predictions from the primary daemon after {} ms, hedging.", hedgeDelay);
+
+							if (launch(new HedgeAttempt(factory.getSecondarySocketFactory(), transportProfile, lines, factory.getPrimaryExampleProcessorFactory().getMemoryBudget()), completionService, attempts, manager) != null) numOutstanding++;
+						}
+
+						continue;
+					}
+				}
+				else {
+
+					done = deadline.isSet() ? completionService.poll(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS) : completionService.take();
+
+					if (done == null) {
+						expired = true;
+						break;
+					}
+				}
+
+				numOutstanding--;
+
+				try {
+					predictions = done.get();
+					winner = attempts.get(done);
+					break;
+				}
+				catch (ExecutionException e) {
+
+					lastFailure = e.getCause();
+
+					LOGGER.warn("Hedge attempt failed: {}", lastFailure.getMessage());
+
+					if (canHedge) {
+
+						canHedge = false;
+
+						if (factory.tryHedge()) {
+
+							LOGGER.debug("The primary daemon failed, sending the request to the secondary daemon.");
+
+							if (launch(new HedgeAttempt(factory.getSecondarySocketFactory(), transportProfile, lines, factory.getPrimaryExampleProcessorFactory().getMemoryBudget()), completionService, attempts, manager) != null) numOutstanding++;
+						}
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			lastFailure = e;
+		}
+		finally {
+			//whoever's still going lost, so close their connections
+			for (HedgeAttempt attempt : attempts.values())
+				if (attempt != winner) attempt.cancel();
+		}
+
+		if (winner != null) {
+
+			factory.onResponse(System.currentTimeMillis() - startTime, winner != primary);
+
+			manager.setOutcome(ExampleSubmissionState.Complete, PredictionFetchState.Complete, lines.size(), predictions);
+
+			if (callback != null) {
+				callback.onExampleSubmissionComplete(manager);
+				callback.onPredictionFetchComplete(manager);
+			}
+		}
+		else {
+
+			if (expired) LOGGER.warn("The deadline passed before either daemon answered.");
+
+			ExampleSubmissionState finalState = manager.isStopped() || expired ? ExampleSubmissionState.Stopped : ExampleSubmissionState.ExampleSubmissionFault;
+
+			PredictionFetchState finalFetchState = manager.isCancelled() ? PredictionFetchState.Cancelled : expired ? PredictionFetchState.DeadlineExceeded : PredictionFetchState.PredictionFetchFault;
+
+			manager.setOutcome(finalState, finalFetchState, 0, Collections.<String> emptyList());
+
+			if (callback != null) {
+
+				if (lastFailure != null && finalState == ExampleSubmissionState.ExampleSubmissionFault) {
+					callback.onExampleSubmissionException(manager, new ExampleSubmissionException(lastFailure));
+					callback.onPredictionFetchException(manager, new PredictionFetchException(lastFailure));
+				}
+
+				callback.onExampleSubmissionComplete(manager);
+				callback.onPredictionFetchComplete(manager);
+			}
+		}
+	}
+
+	private static HedgeAttempt launch(HedgeAttempt attempt, CompletionService<List<String>> completionService, Map<Future<List<String>>, HedgeAttempt> attempts, HedgedExampleProcessingManager manager) {
+
+		if (manager.addAttempt(attempt) == false) return null; //stopped
+
+		attempts.put(completionService.submit(attempt), attempt);
+
+		return attempt;
+	}
+
+	/*
+	 * Sends the examples to one daemon, and reads back all of it's
+	 * predictions.
+	 */
+	static class HedgeAttempt implements Callable<List<String>> {
+
+		private final TCPIPSocketFactory socketFactory;
+		private final TransportProfile transportProfile;
+		private final List<String> lines;
+		private final InFlightMemoryBudget memoryBudget;
+
+		private Socket socket = null;
+		private boolean cancelled = false;
+
+		public HedgeAttempt(TCPIPSocketFactory socketFactory, TransportProfile transportProfile, List<String> lines, InFlightMemoryBudget memoryBudget) {
+			this.socketFactory = socketFactory;
+			this.transportProfile = transportProfile;
+			this.lines = lines;
+			this.memoryBudget = memoryBudget;
+		}
+
+		@Override
+		public List<String> call() throws Exception {
+
+			Socket theSocket = socketFactory.getSocket();
+
+			synchronized (this) {
+
+				if (cancelled) {
+					theSocket.close();
+					throw new IOException("The hedge attempt was cancelled!");
+				}
+
+				socket = theSocket;
+			}
+
+			try {
+				transportProfile.configure(theSocket);
+
+				//the examples all go out in one go, so the flush policy doesn't come into it
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(theSocket.getOutputStream(), Charsets.UTF_8), transportProfile.getWriteBufferSize());
+
+				for (String line : lines) {
+					writer.write(line);
+					writer.newLine();
+				}
+
+				writer.flush();
+				theSocket.shutdownOutput();
+
+				List<String> predictions = new ArrayList<String>(lines.size());
+
+				try (BoundedLineReader reader = new BoundedLineReader(theSocket.getInputStream(), Charsets.UTF_8, TCPIPPredictionsIterator.MAX_PREDICTION_LENGTH, ByteArrayPool.SHARED, memoryBudget)) {
+
+					String prediction;
+
+					while ((prediction = reader.readLine()) != null)
+						predictions.add(prediction);
+				}
+
+				//a daemon that hangs up early hasn't answered, so let the other one have a go
+				if (predictions.size() != lines.size()) throw new IOException("Expected " + lines.size() + " predictions but got " + predictions.size() + "!");
+
+				return predictions;
+			}
+			finally {
+				theSocket.close();
+			}
+		}
+
+		/*
+		 * Closes the connection, which makes any blocked read or write fail.
+		 */
+		public void cancel() {
+
+			Socket toClose;
+
+			synchronized (this) {
+				cancelled = true;
+				toClose = socket;
+			}
+
+			if (toClose != null) try {
+				toClose.close();
+			}
+			catch (IOException e) {
+				LOGGER.warn("Failed to close the socket of a hedge attempt: {}", e.getMessage());
+			}
+		}
+	}
+}
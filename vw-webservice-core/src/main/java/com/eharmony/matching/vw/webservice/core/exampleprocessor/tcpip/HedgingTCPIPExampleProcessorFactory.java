@@ -0,0 +1,204 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ExecutorService;
+
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.stats.LatencyTracker;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A factory that returns example processors that hedge small requests
+ *         across two VW daemons. A request with no more than
+ *         'maxHedgeableExamples' examples is sent to the primary daemon, and if
+ *         the predictions haven't come back within the hedge delay, the same
+ *         examples are sent to the secondary daemon too. Whichever daemon
+ *         answers first wins, and the other connection is closed.
+ *
+ *         The hedge delay is a percentile of recent response times, so only
+ *         the slowest requests get hedged. On top of that, the fraction of
+ *         requests that get hedged is capped, to keep the extra load on the
+ *         daemons bounded even when both daemons slow down.
+ *
+ *         Larger requests, requests with labeled examples, and all requests if
+ *         'maxHedgeableExamples' is 0, are handed to the
+ *         TCPIPExampleProcessorFactory of the primary daemon.
+ */
+public class HedgingTCPIPExampleProcessorFactory implements ExampleProcessorFactory {
+
+	private static final int NUM_LATENCY_SAMPLES = 1000;
+
+	private final TCPIPExampleProcessorFactory primaryExampleProcessorFactory;
+
+	private final TCPIPSocketFactory secondarySocketFactory;
+
+	private final int maxHedgeableExamples;
+
+	private final double hedgePercentile;
+
+	private final long minHedgeDelayMillis;
+
+	private final double maxHedgeRate;
+
+	private final LatencyTracker latencyTracker = new LatencyTracker(NUM_LATENCY_SAMPLES);
+
+	/*
+	 * Guarded by 'this'.
+	 */
+	private long numHedgeableRequests = 0, numHedgedRequests = 0, numHedgeWins = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param primaryExampleProcessorFactory Sends requests to the primary
+	 * daemon. It's socket factory, thread pool and transport profiles are used
+	 * for hedged requests too. It's socket factory shouldn't fail over to the
+	 * secondary daemon, or both legs of a hedge can end up there, along with
+	 * requests that have labeled examples.
+	 *
+	 * @param secondarySocketFactory Connects to the daemon that requests are
+	 * hedged to.
+	 *
+	 * @param maxHedgeableExamples Requests with up to this many examples can
+	 * be hedged. 0 disables hedging.
+	 *
+	 * @param hedgePercentile The percentile of recent response times to use as
+	 * the hedge delay, eg, 95.
+	 *
+	 * @param minHedgeDelayMillis The hedge delay never drops below this. Also
+	 * used as the hedge delay until some response times have been recorded.
+	 *
+	 * @param maxHedgeRate The maximum fraction of hedgeable requests that can
+	 * be hedged, eg, 0.05.
+	 */
+	public HedgingTCPIPExampleProcessorFactory(TCPIPExampleProcessorFactory primaryExampleProcessorFactory, TCPIPSocketFactory secondarySocketFactory, int maxHedgeableExamples, double hedgePercentile, long minHedgeDelayMillis, double maxHedgeRate) {
+
+		checkNotNull(primaryExampleProcessorFactory, "A null primary example processor factory cannot be provided!");
+		checkNotNull(secondarySocketFactory, "A null secondary socket factory cannot be provided!");
+		checkArgument(maxHedgeableExamples >= 0, "The maximum number of hedgeable examples must be >= 0!");
+		checkArgument(hedgePercentile > 0 && hedgePercentile <= 100, "The hedge percentile must be between 0 and 100!");
+		checkArgument(minHedgeDelayMillis >= 0, "The minimum hedge delay must be >= 0!");
+		checkArgument(maxHedgeRate >= 0 && maxHedgeRate <= 1, "The maximum hedge rate must be between 0 and 1!");
+
+		this.primaryExampleProcessorFactory = primaryExampleProcessorFactory;
+		this.secondarySocketFactory = secondarySocketFactory;
+		this.maxHedgeableExamples = maxHedgeableExamples;
+		this.hedgePercentile = hedgePercentile;
+		this.minHedgeDelayMillis = minHedgeDelayMillis;
+		this.maxHedgeRate = maxHedgeRate;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessorFactory#getExampleProcessor(com.eharmony.matching.vw.
+	 * webservice.core.ExamplesIterable)
+	 */
+	@Override
+	public ExampleProcessor getExampleProcessor(ExamplesIterable theExamples) {
+
+		TransportProfile transportProfile = primaryExampleProcessorFactory.getTransportProfile(theExamples);
+
+		RequestDeadline deadline = RequestDeadline.fromAttributes(theExamples);
+
+		if (maxHedgeableExamples == 0 || theExamples.getNumberOfExamples() < Integer.MAX_VALUE && theExamples.getNumberOfExamples() > maxHedgeableExamples) return primaryExampleProcessorFactory.getExampleProcessor(theExamples);
+
+		return new HedgingTCPIPExampleProcessor(this, theExamples, transportProfile, deadline, theExamples.getAttribute(TCPIPExampleProcessorFactory.TENANT_ATTRIBUTE), primaryExampleProcessorFactory.getRequestClass(theExamples));
+	}
+
+	/*
+	 * Returns the current hedge delay.
+	 *
+	 * @returns The number of milliseconds to wait for the primary daemon
+	 * before hedging.
+	 */
+	public long getHedgeDelayMillis() {
+		return Math.max(minHedgeDelayMillis, latencyTracker.getPercentile(hedgePercentile, minHedgeDelayMillis));
+	}
+
+	/*
+	 * Returns the number of requests small enough to be hedged.
+	 */
+	public synchronized long getNumberOfHedgeableRequests() {
+		return numHedgeableRequests;
+	}
+
+	/*
+	 * Returns the number of requests that were sent to the secondary daemon
+	 * as well.
+	 */
+	public synchronized long getNumberOfHedgedRequests() {
+		return numHedgedRequests;
+	}
+
+	/*
+	 * Returns the number of hedged requests where the secondary daemon
+	 * answered first.
+	 */
+	public synchronized long getNumberOfHedgeWins() {
+		return numHedgeWins;
+	}
+
+	int getMaxHedgeableExamples() {
+		return maxHedgeableExamples;
+	}
+
+	TCPIPExampleProcessorFactory getPrimaryExampleProcessorFactory() {
+		return primaryExampleProcessorFactory;
+	}
+
+	TCPIPSocketFactory getPrimarySocketFactory() {
+		return primaryExampleProcessorFactory.getSocketFactory();
+	}
+
+	TCPIPSocketFactory getSecondarySocketFactory() {
+		return secondarySocketFactory;
+	}
+
+	ExecutorService getExecutorService() {
+		return primaryExampleProcessorFactory.getExecutorService();
+	}
+
+	synchronized void onHedgeableRequest() {
+		numHedgeableRequests++;
+	}
+
+	/*
+	 * Asks for permission to hedge a request, which is only given if the
+	 * fraction of requests hedged so far is below the maximum hedge rate.
+	 */
+	synchronized boolean tryHedge() {
+
+		if (numHedgedRequests + 1 > maxHedgeRate * numHedgeableRequests) return false;
+
+		numHedgedRequests++;
+
+		return true;
+	}
+
+	/*
+	 * Records the outcome of a request.
+	 *
+	 * @param latencyMillis How long the winning daemon took to answer.
+	 *
+	 * @param hedgeWon Whether or not the secondary daemon answered first.
+	 */
+	void onResponse(long latencyMillis, boolean hedgeWon) {
+
+		latencyTracker.record(latencyMillis);
+
+		if (hedgeWon) synchronized (this) {
+			numHedgeWins++;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Flushes a writer once nothing has been written to it for a while.
+ *         The example submitter can't do this itself, since it's blocked
+ *         waiting on the next example, so the flush happens on a scheduler
+ *         thread instead.
+ *
+ *         At most one flush check is scheduled at any time. When it runs and
+ *         something has been written since it was scheduled, it reschedules
+ *         itself for the remainder of the idle period rather than flushing.
+ *
+ *         Making this package-private for now.
+ */
+class IdleFlusher implements Runnable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IdleFlusher.class);
+
+	private final Flushable writer;
+	private final long maxIdleNanos;
+	private final ScheduledExecutorService scheduler;
+
+	/*
+	 * All guarded by 'this'.
+	 */
+	private long lastWriteNanos = 0;
+	private boolean unflushed = false;
+	private boolean scheduled = false;
+	private boolean stopped = false;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param writer The writer to flush. It's flush() must be safe to call
+	 * from another thread while it's being written to (BufferedWriter's is).
+	 *
+	 * @param maxIdleMicros How long the writer can sit idle with unflushed
+	 * data.
+	 *
+	 * @param scheduler The scheduler to run flushes on.
+	 */
+	public IdleFlusher(Flushable writer, long maxIdleMicros, ScheduledExecutorService scheduler) {
+		this.writer = writer;
+		this.maxIdleNanos = TimeUnit.MICROSECONDS.toNanos(maxIdleMicros);
+		this.scheduler = scheduler;
+	}
+
+	/*
+	 * Called after something's been written to the writer.
+	 */
+	public synchronized void onWrite() {
+
+		lastWriteNanos = System.nanoTime();
+		unflushed = true;
+
+		if (scheduled == false && stopped == false) {
+			scheduled = true;
+			scheduler.schedule(this, maxIdleNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/*
+	 * Called after the writer's been flushed by someone else.
+	 */
+	public synchronized void onFlush() {
+		unflushed = false;
+	}
+
+	/*
+	 * No more flushes after this.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+	}
+
+	@Override
+	public void run() {
+
+		synchronized (this) {
+
+			scheduled = false;
+
+			if (stopped || unflushed == false) return;
+
+			long remainingNanos = maxIdleNanos - (System.nanoTime() - lastWriteNanos);
+
+			if (remainingNanos > 0) {
+				scheduled = true;
+				scheduler.schedule(this, remainingNanos, TimeUnit.NANOSECONDS);
+				return;
+			}
+
+			unflushed = false;
+		}
+
+		try {
+			writer.flush();
+		}
+		catch (IOException e) {
+			//the submitter will run into the same problem on it's next write, and deal with it there
+			LOGGER.debug("IOException when flushing idle writer: {}", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.common.prediction.StringPrediction;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An implementation of ExampleProcessingManager for use by the
+ *         InlineTCPIPExampleProcessor. The request is over by the time this
+ *         is handed out, so there's nothing left to stop or cancel.
+ *
+ *         Making this package-private for now.
+ */
+class InlineExampleProcessingManager implements ExampleProcessingManager {
+
+	private final ExampleSubmissionState exampleSubmissionState;
+	private final PredictionFetchState predictionFetchState;
+	private final long numExamplesSubmitted, numExamplesSkipped;
+	private final List<String> predictions;
+
+	public InlineExampleProcessingManager(ExampleSubmissionState exampleSubmissionState, PredictionFetchState predictionFetchState, long numExamplesSubmitted, long numExamplesSkipped, List<String> predictions) {
+		this.exampleSubmissionState = exampleSubmissionState;
+		this.predictionFetchState = predictionFetchState;
+		this.numExamplesSubmitted = numExamplesSubmitted;
+		this.numExamplesSkipped = numExamplesSkipped;
+		this.predictions = predictions;
+	}
+
+	@Override
+	public Iterable<Prediction> getPredictionsIterable() {
+
+		return new Iterable<Prediction>() {
+
+			@Override
+			public Iterator<Prediction> iterator() {
+
+				return new AbstractIterator<Prediction>() {
+
+					private final Iterator<String> lines = predictions.iterator();
+
+					@Override
+					protected Prediction computeNext() {
+						return lines.hasNext() ? new StringPrediction(lines.next()) : endOfData();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public void stopAll() {
+		//already done
+	}
+
+	@Override
+	public boolean cancel() {
+		return false;
+	}
+
+	@Override
+	public long getTotalNumberOfExamplesSubmitted() {
+		return numExamplesSubmitted;
+	}
+
+	@Override
+	public long getTotalNumberOfExamplesSkipped() {
+		return numExamplesSkipped;
+	}
+
+	@Override
+	public long getTotalNumberOfPredictionsFetched() {
+		return predictions.size();
+	}
+
+	@Override
+	public ExampleSubmissionState getExampleSubmissionState() {
+		return exampleSubmissionState;
+	}
+
+	@Override
+	public PredictionFetchState getPredictionFetchState() {
+		return predictionFetchState;
+	}
+}
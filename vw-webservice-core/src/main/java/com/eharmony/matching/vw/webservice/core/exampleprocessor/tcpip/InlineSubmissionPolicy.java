@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.google.common.primitives.Longs;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Decides which requests are small enough to be handled inline, ie,
+ *         on the thread that submits the examples, with a single write to VW
+ *         and a single read back, instead of going through the streaming
+ *         pipeline.
+ *
+ *         A request is handled inline if it says it has at most 'maxExamples'
+ *         examples, or, if it doesn't say how many examples it has, if it's
+ *         content length is at most 'maxContentLength' bytes.
+ */
+public class InlineSubmissionPolicy {
+
+	/*
+	 * Every request goes through the streaming pipeline.
+	 */
+	public static final InlineSubmissionPolicy DISABLED = new InlineSubmissionPolicy(0, 0);
+
+	private final int maxExamples;
+	private final long maxContentLength;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param maxExamples The most examples a request can have to be handled
+	 * inline. 0 turns inline handling off.
+	 *
+	 * @param maxContentLength The largest content length, in bytes, of a
+	 * request that doesn't say how many examples it has, for it to be
+	 * handled inline. 0 means such requests are always streamed.
+	 */
+	public InlineSubmissionPolicy(int maxExamples, long maxContentLength) {
+
+		checkArgument(maxExamples >= 0, "The max number of examples must be >= 0!");
+		checkArgument(maxContentLength >= 0, "The max content length must be >= 0!");
+
+		this.maxExamples = maxExamples;
+		this.maxContentLength = maxContentLength;
+	}
+
+	public int getMaxExamples() {
+		return maxExamples;
+	}
+
+	public long getMaxContentLength() {
+		return maxContentLength;
+	}
+
+	public boolean isEnabled() {
+		return maxExamples > 0;
+	}
+
+	/*
+	 * Returns true if the examples should be handled inline.
+	 */
+	public boolean isInline(ExamplesIterable theExamples) {
+
+		if (isEnabled() == false) return false;
+
+		if (theExamples.getNumberOfExamples() < Integer.MAX_VALUE) return theExamples.getNumberOfExamples() <= maxExamples;
+
+		if (maxContentLength == 0) return false;
+
+		String contentLength = theExamples.getAttribute(ExamplesIterable.CONTENT_LENGTH_ATTRIBUTE);
+
+		if (StringUtils.isBlank(contentLength)) return false;
+
+		Long theContentLength = Longs.tryParse(contentLength.trim());
+
+		return theContentLength != null && theContentLength >= 0 && theContentLength <= maxContentLength;
+	}
+
+	@Override
+	public String toString() {
+		return "InlineSubmissionPolicy [maxExamples=" + maxExamples + ", maxContentLength=" + maxContentLength + "]";
+	}
+}
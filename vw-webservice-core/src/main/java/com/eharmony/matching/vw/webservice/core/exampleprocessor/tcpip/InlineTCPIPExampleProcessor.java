@@ -0,0 +1,218 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeatures;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeaturesImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+import com.eharmony.matching.vw.webservice.core.io.BoundedLineReader;
+import com.eharmony.matching.vw.webservice.core.io.ByteArrayPool;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An example processor for tiny requests (see InlineSubmissionPolicy).
+ *         Everything happens on the thread that calls submitExamples: the
+ *         examples are sent to VW in a single write, and all the predictions
+ *         are read back before submitExamples returns. This saves handing the
+ *         request off to other threads, which for a request with a single
+ *         example takes longer than VW does.
+ *
+ *         The number of examples a request says it has is only a hint, so if
+ *         there turn out to be more than 'maxExamples' examples, the request
+ *         is handed to the streaming example processor instead.
+ *
+ *         Making this package-private for now.
+ */
+class InlineTCPIPExampleProcessor implements ExampleProcessor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InlineTCPIPExampleProcessor.class);
+
+	private final TCPIPExampleProcessorFactory factory;
+	private final Iterable<Example> examples;
+	private final int maxExamples;
+	private final TransportProfile transportProfile;
+	private final RequestDeadline deadline;
+	private final String tenant;
+	private final RequestClass requestClass;
+
+	public InlineTCPIPExampleProcessor(TCPIPExampleProcessorFactory factory, Iterable<Example> examples, int maxExamples, TransportProfile transportProfile, RequestDeadline deadline, String tenant, RequestClass requestClass) {
+		this.factory = factory;
+		this.examples = examples;
+		this.maxExamples = maxExamples;
+		this.transportProfile = transportProfile;
+		this.deadline = deadline;
+		this.tenant = tenant;
+		this.requestClass = requestClass;
+	}
+
+	@Override
+	public ExampleProcessingManager submitExamples(ExampleProcessingEventHandler callback) throws ExampleSubmissionException {
+
+		if (deadline.hasPassed()) throw new RequestDeadlineExceededException("The deadline passed before the examples could be submitted!");
+
+		final Iterator<Example> iterator = examples.iterator();
+
+		List<Example> buffered = new ArrayList<Example>();
+
+		try {
+			while (buffered.size() <= maxExamples && iterator.hasNext())
+				buffered.add(iterator.next());
+		}
+		catch (ExampleReadException e) {
+
+			LOGGER.error("ExampleReadException when reading examples: {}", e.getMessage(), e);
+
+			return complete(new InlineExampleProcessingManager(ExampleSubmissionState.ExampleReadFault, PredictionFetchState.Complete, 0, 0, Collections.<String> emptyList()), callback, Collections.<ExampleFormatException> emptyList(), e);
+		}
+
+		if (buffered.size() > maxExamples) {
+
+			LOGGER.debug("More than {} examples, streaming them instead.", maxExamples);
+
+			Iterable<Example> remaining = new Iterable<Example>() {
+
+				@Override
+				public Iterator<Example> iterator() {
+					return iterator;
+				}
+			};
+
+			return factory.getExampleProcessor(Iterables.concat(buffered, remaining), transportProfile, deadline, tenant, requestClass).submitExamples(callback);
+		}
+
+		StringBuilder toWrite = new StringBuilder();
+
+		List<ExampleFormatException> formatExceptions = new ArrayList<ExampleFormatException>();
+
+		ShadowTap shadowTap = factory.getShadowMirror().newTap();
+
+		long numExamplesWritten = 0;
+
+		for (Example example : buffered) {
+			try {
+				String exampleString = example.getVWStringRepresentation();
+
+				toWrite.append(exampleString).append('\n');
+
+				if (shadowTap != null) shadowTap.onExampleWritten(numExamplesWritten++, exampleString);
+			}
+			catch (ExampleFormatException e) {
+				formatExceptions.add(e);
+			}
+		}
+
+		long numExamplesSkipped = formatExceptions.size(), numExamplesSubmitted = buffered.size() - numExamplesSkipped;
+
+		List<String> predictions = new ArrayList<String>(buffered.size());
+
+		Socket socket;
+
+		try {
+			socket = factory.getSocketFactory().getSocket();
+		}
+		catch (Exception e) {
+			LOGGER.error("Exception when connecting to VW: {}", e.getMessage());
+			throw new ExampleSubmissionException(e);
+		}
+
+		try (Socket theSocket = socket) {
+
+			transportProfile.configure(theSocket);
+
+			if (deadline.isSet()) theSocket.setSoTimeout((int) Math.max(1, Math.min(deadline.getRemainingMillis(), Integer.MAX_VALUE)));
+
+			try {
+				theSocket.getOutputStream().write(toWrite.toString().getBytes(Charsets.UTF_8));
+				theSocket.shutdownOutput();
+			}
+			catch (IOException e) {
+
+				LOGGER.error("IOException when submitting examples: {}", e.getMessage(), e);
+
+				return complete(new InlineExampleProcessingManager(ExampleSubmissionState.ExampleSubmissionFault, PredictionFetchState.PredictionFetchFault, 0, numExamplesSkipped, predictions), callback, formatExceptions, e);
+			}
+
+			try (BoundedLineReader reader = new BoundedLineReader(theSocket.getInputStream(), Charsets.UTF_8, TCPIPPredictionsIterator.MAX_PREDICTION_LENGTH, ByteArrayPool.SHARED, factory.getMemoryBudget())) {
+
+				String prediction;
+
+				while ((prediction = reader.readLine()) != null) {
+
+					if (shadowTap != null) shadowTap.onPredictionRead(predictions.size(), prediction);
+
+					predictions.add(prediction);
+				}
+			}
+
+			return complete(new InlineExampleProcessingManager(ExampleSubmissionState.Complete, PredictionFetchState.Complete, numExamplesSubmitted, numExamplesSkipped, predictions), callback, formatExceptions, null);
+		}
+		catch (SocketTimeoutException e) {
+
+			LOGGER.warn("The deadline passed while reading predictions!");
+
+			return complete(new InlineExampleProcessingManager(ExampleSubmissionState.Complete, PredictionFetchState.DeadlineExceeded, numExamplesSubmitted, numExamplesSkipped, predictions), callback, formatExceptions, null);
+		}
+		catch (IOException e) {
+
+			LOGGER.error("IOException when reading predictions: {}", e.getMessage(), e);
+
+			return complete(new InlineExampleProcessingManager(ExampleSubmissionState.Complete, PredictionFetchState.PredictionFetchFault, numExamplesSubmitted, numExamplesSkipped, predictions), callback, formatExceptions, e);
+		}
+	}
+
+	@Override
+	public ExampleProcessorFeatures getExampleProcessorFeatures() {
+		return new ExampleProcessorFeaturesImpl(false, null);
+	}
+
+	/*
+	 * Tells the callback about the outcome of the request.
+	 * 
+	 * @param fault The exception that ended the request early, if any. Which
+	 * callbacks it's passed to depends on the final states of the manager.
+	 */
+	private static ExampleProcessingManager complete(ExampleProcessingManager manager, ExampleProcessingEventHandler callback, List<ExampleFormatException> formatExceptions, Exception fault) {
+
+		if (callback == null) return manager;
+
+		for (ExampleFormatException e : formatExceptions)
+			callback.onExampleFormatException(manager, e);
+
+		if (fault instanceof ExampleReadException) callback.onExampleReadException(manager, (ExampleReadException) fault);
+
+		if (manager.getExampleSubmissionState() == ExampleSubmissionState.ExampleSubmissionFault) callback.onExampleSubmissionException(manager, new ExampleSubmissionException(fault));
+
+		if (manager.getPredictionFetchState() == PredictionFetchState.PredictionFetchFault) callback.onPredictionFetchException(manager, new PredictionFetchException(fault));
+
+		callback.onExampleSubmissionComplete(manager);
+		callback.onPredictionFetchComplete(manager);
+
+		return manager;
+	}
+}
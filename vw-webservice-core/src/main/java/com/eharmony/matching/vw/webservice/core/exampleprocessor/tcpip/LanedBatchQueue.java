@@ -0,0 +1,61 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The queue of a DaemonWriter. Each class of requests (see
+ *         RequestClass) has a lane of it's own, and a batch is only taken from
+ *         a lane once every more urgent lane is empty. The lanes are checked
+ *         again for every batch, so a batch request that's being written is
+ *         pre-empted, in between two of it's batches, as soon as an interactive
+ *         batch shows up.
+ *
+ *         Within a lane, the tenants share the writer fairly (see
+ *         FairBatchQueue).
+ *
+ *         Making this package-private for now.
+ */
+class LanedBatchQueue {
+
+	private final FairBatchQueue[] lanes = new FairBatchQueue[RequestClass.values().length];
+
+	public LanedBatchQueue(int quantum) {
+
+		for (int x = 0; x < lanes.length; x++)
+			lanes[x] = new FairBatchQueue(quantum);
+	}
+
+	public void add(ExampleBatch batch) {
+		lanes[batch.getRequestClass().ordinal()].add(batch);
+	}
+
+	/*
+	 * Takes the next batch off of the most urgent lane that has one.
+	 *
+	 * @returns The batch, or null if there are none.
+	 */
+	public ExampleBatch poll() {
+
+		for (FairBatchQueue lane : lanes) {
+
+			ExampleBatch batch = lane.poll();
+
+			if (batch != null) return batch;
+		}
+
+		return null;
+	}
+
+	public int size() {
+
+		int size = 0;
+
+		for (FairBatchQueue lane : lanes)
+			size += lane.size();
+
+		return size;
+	}
+}
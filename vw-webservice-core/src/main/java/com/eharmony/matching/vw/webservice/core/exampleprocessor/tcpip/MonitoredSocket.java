@@ -0,0 +1,356 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Wraps a socket connected to a VW daemon, and tells a listener, eg,
+ *         the daemon's circuit breaker, how the daemon is doing.
+ *
+ *         The time from the first example written to the first prediction read
+ *         is reported as the daemon's response time. A read that times out
+ *         while predictions are owed, or an error on the connection that we
+ *         didn't cause by closing the socket ourselves, is reported as a
+ *         failure. A read that times out while nothing is owed (eg, an idle
+ *         streaming session) isn't the daemon's fault, and isn't reported.
+ *
+ *         Only the first outcome on a socket is reported. The listener is also
+ *         told when the socket is closed, once, whether or not there was an
+ *         outcome.
+ *
+ *         Making this package-private for now.
+ */
+class MonitoredSocket extends Socket {
+
+	private final Socket socket;
+	private final Listener listener;
+	private final InputStream inputStream;
+	private final OutputStream outputStream;
+
+	/*
+	 * All guarded by 'this'. 'awaitingSince' is when we started waiting on a
+	 * prediction, or -1 if we aren't.
+	 */
+	private long awaitingSince = -1;
+	private boolean reported = false, closed = false;
+
+	public MonitoredSocket(Socket socket, Listener listener) throws IOException {
+		this.socket = socket;
+		this.listener = listener;
+		this.inputStream = new MonitoredInputStream(socket.getInputStream());
+		this.outputStream = new MonitoredOutputStream(socket.getOutputStream());
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return inputStream;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return outputStream;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		boolean wasClosed, wasReported;
+
+		synchronized (this) {
+
+			wasClosed = closed;
+			wasReported = reported;
+
+			closed = reported = true;
+		}
+
+		if (wasClosed == false) listener.onClosed(wasReported);
+
+		try {
+			socket.close();
+		}
+		finally {
+			super.close();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return socket.isConnected();
+	}
+
+	@Override
+	public boolean isBound() {
+		return socket.isBound();
+	}
+
+	@Override
+	public void shutdownInput() throws IOException {
+		socket.shutdownInput();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		socket.shutdownOutput();
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return socket.isInputShutdown();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return socket.isOutputShutdown();
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return socket.getInetAddress();
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return socket.getLocalAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return socket.getPort();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	@Override
+	public SocketAddress getRemoteSocketAddress() {
+		return socket.getRemoteSocketAddress();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return socket.getLocalSocketAddress();
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		socket.setSoTimeout(timeout);
+	}
+
+	@Override
+	public int getSoTimeout() throws SocketException {
+		return socket.getSoTimeout();
+	}
+
+	@Override
+	public void setTcpNoDelay(boolean on) throws SocketException {
+		socket.setTcpNoDelay(on);
+	}
+
+	@Override
+	public boolean getTcpNoDelay() throws SocketException {
+		return socket.getTcpNoDelay();
+	}
+
+	@Override
+	public void setSoLinger(boolean on, int linger) throws SocketException {
+		socket.setSoLinger(on, linger);
+	}
+
+	@Override
+	public int getSoLinger() throws SocketException {
+		return socket.getSoLinger();
+	}
+
+	@Override
+	public void setKeepAlive(boolean on) throws SocketException {
+		socket.setKeepAlive(on);
+	}
+
+	@Override
+	public boolean getKeepAlive() throws SocketException {
+		return socket.getKeepAlive();
+	}
+
+	@Override
+	public void setSendBufferSize(int size) throws SocketException {
+		socket.setSendBufferSize(size);
+	}
+
+	@Override
+	public int getSendBufferSize() throws SocketException {
+		return socket.getSendBufferSize();
+	}
+
+	@Override
+	public void setReceiveBufferSize(int size) throws SocketException {
+		socket.setReceiveBufferSize(size);
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws SocketException {
+		return socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public String toString() {
+		return socket.toString();
+	}
+
+	private synchronized void onWrite() {
+		if (awaitingSince < 0) awaitingSince = System.currentTimeMillis();
+	}
+
+	private void onRead(int numBytesRead) {
+
+		long latencyMillis;
+
+		synchronized (this) {
+
+			if (numBytesRead == 0) return;
+
+			boolean wasAwaiting = awaitingSince >= 0;
+
+			latencyMillis = System.currentTimeMillis() - awaitingSince;
+
+			awaitingSince = -1;
+
+			if (reported || wasAwaiting == false) return;
+
+			reported = true;
+
+			if (numBytesRead < 0) {
+				listener.onFailure("The daemon closed the connection without answering.");
+				return;
+			}
+		}
+
+		listener.onResponse(latencyMillis);
+	}
+
+	private void onError(IOException e) {
+
+		synchronized (this) {
+
+			if (reported || socket.isClosed()) return; //closed by us
+
+			if (e instanceof SocketTimeoutException && awaitingSince < 0) return; //idle, nothing owed
+
+			reported = true;
+		}
+
+		listener.onFailure((e instanceof SocketTimeoutException ? "Timed out waiting for predictions: " : "Connection error: ") + e.getMessage());
+	}
+
+	/*
+	 * Told how the daemon is doing on a socket.
+	 */
+	interface Listener {
+
+		/*
+		 * Called when the daemon returns a first prediction.
+		 *
+		 * @param latencyMillis The time from the first example written to the
+		 * first prediction read.
+		 */
+		void onResponse(long latencyMillis);
+
+		void onFailure(String failure);
+
+		/*
+		 * Called the first time the socket is closed.
+		 *
+		 * @param outcomeReported Whether or not a response or failure was
+		 * reported before the socket was closed.
+		 */
+		void onClosed(boolean outcomeReported);
+	}
+
+	private class MonitoredInputStream extends FilterInputStream {
+
+		public MonitoredInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			try {
+				int b = in.read();
+				onRead(b < 0 ? -1 : 1);
+				return b;
+			}
+			catch (IOException e) {
+				onError(e);
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+
+			try {
+				int numRead = in.read(b, off, len);
+				onRead(numRead);
+				return numRead;
+			}
+			catch (IOException e) {
+				onError(e);
+				throw e;
+			}
+		}
+	}
+
+	private class MonitoredOutputStream extends FilterOutputStream {
+
+		public MonitoredOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+
+			try {
+				out.write(b);
+				onWrite();
+			}
+			catch (IOException e) {
+				onError(e);
+				throw e;
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+
+			try {
+				out.write(b, off, len);
+				onWrite();
+			}
+			catch (IOException e) {
+				onError(e);
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,443 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.common.prediction.StringPrediction;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An implementation of ExampleProcessingManager for use by the
+ *         MultiplexedTCPIPExampleProcessor. There's no thread of the request's
+ *         own submitting examples: whoever iterates over the predictions reads
+ *         the examples, a batch at a time, and hands the batches to the daemon
+ *         writers, keeping up to 'maxBatchesInFlight' of them ahead of the
+ *         predictions it's waiting on.
+ *
+ *         VW must answer every example with exactly one line, so examples that
+ *         are empty, or span more than one line, are skipped as badly
+ *         formatted.
+ *
+ *         The batches carry the request's deadline and class, which decide
+ *         how soon the daemon writers get to them, and the time the request
+ *         takes is recorded against it's class.
+ *
+ *         Cancelling the request, or it's deadline passing, cancels the
+ *         batches it has in flight. The connections are shared, so they're
+ *         left open, and the predictions of batches already written are read
+ *         and thrown away.
+ *
+ *         Making this package-private for now.
+ */
+class MultiplexedExampleProcessingManager implements ExampleProcessingManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MultiplexedExampleProcessingManager.class);
+
+	private final DaemonWriterPool daemonWriterPool;
+	private final Iterable<Example> examples;
+	private final RequestDeadline deadline;
+	private final TenantStats tenant;
+	private final RequestClassStats requestClass;
+	private final ExampleProcessingEventHandler callback;
+
+	private final Deque<ExampleBatch> batchesInFlight = new ArrayDeque<ExampleBatch>();
+
+	private long numExamplesSubmitted, numExamplesSkipped, numPredictionsFetched;
+	private ExampleSubmissionState exampleSubmissionState = ExampleSubmissionState.OnGoing;
+	private PredictionFetchState predictionFetchState = PredictionFetchState.OnGoing;
+	private boolean isStopped = false, cancelled = false;
+
+	private Iterator<Prediction> predictionsIterator = null;
+
+	public MultiplexedExampleProcessingManager(DaemonWriterPool daemonWriterPool, Iterable<Example> examples, RequestDeadline deadline, TenantStats tenant, RequestClassStats requestClass, ExampleProcessingEventHandler callback) {
+		this.daemonWriterPool = daemonWriterPool;
+		this.examples = examples;
+		this.deadline = deadline;
+		this.tenant = tenant;
+		this.requestClass = requestClass;
+		this.callback = callback;
+	}
+
+	/*
+	 * Reads the examples, and waits on their predictions, as the predictions
+	 * are iterated over.
+	 */
+	private class PredictionsIterator extends AbstractIterator<Prediction> {
+
+		private Iterator<Example> exampleIterator = null;
+
+		private long numExamplesRead = 0;
+
+		private final long startedAtMillis = System.currentTimeMillis();
+
+		//the index, in the batch at the head of the batches in flight, of the next prediction
+		private int index = 0;
+
+		@Override
+		protected Prediction computeNext() {
+
+			while (true) {
+
+				submitBatches();
+
+				ExampleBatch batch;
+
+				synchronized (MultiplexedExampleProcessingManager.this) {
+
+					if (cancelled) return endOfData();
+
+					batch = batchesInFlight.peek();
+
+					if (batch != null && index == batch.size()) {
+						batchesInFlight.poll();
+						index = 0;
+						continue;
+					}
+				}
+
+				if (batch == null) {
+
+					finishPredictionFetch(PredictionFetchState.Complete);
+
+					if (requestClass != null) requestClass.onRequestCompleted(System.currentTimeMillis() - startedAtMillis);
+
+					return endOfData();
+				}
+
+				String prediction;
+
+				try {
+					prediction = batch.awaitPrediction(index, deadline.isSet() ? Math.max(1, deadline.getRemainingMillis()) : 0);
+				}
+				catch (IOException e) {
+
+					LOGGER.error("IOException when reading predictions: {}", e.getMessage(), e);
+
+					if (terminate(PredictionFetchState.PredictionFetchFault, e) == false) LOGGER.debug("The request was already over.");
+
+					return endOfData();
+				}
+				catch (InterruptedException e) {
+
+					Thread.currentThread().interrupt();
+
+					cancel();
+
+					return endOfData();
+				}
+
+				if (prediction == null) {
+
+					//either the request was cancelled, or it's deadline passed
+					if (expire()) LOGGER.warn("The deadline passed while waiting for predictions!");
+
+					return endOfData();
+				}
+
+				index++;
+
+				synchronized (MultiplexedExampleProcessingManager.this) {
+					numPredictionsFetched++;
+				}
+
+				return new StringPrediction(prediction);
+			}
+		}
+
+		/*
+		 * Reads examples, and hands them to the daemon writers, until enough
+		 * batches are in flight or the examples run out.
+		 */
+		private void submitBatches() {
+
+			while (true) {
+
+				synchronized (MultiplexedExampleProcessingManager.this) {
+
+					if (exampleSubmissionState != ExampleSubmissionState.OnGoing || batchesInFlight.size() >= daemonWriterPool.getMaxBatchesInFlight()) return;
+				}
+
+				if (isStopped()) {
+					LOGGER.warn("Example submission process was stopped for some reason!");
+					finishSubmission(ExampleSubmissionState.Stopped);
+					return;
+				}
+
+				if (deadline.hasPassed()) {
+					LOGGER.warn("The deadline passed while submitting examples!");
+					expire();
+					return;
+				}
+
+				List<String> toWrite = new ArrayList<String>(daemonWriterPool.getBatchSize());
+
+				boolean examplesRanOut = false;
+
+				ExampleReadException readException = null;
+
+				try {
+					if (exampleIterator == null) exampleIterator = examples.iterator();
+
+					while (toWrite.size() < daemonWriterPool.getBatchSize()) {
+
+						if (exampleIterator.hasNext() == false) {
+							examplesRanOut = true;
+							break;
+						}
+
+						Example example = exampleIterator.next();
+
+						numExamplesRead++;
+
+						try {
+							String vwString = example.getVWStringRepresentation();
+
+							if (StringUtils.isBlank(vwString) || vwString.indexOf('\n') >= 0 || vwString.indexOf('\r') >= 0) throw new ExampleFormatException(numExamplesRead, "Examples must be a single, non-empty line when they're sent through a daemon writer!");
+
+							toWrite.add(vwString);
+						}
+						catch (ExampleFormatException e) {
+
+							synchronized (MultiplexedExampleProcessingManager.this) {
+								numExamplesSkipped++;
+							}
+
+							if (callback != null) callback.onExampleFormatException(MultiplexedExampleProcessingManager.this, e);
+						}
+					}
+				}
+				catch (ExampleReadException e) {
+					LOGGER.error("ExampleReadException when reading examples: {}", e.getMessage(), e);
+					readException = e;
+				}
+
+				if (toWrite.isEmpty() == false) {
+
+					ExampleBatch batch = new ExampleBatch(toWrite, tenant, requestClass, deadline.getDeadlineMillis());
+
+					boolean submit;
+
+					synchronized (MultiplexedExampleProcessingManager.this) {
+
+						submit = cancelled == false;
+
+						if (submit) {
+							batchesInFlight.add(batch);
+							numExamplesSubmitted += batch.size();
+						}
+					}
+
+					if (submit) daemonWriterPool.getWriter(batch.getRequestClass()).submit(batch);
+				}
+
+				if (readException != null) {
+
+					ExampleSubmissionState previousState = setExampleSubmissionState(ExampleSubmissionState.ExampleReadFault);
+
+					if (previousState == ExampleSubmissionState.OnGoing && callback != null) {
+						callback.onExampleReadException(MultiplexedExampleProcessingManager.this, readException);
+						callback.onExampleSubmissionComplete(MultiplexedExampleProcessingManager.this);
+					}
+
+					return;
+				}
+
+				if (examplesRanOut) {
+					LOGGER.debug("All {} examples handed to the daemon writers.", numExamplesRead);
+					finishSubmission(ExampleSubmissionState.Complete);
+					return;
+				}
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessingManager#getPredictionsIterable()
+	 */
+	@Override
+	public Iterable<Prediction> getPredictionsIterable() {
+
+		return new Iterable<Prediction>() {
+
+			@Override
+			public Iterator<Prediction> iterator() {
+
+				synchronized (MultiplexedExampleProcessingManager.this) {
+
+					if (predictionsIterator == null) predictionsIterator = new PredictionsIterator();
+
+					return predictionsIterator;
+				}
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessingManager#stopAll()
+	 */
+	@Override
+	public synchronized void stopAll() {
+		isStopped = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessingManager#cancel()
+	 */
+	@Override
+	public boolean cancel() {
+		return terminate(PredictionFetchState.Cancelled, null);
+	}
+
+	/*
+	 * Stops the request because it's deadline has passed. Works just like
+	 * 'cancel()', except that the prediction fetch state becomes
+	 * 'DeadlineExceeded'.
+	 *
+	 * @returns True if this call stopped the request.
+	 */
+	public boolean expire() {
+		return terminate(PredictionFetchState.DeadlineExceeded, null);
+	}
+
+	/*
+	 * Ends the request early.
+	 *
+	 * @param fault The exception that ended it, if any.
+	 */
+	private boolean terminate(PredictionFetchState finalState, IOException fault) {
+
+		List<ExampleBatch> toCancel;
+
+		boolean submissionWasOnGoing;
+
+		synchronized (this) {
+
+			if (cancelled || predictionFetchState != PredictionFetchState.OnGoing) return false;
+
+			cancelled = true;
+			isStopped = true;
+			predictionFetchState = finalState;
+
+			submissionWasOnGoing = exampleSubmissionState == ExampleSubmissionState.OnGoing;
+
+			if (submissionWasOnGoing) exampleSubmissionState = ExampleSubmissionState.Stopped;
+
+			toCancel = new ArrayList<ExampleBatch>(batchesInFlight);
+
+			batchesInFlight.clear();
+		}
+
+		LOGGER.info("Stopping request ({}) after submitting {} examples and fetching {} predictions.", finalState, getTotalNumberOfExamplesSubmitted(), getTotalNumberOfPredictionsFetched());
+
+		for (ExampleBatch batch : toCancel)
+			batch.cancel();
+
+		if (callback != null) {
+
+			if (fault != null) callback.onPredictionFetchException(this, new PredictionFetchException(fault));
+
+			if (submissionWasOnGoing) callback.onExampleSubmissionComplete(this);
+
+			callback.onPredictionFetchComplete(this);
+		}
+
+		return true;
+	}
+
+	private void finishSubmission(ExampleSubmissionState finalState) {
+
+		if (setExampleSubmissionState(finalState) == ExampleSubmissionState.OnGoing && callback != null) callback.onExampleSubmissionComplete(this);
+	}
+
+	private void finishPredictionFetch(PredictionFetchState finalState) {
+
+		synchronized (this) {
+
+			if (predictionFetchState != PredictionFetchState.OnGoing) return;
+
+			predictionFetchState = finalState;
+		}
+
+		if (callback != null) callback.onPredictionFetchComplete(this);
+	}
+
+	/*
+	 * Moves example submission out of 'OnGoing'. Has no effect if it's
+	 * already out of it.
+	 *
+	 * @returns The previous state.
+	 */
+	private synchronized ExampleSubmissionState setExampleSubmissionState(ExampleSubmissionState newState) {
+
+		ExampleSubmissionState previousState = exampleSubmissionState;
+
+		if (previousState == ExampleSubmissionState.OnGoing) exampleSubmissionState = newState;
+
+		return previousState;
+	}
+
+	public synchronized boolean isStopped() {
+		return isStopped;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfExamplesSubmitted() {
+		return numExamplesSubmitted;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfExamplesSkipped() {
+		return numExamplesSkipped;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfPredictionsFetched() {
+		return numPredictionsFetched;
+	}
+
+	@Override
+	public synchronized ExampleSubmissionState getExampleSubmissionState() {
+		return exampleSubmissionState;
+	}
+
+	@Override
+	public synchronized PredictionFetchState getPredictionFetchState() {
+		return predictionFetchState;
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeatures;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeaturesImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An example processor that sends examples to VW through the shared
+ *         connections of a DaemonWriterPool, rather than over a connection,
+ *         and from a thread, of the request's own (see
+ *         MultiplexedExampleProcessingManager).
+ *
+ *         Nothing is read, or sent to VW, until the predictions are iterated
+ *         over, and nothing is held on to until then either, so there's no
+ *         need to abandon requests whose predictions are never asked for.
+ *
+ *         Making this package-private for now.
+ */
+class MultiplexedTCPIPExampleProcessor implements ExampleProcessor {
+
+	private final DaemonWriterPool daemonWriterPool;
+	private final Iterable<Example> examples;
+	private final RequestDeadline deadline;
+	private final TenantStats tenant;
+	private final RequestClassStats requestClass;
+
+	public MultiplexedTCPIPExampleProcessor(DaemonWriterPool daemonWriterPool, Iterable<Example> examples, RequestDeadline deadline, TenantStats tenant, RequestClassStats requestClass) {
+		this.daemonWriterPool = daemonWriterPool;
+		this.examples = examples;
+		this.deadline = deadline;
+		this.tenant = tenant;
+		this.requestClass = requestClass;
+	}
+
+	@Override
+	public ExampleProcessingManager submitExamples(ExampleProcessingEventHandler callback) throws ExampleSubmissionException {
+
+		if (deadline.hasPassed()) throw new RequestDeadlineExceededException("The deadline passed before the examples could be submitted!");
+
+		return new MultiplexedExampleProcessingManager(daemonWriterPool, examples, deadline, tenant, requestClass, callback);
+	}
+
+	@Override
+	public ExampleProcessorFeatures getExampleProcessorFeatures() {
+		return new ExampleProcessorFeaturesImpl(true, null);
+	}
+}
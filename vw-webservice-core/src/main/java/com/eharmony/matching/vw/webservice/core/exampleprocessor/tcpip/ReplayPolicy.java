@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Decides whether a streamed request survives it's connection to VW
+ *         dying, and keeps track of how often that's happened.
+ *
+ *         The examples of a request that have been sent to VW, but not yet
+ *         answered, are kept, up to 'maxBufferedBytes' of them. If the
+ *         connection fails, a new one is made (which fails over to another
+ *         daemon, if the socket factory does), and only those examples are
+ *         sent again, so that whoever is reading the predictions never notices
+ *         (see ReplayingSocket). A request gets at most 'maxRetries' new
+ *         connections. The examples are written again before any of their
+ *         predictions are read, so 'maxBufferedBytes' should be well under
+ *         what VW, and the socket buffers, can take in without being read
+ *         from.
+ *
+ *         Only predict-only requests are replayed: once a labeled example is
+ *         sent, the request goes back to failing fast, since VW may already
+ *         have learned from the examples that would be sent again.
+ */
+public class ReplayPolicy {
+
+	/*
+	 * Requests fail as soon as their connection does.
+	 */
+	public static final ReplayPolicy DISABLED = new ReplayPolicy(0, 0);
+
+	private final long maxBufferedBytes;
+	private final int maxRetries;
+
+	/*
+	 * Guarded by 'this'.
+	 */
+	private long numReplays = 0, numFailedReplays = 0, numExamplesReplayed = 0, numBytesReplayed = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param maxBufferedBytes The most bytes of unanswered examples kept for
+	 * a single request. A request with more than that outstanding when it's
+	 * connection fails can't be replayed.
+	 *
+	 * @param maxRetries The most new connections a single request can get. 0
+	 * turns replaying off.
+	 */
+	public ReplayPolicy(long maxBufferedBytes, int maxRetries) {
+
+		checkArgument(maxBufferedBytes >= 0, "The max number of buffered bytes must be >= 0!");
+		checkArgument(maxRetries >= 0, "The max number of retries must be >= 0!");
+		checkArgument(maxRetries == 0 || maxBufferedBytes > 0, "The max number of buffered bytes must be > 0 to replay examples!");
+
+		this.maxBufferedBytes = maxBufferedBytes;
+		this.maxRetries = maxRetries;
+	}
+
+	public long getMaxBufferedBytes() {
+		return maxBufferedBytes;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public boolean isEnabled() {
+		return maxRetries > 0;
+	}
+
+	/*
+	 * Called after the unanswered examples of a request have been sent over
+	 * a new connection.
+	 */
+	synchronized void onReplayed(long numExamples, long numBytes) {
+		numReplays++;
+		numExamplesReplayed += numExamples;
+		numBytesReplayed += numBytes;
+	}
+
+	/*
+	 * Called when a request's connection fails and it's examples can't be
+	 * replayed, eg, because it's out of retries.
+	 */
+	synchronized void onReplayFailed() {
+		numFailedReplays++;
+	}
+
+	/*
+	 * Returns the number of times a request got a new connection and had it's
+	 * unanswered examples sent again.
+	 */
+	public synchronized long getNumberOfReplays() {
+		return numReplays;
+	}
+
+	/*
+	 * Returns the number of failed connections whose requests couldn't be
+	 * replayed, and failed as well.
+	 */
+	public synchronized long getNumberOfFailedReplays() {
+		return numFailedReplays;
+	}
+
+	public synchronized long getNumberOfExamplesReplayed() {
+		return numExamplesReplayed;
+	}
+
+	public synchronized long getNumberOfBytesReplayed() {
+		return numBytesReplayed;
+	}
+
+	@Override
+	public String toString() {
+		return "ReplayPolicy [maxBufferedBytes=" + maxBufferedBytes + ", maxRetries=" + maxRetries + "]";
+	}
+}
@@ -0,0 +1,664 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A socket to VW that outlives the connection underneath it. Every
+ *         byte written is kept until VW has answered it, ie, until the
+ *         newline ending the example has been matched by a newline ending a
+ *         prediction. If reading or writing fails, or VW closes the
+ *         connection while examples are still owed, a new connection is made
+ *         with the socket factory, the unanswered examples are written to it,
+ *         and reading and writing carry on over the new connection. Predictions
+ *         are only handed to the reader a whole line at a time, so that half
+ *         a prediction read off of a connection that then fails is never seen.
+ *
+ *         Examples are assumed to get one prediction each, in order. The
+ *         examples kept are bounded by the replay policy: past that, the
+ *         oldest are let go of, and a failure before they've been answered
+ *         can't be replayed. Neither can one after 'stopReplaying()' has been
+ *         called, or once the request is out of retries, in which case the
+ *         failure is passed on to whoever is reading or writing, just as it
+ *         would be without replaying.
+ *
+ *         Examples are written and predictions read on different threads, and
+ *         neither holds the lock while waiting on VW, or they could end up
+ *         waiting on each other. The exception is replaying, which holds off
+ *         both until the unanswered examples have been written again.
+ *
+ *         Making this package-private for now.
+ */
+class ReplayingSocket extends Socket {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReplayingSocket.class);
+
+	private static final int INITIAL_READ_BUFFER_SIZE = 8192;
+
+	private final TCPIPSocketFactory socketFactory;
+	private final TransportProfile transportProfile;
+	private final ReplayPolicy replayPolicy;
+	private final InputStream inputStream = new ReplayingInputStream();
+	private final OutputStream outputStream = new ReplayingOutputStream();
+
+	/*
+	 * All guarded by 'this'. 'generation' counts the connections made after
+	 * the first one, so that a failure that's already been dealt with isn't
+	 * dealt with again.
+	 */
+	private Socket socket;
+	private int generation = 0, numRetries = 0;
+	private final Deque<byte[]> unansweredLines = new ArrayDeque<byte[]>();
+	private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+	private long numBufferedBytes = 0, numLinesLetGo = 0;
+	private boolean replaying = true, outputShutdown = false, closed = false;
+
+	/*
+	 * Constructor. Connects to VW.
+	 *
+	 * @param socketFactory Makes the first connection, and every one after
+	 * it.
+	 *
+	 * @param transportProfile Configures each connection.
+	 *
+	 * @param replayPolicy Bounds the examples kept, and the number of new
+	 * connections, and is told about each replay.
+	 */
+	public ReplayingSocket(TCPIPSocketFactory socketFactory, TransportProfile transportProfile, ReplayPolicy replayPolicy) throws IOException {
+
+		this.socketFactory = socketFactory;
+		this.transportProfile = transportProfile;
+		this.replayPolicy = replayPolicy;
+
+		this.socket = socketFactory.getSocket();
+
+		try {
+			transportProfile.configure(socket);
+		}
+		catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Lets go of the examples kept, and passes on any failure from now on.
+	 */
+	public synchronized void stopReplaying(String reason) {
+
+		if (replaying == false) return;
+
+		LOGGER.debug("No longer replaying examples: {}", reason);
+
+		replaying = false;
+
+		unansweredLines.clear();
+		partialLine.reset();
+		numBufferedBytes = 0;
+	}
+
+	/*
+	 * Returns the number of new connections made so far.
+	 */
+	public synchronized int getNumberOfRetries() {
+		return numRetries;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return inputStream;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return outputStream;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		Socket toClose;
+
+		synchronized (this) {
+			closed = true;
+			toClose = socket;
+		}
+
+		try {
+			toClose.close();
+		}
+		finally {
+			super.close();
+		}
+	}
+
+	@Override
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+
+		Socket current;
+		int currentGeneration;
+
+		synchronized (this) {
+
+			//so that a new connection has it's output shut down too, once the examples are replayed
+			outputShutdown = true;
+
+			current = socket;
+			currentGeneration = generation;
+		}
+
+		try {
+			current.shutdownOutput();
+		}
+		catch (IOException e) {
+			if (reconnect(currentGeneration, e.getMessage()) == false) throw e;
+		}
+	}
+
+	@Override
+	public synchronized boolean isOutputShutdown() {
+		return outputShutdown;
+	}
+
+	@Override
+	public synchronized boolean isConnected() {
+		return socket.isConnected();
+	}
+
+	@Override
+	public synchronized boolean isBound() {
+		return socket.isBound();
+	}
+
+	@Override
+	public synchronized void shutdownInput() throws IOException {
+		socket.shutdownInput();
+	}
+
+	@Override
+	public synchronized boolean isInputShutdown() {
+		return socket.isInputShutdown();
+	}
+
+	@Override
+	public synchronized InetAddress getInetAddress() {
+		return socket.getInetAddress();
+	}
+
+	@Override
+	public synchronized InetAddress getLocalAddress() {
+		return socket.getLocalAddress();
+	}
+
+	@Override
+	public synchronized int getPort() {
+		return socket.getPort();
+	}
+
+	@Override
+	public synchronized int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	@Override
+	public synchronized SocketAddress getRemoteSocketAddress() {
+		return socket.getRemoteSocketAddress();
+	}
+
+	@Override
+	public synchronized SocketAddress getLocalSocketAddress() {
+		return socket.getLocalSocketAddress();
+	}
+
+	@Override
+	public synchronized void setSoTimeout(int timeout) throws SocketException {
+		socket.setSoTimeout(timeout);
+	}
+
+	@Override
+	public synchronized int getSoTimeout() throws SocketException {
+		return socket.getSoTimeout();
+	}
+
+	@Override
+	public synchronized void setTcpNoDelay(boolean on) throws SocketException {
+		socket.setTcpNoDelay(on);
+	}
+
+	@Override
+	public synchronized boolean getTcpNoDelay() throws SocketException {
+		return socket.getTcpNoDelay();
+	}
+
+	@Override
+	public synchronized void setSendBufferSize(int size) throws SocketException {
+		socket.setSendBufferSize(size);
+	}
+
+	@Override
+	public synchronized int getSendBufferSize() throws SocketException {
+		return socket.getSendBufferSize();
+	}
+
+	@Override
+	public synchronized void setReceiveBufferSize(int size) throws SocketException {
+		socket.setReceiveBufferSize(size);
+	}
+
+	@Override
+	public synchronized int getReceiveBufferSize() throws SocketException {
+		return socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return socket.toString();
+	}
+
+	/*
+	 * Keeps the bytes about to be written, until they're answered.
+	 */
+	private synchronized void keep(byte[] b, int off, int len) {
+
+		if (replaying == false) return;
+
+		int lineStart = off;
+
+		for (int x = off; x < off + len; x++) {
+
+			if (b[x] != '\n') continue;
+
+			partialLine.write(b, lineStart, x + 1 - lineStart);
+
+			unansweredLines.addLast(partialLine.toByteArray());
+
+			partialLine.reset();
+
+			lineStart = x + 1;
+		}
+
+		partialLine.write(b, lineStart, off + len - lineStart);
+
+		numBufferedBytes += len;
+
+		//let go of the oldest examples, but remember how many, so that the answers still line up
+		while (numBufferedBytes > replayPolicy.getMaxBufferedBytes() && unansweredLines.isEmpty() == false) {
+
+			numBufferedBytes -= unansweredLines.removeFirst().length;
+
+			numLinesLetGo++;
+		}
+
+		if (numBufferedBytes > replayPolicy.getMaxBufferedBytes()) stopReplaying("an example is longer than the replay buffer");
+	}
+
+	/*
+	 * Lets go of the examples just answered.
+	 *
+	 * @returns False if the predictions were read off of a connection that's
+	 * since been replaced, in which case they'll be read again off of the new
+	 * one, and should be thrown away.
+	 */
+	private synchronized boolean onAnswered(int readGeneration, int numLines) {
+
+		if (readGeneration != generation) return false;
+
+		if (replaying == false) return true;
+
+		for (int x = 0; x < numLines; x++) {
+
+			if (numLinesLetGo > 0)
+				numLinesLetGo--;
+			else if (unansweredLines.isEmpty() == false)
+				numBufferedBytes -= unansweredLines.removeFirst().length;
+			else {
+				stopReplaying("VW returned more predictions than there were examples");
+				break;
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * Called when VW closes the connection.
+	 *
+	 * @returns True if there's a new connection to carry on reading from.
+	 */
+	private boolean onEndOfStream(int readGeneration) {
+
+		synchronized (this) {
+
+			if (readGeneration != generation) return true;
+
+			//all answered, so VW is done
+			if (outputShutdown && unansweredLines.isEmpty() && numLinesLetGo == 0 && partialLine.size() == 0) return false;
+
+			if (replaying == false) return false;
+		}
+
+		return reconnect(readGeneration, "VW closed the connection with examples unanswered.");
+	}
+
+	/*
+	 * Replaces a failed connection with a new one, and writes the unanswered
+	 * examples to it.
+	 *
+	 * @param failedGeneration The generation of the connection that failed.
+	 *
+	 * @returns True if there's a new connection to carry on with, false if the
+	 * failure should be passed on.
+	 */
+	private synchronized boolean reconnect(int failedGeneration, String failure) {
+
+		if (closed) return false; //closed by us
+
+		if (failedGeneration != generation) return true; //already replaced
+
+		if (replaying == false) return false;
+
+		if (numLinesLetGo > 0) {
+
+			LOGGER.warn("Can't replay the examples, more than {} bytes of them were unanswered when the connection failed: {}", replayPolicy.getMaxBufferedBytes(), failure);
+
+			stopReplaying("the connection failed");
+
+			replayPolicy.onReplayFailed();
+
+			return false;
+		}
+
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+			LOGGER.debug("Failed to close the failed connection: {}", e.getMessage());
+		}
+
+		while (numRetries < replayPolicy.getMaxRetries()) {
+
+			numRetries++;
+
+			Socket newSocket = null;
+
+			try {
+				newSocket = socketFactory.getSocket();
+
+				transportProfile.configure(newSocket);
+
+				OutputStream out = newSocket.getOutputStream();
+
+				long numBytes = 0;
+
+				for (byte[] line : unansweredLines) {
+					out.write(line);
+					numBytes += line.length;
+				}
+
+				partialLine.writeTo(out);
+
+				numBytes += partialLine.size();
+
+				out.flush();
+
+				if (outputShutdown) newSocket.shutdownOutput();
+
+				socket = newSocket;
+
+				generation++;
+
+				replayPolicy.onReplayed(unansweredLines.size(), numBytes);
+
+				LOGGER.warn("Connection to VW failed ({}), replayed {} unanswered examples over a new connection (retry #{}).", failure, unansweredLines.size(), numRetries);
+
+				return true;
+			}
+			catch (IOException e) {
+
+				LOGGER.warn("Retry #{} failed to replay the examples: {}", numRetries, e.getMessage());
+
+				if (newSocket != null) try {
+					newSocket.close();
+				}
+				catch (IOException e2) {
+					LOGGER.debug("Failed to close the new connection: {}", e2.getMessage());
+				}
+			}
+		}
+
+		LOGGER.warn("Out of retries, can't replay the examples: {}", failure);
+
+		stopReplaying("out of retries");
+
+		replayPolicy.onReplayFailed();
+
+		return false;
+	}
+
+	private class ReplayingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+
+			OutputStream out;
+			int currentGeneration;
+
+			synchronized (ReplayingSocket.this) {
+
+				if (closed) throw new SocketException("Socket is closed");
+
+				//kept first, so that if the connection is replaced before the write, these bytes are replayed
+				keep(b, off, len);
+
+				out = socket.getOutputStream();
+				currentGeneration = generation;
+			}
+
+			try {
+				out.write(b, off, len);
+			}
+			catch (IOException e) {
+				if (reconnect(currentGeneration, e.getMessage()) == false) throw e;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+
+			OutputStream out;
+			int currentGeneration;
+
+			synchronized (ReplayingSocket.this) {
+
+				if (closed) throw new SocketException("Socket is closed");
+
+				out = socket.getOutputStream();
+				currentGeneration = generation;
+			}
+
+			try {
+				out.flush();
+			}
+			catch (IOException e) {
+				if (reconnect(currentGeneration, e.getMessage()) == false) throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			ReplayingSocket.this.close();
+		}
+	}
+
+	/*
+	 * Only ever read by a single thread, so the buffer isn't guarded. The
+	 * bytes from 'start' to 'end' have been read, but not handed out, and
+	 * those from 'answered' on make up a prediction that's still coming in.
+	 */
+	private class ReplayingInputStream extends InputStream {
+
+		private byte[] buffer = new byte[INITIAL_READ_BUFFER_SIZE];
+		private int start = 0, answered = 0, end = 0;
+		private int lastReadGeneration = 0;
+		private boolean endOfStream = false;
+
+		@Override
+		public int read() throws IOException {
+
+			byte[] b = new byte[1];
+
+			int numRead = read(b, 0, 1);
+
+			return numRead < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+
+			if (len == 0) return 0;
+
+			while (start == answered) {
+
+				if (endOfStream) {
+
+					if (answered == end) return -1;
+
+					//the last prediction didn't end with a newline
+					answered = end;
+
+					break;
+				}
+
+				fill();
+			}
+
+			int numToCopy = Math.min(len, answered - start);
+
+			System.arraycopy(buffer, start, b, off, numToCopy);
+
+			start += numToCopy;
+
+			return numToCopy;
+		}
+
+		/*
+		 * Reads more bytes off of the current connection.
+		 */
+		private void fill() throws IOException {
+
+			//make room
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				answered -= start;
+				end -= start;
+				start = 0;
+			}
+
+			if (end == buffer.length) {
+
+				if (buffer.length > TCPIPPredictionsIterator.MAX_PREDICTION_LENGTH) {
+
+					//too long to hold back, and the reader will fault on it anyway
+					stopReplaying("a prediction is too long");
+
+					answered = end;
+
+					return;
+				}
+
+				byte[] newBuffer = new byte[buffer.length * 2];
+
+				System.arraycopy(buffer, 0, newBuffer, 0, end);
+
+				buffer = newBuffer;
+			}
+
+			InputStream in;
+			int readGeneration;
+
+			synchronized (ReplayingSocket.this) {
+
+				if (closed) throw new SocketException("Socket is closed");
+
+				in = socket.getInputStream();
+				readGeneration = generation;
+			}
+
+			//the connection was replaced by the writer, so whatever was coming in on the failed one comes again
+			if (readGeneration != lastReadGeneration) {
+				end = answered;
+				lastReadGeneration = readGeneration;
+			}
+
+			int numRead;
+
+			try {
+				numRead = in.read(buffer, end, buffer.length - end);
+			}
+			catch (IOException e) {
+
+				if (reconnect(readGeneration, e.getMessage()) == false) throw e;
+
+				end = answered; //whatever was coming in on the failed connection comes again
+
+				return;
+			}
+
+			if (numRead < 0) {
+
+				if (onEndOfStream(readGeneration))
+					end = answered;
+				else {
+					endOfStream = true;
+				}
+
+				return;
+			}
+
+			int lastNewline = -1, numLines = 0;
+
+			for (int x = end; x < end + numRead; x++) {
+
+				if (buffer[x] != '\n') continue;
+
+				lastNewline = x;
+				numLines++;
+			}
+
+			if (onAnswered(readGeneration, numLines) == false) {
+				end = answered; //read off of a connection that's been replaced
+				return;
+			}
+
+			end += numRead;
+
+			if (lastNewline >= 0) answered = lastNewline + 1;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The classes of requests sent through the daemon writers, from the
+ *         most urgent to the least. A daemon writer always writes the batches
+ *         of a more urgent class first, so a batch request only gets written
+ *         in between the interactive ones (see RequestLanes).
+ */
+public enum RequestClass {
+
+	/*
+	 * Someone is waiting on the predictions, eg, scoring a single example
+	 * while serving a page.
+	 */
+	Interactive,
+
+	/*
+	 * Background scoring of lots of examples.
+	 */
+	Batch,
+
+	/*
+	 * Examples sent to train the model, whose predictions hardly matter.
+	 */
+	Training
+}
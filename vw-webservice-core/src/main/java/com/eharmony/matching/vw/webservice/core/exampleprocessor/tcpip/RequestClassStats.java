@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import com.eharmony.matching.vw.webservice.core.stats.LatencyTracker;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A class of requests sent through the daemon writers, along with the
+ *         number of writers reserved for it, counts of the examples it has had
+ *         queued and written, how long they waited, and how long it's
+ *         requests took from start to finish.
+ */
+public class RequestClassStats extends BatchQueueStats {
+
+	private static final int NUM_LATENCY_SAMPLES = 1024;
+
+	private final RequestClass requestClass;
+	private final int reservedWriters;
+
+	private final LatencyTracker requestLatencies = new LatencyTracker(NUM_LATENCY_SAMPLES);
+
+	public RequestClassStats(RequestClass requestClass, int reservedWriters) {
+		this.requestClass = requestClass;
+		this.reservedWriters = reservedWriters;
+	}
+
+	/*
+	 * Records that a request of the class got all of it's predictions.
+	 *
+	 * @param latencyMillis How long the request took, from when it's first
+	 * prediction was asked for.
+	 */
+	void onRequestCompleted(long latencyMillis) {
+		requestLatencies.record(latencyMillis);
+	}
+
+	public RequestClass getRequestClass() {
+		return requestClass;
+	}
+
+	public int getReservedWriters() {
+		return reservedWriters;
+	}
+
+	public long getNumberOfRequestsCompleted() {
+		return requestLatencies.getTotalNumberRecorded();
+	}
+
+	/*
+	 * Returns a percentile of the latencies of the most recent requests, in
+	 * milliseconds, or 0 if none have completed.
+	 */
+	public long getRequestLatencyMillis(double percentile) {
+		return requestLatencies.getPercentile(percentile, 0);
+	}
+
+	@Override
+	public String toString() {
+		return "RequestClassStats [requestClass=" + requestClass + ", reservedWriters=" + reservedWriters + ", queueDepth=" + getQueueDepth() + ", examplesWritten=" + getNumberOfExamplesWritten() + "]";
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         How the daemon writers are divided up between the classes of
+ *         requests (see RequestClass). Each class can have some writers
+ *         reserved for it alone, so that it always has capacity of it's own;
+ *         the rest of the writers are shared by every class. Whichever writer
+ *         they're on, the batches of a more urgent class are written first,
+ *         and within a class, earliest deadline first.
+ *
+ *         Requests that don't name a class, or name one that doesn't exist,
+ *         belong to the default class.
+ */
+public class RequestLanes {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RequestLanes.class);
+
+	public static final RequestLanes DEFAULT = new RequestLanes("", RequestClass.Batch.name());
+
+	private final Map<RequestClass, Integer> reservedWriters;
+	private final RequestClass defaultClass;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param reservedWriters The number of writers reserved for each class,
+	 * as a comma separated list of class:number pairs, eg, 'interactive:2'.
+	 * Classes that aren't listed have no writers of their own. Can be empty.
+	 *
+	 * @param defaultClass The name of the class of requests that don't name
+	 * one.
+	 */
+	public RequestLanes(String reservedWriters, String defaultClass) {
+
+		Map<RequestClass, Integer> theReservedWriters = new EnumMap<RequestClass, Integer>(RequestClass.class);
+
+		if (StringUtils.isBlank(reservedWriters) == false) {
+
+			for (String token : reservedWriters.split(",")) {
+
+				if (StringUtils.isBlank(token)) continue;
+
+				String[] classAndNumber = token.split(":");
+
+				checkArgument(classAndNumber.length == 2, "Invalid reserved writers: " + token + "!");
+
+				RequestClass requestClass = parse(classAndNumber[0]);
+
+				checkArgument(requestClass != null, "No such request class: " + classAndNumber[0] + "!");
+
+				int number = Integer.parseInt(classAndNumber[1].trim());
+
+				checkArgument(number >= 0, "The number of reserved writers must be >= 0!");
+
+				theReservedWriters.put(requestClass, number);
+			}
+		}
+
+		this.reservedWriters = Collections.unmodifiableMap(theReservedWriters);
+		this.defaultClass = parse(defaultClass);
+
+		checkArgument(this.defaultClass != null, "No such request class: " + defaultClass + "!");
+	}
+
+	/*
+	 * Returns the number of writers reserved for a class.
+	 */
+	public int getReservedWriters(RequestClass requestClass) {
+
+		Integer number = reservedWriters.get(requestClass);
+
+		return number != null ? number : 0;
+	}
+
+	/*
+	 * Returns the number of writers reserved for any class.
+	 */
+	public int getTotalReservedWriters() {
+
+		int total = 0;
+
+		for (int number : reservedWriters.values())
+			total += number;
+
+		return total;
+	}
+
+	public RequestClass getDefaultClass() {
+		return defaultClass;
+	}
+
+	/*
+	 * Returns the class with the given name, or the default class if the name
+	 * is blank or isn't that of a class.
+	 */
+	public RequestClass getRequestClass(String name) {
+
+		if (StringUtils.isBlank(name)) return defaultClass;
+
+		RequestClass requestClass = parse(name);
+
+		if (requestClass == null) {
+			LOGGER.warn("No such request class: {}, using the default class.", name);
+			return defaultClass;
+		}
+
+		return requestClass;
+	}
+
+	private static RequestClass parse(String name) {
+
+		if (name == null) return null;
+
+		for (RequestClass requestClass : RequestClass.values())
+			if (requestClass.name().equalsIgnoreCase(name.trim())) return requestClass;
+
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "RequestLanes [reservedWriters=" + reservedWriters + ", defaultClass=" + defaultClass + "]";
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A socket factory that spreads connections over a number of
+ *         identical VW daemons, eg, replicas of a model running with '-t',
+ *         taking them in turn. If a daemon can't be connected to, the next
+ *         one is tried, so a replica that's down only costs a failed connect.
+ */
+public class RoundRobinTCPIPSocketFactory implements TCPIPSocketFactory {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RoundRobinTCPIPSocketFactory.class);
+
+	private final List<TCPIPSocketFactory> socketFactories;
+
+	private final AtomicInteger nextSocketFactory = new AtomicInteger();
+
+	/*
+	 * Constructor.
+	 *
+	 * @param socketFactories The daemons to spread connections over.
+	 */
+	public RoundRobinTCPIPSocketFactory(List<TCPIPSocketFactory> socketFactories) {
+
+		checkNotNull(socketFactories, "A null list of socket factories cannot be provided!");
+		checkArgument(socketFactories.isEmpty() == false, "At least one socket factory must be provided!");
+
+		this.socketFactories = Collections.unmodifiableList(new ArrayList<TCPIPSocketFactory>(socketFactories));
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param daemons The daemons to spread connections over, as a comma
+	 * separated list of host:port pairs, eg, 'vw1:26542,vw2:26542'.
+	 *
+	 * @param connectTimeoutMillis How long to wait for a connection to a
+	 * daemon. 0 means wait forever.
+	 *
+	 * @param readTimeoutMillis How long a read from a daemon can block. 0
+	 * means wait forever.
+	 */
+	public RoundRobinTCPIPSocketFactory(String daemons, int connectTimeoutMillis, int readTimeoutMillis) {
+		this(parse(daemons, connectTimeoutMillis, readTimeoutMillis));
+	}
+
+	private static List<TCPIPSocketFactory> parse(String daemons, int connectTimeoutMillis, int readTimeoutMillis) {
+
+		List<TCPIPSocketFactory> socketFactories = new ArrayList<TCPIPSocketFactory>();
+
+		if (StringUtils.isBlank(daemons)) return socketFactories;
+
+		for (String token : daemons.split(",")) {
+
+			if (StringUtils.isBlank(token)) continue;
+
+			String[] hostAndPort = token.trim().split(":");
+
+			checkArgument(hostAndPort.length == 2, "Invalid daemon: " + token + "!");
+
+			socketFactories.add(new TCPIPSocketFactoryImpl(hostAndPort[0].trim(), Integer.parseInt(hostAndPort[1].trim()), connectTimeoutMillis, readTimeoutMillis));
+		}
+
+		return socketFactories;
+	}
+
+	/*
+	 * Returns a socket to the next daemon in turn, or to the one after it if
+	 * it can't be connected to, and so on.
+	 *
+	 * @throws IOException The exception thrown by the last daemon, if none of
+	 * them could be connected to.
+	 */
+	@Override
+	public Socket getSocket() throws UnknownHostException, IOException {
+
+		int start = (nextSocketFactory.getAndIncrement() & Integer.MAX_VALUE) % socketFactories.size();
+
+		IOException lastException = null;
+
+		for (int x = 0; x < socketFactories.size(); x++) {
+
+			TCPIPSocketFactory socketFactory = socketFactories.get((start + x) % socketFactories.size());
+
+			try {
+				return socketFactory.getSocket();
+			}
+			catch (IOException e) {
+
+				LOGGER.warn("Failed to get socket from {}, trying the next one: {}", socketFactory, e.getMessage());
+
+				lastException = e;
+			}
+		}
+
+		LOGGER.error("Failed to get a socket to any of the VW daemons: {}", socketFactories);
+
+		throw lastException;
+	}
+
+	public List<TCPIPSocketFactory> getSocketFactories() {
+		return socketFactories;
+	}
+
+	@Override
+	public String toString() {
+		return socketFactories.toString();
+	}
+}
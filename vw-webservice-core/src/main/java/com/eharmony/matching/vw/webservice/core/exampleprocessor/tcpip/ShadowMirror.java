@@ -0,0 +1,396 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.core.stats.LatencyTracker;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Mirrors a sample of the examples sent to VW to a shadow daemon, eg,
+ *         a retrained model that's a candidate for promotion, and compares
+ *         it's predictions with those of the primary daemon.
+ *
+ *         Mirroring never holds up a request: each example is sampled with
+ *         probability 'sampleRate' as it's written to the primary daemon, and
+ *         offered to a bounded queue, which drops it if it's full. A single
+ *         background thread sends the queued examples to the shadow daemon,
+ *         up to 'batchSize' per connection, and records how long the shadow
+ *         daemon takes to answer each batch. Once both predictions of an
+ *         example are in, the difference between them is recorded, whichever
+ *         one came in last.
+ *
+ *         Predictions are compared by the number they start with. Predictions
+ *         that aren't numbers count as agreeing if they're the same.
+ *
+ *         The shadow daemon should run with '-t', so that it doesn't learn
+ *         from the labeled examples it's sent. 'start()' must be called for
+ *         the examples to be sent.
+ */
+public class ShadowMirror {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShadowMirror.class);
+
+	private static final int NUM_LATENCY_SAMPLES = 1000;
+
+	/*
+	 * A mirror that doesn't mirror anything.
+	 */
+	public static final ShadowMirror DISABLED = new ShadowMirror(null, 0, 1, 1);
+
+	private final TCPIPSocketFactory shadowSocketFactory;
+	private final double sampleRate;
+	private final int batchSize;
+
+	private final BlockingQueue<MirroredExample> queue;
+
+	private final LatencyTracker latencyTracker = new LatencyTracker(NUM_LATENCY_SAMPLES);
+
+	private volatile boolean running = false;
+
+	private Thread senderThread = null;
+
+	/*
+	 * Guarded by 'this'.
+	 */
+	private long numExamplesSampled = 0, numExamplesDropped = 0, numExamplesSent = 0, numShadowFailures = 0;
+	private long numPredictionsCompared = 0, numPredictionsDisagreeing = 0, numNumericPredictionsCompared = 0;
+	private double sumAbsoluteDelta = 0, maxAbsoluteDelta = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param shadowSocketFactory Connects to the shadow daemon. Can be null if
+	 * the sample rate is 0.
+	 *
+	 * @param sampleRate The fraction of examples to mirror, between 0 and 1. 0
+	 * turns mirroring off.
+	 *
+	 * @param queueCapacity The most examples waiting to be sent to the shadow
+	 * daemon. Examples sampled while the queue is full are dropped.
+	 *
+	 * @param batchSize The most examples sent to the shadow daemon over a
+	 * single connection.
+	 */
+	public ShadowMirror(TCPIPSocketFactory shadowSocketFactory, double sampleRate, int queueCapacity, int batchSize) {
+
+		checkArgument(sampleRate >= 0 && sampleRate <= 1, "The sample rate must be between 0 and 1!");
+		checkArgument(sampleRate == 0 || shadowSocketFactory != null, "A shadow socket factory must be provided!");
+		checkArgument(queueCapacity > 0, "The queue capacity must be > 0!");
+		checkArgument(batchSize > 0, "The batch size must be > 0!");
+
+		this.shadowSocketFactory = shadowSocketFactory;
+		this.sampleRate = sampleRate;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<MirroredExample>(queueCapacity);
+	}
+
+	public synchronized void start() {
+
+		if (isEnabled() == false) {
+			LOGGER.info("Shadow mirroring is turned off.");
+			return;
+		}
+
+		if (senderThread != null) return;
+
+		running = true;
+
+		senderThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				sendExamples();
+			}
+		}, "vw-shadow-mirror");
+
+		senderThread.setDaemon(true);
+		senderThread.start();
+
+		LOGGER.info("Mirroring {} of the examples to {}.", sampleRate, shadowSocketFactory);
+	}
+
+	public synchronized void shutdown() {
+
+		if (senderThread == null) return;
+
+		running = false;
+
+		senderThread.interrupt();
+
+		senderThread = null;
+	}
+
+	public boolean isEnabled() {
+		return sampleRate > 0;
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/*
+	 * Returns a tap for a single request, or null if mirroring is off.
+	 */
+	ShadowTap newTap() {
+		return isEnabled() ? new ShadowTap(this) : null;
+	}
+
+	/*
+	 * Queues an example for the shadow daemon, without waiting.
+	 *
+	 * @returns True if the example was queued, false if it was dropped.
+	 */
+	boolean offer(MirroredExample example) {
+
+		boolean queued = running && queue.offer(example);
+
+		synchronized (this) {
+			numExamplesSampled++;
+
+			if (queued == false) numExamplesDropped++;
+		}
+
+		return queued;
+	}
+
+	private void sendExamples() {
+
+		List<MirroredExample> batch = new ArrayList<MirroredExample>(batchSize);
+
+		while (running) {
+
+			try {
+				MirroredExample first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+				if (first == null) continue;
+
+				batch.add(first);
+
+				queue.drainTo(batch, batchSize - 1);
+
+				send(batch);
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			catch (Throwable e) {
+				LOGGER.error("Unexpected error when mirroring examples: {}", e.getMessage(), e);
+			}
+			finally {
+				batch.clear();
+			}
+		}
+
+		queue.clear();
+	}
+
+	/*
+	 * Sends a batch of examples to the shadow daemon over a connection of it's
+	 * own, and reads the predictions back.
+	 */
+	private void send(List<MirroredExample> batch) {
+
+		StringBuilder toWrite = new StringBuilder();
+
+		for (MirroredExample example : batch)
+			toWrite.append(example.getExample()).append('\n');
+
+		long start = System.currentTimeMillis();
+
+		int numPredictions = 0;
+
+		try (Socket socket = shadowSocketFactory.getSocket()) {
+
+			OutputStream out = socket.getOutputStream();
+
+			out.write(toWrite.toString().getBytes(Charsets.UTF_8));
+			out.flush();
+
+			socket.shutdownOutput();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+
+			String prediction;
+
+			while (numPredictions < batch.size() && (prediction = reader.readLine()) != null)
+				batch.get(numPredictions++).onShadowPrediction(prediction);
+
+			latencyTracker.record(System.currentTimeMillis() - start);
+		}
+		catch (IOException e) {
+			LOGGER.warn("Failed to mirror {} examples to the shadow daemon: {}", batch.size(), e.getMessage());
+		}
+
+		synchronized (this) {
+			numExamplesSent += batch.size();
+			numShadowFailures += batch.size() - numPredictions;
+		}
+	}
+
+	/*
+	 * Records the difference between the primary and shadow predictions of an
+	 * example.
+	 */
+	void compare(String primaryPrediction, String shadowPrediction) {
+
+		double delta;
+
+		try {
+			delta = Math.abs(leadingNumber(primaryPrediction) - leadingNumber(shadowPrediction));
+		}
+		catch (NumberFormatException e) {
+			delta = primaryPrediction.trim().equals(shadowPrediction.trim()) ? 0 : Double.NaN;
+		}
+
+		synchronized (this) {
+
+			numPredictionsCompared++;
+
+			if (Double.isNaN(delta) || delta > 0) numPredictionsDisagreeing++;
+
+			if (Double.isNaN(delta)) return;
+
+			numNumericPredictionsCompared++;
+
+			sumAbsoluteDelta += delta;
+			maxAbsoluteDelta = Math.max(maxAbsoluteDelta, delta);
+		}
+	}
+
+	private static double leadingNumber(String prediction) {
+
+		String trimmed = prediction.trim();
+
+		int space = trimmed.indexOf(' ');
+
+		return Double.parseDouble(space < 0 ? trimmed : trimmed.substring(0, space));
+	}
+
+	/*
+	 * Returns the number of examples picked for mirroring, including those
+	 * that were dropped.
+	 */
+	public synchronized long getNumberOfExamplesSampled() {
+		return numExamplesSampled;
+	}
+
+	/*
+	 * Returns the number of sampled examples dropped because the queue was
+	 * full.
+	 */
+	public synchronized long getNumberOfExamplesDropped() {
+		return numExamplesDropped;
+	}
+
+	public synchronized long getNumberOfExamplesSent() {
+		return numExamplesSent;
+	}
+
+	/*
+	 * Returns the number of examples sent to the shadow daemon that it
+	 * didn't return a prediction for.
+	 */
+	public synchronized long getNumberOfShadowFailures() {
+		return numShadowFailures;
+	}
+
+	/*
+	 * Returns the number of examples whose primary and shadow predictions
+	 * have both come in.
+	 */
+	public synchronized long getNumberOfPredictionsCompared() {
+		return numPredictionsCompared;
+	}
+
+	public synchronized long getNumberOfPredictionsDisagreeing() {
+		return numPredictionsDisagreeing;
+	}
+
+	/*
+	 * Returns the mean absolute difference between the primary and shadow
+	 * predictions, over the numeric predictions compared so far.
+	 */
+	public synchronized double getMeanAbsoluteDelta() {
+
+		return numNumericPredictionsCompared == 0 ? 0 : sumAbsoluteDelta / numNumericPredictionsCompared;
+	}
+
+	public synchronized double getMaxAbsoluteDelta() {
+		return maxAbsoluteDelta;
+	}
+
+	/*
+	 * Returns a percentile of how long the shadow daemon took to answer a
+	 * batch of examples, or 0 if it hasn't answered any yet.
+	 */
+	public long getShadowLatencyMillis(double percentile) {
+		return latencyTracker.getPercentile(percentile, 0);
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/*
+	 * An example sent to both daemons, waiting for both of it's predictions.
+	 */
+	static class MirroredExample {
+
+		private final ShadowMirror mirror;
+		private final String example;
+
+		private String primaryPrediction = null, shadowPrediction = null;
+
+		MirroredExample(ShadowMirror mirror, String example) {
+			this.mirror = mirror;
+			this.example = example;
+		}
+
+		String getExample() {
+			return example;
+		}
+
+		void onPrimaryPrediction(String prediction) {
+
+			synchronized (this) {
+
+				primaryPrediction = prediction;
+
+				if (shadowPrediction == null) return;
+			}
+
+			mirror.compare(prediction, shadowPrediction);
+		}
+
+		void onShadowPrediction(String prediction) {
+
+			synchronized (this) {
+
+				shadowPrediction = prediction;
+
+				if (primaryPrediction == null) return;
+			}
+
+			mirror.compare(primaryPrediction, prediction);
+		}
+	}
+}
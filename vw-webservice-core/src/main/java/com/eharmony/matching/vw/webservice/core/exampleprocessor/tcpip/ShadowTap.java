@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.ShadowMirror.MirroredExample;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tees the examples of a single request into a shadow mirror, and
+ *         matches the primary daemon's predictions up with the examples that
+ *         were mirrored. Examples and predictions are numbered in the order
+ *         they're written and read, which is the same order since VW answers
+ *         the examples on a connection in order.
+ *
+ *         Neither side ever waits: examples that aren't sampled, or that the
+ *         mirror drops, are forgotten right away.
+ *
+ *         Making this package-private for now.
+ */
+class ShadowTap {
+
+	private final ShadowMirror mirror;
+
+	//the mirrored examples still waiting on their primary prediction, by number
+	private final ConcurrentMap<Long, MirroredExample> pending = new ConcurrentHashMap<Long, MirroredExample>();
+
+	ShadowTap(ShadowMirror mirror) {
+		this.mirror = mirror;
+	}
+
+	/*
+	 * Called once an example has been written to the primary daemon.
+	 *
+	 * @param number The number of the example within the request, counting
+	 * only the examples written, from 0.
+	 */
+	void onExampleWritten(long number, String example) {
+
+		if (ThreadLocalRandom.current().nextDouble() >= mirror.getSampleRate()) return;
+
+		MirroredExample mirrored = new MirroredExample(mirror, example);
+
+		//before offering it, since the primary prediction could be read before offer() returns
+		pending.put(number, mirrored);
+
+		if (mirror.offer(mirrored) == false) pending.remove(number);
+	}
+
+	/*
+	 * Called once a prediction has been read from the primary daemon.
+	 *
+	 * @param number The number of the prediction within the request, from 0.
+	 */
+	void onPredictionRead(long number, String prediction) {
+
+		if (pending.isEmpty()) return;
+
+		MirroredExample mirrored = pending.remove(number);
+
+		if (mirrored != null) mirrored.onPrimaryPrediction(prediction);
+	}
+}
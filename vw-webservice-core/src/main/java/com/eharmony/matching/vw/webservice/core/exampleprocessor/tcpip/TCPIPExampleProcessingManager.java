@@ -5,28 +5,317 @@ package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
-import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.eharmony.matching.vw.webservice.core.pipeline.PrefetchingIterator;
 
 /**
  * @author vrahimtoola An implementation of ExampleProcessingManager for use by
  *         the AsyncFailFastTCPIPExampleProcessor.
+ * 
+ *         The example submitter is handed to the manager, which only starts it
+ *         once someone asks for the predictions, and only if the request's
+ *         deadline hasn't passed by then.
  */
-class TCPIPExampleProcessingManager implements ExampleProcessingManager {
+class TCPIPExampleProcessingManager implements FlowControlledExampleProcessingManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TCPIPExampleProcessingManager.class);
 
 	private long numExamplesSubmitted, numExamplesSkipped, numPredictionsFetched;
 	private ExampleSubmissionState exampleSubmissionState = ExampleSubmissionState.OnGoing;
 	private final TCPIPPredictionsIterator predictionsIterator;
+	private final ExampleSubmissionWindow exampleSubmissionWindow;
+	private final Socket socket;
+	private final ExampleProcessingEventHandler callback;
+	private final RequestDeadline deadline;
+
+	private ExecutorService executorService;
+	private Callable<Void> exampleSubmitter;
+	private Future<Void> exampleSubmission;
+	private boolean exampleSubmissionStarted = false, abandoned = false, cancelled = false;
+
+	//the timers that abandon or expire the request, cancelled once it's over
+	private final List<Future<?>> timers = new ArrayList<Future<?>>();
+	private boolean timersCancelled = false;
 
 	private boolean isStopped = false;
 
+	private PrefetchingIterator<Prediction> prefetchingIterator = null;
+
 	public TCPIPExampleProcessingManager(Socket socket, ExampleProcessingEventHandler callback) throws IOException {
-		this.predictionsIterator = new TCPIPPredictionsIterator(socket, callback, this);
+		this(socket, callback, null, RequestDeadline.NONE);
+	}
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param exampleSubmissionWindow The window to keep up to date with the
+	 * predictions fetched. Null if the request isn't flow controlled.
+	 * 
+	 * @param deadline The request's deadline.
+	 */
+	public TCPIPExampleProcessingManager(Socket socket, ExampleProcessingEventHandler callback, ExampleSubmissionWindow exampleSubmissionWindow, RequestDeadline deadline) throws IOException {
+		this(socket, callback, exampleSubmissionWindow, deadline, InFlightMemoryBudget.UNLIMITED);
+	}
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param memoryBudget The budget that predictions are read against.
+	 */
+	public TCPIPExampleProcessingManager(Socket socket, ExampleProcessingEventHandler callback, ExampleSubmissionWindow exampleSubmissionWindow, RequestDeadline deadline, InFlightMemoryBudget memoryBudget) throws IOException {
+		this.predictionsIterator = new TCPIPPredictionsIterator(socket, callback, this, memoryBudget);
+		this.exampleSubmissionWindow = exampleSubmissionWindow;
+		this.socket = socket;
+		this.callback = callback;
+		this.deadline = deadline;
+	}
+
+	/*
+	 * Has the predictions read ahead, on a thread of their own, of whoever
+	 * iterates over them. Must be called before the predictions are asked
+	 * for.
+	 * 
+	 * @param ringBufferSize The most predictions to read ahead.
+	 */
+	public synchronized void prefetchPredictions(ExecutorService executorService, int ringBufferSize) {
+		this.prefetchingIterator = new PrefetchingIterator<Prediction>(predictionsIterator, ringBufferSize, executorService);
+	}
+
+	/*
+	 * Tells the tap about each prediction read, so they can be compared with
+	 * the shadow daemon's. Must be called before the predictions are asked
+	 * for.
+	 */
+	void mirrorTo(ShadowTap shadowTap) {
+		predictionsIterator.setShadowTap(shadowTap);
+	}
+
+	/*
+	 * Sets the example submitter to start once the predictions are asked
+	 * for.
+	 */
+	public synchronized void setExampleSubmitter(ExecutorService executorService, Callable<Void> exampleSubmitter) {
+		this.executorService = executorService;
+		this.exampleSubmitter = exampleSubmitter;
+	}
+
+	/*
+	 * Has the timer cancelled once the request is over, so that the scheduler
+	 * doesn't hold on to the request till the timer goes off. If the request
+	 * is already over, the timer is cancelled right away.
+	 */
+	void cancelWhenDone(Future<?> timer) {
+
+		synchronized (this) {
+
+			if (timersCancelled == false) {
+				timers.add(timer);
+				return;
+			}
+		}
+
+		timer.cancel(false);
+	}
+
+	/*
+	 * Cancels the timers of a request that's over.
+	 */
+	void cancelTimers() {
+
+		List<Future<?>> toCancel;
+
+		synchronized (this) {
+			timersCancelled = true;
+			toCancel = new ArrayList<Future<?>>(timers);
+			timers.clear();
+		}
+
+		for (Future<?> timer : toCancel)
+			timer.cancel(false);
+	}
+
+	/*
+	 * Starts the example submitter, if it hasn't been started already.
+	 * 
+	 * @returns False if the request has been abandoned, cancelled, or it's
+	 * deadline has passed.
+	 */
+	boolean startExampleSubmission() {
+
+		synchronized (this) {
+
+			if (abandoned || cancelled) return false;
+
+			if (exampleSubmissionStarted || exampleSubmitter == null) return true;
+
+			if (deadline.hasPassed() == false) {
+
+				LOGGER.debug("Predictions asked for, starting example submission.");
+
+				exampleSubmission = executorService.submit(exampleSubmitter);
+
+				exampleSubmissionStarted = true;
+
+				exampleSubmitter = null;
+
+				return true;
+			}
+		}
+
+		LOGGER.warn("The deadline passed before the predictions were asked for, not submitting any examples.");
+
+		expire();
+
+		return false;
+	}
+
+	/*
+	 * Abandons the request if nobody has asked for the predictions yet: the
+	 * examples are never submitted, and the socket is closed.
+	 * 
+	 * @returns True if the request was abandoned.
+	 */
+	public boolean abandonIfUnread() {
+
+		synchronized (this) {
+
+			if (exampleSubmissionStarted || abandoned || cancelled) return false;
+
+			abandoned = true;
+			isStopped = true;
+			exampleSubmitter = null;
+			exampleSubmissionState = ExampleSubmissionState.Stopped;
+		}
+
+		predictionsIterator.setPredictionFetchState(PredictionFetchState.PredictionFetchFault);
+
+		cancelTimers();
+
+		if (exampleSubmissionWindow != null) exampleSubmissionWindow.close();
+
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+			LOGGER.warn("Failed to close the socket of an abandoned request: {}", e.getMessage(), e);
+		}
+
+		if (callback != null) {
+			callback.onExampleSubmissionComplete(this);
+			callback.onPredictionFetchComplete(this);
+		}
+
+		return true;
+	}
+
+	public synchronized boolean isAbandoned() {
+		return abandoned;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessingManager#cancel()
+	 */
+	@Override
+	public boolean cancel() {
+		return terminate(PredictionFetchState.Cancelled);
+	}
+
+	/*
+	 * Stops the request because it's deadline has passed. Works just like
+	 * 'cancel()', except that the prediction fetch state becomes
+	 * 'DeadlineExceeded'.
+	 * 
+	 * @returns True if this call stopped the request.
+	 */
+	public boolean expire() {
+		return terminate(PredictionFetchState.DeadlineExceeded);
+	}
+
+	private boolean terminate(PredictionFetchState finalState) {
+
+		Future<Void> toInterrupt;
+
+		boolean started;
+
+		synchronized (this) {
+
+			if (cancelled || abandoned) return false;
+
+			if (exampleSubmissionState != ExampleSubmissionState.OnGoing && predictionsIterator.getPredictionFetchState() != PredictionFetchState.OnGoing) return false; //already done
+
+			cancelled = true;
+			isStopped = true;
+			exampleSubmitter = null;
+			toInterrupt = exampleSubmission;
+			started = exampleSubmissionStarted;
+
+			if (started == false) exampleSubmissionState = ExampleSubmissionState.Stopped;
+		}
+
+		LOGGER.info("Stopping request ({}) after submitting {} examples and fetching {} predictions.", finalState, getTotalNumberOfExamplesSubmitted(), getTotalNumberOfPredictionsFetched());
+
+		predictionsIterator.cancel(finalState);
+
+		cancelTimers();
+
+		//whoever is iterating over the predictions may have stopped doing so, so don't leave the read ahead waiting on them
+		PrefetchingIterator<Prediction> toStop;
+
+		synchronized (this) {
+			toStop = prefetchingIterator;
+		}
+
+		if (toStop != null) toStop.stop();
+
+		if (exampleSubmissionWindow != null) exampleSubmissionWindow.close();
+
+		//closing the socket fails any read or write that's blocked on VW
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+			LOGGER.warn("Failed to close the socket of a cancelled request: {}", e.getMessage(), e);
+		}
+
+		//and interrupting the submitter gets it out of waiting on the window, or on the client
+		if (toInterrupt != null) toInterrupt.cancel(true);
+
+		//the submitter and the predictions iterator report on themselves once they've started, otherwise they never will
+		if (started == false && callback != null) {
+			callback.onExampleSubmissionComplete(this);
+			callback.onPredictionFetchComplete(this);
+		}
+
+		return true;
+	}
+
+	/*
+	 * Returns true if the request was cancelled, or it's deadline passed.
+	 */
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public RequestDeadline getDeadline() {
+		return deadline;
 	}
 
 	/*
@@ -40,6 +329,13 @@ class TCPIPExampleProcessingManager implements ExampleProcessingManager {
 		return new Iterable<Prediction>() {
 
 			public Iterator<Prediction> iterator() {
+
+				startExampleSubmission();
+
+				synchronized (TCPIPExampleProcessingManager.this) {
+					if (prefetchingIterator != null) return prefetchingIterator;
+				}
+
 				return predictionsIterator;
 			}
 		};
@@ -51,9 +347,14 @@ class TCPIPExampleProcessingManager implements ExampleProcessingManager {
 	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
 	 * ExampleProcessingManager#stopAll()
 	 */
-	public synchronized void stopAll() {
+	public void stopAll() {
 
-		isStopped = true;
+		synchronized (this) {
+			isStopped = true;
+		}
+
+		//let the submitter see that it's been stopped, if it's waiting on the window
+		if (exampleSubmissionWindow != null) exampleSubmissionWindow.close();
 	}
 
 	/*
@@ -105,8 +406,13 @@ class TCPIPExampleProcessingManager implements ExampleProcessingManager {
 		numExamplesSkipped++;
 	}
 
-	public synchronized void incrementNumberOfPredictionsFetched() {
-		numPredictionsFetched++;
+	public void incrementNumberOfPredictionsFetched() {
+
+		synchronized (this) {
+			numPredictionsFetched++;
+		}
+
+		if (exampleSubmissionWindow != null) exampleSubmissionWindow.onFetched();
 	}
 
 	public synchronized void setExampleSubmissionState(ExampleSubmissionState newState) {
@@ -120,4 +426,9 @@ class TCPIPExampleProcessingManager implements ExampleProcessingManager {
 	public synchronized long getTotalNumberOfPredictionsFetched() {
 		return numPredictionsFetched;
 	}
+
+	@Override
+	public ExampleSubmissionWindow getExampleSubmissionWindow() {
+		return exampleSubmissionWindow;
+	}
 }
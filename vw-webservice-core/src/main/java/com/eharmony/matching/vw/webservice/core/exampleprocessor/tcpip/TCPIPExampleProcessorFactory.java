@@ -3,22 +3,92 @@
  */
 package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.StreamingExampleSession;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.StreamingPredictionListener;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
 
 /**
  * @author vrahimtoola
  * 
  *         A factory that returns example processors that submit examples to VW
  *         over a TCP-IP socket and read predictions back the same way.
+ * 
+ *         Each request is sent using a transport profile, picked by name using
+ *         the TRANSPORT_PROFILE_ATTRIBUTE of the examples. Requests that don't
+ *         ask for a profile, or ask for one that doesn't exist, get the
+ *         default profile.
+ * 
+ *         Examples aren't sent to VW until someone starts reading the
+ *         predictions. A request whose predictions haven't been asked for
+ *         within 'abandonmentTimeoutMillis' is abandoned, and it's connection
+ *         to VW closed.
+ * 
+ *         Requests are stopped once their deadline (see RequestDeadline) has
+ *         passed.
+ * 
+ *         Tiny requests, as decided by the inline submission policy, are
+ *         handled inline on the caller's thread rather than streamed.
+ * 
+ *         The memory used to buffer examples and predictions is reserved from
+ *         the memory budget, which is shared with whatever else reads
+ *         requests.
+ * 
+ *         With a daemon writer pool, streamed requests share the pool's
+ *         long-lived connections to VW, whatever their transport profile,
+ *         rather than each getting a connection and a submission task of it's
+ *         own. The writers are shared fairly between the tenants of the
+ *         requests, named by the TENANT_ATTRIBUTE of the examples, and the
+ *         batches of more urgent classes of requests, named by the
+ *         REQUEST_CLASS_ATTRIBUTE, are written first (see RequestLanes).
+ * 
+ *         A sample of the examples of requests that don't go through the
+ *         daemon writers can be mirrored to a shadow daemon (see
+ *         ShadowMirror).
+ * 
+ *         Predict-only requests that are streamed over connections of their
+ *         own can be made to survive a connection failing, by sending their
+ *         unanswered examples again over a new connection (see ReplayPolicy).
  */
 public class TCPIPExampleProcessorFactory implements ExampleProcessorFactory {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(TCPIPExampleProcessorFactory.class);
+
+	/*
+	 * The examples attribute that holds the name of the transport profile to
+	 * use.
+	 */
+	public static final String TRANSPORT_PROFILE_ATTRIBUTE = "transportProfile";
+
+	/*
+	 * The examples attribute that holds the name of the tenant the request
+	 * belongs to, which decides it's share of the daemon writers.
+	 */
+	public static final String TENANT_ATTRIBUTE = "tenant";
+
+	/*
+	 * The examples attribute that holds the name of the class (see
+	 * RequestClass) the request belongs to, which decides how urgently it's
+	 * examples are written by the daemon writers.
+	 */
+	public static final String REQUEST_CLASS_ATTRIBUTE = "requestClass";
+
 	private final TCPIPSocketFactory socketFactory;
 
 	/*
@@ -26,14 +96,60 @@ public class TCPIPExampleProcessorFactory implements ExampleProcessorFactory {
 	 */
 	private final ExecutorService executorService;
 
+	private final Map<String, TransportProfile> transportProfiles = new HashMap<String, TransportProfile>();
+
+	private final TransportProfile defaultTransportProfile;
+
+	/*
+	 * The factory's own copy, which is also handed to the example processors.
+	 */
+	private final TCPIPExampleProcessorSettings settings;
+
 	public TCPIPExampleProcessorFactory(TCPIPSocketFactory socketFactory,
 	ExecutorService executorService) {
+		this(socketFactory, executorService, new TCPIPExampleProcessorSettings());
+	}
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param socketFactory The socket factory to connect to VW with.
+	 * 
+	 * @param executorService An application wide thread pool service.
+	 * 
+	 * @param settings The transport profiles, timeouts and policies to use.
+	 * The factory keeps a copy of them.
+	 */
+	public TCPIPExampleProcessorFactory(TCPIPSocketFactory socketFactory, ExecutorService executorService, TCPIPExampleProcessorSettings settings) {
 
 		checkNotNull(socketFactory, "A null socket factory cannot be provided!");
 		checkNotNull(executorService, "A null executor service cannot be provided!");
+		checkNotNull(settings, "Null settings cannot be provided!");
+
+		settings = new TCPIPExampleProcessorSettings(settings);
+
+		checkArgument(settings.getAbandonmentTimeoutMillis() == 0 || settings.getScheduler() != null, "A scheduler must be provided to abandon requests!");
+
+		for (TransportProfile transportProfile : settings.getTransportProfiles()) {
+
+			checkArgument(transportProfile.getFlushPolicy().isIdleFlushingEnabled() == false || settings.getScheduler() != null, "A scheduler must be provided for transport profile: %s", transportProfile.getName());
+
+			this.transportProfiles.put(transportProfile.getName(), transportProfile);
+		}
+
+		String defaultTransportProfileName = settings.getDefaultTransportProfileName();
+
+		if (defaultTransportProfileName == null)
+			this.defaultTransportProfile = TransportProfile.DEFAULT;
+		else {
+			this.defaultTransportProfile = this.transportProfiles.get(defaultTransportProfileName);
+
+			checkArgument(this.defaultTransportProfile != null, "No such transport profile: %s", defaultTransportProfileName);
+		}
 
 		this.socketFactory = socketFactory;
 		this.executorService = executorService;
+		this.settings = settings;
 	}
 
 	/*
@@ -45,11 +161,87 @@ public class TCPIPExampleProcessorFactory implements ExampleProcessorFactory {
 	 */
 	public ExampleProcessor getExampleProcessor(ExamplesIterable theExamples) {
 
-		// TODO: return a proper example submitter based on the provided
-		// examples iterable by examining its attributes.
+		TransportProfile transportProfile = getTransportProfile(theExamples);
+
+		RequestDeadline deadline = RequestDeadline.fromAttributes(theExamples);
+
+		String tenant = theExamples.getAttribute(TENANT_ATTRIBUTE);
+
+		RequestClass requestClass = getRequestClass(theExamples);
+
+		InlineSubmissionPolicy inlineSubmissionPolicy = settings.getInlineSubmissionPolicy();
+
+		if (inlineSubmissionPolicy.isInline(theExamples)) return new InlineTCPIPExampleProcessor(this, theExamples, inlineSubmissionPolicy.getMaxExamples(), transportProfile, deadline, tenant, requestClass);
+
+		return getExampleProcessor(theExamples, transportProfile, deadline, tenant, requestClass);
+	}
+
+	/*
+	 * Returns the class the examples say they belong to, or the default class.
+	 */
+	RequestClass getRequestClass(ExamplesIterable theExamples) {
+		return settings.getDaemonWriterPool().getRequestLanes().getRequestClass(theExamples.getAttribute(REQUEST_CLASS_ATTRIBUTE));
+	}
+
+	/*
+	 * Returns the transport profile the examples ask for, or the default
+	 * profile.
+	 */
+	TransportProfile getTransportProfile(ExamplesIterable theExamples) {
+
+		String name = theExamples.getAttribute(TRANSPORT_PROFILE_ATTRIBUTE);
+
+		if (StringUtils.isBlank(name)) return defaultTransportProfile;
+
+		TransportProfile transportProfile = transportProfiles.get(name);
+
+		if (transportProfile == null) {
+			LOGGER.warn("No such transport profile: {}, using the default profile.", name);
+			return defaultTransportProfile;
+		}
+
+		return transportProfile;
+	}
+
+	ExampleProcessor getExampleProcessor(Iterable<Example> examples, TransportProfile transportProfile, RequestDeadline deadline, String tenant, RequestClass requestClass) {
+
+		DaemonWriterPool daemonWriterPool = settings.getDaemonWriterPool();
+
+		if (daemonWriterPool.isEnabled()) return new MultiplexedTCPIPExampleProcessor(daemonWriterPool, examples, deadline, daemonWriterPool.getTenant(tenant), daemonWriterPool.getRequestClass(requestClass));
+
+		return new AsyncFailFastTCPIPExampleProcessor(socketFactory, executorService, examples, transportProfile, deadline, settings);
+	}
+
+	TCPIPSocketFactory getSocketFactory() {
+		return socketFactory;
+	}
+
+	ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	ShadowMirror getShadowMirror() {
+		return settings.getShadowMirror();
+	}
+
+	public InFlightMemoryBudget getMemoryBudget() {
+		return settings.getMemoryBudget();
+	}
+
+	/*
+	 * Opens a long-lived streaming session with VW, backed by a persistent
+	 * TCP IP connection.
+	 * 
+	 * @param listener The listener that predictions will be delivered to.
+	 * Cannot be null.
+	 * 
+	 * @returns The streaming session. The caller must close it when done.
+	 */
+	public StreamingExampleSession openStreamingSession(StreamingPredictionListener listener) throws ExampleSubmissionException {
+
+		checkNotNull(listener, "A null listener cannot be provided!");
 
-		// returning the TCP IP async submitter for now.
-		return new AsyncFailFastTCPIPExampleProcessor(socketFactory, executorService, theExamples);
+		return new TCPIPStreamingExampleSession(socketFactory, executorService, listener);
 	}
 
 }
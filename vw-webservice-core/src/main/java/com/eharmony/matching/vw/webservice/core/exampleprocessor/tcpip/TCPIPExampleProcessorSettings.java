@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The settings of a TCPIPExampleProcessorFactory, and of the example
+ *         processors it hands out. Every setting has a default, so only the
+ *         ones that differ from it need to be set, eg, as properties of a
+ *         Spring bean.
+ *
+ *         The factory takes a copy of the settings, so changing them once
+ *         the factory has been made has no effect on it.
+ */
+public class TCPIPExampleProcessorSettings {
+
+	private ScheduledExecutorService scheduler = null;
+	private List<TransportProfile> transportProfiles = Collections.emptyList();
+	private String defaultTransportProfileName = null;
+	private long abandonmentTimeoutMillis = 0;
+	private InlineSubmissionPolicy inlineSubmissionPolicy = InlineSubmissionPolicy.DISABLED;
+	private InFlightMemoryBudget memoryBudget = InFlightMemoryBudget.UNLIMITED;
+	private DaemonWriterPool daemonWriterPool = DaemonWriterPool.DISABLED;
+	private ShadowMirror shadowMirror = ShadowMirror.DISABLED;
+	private ReplayPolicy replayPolicy = ReplayPolicy.DISABLED;
+
+	/*
+	 * Constructor. Every setting starts out with it's default.
+	 */
+	public TCPIPExampleProcessorSettings() {
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param toCopy The settings to copy.
+	 */
+	public TCPIPExampleProcessorSettings(TCPIPExampleProcessorSettings toCopy) {
+
+		checkNotNull(toCopy, "Null settings cannot be provided!");
+
+		this.scheduler = toCopy.scheduler;
+		this.transportProfiles = toCopy.transportProfiles;
+		this.defaultTransportProfileName = toCopy.defaultTransportProfileName;
+		this.abandonmentTimeoutMillis = toCopy.abandonmentTimeoutMillis;
+		this.inlineSubmissionPolicy = toCopy.inlineSubmissionPolicy;
+		this.memoryBudget = toCopy.memoryBudget;
+		this.daemonWriterPool = toCopy.daemonWriterPool;
+		this.shadowMirror = toCopy.shadowMirror;
+		this.replayPolicy = toCopy.replayPolicy;
+	}
+
+	public ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
+
+	/*
+	 * @param scheduler The scheduler that idle writers are flushed, abandoned
+	 * requests timed out, and requests past their deadline stopped, on. Only
+	 * needed if one of the transport profiles flushes idle writers, or
+	 * there's an abandonment timeout. Null by default.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public List<TransportProfile> getTransportProfiles() {
+		return transportProfiles;
+	}
+
+	/*
+	 * @param transportProfiles The profiles that requests can ask for. None
+	 * by default.
+	 */
+	public void setTransportProfiles(List<TransportProfile> transportProfiles) {
+
+		checkNotNull(transportProfiles, "A null list of transport profiles cannot be provided!");
+
+		this.transportProfiles = Collections.unmodifiableList(new ArrayList<TransportProfile>(transportProfiles));
+	}
+
+	public String getDefaultTransportProfileName() {
+		return defaultTransportProfileName;
+	}
+
+	/*
+	 * @param defaultTransportProfileName The name of the profile to use for
+	 * requests that don't ask for one. If null, which it is by default,
+	 * TransportProfile.DEFAULT is used.
+	 */
+	public void setDefaultTransportProfileName(String defaultTransportProfileName) {
+		this.defaultTransportProfileName = defaultTransportProfileName;
+	}
+
+	public long getAbandonmentTimeoutMillis() {
+		return abandonmentTimeoutMillis;
+	}
+
+	/*
+	 * @param abandonmentTimeoutMillis How long a request can go without anyone
+	 * asking for it's predictions before it's abandoned. 0, the default, means
+	 * never.
+	 */
+	public void setAbandonmentTimeoutMillis(long abandonmentTimeoutMillis) {
+
+		checkArgument(abandonmentTimeoutMillis >= 0, "The abandonment timeout must be >= 0!");
+
+		this.abandonmentTimeoutMillis = abandonmentTimeoutMillis;
+	}
+
+	public InlineSubmissionPolicy getInlineSubmissionPolicy() {
+		return inlineSubmissionPolicy;
+	}
+
+	/*
+	 * @param inlineSubmissionPolicy Decides which requests are small enough
+	 * to be handled inline. Disabled by default.
+	 */
+	public void setInlineSubmissionPolicy(InlineSubmissionPolicy inlineSubmissionPolicy) {
+
+		checkNotNull(inlineSubmissionPolicy, "A null inline submission policy cannot be provided!");
+
+		this.inlineSubmissionPolicy = inlineSubmissionPolicy;
+	}
+
+	public InFlightMemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/*
+	 * @param memoryBudget The budget to reserve buffered memory from.
+	 * Unlimited by default.
+	 */
+	public void setMemoryBudget(InFlightMemoryBudget memoryBudget) {
+
+		checkNotNull(memoryBudget, "A null memory budget cannot be provided!");
+
+		this.memoryBudget = memoryBudget;
+	}
+
+	public DaemonWriterPool getDaemonWriterPool() {
+		return daemonWriterPool;
+	}
+
+	/*
+	 * @param daemonWriterPool The daemon writers to send streamed requests
+	 * through. If it's disabled, which it is by default, each streamed request
+	 * gets a connection of it's own.
+	 */
+	public void setDaemonWriterPool(DaemonWriterPool daemonWriterPool) {
+
+		checkNotNull(daemonWriterPool, "A null daemon writer pool cannot be provided!");
+
+		this.daemonWriterPool = daemonWriterPool;
+	}
+
+	public ShadowMirror getShadowMirror() {
+		return shadowMirror;
+	}
+
+	/*
+	 * @param shadowMirror The mirror that a sample of the examples of inline
+	 * and streamed requests is teed into. Requests that go through the daemon
+	 * writers aren't mirrored. Disabled by default.
+	 */
+	public void setShadowMirror(ShadowMirror shadowMirror) {
+
+		checkNotNull(shadowMirror, "A null shadow mirror cannot be provided!");
+
+		this.shadowMirror = shadowMirror;
+	}
+
+	public ReplayPolicy getReplayPolicy() {
+		return replayPolicy;
+	}
+
+	/*
+	 * @param replayPolicy Decides whether streamed requests that don't go
+	 * through the daemon writers have their unanswered examples sent again if
+	 * their connection fails. Inline requests are small enough to just fail.
+	 * Disabled by default.
+	 */
+	public void setReplayPolicy(ReplayPolicy replayPolicy) {
+
+		checkNotNull(replayPolicy, "A null replay policy cannot be provided!");
+
+		this.replayPolicy = replayPolicy;
+	}
+}
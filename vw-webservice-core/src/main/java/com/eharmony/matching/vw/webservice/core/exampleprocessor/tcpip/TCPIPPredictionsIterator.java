@@ -3,11 +3,10 @@
  */
 package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.Socket;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,23 +16,39 @@ import com.eharmony.matching.vw.webservice.common.prediction.StringPrediction;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.io.BoundedLineReader;
+import com.eharmony.matching.vw.webservice.core.io.ByteArrayPool;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.google.common.base.Charsets;
 
 /**
  * @author vrahimtoola
  * 
- *         Reads predictions from VW over a TCP-IP socket.
+ *         Reads predictions from VW over a TCP-IP socket. The example
+ *         submitter is only started once the predictions are asked for (see
+ *         TCPIPExampleProcessingManager), and a request that is abandoned
+ *         before then has no predictions.
  * 
- *         TODO: make it so that the example submitter doesn't start submitting
- *         examples until someone actually starts to read predictions. TODO:
- *         test what happens if the prediction fetcher closes the socket before
- *         all examples have been submitted.
+ *         A prediction longer than MAX_PREDICTION_LENGTH bytes means something
+ *         has gone badly wrong with VW, and is treated as a prediction fetch
+ *         fault.
+ * 
+ *         The line reader, and so it's share of the memory budget, isn't
+ *         taken until the first prediction is read, so a request that's
+ *         abandoned before then never holds any.
  */
 class TCPIPPredictionsIterator implements Iterator<Prediction> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(TCPIPPredictionsIterator.class);
 
+	/*
+	 * The longest prediction, in bytes, that will be read from VW.
+	 */
+	static final int MAX_PREDICTION_LENGTH = 1024 * 1024;
+
 	private final Socket socket;
-	private final BufferedReader reader;
+	private final InFlightMemoryBudget memoryBudget;
+	private BoundedLineReader reader;
 	private final ExampleProcessingEventHandler callback;
 	private final TCPIPExampleProcessingManager exampleProcessingManager;
 
@@ -42,9 +57,31 @@ class TCPIPPredictionsIterator implements Iterator<Prediction> {
 
 	private boolean firstCallToHasNext = true;
 
+	/*
+	 * True when the prediction in 'nextLineToReturn' has been handed out, and
+	 * the next one hasn't been read yet. Reading is left to 'hasNext()', so
+	 * that handing out a prediction never waits on the one after it.
+	 */
+	private boolean advanceNeeded = false;
+
+	//tells the shadow mirror (if any) about each prediction read
+	private ShadowTap shadowTap = null;
+
+	private long numPredictionsRead = 0;
+
 	public TCPIPPredictionsIterator(Socket socket, ExampleProcessingEventHandler callback, TCPIPExampleProcessingManager exampleProcessingManager) throws IOException {
+		this(socket, callback, exampleProcessingManager, InFlightMemoryBudget.UNLIMITED);
+	}
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param memoryBudget The budget the line reader reserves it's memory
+	 * from.
+	 */
+	public TCPIPPredictionsIterator(Socket socket, ExampleProcessingEventHandler callback, TCPIPExampleProcessingManager exampleProcessingManager, InFlightMemoryBudget memoryBudget) throws IOException {
 
-		this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		this.memoryBudget = memoryBudget;
 		this.callback = callback;
 		this.socket = socket;
 		this.exampleProcessingManager = exampleProcessingManager;
@@ -56,22 +93,30 @@ class TCPIPPredictionsIterator implements Iterator<Prediction> {
 
 			LOGGER.debug("First call to advance in TCP IP iterator!");
 
-			advance(); // don't want to call this in the constructor because
-						// that could block.
+			// don't want to call this in the constructor because
+			// that could block.
+			if (exampleProcessingManager.startExampleSubmission()) advance();
 
 			firstCallToHasNext = false;
 
 		}
+		else if (advanceNeeded) {
+
+			advance();
+
+			advanceNeeded = false;
+		}
 
 		return nextLineToReturn != null;
 	}
 
 	public Prediction next() {
-		String toReturn = nextLineToReturn;
 
-		advance();
+		if (hasNext() == false) throw new NoSuchElementException("No more predictions!");
 
-		return new StringPrediction(toReturn);
+		advanceNeeded = true;
+
+		return new StringPrediction(nextLineToReturn);
 	}
 
 	public void remove() {
@@ -84,33 +129,48 @@ class TCPIPPredictionsIterator implements Iterator<Prediction> {
 		boolean faulted = false;
 		try {
 
-			nextLineToReturn = reader.readLine();
+			if (reader == null && getPredictionFetchState() == PredictionFetchState.OnGoing) reader = new BoundedLineReader(socket.getInputStream(), Charsets.UTF_8, MAX_PREDICTION_LENGTH, ByteArrayPool.SHARED, memoryBudget);
+
+			//once cancelled, whatever VW has already sent is thrown away
+			nextLineToReturn = getPredictionFetchState() != PredictionFetchState.OnGoing ? null : reader.readLine();
 
 			LOGGER.trace("Read prediction: {}", nextLineToReturn);
 
 			closeReader = nextLineToReturn == null;
 
-			if (nextLineToReturn != null) exampleProcessingManager.incrementNumberOfPredictionsFetched();
+			if (nextLineToReturn != null) {
+
+				exampleProcessingManager.incrementNumberOfPredictionsFetched();
+
+				if (shadowTap != null) shadowTap.onPredictionRead(numPredictionsRead, nextLineToReturn);
+
+				numPredictionsRead++;
+			}
 
 		}
 		catch (Exception e) {
 
-			LOGGER.error("Error in TCPIPPredictionIterator: {}", e.getMessage(), e);
+			closeReader = true;
 
-			faulted = true;
+			if (getPredictionFetchState() != PredictionFetchState.OnGoing)
+				LOGGER.debug("Prediction fetching stopped ({}): {}", getPredictionFetchState(), e.getMessage());
+			else {
 
-			closeReader = true;
+				LOGGER.error("Error in TCPIPPredictionIterator: {}", e.getMessage(), e);
 
-			setPredictionFetchState(PredictionFetchState.PredictionFetchFault);
+				faulted = true;
 
-			if (callback != null) callback.onPredictionFetchException(exampleProcessingManager, new PredictionFetchException(e));
+				setPredictionFetchState(PredictionFetchState.PredictionFetchFault);
 
+				if (callback != null) callback.onPredictionFetchException(exampleProcessingManager, new PredictionFetchException(e));
+			}
 		}
 		finally {
 
 			if (closeReader) {
 				try {
-					if (socket.isClosed() == false) reader.close();
+					//even if the socket's already closed, so that the reader hands back it's buffer
+					if (reader != null) reader.close();
 				}
 				catch (Exception e2) {
 					LOGGER.warn("Failed to close the reader in predictions iterator: {}", e2.getMessage(), e2);
@@ -130,7 +190,7 @@ class TCPIPPredictionsIterator implements Iterator<Prediction> {
 											// reader.
 
 				if (!faulted)
-					setPredictionFetchState(PredictionFetchState.Complete);
+					completePredictionFetch();
 				else {
 					//faulted, so halt the example submission process
 					LOGGER.warn("Stopping example submission from within the TCP IP predictions iterator...");
@@ -139,12 +199,40 @@ class TCPIPPredictionsIterator implements Iterator<Prediction> {
 					//if faulted, the prediction fetch state will already have been set in the exception handling code.
 				}
 
+				//nothing's left for the deadline or the abandonment timeout to stop
+				exampleProcessingManager.cancelTimers();
+
 				if (callback != null) callback.onPredictionFetchComplete(exampleProcessingManager);
 			}
 		}
 	}
 
-	private synchronized void setPredictionFetchState(PredictionFetchState predictionFetchState) {
+	/*
+	 * Has the predictions matched up with the examples mirrored by the tap.
+	 * Must be called before the predictions are read.
+	 */
+	void setShadowTap(ShadowTap shadowTap) {
+		this.shadowTap = shadowTap;
+	}
+
+	/*
+	 * Marks prediction fetching as cancelled (or as having run past the
+	 * deadline), if it's still ongoing. The read that's in progress (if any)
+	 * fails once the socket is closed, and no more predictions are returned
+	 * after that.
+	 */
+	synchronized void cancel(PredictionFetchState finalState) {
+		if (predictionFetchState == PredictionFetchState.OnGoing) predictionFetchState = finalState;
+	}
+
+	/*
+	 * Sets the state to complete, unless fetching was cancelled.
+	 */
+	private synchronized void completePredictionFetch() {
+		if (predictionFetchState == PredictionFetchState.OnGoing) predictionFetchState = PredictionFetchState.Complete;
+	}
+
+	synchronized void setPredictionFetchState(PredictionFetchState predictionFetchState) {
 		this.predictionFetchState = predictionFetchState;
 	}
 
@@ -6,6 +6,7 @@ package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
@@ -17,6 +18,9 @@ import org.slf4j.LoggerFactory;
  * @author vrahimtoola
  * 
  *         A basic implementation of the TCPIPSocketFactory interface.
+ * 
+ *         Connect and read timeouts can be set so that a wedged VW daemon
+ *         results in an exception rather than a thread that blocks forever.
  */
 public class TCPIPSocketFactoryImpl implements TCPIPSocketFactory {
 
@@ -24,21 +28,64 @@ public class TCPIPSocketFactoryImpl implements TCPIPSocketFactory {
 
 	private final String vwHost;
 	private final int vwPort;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
 
 	public TCPIPSocketFactoryImpl(String vwHost, int vwPort) {
+		this(vwHost, vwPort, 0, 0);
+	}
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param vwHost The host VW is running on.
+	 * 
+	 * @param vwPort The port VW is listening on.
+	 * 
+	 * @param connectTimeoutMillis How long to wait for a connection to VW. 0
+	 * means wait forever.
+	 * 
+	 * @param readTimeoutMillis How long a read from VW can block before a
+	 * SocketTimeoutException is thrown. 0 means wait forever.
+	 */
+	public TCPIPSocketFactoryImpl(String vwHost, int vwPort, int connectTimeoutMillis, int readTimeoutMillis) {
 
 		checkArgument(StringUtils.isBlank(vwHost) == false, "The hostname for VW must be provided!");
 		checkArgument(vwPort > 0, "Invalid port specified for VW!");
+		checkArgument(connectTimeoutMillis >= 0, "The connect timeout must be >= 0!");
+		checkArgument(readTimeoutMillis >= 0, "The read timeout must be >= 0!");
 
 		this.vwHost = vwHost;
 		this.vwPort = vwPort;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
 	}
 
 	public Socket getSocket() throws UnknownHostException, IOException {
 
 		LOGGER.debug("Returning socket for host: {} and port: {}", vwHost, vwPort);
 
-		return new Socket(vwHost, vwPort);
+		InetSocketAddress address = new InetSocketAddress(vwHost, vwPort);
+
+		if (address.isUnresolved()) throw new UnknownHostException(vwHost);
+
+		Socket socket = new Socket();
+
+		try {
+			socket.connect(address, connectTimeoutMillis);
+			socket.setSoTimeout(readTimeoutMillis);
+		}
+		catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		return socket;
+	}
+
+	@Override
+	public String toString() {
+		return vwHost + ":" + vwPort;
 	}
 
 }
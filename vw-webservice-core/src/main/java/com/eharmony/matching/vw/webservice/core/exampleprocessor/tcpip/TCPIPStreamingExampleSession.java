@@ -0,0 +1,326 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.prediction.StringPrediction;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.StreamingExampleSession;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.StreamingPredictionListener;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A streaming session backed by a single, persistent TCP IP connection
+ *         to VW. Every batch of examples is flushed to VW as soon as it has
+ *         been written, and a task on the executor service reads predictions
+ *         off the same socket for as long as the session is open.
+ *
+ *         Making this package-private for now.
+ */
+class TCPIPStreamingExampleSession implements StreamingExampleSession {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TCPIPStreamingExampleSession.class);
+
+	private final Socket socket;
+	private final BufferedWriter writer;
+	private final StreamingPredictionListener listener;
+
+	/*
+	 * Guards the counters and the skipped examples queue, so that skipped
+	 * examples are reported in order with the predictions.
+	 */
+	private final Object deliveryLock = new Object();
+
+	private long numExamplesSubmitted = 0;
+	private long numPredictionsFetched = 0;
+
+	/*
+	 * Invalid examples that can't be reported yet, because predictions for
+	 * examples submitted before them are still outstanding.
+	 */
+	private final Queue<SkippedExample> skippedExamples = new LinkedList<SkippedExample>();
+
+	private boolean isClosed = false;
+
+	/*
+	 * Opens a session with VW.
+	 *
+	 * @param socketFactory The socket factory to get the connection to VW
+	 * from.
+	 *
+	 * @param executorService The executor service on which predictions will be
+	 * read.
+	 *
+	 * @param listener The listener to deliver predictions to. Cannot be null.
+	 */
+	public TCPIPStreamingExampleSession(TCPIPSocketFactory socketFactory, ExecutorService executorService, StreamingPredictionListener listener) throws ExampleSubmissionException {
+
+		this.listener = listener;
+
+		Socket theSocket = null;
+
+		try {
+			theSocket = socketFactory.getSocket();
+
+			this.writer = new BufferedWriter(new OutputStreamWriter(theSocket.getOutputStream(), Charsets.UTF_8));
+
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(theSocket.getInputStream(), Charsets.UTF_8));
+
+			this.socket = theSocket;
+
+			executorService.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					readPredictions(reader);
+				}
+			});
+		}
+		catch (Exception e) {
+
+			LOGGER.error("Exception when opening streaming session: {}", e.getMessage());
+
+			if (theSocket != null) try {
+				theSocket.close();
+			}
+			catch (IOException e2) {
+				LOGGER.warn("Failed to close the socket after failing to open streaming session: {}", e2.getMessage(), e2);
+			}
+
+			throw new ExampleSubmissionException(e);
+		}
+
+		LOGGER.debug("Opened streaming session on socket: {}", socket);
+	}
+
+	@Override
+	public int submitExamples(Iterable<Example> examples) throws ExampleSubmissionException {
+
+		int numSubmitted = 0;
+
+		synchronized (writer) {
+
+			if (isClosed()) throw new ExampleSubmissionException("The streaming session has been closed!");
+
+			try {
+				for (Example example : examples) {
+
+					String toWrite;
+
+					try {
+						toWrite = example.getVWStringRepresentation();
+					}
+					catch (ExampleFormatException e) {
+						onExampleSkipped(e);
+						continue;
+					}
+
+					writer.write(toWrite);
+					writer.newLine();
+
+					numSubmitted++;
+
+					synchronized (deliveryLock) {
+						numExamplesSubmitted++;
+					}
+
+					LOGGER.trace("Submitted example: {}", toWrite);
+				}
+
+				writer.flush(); //flush right away, so that VW can respond to these examples
+			}
+			catch (IOException e) {
+
+				LOGGER.error("IOException when submitting examples in streaming session: {}", e.getMessage(), e);
+
+				synchronized (this) {
+					isClosed = true;
+				}
+
+				closeSocket();
+
+				throw new ExampleSubmissionException(e);
+			}
+		}
+
+		return numSubmitted;
+	}
+
+	@Override
+	public void close() {
+
+		synchronized (this) {
+			if (isClosed) return;
+			isClosed = true;
+		}
+
+		LOGGER.debug("Closing streaming session on socket: {}", socket);
+
+		synchronized (writer) {
+			try {
+				writer.flush();
+				socket.shutdownOutput(); //VW will finish up with the examples it already has, and then close it's end.
+			}
+			catch (IOException e) {
+
+				LOGGER.warn("IOException when shutting down output of streaming session: {}", e.getMessage(), e);
+
+				closeSocket();
+			}
+		}
+	}
+
+	@Override
+	public synchronized boolean isClosed() {
+		return isClosed;
+	}
+
+	@Override
+	public long getTotalNumberOfExamplesSubmitted() {
+		synchronized (deliveryLock) {
+			return numExamplesSubmitted;
+		}
+	}
+
+	@Override
+	public long getTotalNumberOfPredictionsFetched() {
+		synchronized (deliveryLock) {
+			return numPredictionsFetched;
+		}
+	}
+
+	/*
+	 * Reports a skipped example right away if all the predictions for the
+	 * examples before it have been delivered, otherwise queues it up to be
+	 * reported by the prediction reader.
+	 */
+	private void onExampleSkipped(ExampleFormatException e) {
+
+		synchronized (deliveryLock) {
+
+			if (skippedExamples.isEmpty() && numPredictionsFetched >= numExamplesSubmitted)
+				listener.onExampleFormatException(e);
+			else {
+				skippedExamples.add(new SkippedExample(numExamplesSubmitted, e));
+			}
+		}
+	}
+
+	private void readPredictions(BufferedReader reader) {
+
+		try {
+
+			String line;
+
+			while ((line = readLine(reader)) != null) {
+
+				LOGGER.trace("Read prediction: {}", line);
+
+				synchronized (deliveryLock) {
+
+					numPredictionsFetched++;
+
+					listener.onPrediction(new StringPrediction(line));
+
+					while (skippedExamples.isEmpty() == false && skippedExamples.peek().numExamplesSubmittedBefore <= numPredictionsFetched)
+						listener.onExampleFormatException(skippedExamples.poll().exception);
+				}
+			}
+
+		}
+		catch (Exception e) {
+
+			if (socket.isClosed() == false) { //if the socket has been closed, we closed it ourselves after a failure that's already been reported
+
+				LOGGER.error("Exception when reading predictions in streaming session: {}", e.getMessage(), e);
+
+				listener.onPredictionFetchException(new PredictionFetchException(e));
+			}
+		}
+		finally {
+
+			synchronized (this) {
+				isClosed = true;
+			}
+
+			closeSocket();
+
+			synchronized (deliveryLock) {
+
+				//anything still queued up will never be followed by a prediction, so report it now
+				while (skippedExamples.isEmpty() == false)
+					listener.onExampleFormatException(skippedExamples.poll().exception);
+
+				LOGGER.debug("Streaming session done. Submitted {} examples, fetched {} predictions.", numExamplesSubmitted, numPredictionsFetched);
+			}
+
+			listener.onPredictionFetchComplete();
+		}
+	}
+
+	/*
+	 * Reads the next prediction. Sessions are long lived and can sit idle for
+	 * a while, so a read timeout on the socket only counts as a failure if
+	 * there are predictions owed to us.
+	 */
+	private String readLine(BufferedReader reader) throws IOException {
+
+		while (true) {
+
+			try {
+				return reader.readLine();
+			}
+			catch (SocketTimeoutException e) {
+
+				synchronized (deliveryLock) {
+					if (numPredictionsFetched < numExamplesSubmitted) throw e;
+				}
+			}
+		}
+	}
+
+	private void closeSocket() {
+
+		if (socket.isClosed() == false) try {
+			socket.close();
+		}
+		catch (IOException e) {
+			LOGGER.warn("Failed to close the socket of streaming session: {}", e.getMessage(), e);
+		}
+	}
+
+	/*
+	 * An invalid example, along with the number of examples submitted before
+	 * it.
+	 */
+	private static class SkippedExample {
+
+		private final long numExamplesSubmittedBefore;
+		private final ExampleFormatException exception;
+
+		public SkippedExample(long numExamplesSubmittedBefore, ExampleFormatException exception) {
+			this.numExamplesSubmittedBefore = numExamplesSubmittedBefore;
+			this.exception = exception;
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The shares of the daemon writers that each tenant gets. When several
+ *         tenants have batches queued on a writer, each one gets to write
+ *         'quantum * weight' examples in turn (deficit round robin), so a
+ *         tenant with twice the weight of another gets twice as many of it's
+ *         examples written while both are busy, and neither can shut the other
+ *         out.
+ *
+ *         Tenants that aren't listed get the default weight. Requests that
+ *         don't name a tenant belong to the DEFAULT_TENANT.
+ */
+public class TenantShares {
+
+	public static final String DEFAULT_TENANT = "default";
+
+	public static final TenantShares DEFAULT = new TenantShares("", 1, 256, 64);
+
+	private final Map<String, Integer> weights;
+	private final int defaultWeight;
+	private final int quantum;
+	private final int maxTenants;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param weights The weights of the tenants, as a comma separated list of
+	 * tenant:weight pairs, eg, 'search:4,batch:1'. Can be empty.
+	 *
+	 * @param defaultWeight The weight of tenants that aren't listed.
+	 *
+	 * @param quantum The number of examples a tenant of weight 1 gets to write
+	 * in each turn.
+	 *
+	 * @param maxTenants The most tenants to keep track of. Requests from any
+	 * more are counted against the DEFAULT_TENANT, so that clients can't make
+	 * up an endless number of them.
+	 */
+	public TenantShares(String weights, int defaultWeight, int quantum, int maxTenants) {
+
+		checkArgument(defaultWeight > 0, "The default weight must be > 0!");
+		checkArgument(quantum > 0, "The quantum must be > 0!");
+		checkArgument(maxTenants > 0, "The max number of tenants must be > 0!");
+
+		Map<String, Integer> theWeights = new HashMap<String, Integer>();
+
+		if (StringUtils.isBlank(weights) == false) {
+
+			for (String token : weights.split(",")) {
+
+				if (StringUtils.isBlank(token)) continue;
+
+				String[] tenantAndWeight = token.split(":");
+
+				checkArgument(tenantAndWeight.length == 2 && StringUtils.isBlank(tenantAndWeight[0]) == false, "Invalid tenant weight: " + token + "!");
+
+				int weight = Integer.parseInt(tenantAndWeight[1].trim());
+
+				checkArgument(weight > 0, "The weight of a tenant must be > 0!");
+
+				theWeights.put(tenantAndWeight[0].trim(), weight);
+			}
+		}
+
+		this.weights = Collections.unmodifiableMap(theWeights);
+		this.defaultWeight = defaultWeight;
+		this.quantum = quantum;
+		this.maxTenants = maxTenants;
+	}
+
+	public int getWeight(String tenant) {
+
+		Integer weight = weights.get(tenant);
+
+		return weight != null ? weight : defaultWeight;
+	}
+
+	public boolean isListed(String tenant) {
+		return weights.containsKey(tenant);
+	}
+
+	public int getQuantum() {
+		return quantum;
+	}
+
+	public int getMaxTenants() {
+		return maxTenants;
+	}
+
+	@Override
+	public String toString() {
+		return "TenantShares [weights=" + weights + ", defaultWeight=" + defaultWeight + ", quantum=" + quantum + ", maxTenants=" + maxTenants + "]";
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A tenant of the daemon writers, along with it's weight, and counts of
+ *         the examples it has had queued and written, and how long they
+ *         waited.
+ */
+public class TenantStats extends BatchQueueStats {
+
+	private final String name;
+	private final int weight;
+
+	public TenantStats(String name, int weight) {
+		this.name = name;
+		this.weight = weight;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	@Override
+	public String toString() {
+		return "TenantStats [name=" + name + ", weight=" + weight + ", queueDepth=" + getQueueDepth() + ", examplesWritten=" + getNumberOfExamplesWritten() + "]";
+	}
+}
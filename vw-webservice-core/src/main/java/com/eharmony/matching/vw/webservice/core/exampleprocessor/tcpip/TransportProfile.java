@@ -0,0 +1,166 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * @author vrahimtoola
+ *
+ *         How examples are written to VW for a request: the flush policy, the
+ *         size of the write buffer, and the options set on the socket.
+ *
+ *         An interactive profile would turn off Nagle's algorithm (ie, set
+ *         TCP_NODELAY) and flush every example, so that VW can start returning
+ *         predictions while the rest of the examples are still coming in. A
+ *         bulk profile would use large buffers and flush rarely, so that
+ *         examples go out in large, efficient writes.
+ *
+ *         The flow control policy bounds how far examples can get ahead of
+ *         the predictions read back for them.
+ *
+ *         A profile with a pipeline ring size splits the work of a request
+ *         across threads: examples are parsed, rendered and written to VW by
+ *         separate stages, and predictions are read from VW on a different
+ *         thread to the one writing them to the client. This lets large
+ *         requests (eg, of structured JSON examples) use more than one core,
+ *         at the cost of 3 more threads per request.
+ *
+ *         The socket options are set once the socket is connected. The OS
+ *         may round buffer sizes, or cap them at it's own limits.
+ */
+public class TransportProfile {
+
+	/*
+	 * Leaves the socket options alone, and only flushes once all the examples
+	 * have been written.
+	 */
+	public static final TransportProfile DEFAULT = new TransportProfile("default", FlushPolicy.WHEN_DONE, 8192, false, 0, 0);
+
+	private final String name;
+	private final FlushPolicy flushPolicy;
+	private final int writeBufferSize;
+	private final boolean tcpNoDelay;
+	private final int sendBufferSize;
+	private final int receiveBufferSize;
+	private final FlowControlPolicy flowControlPolicy;
+	private final int pipelineRingSize;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param name The name clients use to ask for this profile.
+	 *
+	 * @param flushPolicy When to flush examples to the socket.
+	 *
+	 * @param writeBufferSize The size, in chars, of the buffer examples are
+	 * written to before going to the socket.
+	 *
+	 * @param tcpNoDelay Whether or not to set TCP_NODELAY on the socket.
+	 *
+	 * @param sendBufferSize The SO_SNDBUF to set on the socket. 0 leaves the
+	 * OS default in place.
+	 *
+	 * @param receiveBufferSize The SO_RCVBUF to set on the socket. 0 leaves
+	 * the OS default in place.
+	 */
+	public TransportProfile(String name, FlushPolicy flushPolicy, int writeBufferSize, boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize) {
+		this(name, flushPolicy, writeBufferSize, tcpNoDelay, sendBufferSize, receiveBufferSize, FlowControlPolicy.UNBOUNDED);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param flowControlPolicy How many examples can be outstanding at once.
+	 */
+	public TransportProfile(String name, FlushPolicy flushPolicy, int writeBufferSize, boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize, FlowControlPolicy flowControlPolicy) {
+		this(name, flushPolicy, writeBufferSize, tcpNoDelay, sendBufferSize, receiveBufferSize, flowControlPolicy, 0);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param pipelineRingSize The number of slots in each of the ring buffers
+	 * linking the stages of the pipeline. Must be a power of 2, or 0 to turn
+	 * pipelining off.
+	 */
+	public TransportProfile(String name, FlushPolicy flushPolicy, int writeBufferSize, boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize, FlowControlPolicy flowControlPolicy, int pipelineRingSize) {
+
+		checkArgument(StringUtils.isBlank(name) == false, "A name must be provided!");
+		checkNotNull(flushPolicy, "A null flush policy cannot be provided!");
+		checkArgument(writeBufferSize > 0, "The write buffer size must be > 0!");
+		checkArgument(sendBufferSize >= 0, "The send buffer size must be >= 0!");
+		checkArgument(receiveBufferSize >= 0, "The receive buffer size must be >= 0!");
+		checkNotNull(flowControlPolicy, "A null flow control policy cannot be provided!");
+		checkArgument(pipelineRingSize >= 0 && (pipelineRingSize & (pipelineRingSize - 1)) == 0, "The pipeline ring size must be 0 or a power of 2!");
+
+		this.name = name;
+		this.flushPolicy = flushPolicy;
+		this.writeBufferSize = writeBufferSize;
+		this.tcpNoDelay = tcpNoDelay;
+		this.sendBufferSize = sendBufferSize;
+		this.receiveBufferSize = receiveBufferSize;
+		this.flowControlPolicy = flowControlPolicy;
+		this.pipelineRingSize = pipelineRingSize;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	public int getWriteBufferSize() {
+		return writeBufferSize;
+	}
+
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public FlowControlPolicy getFlowControlPolicy() {
+		return flowControlPolicy;
+	}
+
+	public int getPipelineRingSize() {
+		return pipelineRingSize;
+	}
+
+	public boolean isPipelined() {
+		return pipelineRingSize > 0;
+	}
+
+	/*
+	 * Sets this profile's options on a socket.
+	 */
+	void configure(Socket socket) throws SocketException {
+
+		if (tcpNoDelay) socket.setTcpNoDelay(true);
+
+		if (sendBufferSize > 0) socket.setSendBufferSize(sendBufferSize);
+
+		if (receiveBufferSize > 0) socket.setReceiveBufferSize(receiveBufferSize);
+	}
+
+	@Override
+	public String toString() {
+		return "TransportProfile [name=" + name + ", flushPolicy=" + flushPolicy + ", writeBufferSize=" + writeBufferSize + ", tcpNoDelay=" + tcpNoDelay + ", sendBufferSize=" + sendBufferSize + ", receiveBufferSize=" + receiveBufferSize + ", flowControlPolicy=" + flowControlPolicy + ", pipelineRingSize=" + pipelineRingSize + "]";
+	}
+}
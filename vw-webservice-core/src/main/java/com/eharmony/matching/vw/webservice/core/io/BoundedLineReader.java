@@ -0,0 +1,282 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Reads lines from an input stream, like BufferedReader.readLine(),
+ *         but never holds on to more than 'maxLineLength' bytes of a line. A
+ *         line that's longer than that is skipped as it streams past, and
+ *         reported with a LineTooLongException, so that input with no line
+ *         breaks in it can't run the JVM out of memory.
+ *
+ *         Lines can end with '\n', '\r' or '\r\n', and the line terminators
+ *         are not included in the returned lines. Lines are split at the byte
+ *         level, so the charset must encode '\n' and '\r' as single bytes, the
+ *         way UTF-8 and the other ASCII compatible charsets do.
+ *
+ *         Bytes are read into an array from a ByteArrayPool, which is handed
+ *         back once the end of the stream is reached, or the reader is
+ *         closed. Lines that fit in that array are decoded straight out of it.
+ *
+ *         The read buffer, and the memory used to piece together lines that
+ *         span more than one read, are reserved from an InFlightMemoryBudget,
+ *         and released along with the buffer.
+ *
+ *         Not thread safe.
+ */
+public class BoundedLineReader implements Closeable {
+
+	private final InputStream inputStream;
+	private final Charset charset;
+	private final int maxLineLength;
+	private final ByteArrayPool pool;
+	private final InFlightMemoryBudget memoryBudget;
+
+	/*
+	 * Holds the pieces of a line that spans more than one read.
+	 */
+	private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+	private byte[] buffer;
+	private int position = 0, limit = 0;
+
+	/*
+	 * The number of bytes reserved from the memory budget.
+	 */
+	private long reservedBytes = 0;
+
+	private boolean endOfStream = false;
+
+	/*
+	 * True if the last line ended with a '\r', in which case a '\n' right
+	 * after it is part of the same line terminator.
+	 */
+	private boolean skipLineFeed = false;
+
+	private long numLines = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param inputStream The stream to read lines from.
+	 *
+	 * @param charset The charset the lines are encoded with.
+	 *
+	 * @param maxLineLength The longest line, in bytes, that will be returned.
+	 *
+	 * @param pool The pool to take the read buffer from.
+	 */
+	public BoundedLineReader(InputStream inputStream, Charset charset, int maxLineLength, ByteArrayPool pool) throws MemoryBudgetExceededException {
+		this(inputStream, charset, maxLineLength, pool, InFlightMemoryBudget.UNLIMITED);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param memoryBudget The budget to reserve buffered memory from.
+	 *
+	 * @throws MemoryBudgetExceededException If the read buffer couldn't be
+	 * reserved.
+	 */
+	public BoundedLineReader(InputStream inputStream, Charset charset, int maxLineLength, ByteArrayPool pool, InFlightMemoryBudget memoryBudget) throws MemoryBudgetExceededException {
+
+		checkNotNull(inputStream, "A null input stream cannot be provided!");
+		checkArgument(isSupported(charset), "Unsupported charset: %s", charset);
+		checkArgument(maxLineLength > 0, "The max line length must be > 0!");
+		checkNotNull(pool, "A null pool cannot be provided!");
+		checkNotNull(memoryBudget, "A null memory budget cannot be provided!");
+
+		this.inputStream = inputStream;
+		this.charset = charset;
+		this.maxLineLength = maxLineLength;
+		this.pool = pool;
+		this.memoryBudget = memoryBudget;
+
+		memoryBudget.reserve(pool.getArraySize());
+
+		this.reservedBytes = pool.getArraySize();
+		this.buffer = pool.acquire();
+	}
+
+	/*
+	 * Returns true if lines encoded with the charset can be read.
+	 */
+	public static boolean isSupported(Charset charset) {
+		return charset != null && Arrays.equals(new byte[] { '\n', '\r' }, "\n\r".getBytes(charset));
+	}
+
+	/*
+	 * Reads the next line.
+	 *
+	 * @throws LineTooLongException If the line is longer than
+	 * 'maxLineLength'. The line is skipped, and reading can carry on.
+	 *
+	 * @returns The line, or null if the end of the stream has been reached.
+	 */
+	public String readLine() throws IOException {
+
+		if (buffer == null) return null;
+
+		partialLine.reset();
+
+		long lineLength = 0;
+
+		boolean tooLong = false;
+
+		while (true) {
+
+			if (position == limit && fill() == false) return endOfStream(lineLength, tooLong);
+
+			if (skipLineFeed) {
+
+				skipLineFeed = false;
+
+				if (buffer[position] == '\n') {
+					position++;
+					continue;
+				}
+			}
+
+			int start = position, end = position;
+
+			while (end < limit && buffer[end] != '\n' && buffer[end] != '\r')
+				end++;
+
+			lineLength += end - start;
+
+			if (tooLong == false && lineLength > maxLineLength) {
+				tooLong = true;
+				partialLine.reset();
+			}
+
+			if (end == limit) {
+
+				//no line terminator yet, so keep what we've got (if it's not too long) and read some more
+				if (tooLong == false) appendToPartialLine(start, end);
+
+				position = limit;
+
+				continue;
+			}
+
+			skipLineFeed = buffer[end] == '\r';
+
+			position = end + 1;
+
+			numLines++;
+
+			if (tooLong) throw new LineTooLongException(numLines, lineLength, maxLineLength);
+
+			if (partialLine.size() == 0) return new String(buffer, start, end - start, charset);
+
+			appendToPartialLine(start, end);
+
+			return partialLine.toString(charset.name());
+		}
+	}
+
+	/*
+	 * Returns the number of lines read so far, including any that were too
+	 * long.
+	 */
+	public long getNumberOfLines() {
+		return numLines;
+	}
+
+	/*
+	 * Closes the input stream, and hands the buffer back to the pool.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		releaseBuffer();
+
+		inputStream.close();
+	}
+
+	private boolean fill() throws IOException {
+
+		if (endOfStream) return false;
+
+		int numRead;
+
+		do {
+			numRead = inputStream.read(buffer, 0, buffer.length);
+		}
+		while (numRead == 0);
+
+		if (numRead < 0) {
+			endOfStream = true;
+			return false;
+		}
+
+		position = 0;
+		limit = numRead;
+
+		return true;
+	}
+
+	/*
+	 * Called once the stream runs out, with whatever was read of the last
+	 * line.
+	 */
+	private String endOfStream(long lineLength, boolean tooLong) throws IOException {
+
+		releaseBuffer();
+
+		if (lineLength == 0) return null;
+
+		numLines++;
+
+		if (tooLong) throw new LineTooLongException(numLines, lineLength, maxLineLength);
+
+		return partialLine.toString(charset.name());
+	}
+
+	/*
+	 * Adds part of the buffer to the partial line, reserving more memory
+	 * first if the partial line is about to outgrow what's been reserved for
+	 * it. Memory is reserved a buffer's worth at a time.
+	 */
+	private void appendToPartialLine(int start, int end) throws MemoryBudgetExceededException {
+
+		long needed = partialLine.size() + (end - start) - (reservedBytes - buffer.length);
+
+		if (needed > 0) {
+
+			long toReserve = (needed + buffer.length - 1) / buffer.length * buffer.length;
+
+			memoryBudget.reserve(toReserve);
+
+			reservedBytes += toReserve;
+		}
+
+		partialLine.write(buffer, start, end - start);
+	}
+
+	private void releaseBuffer() {
+
+		if (buffer == null) return;
+
+		pool.release(buffer);
+
+		buffer = null;
+
+		memoryBudget.release(reservedBytes);
+
+		reservedBytes = 0;
+	}
+}
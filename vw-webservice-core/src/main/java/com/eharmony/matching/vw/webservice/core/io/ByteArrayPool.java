@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A pool of fixed size byte arrays, so that reading a request doesn't
+ *         allocate a new buffer each time. At most 'maxPooledArrays' arrays
+ *         are held on to, any more than that are left to the garbage
+ *         collector when released.
+ *
+ *         Thread safe.
+ */
+public class ByteArrayPool {
+
+	/*
+	 * The pool shared by everything reading lines off of clients and VW.
+	 */
+	public static final ByteArrayPool SHARED = new ByteArrayPool(8192, 512);
+
+	private final int arraySize;
+
+	private final BlockingQueue<byte[]> pooledArrays;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param arraySize The size of the arrays handed out.
+	 *
+	 * @param maxPooledArrays The most arrays to hold on to.
+	 */
+	public ByteArrayPool(int arraySize, int maxPooledArrays) {
+
+		checkArgument(arraySize > 0, "The array size must be > 0!");
+		checkArgument(maxPooledArrays > 0, "The max number of pooled arrays must be > 0!");
+
+		this.arraySize = arraySize;
+		this.pooledArrays = new ArrayBlockingQueue<byte[]>(maxPooledArrays);
+	}
+
+	/*
+	 * Returns an array of 'arraySize' bytes, which should be released once
+	 * it's no longer needed. It's contents are undefined.
+	 */
+	public byte[] acquire() {
+
+		byte[] array = pooledArrays.poll();
+
+		return array != null ? array : new byte[arraySize];
+	}
+
+	/*
+	 * Hands an array back to the pool. The array must not be used after
+	 * this.
+	 */
+	public void release(byte[] array) {
+
+		if (array != null && array.length == arraySize) pooledArrays.offer(array);
+	}
+
+	public int getArraySize() {
+		return arraySize;
+	}
+
+	public int getNumberOfPooledArrays() {
+		return pooledArrays.size();
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Keeps track of the memory buffered by requests that are being
+ *         processed, across all requests, and puts a ceiling on it. Before a
+ *         stage of the pipeline buffers anything (eg, a read buffer, or the
+ *         buffer examples are written to VW through), it reserves the memory
+ *         it needs here, and releases it once it's done.
+ *
+ *         When the budget is used up, reservations wait up to
+ *         'maxWaitMillis' for other requests to release memory, and then
+ *         fail with a MemoryBudgetExceededException, so that the request
+ *         gets shed rather than pushing the JVM into full GCs.
+ *
+ *         A budget of 0 bytes is unlimited, but still keeps track of usage.
+ *
+ *         Thread safe.
+ */
+public class InFlightMemoryBudget {
+
+	/*
+	 * Never refuses a reservation.
+	 */
+	public static final InFlightMemoryBudget UNLIMITED = new InFlightMemoryBudget(0, 0);
+
+	private final long maxBytes;
+	private final long maxWaitMillis;
+
+	/*
+	 * All guarded by 'this'.
+	 */
+	private long reservedBytes = 0;
+	private long peakReservedBytes = 0;
+	private long numWaits = 0;
+	private long numRejections = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param maxBytes The most bytes that can be reserved at once. 0 means
+	 * there's no limit.
+	 *
+	 * @param maxWaitMillis How long a reservation waits for memory to be
+	 * released before failing. 0 means reservations fail right away.
+	 */
+	public InFlightMemoryBudget(long maxBytes, long maxWaitMillis) {
+
+		checkArgument(maxBytes >= 0, "The max number of bytes must be >= 0!");
+		checkArgument(maxWaitMillis >= 0, "The max wait time must be >= 0!");
+
+		this.maxBytes = maxBytes;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/*
+	 * Reserves memory, waiting up to 'maxWaitMillis' for it to become
+	 * available.
+	 *
+	 * @throws MemoryBudgetExceededException If the memory couldn't be
+	 * reserved in time, or if the thread was interrupted while waiting.
+	 */
+	public void reserve(long bytes) throws MemoryBudgetExceededException {
+
+		checkArgument(bytes >= 0, "The number of bytes must be >= 0!");
+
+		synchronized (this) {
+
+			if (hasRoomFor(bytes)) {
+				take(bytes);
+				return;
+			}
+
+			if (bytes <= maxBytes && maxWaitMillis > 0) {
+
+				numWaits++;
+
+				long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+				try {
+					long remainingNanos;
+
+					while (hasRoomFor(bytes) == false && (remainingNanos = deadlineNanos - System.nanoTime()) > 0)
+						TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				if (hasRoomFor(bytes)) {
+					take(bytes);
+					return;
+				}
+			}
+
+			numRejections++;
+		}
+
+		throw new MemoryBudgetExceededException("Couldn't reserve " + bytes + " bytes, " + this);
+	}
+
+	/*
+	 * Reserves memory if it's available right away.
+	 *
+	 * @returns True if the memory was reserved.
+	 */
+	public synchronized boolean tryReserve(long bytes) {
+
+		checkArgument(bytes >= 0, "The number of bytes must be >= 0!");
+
+		if (hasRoomFor(bytes) == false) return false;
+
+		take(bytes);
+
+		return true;
+	}
+
+	/*
+	 * Hands back memory reserved earlier.
+	 */
+	public synchronized void release(long bytes) {
+
+		checkArgument(bytes >= 0, "The number of bytes must be >= 0!");
+
+		reservedBytes = Math.max(0, reservedBytes - bytes);
+
+		notifyAll();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	public synchronized long getReservedBytes() {
+		return reservedBytes;
+	}
+
+	public synchronized long getPeakReservedBytes() {
+		return peakReservedBytes;
+	}
+
+	/*
+	 * Returns the number of reservations that had to wait for memory.
+	 */
+	public synchronized long getNumberOfWaits() {
+		return numWaits;
+	}
+
+	/*
+	 * Returns the number of reservations that failed.
+	 */
+	public synchronized long getNumberOfRejections() {
+		return numRejections;
+	}
+
+	private boolean hasRoomFor(long bytes) {
+		return maxBytes == 0 || reservedBytes + bytes <= maxBytes;
+	}
+
+	private void take(long bytes) {
+
+		reservedBytes += bytes;
+
+		peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "InFlightMemoryBudget [maxBytes=" + maxBytes + ", reservedBytes=" + reservedBytes + ", peakReservedBytes=" + peakReservedBytes + ", numWaits=" + numWaits + ", numRejections=" + numRejections + "]";
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.io;
+
+import java.io.IOException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Thrown by the BoundedLineReader when a line is longer than it's
+ *         limit. By the time this is thrown the line has been skipped, so the
+ *         next read picks up with the line after it.
+ */
+public class LineTooLongException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long lineNumber;
+	private final long lineLength;
+
+	public LineTooLongException(long lineNumber, long lineLength, int maxLineLength) {
+
+		super("Line " + lineNumber + " is " + lineLength + " bytes long, which is more than the limit of " + maxLineLength + " bytes!");
+
+		this.lineNumber = lineNumber;
+		this.lineLength = lineLength;
+	}
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	public long getLineLength() {
+		return lineLength;
+	}
+}
@@ -0,0 +1,21 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.io;
+
+import java.io.IOException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Thrown when memory can't be reserved from an InFlightMemoryBudget in
+ *         time. The request that needed the memory should be shed.
+ */
+public class MemoryBudgetExceededException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public MemoryBudgetExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.pipeline;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Splits reading examples into stages that run on their own threads:
+ *         a parse stage that pulls examples off of the underlying iterator (ie,
+ *         parses them off of the request), and a render stage that turns them
+ *         into their VW string representations. Whoever iterates over this
+ *         (eg, the thread writing examples to VW) gets examples that have
+ *         already been rendered, so all three stages can be busy at once,
+ *         while the examples stay in order.
+ *
+ *         The stages are linked by SpscRingBuffers. The examples handed out
+ *         are slots of the last ring buffer, so each one is only good until
+ *         the next call to 'hasNext()' or 'next()'.
+ *
+ *         An ExampleFormatException is thrown by the example it belongs to,
+ *         like it would have been without the pipeline. An exception thrown
+ *         by the underlying iterator is thrown by 'hasNext()', once the
+ *         examples before it have been handed out.
+ *
+ *         The stages start the first time 'hasNext()' is called. 'stop()'
+ *         must be called if the iteration is given up on before the end.
+ */
+public class PipelinedExampleIterator implements Iterator<Example> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedExampleIterator.class);
+
+	/*
+	 * A slot in the ring buffers. In the first, only 'example' is set. In
+	 * the second, 'vwString' or 'formatException' is.
+	 */
+	static class ExampleSlot implements Example {
+
+		private Example example;
+		private String vwString;
+		private ExampleFormatException formatException;
+		private RuntimeException readException;
+
+		@Override
+		public String getVWStringRepresentation() {
+
+			if (formatException != null) throw formatException;
+
+			return vwString;
+		}
+
+		void clear() {
+			example = null;
+			vwString = null;
+			formatException = null;
+			readException = null;
+		}
+
+		@Override
+		public String toString() {
+			return "ExampleSlot [vwString=" + vwString + "]";
+		}
+	}
+
+	private static final SpscRingBuffer.SlotFactory<ExampleSlot> SLOT_FACTORY = new SpscRingBuffer.SlotFactory<ExampleSlot>() {
+
+		@Override
+		public ExampleSlot newSlot() {
+			return new ExampleSlot();
+		}
+	};
+
+	private final Iterator<Example> examples;
+	private final ExecutorService executorService;
+
+	private final SpscRingBuffer<ExampleSlot> parsed;
+	private final SpscRingBuffer<ExampleSlot> rendered;
+
+	private boolean started = false;
+
+	/*
+	 * The slot handed out by the last call to 'next()', and the slot taken
+	 * by 'hasNext()' that's yet to be handed out.
+	 */
+	private ExampleSlot current = null, next = null;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param examples The examples to parse and render.
+	 *
+	 * @param ringBufferSize The number of slots in each of the ring buffers.
+	 * Must be a power of 2.
+	 *
+	 * @param executorService The thread pool to run the parse and render
+	 * stages on.
+	 */
+	public PipelinedExampleIterator(Iterator<Example> examples, int ringBufferSize, ExecutorService executorService) {
+
+		checkNotNull(examples, "A null iterator of examples cannot be provided!");
+		checkNotNull(executorService, "A null executor service cannot be provided!");
+
+		this.examples = examples;
+		this.executorService = executorService;
+		this.parsed = new SpscRingBuffer<ExampleSlot>(ringBufferSize, SLOT_FACTORY);
+		this.rendered = new SpscRingBuffer<ExampleSlot>(ringBufferSize, SLOT_FACTORY);
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if (started == false) start();
+
+		if (current != null) {
+
+			current.clear();
+			rendered.release();
+
+			current = null;
+		}
+
+		if (next != null) return true;
+
+		try {
+			next = rendered.take();
+		}
+		catch (InterruptedException e) {
+
+			stop();
+
+			Thread.currentThread().interrupt();
+
+			throw new ExampleReadException("Interrupted while waiting for examples!", e);
+		}
+
+		if (next != null && next.readException != null) {
+
+			RuntimeException readException = next.readException;
+
+			next.clear();
+			rendered.release();
+
+			next = null;
+
+			stop();
+
+			throw readException;
+		}
+
+		return next != null;
+	}
+
+	@Override
+	public Example next() {
+
+		if (hasNext() == false) throw new NoSuchElementException("No more examples!");
+
+		current = next;
+
+		next = null;
+
+		return current;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("The 'remove' operation is not supported!");
+	}
+
+	/*
+	 * Stops the parse and render stages. A stage that's waiting on the
+	 * underlying iterator stops once that returns.
+	 */
+	public void stop() {
+		parsed.abort();
+		rendered.abort();
+	}
+
+	private void start() {
+
+		started = true;
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				parse();
+			}
+		});
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				render();
+			}
+		});
+	}
+
+	private void parse() {
+
+		try {
+
+			RuntimeException readException = null;
+
+			while (true) {
+
+				Example example = null;
+
+				try {
+					if (examples.hasNext() == false) break;
+
+					example = examples.next();
+				}
+				catch (RuntimeException e) {
+					readException = e;
+				}
+
+				ExampleSlot slot = parsed.claim();
+
+				if (slot == null) return;
+
+				slot.example = example;
+				slot.readException = readException;
+
+				parsed.publish();
+
+				if (readException != null) break;
+			}
+		}
+		catch (InterruptedException e) {
+			LOGGER.warn("Parse stage interrupted, stopping the pipeline.");
+			stop();
+		}
+		finally {
+			parsed.close();
+		}
+	}
+
+	private void render() {
+
+		try {
+			ExampleSlot from;
+
+			while ((from = parsed.take()) != null) {
+
+				ExampleSlot to = rendered.claim();
+
+				if (to == null) return;
+
+				to.readException = from.readException;
+
+				if (from.example != null) try {
+					to.vwString = from.example.getVWStringRepresentation();
+				}
+				catch (ExampleFormatException e) {
+					to.formatException = e;
+				}
+
+				from.clear();
+				parsed.release();
+
+				rendered.publish();
+			}
+		}
+		catch (InterruptedException e) {
+			LOGGER.warn("Render stage interrupted, stopping the pipeline.");
+			stop();
+		}
+		catch (RuntimeException e) {
+			//the submitter would have failed on this too, so fail the same way
+			LOGGER.error("Exception in render stage: {}", e.getMessage(), e);
+			publishReadException(e);
+		}
+		finally {
+			rendered.close();
+		}
+	}
+
+	private void publishReadException(RuntimeException e) {
+
+		try {
+			ExampleSlot slot = rendered.claim();
+
+			if (slot == null) return;
+
+			slot.clear();
+			slot.readException = e;
+
+			rendered.publish();
+		}
+		catch (InterruptedException e2) {
+			stop();
+		}
+	}
+}
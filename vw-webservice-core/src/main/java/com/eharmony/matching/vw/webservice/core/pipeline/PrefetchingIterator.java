@@ -0,0 +1,193 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.pipeline;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Reads ahead on another iterator, on a thread of it's own, into an
+ *         SpscRingBuffer. Used to read predictions back from VW on one thread
+ *         while another writes them out to the client, so that a slow client
+ *         write doesn't hold up reading from VW, and the other way round.
+ *
+ *         The read ahead starts the first time 'hasNext()' is called. An
+ *         exception thrown by the underlying iterator ends the iteration once
+ *         everything read before it has been handed out, and is then thrown
+ *         by 'hasNext()'. 'stop()' must be called if the iteration is given up
+ *         on before the end.
+ */
+public class PrefetchingIterator<T> implements Iterator<T> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PrefetchingIterator.class);
+
+	/*
+	 * A slot in the ring buffer.
+	 */
+	static class Slot<T> {
+
+		private T item;
+		private RuntimeException exception;
+	}
+
+	private final Iterator<T> iterator;
+	private final ExecutorService executorService;
+
+	private final SpscRingBuffer<Slot<T>> ringBuffer;
+
+	private boolean started = false;
+
+	private Slot<T> next = null;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param iterator The iterator to read ahead on.
+	 *
+	 * @param ringBufferSize The most items to read ahead. Must be a power of
+	 * 2.
+	 *
+	 * @param executorService The thread pool to read ahead on.
+	 */
+	public PrefetchingIterator(Iterator<T> iterator, int ringBufferSize, ExecutorService executorService) {
+
+		checkNotNull(iterator, "A null iterator cannot be provided!");
+		checkNotNull(executorService, "A null executor service cannot be provided!");
+
+		this.iterator = iterator;
+		this.executorService = executorService;
+		this.ringBuffer = new SpscRingBuffer<Slot<T>>(ringBufferSize, new SpscRingBuffer.SlotFactory<Slot<T>>() {
+
+			@Override
+			public Slot<T> newSlot() {
+				return new Slot<T>();
+			}
+		});
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if (started == false) start();
+
+		if (next != null) return true;
+
+		try {
+			next = ringBuffer.take();
+		}
+		catch (InterruptedException e) {
+
+			stop();
+
+			Thread.currentThread().interrupt();
+
+			return false;
+		}
+
+		if (next != null && next.exception != null) {
+
+			RuntimeException exception = next.exception;
+
+			next.exception = null;
+			ringBuffer.release();
+
+			next = null;
+
+			stop();
+
+			throw exception;
+		}
+
+		return next != null;
+	}
+
+	@Override
+	public T next() {
+
+		if (hasNext() == false) throw new NoSuchElementException("No more elements!");
+
+		T item = next.item;
+
+		next.item = null;
+		ringBuffer.release();
+
+		next = null;
+
+		return item;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("The 'remove' operation is not supported!");
+	}
+
+	/*
+	 * Stops reading ahead. If the read ahead is waiting on the underlying
+	 * iterator, it stops once that returns.
+	 */
+	public void stop() {
+		ringBuffer.abort();
+	}
+
+	private void start() {
+
+		started = true;
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				prefetch();
+			}
+		});
+	}
+
+	private void prefetch() {
+
+		try {
+
+			while (true) {
+
+				T item = null;
+
+				RuntimeException exception = null;
+
+				try {
+					if (iterator.hasNext() == false) break;
+
+					item = iterator.next();
+				}
+				catch (RuntimeException e) {
+					exception = e;
+				}
+
+				Slot<T> slot = ringBuffer.claim();
+
+				if (slot == null) return;
+
+				slot.item = item;
+				slot.exception = exception;
+
+				ringBuffer.publish();
+
+				if (exception != null) break;
+			}
+		}
+		catch (InterruptedException e) {
+			LOGGER.warn("Read ahead interrupted, stopping.");
+			stop();
+		}
+		finally {
+			ringBuffer.close();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.pipeline;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A bounded ring buffer that links two stages of a pipeline, with
+ *         exactly one thread producing into it and exactly one thread
+ *         consuming from it.
+ *
+ *         The slots are created up front and reused, so nothing is allocated
+ *         as items flow through. The producer claims the next free slot,
+ *         fills it in and publishes it. The consumer takes the next published
+ *         slot, reads it and releases it, after which the slot can be claimed
+ *         again.
+ *
+ *         The producer closes the buffer once it has nothing more to publish,
+ *         and the consumer sees the end once it has taken everything
+ *         published before that. Either side can abort the buffer, after
+ *         which neither side gets any more slots.
+ *
+ *         A side that has to wait for the other spins for a bit, then yields,
+ *         then parks for short periods, so that a busy pipeline never blocks
+ *         on a lock and an idle one doesn't burn a core.
+ *
+ *         Only the 'close()' and 'abort()' methods are thread safe. Each of
+ *         the others must only be called by it's own side.
+ */
+public class SpscRingBuffer<T> {
+
+	/*
+	 * Creates the slots of a ring buffer.
+	 */
+	public interface SlotFactory<T> {
+
+		T newSlot();
+	}
+
+	private static final int SPINS = 100;
+	private static final int YIELDS = 100;
+	private static final long PARK_NANOS = 50000;
+
+	private final Object[] slots;
+	private final int mask;
+
+	/*
+	 * The sequence number of the next slot the producer will publish, and
+	 * of the next slot the consumer will take.
+	 */
+	private final AtomicLong published = new AtomicLong(0);
+	private final AtomicLong released = new AtomicLong(0);
+
+	private volatile boolean closed = false;
+	private volatile boolean aborted = false;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param size The number of slots. Must be a power of 2.
+	 *
+	 * @param slotFactory Creates the slots.
+	 */
+	public SpscRingBuffer(int size, SlotFactory<T> slotFactory) {
+
+		checkArgument(size > 0 && (size & (size - 1)) == 0, "The size must be a power of 2!");
+		checkNotNull(slotFactory, "A null slot factory cannot be provided!");
+
+		this.slots = new Object[size];
+		this.mask = size - 1;
+
+		for (int x = 0; x < size; x++)
+			slots[x] = slotFactory.newSlot();
+	}
+
+	/*
+	 * Returns the next free slot, waiting for the consumer to release one if
+	 * the buffer is full. Called by the producer, who must publish the slot
+	 * before claiming another.
+	 *
+	 * @returns The slot, or null if the buffer was aborted.
+	 */
+	public T claim() throws InterruptedException {
+
+		long sequence = published.get();
+
+		int attempts = 0;
+
+		while (sequence - released.get() >= slots.length) {
+
+			if (aborted) return null;
+
+			idle(attempts++);
+		}
+
+		return aborted ? null : slotAt(sequence);
+	}
+
+	/*
+	 * Hands the claimed slot over to the consumer.
+	 */
+	public void publish() {
+		published.lazySet(published.get() + 1);
+	}
+
+	/*
+	 * Returns the next published slot, waiting for the producer if there
+	 * isn't one. Called by the consumer, who must release the slot before
+	 * taking another.
+	 *
+	 * @returns The slot, or null if the buffer was closed and everything
+	 * published has been taken, or if the buffer was aborted.
+	 */
+	public T take() throws InterruptedException {
+
+		long sequence = released.get();
+
+		int attempts = 0;
+
+		while (sequence >= published.get()) {
+
+			if (aborted) return null;
+
+			//everything is published before the buffer is closed, so look once more
+			if (closed) return sequence < published.get() ? slotAt(sequence) : null;
+
+			idle(attempts++);
+		}
+
+		return aborted ? null : slotAt(sequence);
+	}
+
+	/*
+	 * Hands the taken slot back to the producer.
+	 */
+	public void release() {
+		released.lazySet(released.get() + 1);
+	}
+
+	/*
+	 * Called by the producer once it has published everything it's going
+	 * to.
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	/*
+	 * Stops both sides. Slots that were published but not taken are
+	 * dropped.
+	 */
+	public void abort() {
+		aborted = true;
+	}
+
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	public int getSize() {
+		return slots.length;
+	}
+
+	/*
+	 * Returns the number of slots published but not yet released.
+	 */
+	public int getNumberOfPublishedSlots() {
+		return (int) (published.get() - released.get());
+	}
+
+	@SuppressWarnings("unchecked")
+	private T slotAt(long sequence) {
+		return (T) slots[(int) (sequence & mask)];
+	}
+
+	private static void idle(int attempts) throws InterruptedException {
+
+		if (Thread.interrupted()) throw new InterruptedException();
+
+		if (attempts < SPINS) return;
+
+		if (attempts < SPINS + YIELDS)
+			Thread.yield();
+		else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+}
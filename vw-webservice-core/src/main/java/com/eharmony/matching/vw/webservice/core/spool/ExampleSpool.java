@@ -0,0 +1,670 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Spools training examples to disk so that the client can be told
+ *         right away that the examples have been accepted, instead of having
+ *         to wait while VW learns from them.
+ *
+ *         Each upload becomes a training job. It's examples are appended to
+ *         memory mapped segment files, which are forced out to disk before
+ *         the job is acknowledged. Background drainers then feed the jobs into
+ *         VW, one job per drainer at a time, using the example processor
+ *         factory, so jobs get drained at whatever pace VW can manage.
+ *
+ *         If an attempt at draining a job fails (eg, VW went away), the job
+ *         is retried after a delay, picking up after the last example VW is
+ *         known to have processed. Examples VW received but didn't answer for
+ *         are sent again, so delivery is at-least-once.
+ *
+ *         The spool has a fixed amount of disk space. What happens when it
+ *         runs out is determined by it's overload policy.
+ *
+ *         Jobs that were spooled but not drained when the web service went
+ *         down are picked up again when it starts back up, starting from
+ *         their first example.
+ *
+ *         'start()' must be called before the spool can be used.
+ */
+public class ExampleSpool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ExampleSpool.class);
+
+	/*
+	 * The attribute holding the job ID, on the examples iterable handed to the
+	 * example processor factory.
+	 */
+	public static final String TRAINING_JOB_ID_ATTRIBUTE = "trainingJobId";
+
+	private static final String JOB_FILE_SUFFIX = ".job";
+
+	private static final int MAX_FINISHED_JOBS_RETAINED = 10000;
+
+	private static final long DRAINER_POLL_MILLIS = 1000;
+
+	private final File directory;
+	private final int segmentSize;
+	private final long maxSpoolSize;
+	private final OverloadPolicy overloadPolicy;
+	private final long maxBlockMillis;
+	private final int numDrainers;
+	private final int maxAttempts;
+	private final long retryDelayMillis;
+	private final ExampleProcessorFactory exampleProcessorFactory;
+	private final ExecutorService executorService;
+
+	/*
+	 * Jobs waiting to be drained, oldest first.
+	 */
+	private final BlockingDeque<TrainingJob> queuedJobs = new LinkedBlockingDeque<TrainingJob>();
+
+	/*
+	 * All jobs, including finished ones, oldest first. Guarded by itself.
+	 */
+	private final Map<String, TrainingJob> jobs = new LinkedHashMap<String, TrainingJob>();
+
+	/*
+	 * Guards the number of bytes reserved, and is waited on by uploads blocked
+	 * on space.
+	 */
+	private final Object spaceLock = new Object();
+
+	private long numBytesReserved = 0;
+
+	private volatile boolean running = false;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param directory The directory to keep the spool in. Created if it
+	 * doesn't exist.
+	 *
+	 * @param segmentSize The size of each segment file, in bytes. No single
+	 * example can be bigger than this.
+	 *
+	 * @param maxSpoolSize The maximum number of bytes of segment files the
+	 * spool may have on disk at any given time.
+	 *
+	 * @param overloadPolicy What to do when an upload needs more space than
+	 * the spool has left.
+	 *
+	 * @param maxBlockMillis When the overload policy is BLOCK, how long to wait
+	 * for space to free up before rejecting the upload.
+	 *
+	 * @param numDrainers The number of jobs that get fed into VW at the same
+	 * time.
+	 *
+	 * @param maxAttempts The number of attempts made at draining a job before
+	 * giving up on it.
+	 *
+	 * @param retryDelayMillis How long to wait after a failed attempt before
+	 * making the next one.
+	 *
+	 * @param exampleProcessorFactory The factory for the example processors
+	 * that feed the jobs into VW.
+	 *
+	 * @param executorService The executor service the drainers run on.
+	 */
+	public ExampleSpool(String directory, int segmentSize, long maxSpoolSize, OverloadPolicy overloadPolicy, long maxBlockMillis, int numDrainers, int maxAttempts, long retryDelayMillis, ExampleProcessorFactory exampleProcessorFactory, ExecutorService executorService) {
+
+		checkNotNull(directory, "A spool directory must be provided!");
+		checkArgument(segmentSize > SpoolSegmentWriter.RECORD_HEADER_SIZE, "The segment size is too small!");
+		checkArgument(maxSpoolSize >= segmentSize, "The spool must have space for at least one segment!");
+		checkNotNull(overloadPolicy, "An overload policy must be provided!");
+		checkArgument(maxBlockMillis >= 0, "The maximum time to block for must be >= 0!");
+		checkArgument(numDrainers > 0, "There must be at least one drainer!");
+		checkArgument(maxAttempts > 0, "The maximum number of attempts must be > 0!");
+		checkArgument(retryDelayMillis >= 0, "The retry delay must be >= 0!");
+		checkNotNull(exampleProcessorFactory, "A null example processor factory cannot be provided!");
+		checkNotNull(executorService, "A null executor service cannot be provided!");
+
+		this.directory = new File(directory);
+		this.segmentSize = segmentSize;
+		this.maxSpoolSize = maxSpoolSize;
+		this.overloadPolicy = overloadPolicy;
+		this.maxBlockMillis = maxBlockMillis;
+		this.numDrainers = numDrainers;
+		this.maxAttempts = maxAttempts;
+		this.retryDelayMillis = retryDelayMillis;
+		this.exampleProcessorFactory = exampleProcessorFactory;
+		this.executorService = executorService;
+	}
+
+	/*
+	 * Recovers any jobs left over in the spool directory, and starts the
+	 * drainers.
+	 */
+	public void start() throws IOException {
+
+		if (directory.isDirectory() == false && directory.mkdirs() == false) throw new IOException("Failed to create spool directory: " + directory);
+
+		recoverJobs();
+
+		running = true;
+
+		for (int x = 0; x < numDrainers; x++) {
+
+			executorService.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					drainJobs();
+				}
+			});
+		}
+
+		LOGGER.info("Example spool started in {} with {} drainers, {} jobs queued.", directory, numDrainers, queuedJobs.size());
+	}
+
+	/*
+	 * Stops the drainers once they're done with their current jobs. Jobs that
+	 * haven't been drained stay on disk, and get picked up again on the next
+	 * start.
+	 */
+	public void shutdown() {
+
+		running = false;
+
+		synchronized (spaceLock) {
+			spaceLock.notifyAll();
+		}
+
+		LOGGER.info("Example spool shut down.");
+	}
+
+	/*
+	 * Spools examples to disk as a new training job.
+	 *
+	 * @param examples The examples to spool. An ExampleReadException thrown
+	 * while iterating over them aborts the job, and is rethrown.
+	 *
+	 * @returns The job, once it's examples have been forced out to disk.
+	 *
+	 * @throws InvalidExampleException If one of the examples can't be turned
+	 * into a VW example.
+	 *
+	 * @throws SpoolFullException If there's no space for the examples, as per
+	 * the overload policy.
+	 *
+	 * @throws SpoolException If the spool isn't running, or the examples
+	 * couldn't be written to disk.
+	 */
+	public TrainingJob spool(Iterable<Example> examples) throws SpoolException {
+
+		if (running == false) throw new SpoolException("The example spool isn't running!");
+
+		String jobId = UUID.randomUUID().toString();
+
+		SpoolSegmentWriter writer = new SpoolSegmentWriter(this, directory, jobId, segmentSize);
+
+		boolean spooled = false;
+
+		try {
+
+			for (Example example : examples) {
+
+				String toWrite;
+
+				try {
+					toWrite = example.getVWStringRepresentation();
+				}
+				catch (ExampleFormatException e) {
+					throw new InvalidExampleException("Invalid example #" + (writer.getNumberOfExamples() + 1) + "! Message: " + e.getMessage(), e);
+				}
+
+				writer.append(toWrite);
+			}
+
+			writer.force();
+
+			TrainingJob job = new TrainingJob(jobId, System.currentTimeMillis(), writer.getSegmentFiles(), writer.getNumberOfExamples(), writer.getNumberOfBytes());
+
+			writeJobFile(job); //the job only counts as spooled once this is on disk
+
+			addJob(job);
+
+			queuedJobs.add(job);
+
+			spooled = true;
+
+			LOGGER.info("Spooled job {} with {} examples ({} bytes) in {} segments.", jobId, job.getNumberOfExamplesSpooled(), job.getNumberOfBytesSpooled(), writer.getSegmentFiles().size());
+
+			return job;
+		}
+		finally {
+			if (spooled == false) {
+
+				LOGGER.warn("Failed to spool job {}, discarding it's segments.", jobId);
+
+				releaseSegments(writer.getSegmentFiles());
+			}
+		}
+	}
+
+	/*
+	 * Looks up a job.
+	 *
+	 * @param jobId The ID of the job.
+	 *
+	 * @returns The job, or null if there's no such job (or it finished long
+	 * enough ago to have been forgotten).
+	 */
+	public TrainingJob getJob(String jobId) {
+		synchronized (jobs) {
+			return jobs.get(jobId);
+		}
+	}
+
+	public int getNumberOfQueuedJobs() {
+		return queuedJobs.size();
+	}
+
+	public long getNumberOfBytesReserved() {
+		synchronized (spaceLock) {
+			return numBytesReserved;
+		}
+	}
+
+	public long getMaxSpoolSize() {
+		return maxSpoolSize;
+	}
+
+	public OverloadPolicy getOverloadPolicy() {
+		return overloadPolicy;
+	}
+
+	/*
+	 * Reserves space for a new segment, as per the overload policy.
+	 */
+	void reserveSegment() throws SpoolException {
+
+		long deadline = System.currentTimeMillis() + maxBlockMillis;
+
+		synchronized (spaceLock) {
+
+			while (numBytesReserved + segmentSize > maxSpoolSize) {
+
+				switch (overloadPolicy) {
+
+				case REJECT:
+					throw new SpoolFullException("The example spool is full!");
+
+				case DROP_OLDEST:
+					if (dropOldestQueuedJob() == false) throw new SpoolFullException("The example spool is full, and there are no queued jobs to drop!");
+					break;
+
+				case BLOCK:
+					long timeLeft = deadline - System.currentTimeMillis();
+
+					if (timeLeft <= 0 || running == false) throw new SpoolFullException("The example spool is still full after waiting " + maxBlockMillis + " ms!");
+
+					try {
+						spaceLock.wait(timeLeft);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SpoolException("Interrupted while waiting for space in the example spool!", e);
+					}
+					break;
+				}
+			}
+
+			numBytesReserved += segmentSize;
+		}
+	}
+
+	private boolean dropOldestQueuedJob() {
+
+		TrainingJob job = queuedJobs.pollFirst();
+
+		if (job == null) return false;
+
+		LOGGER.warn("Dropping queued job {} with {} examples to make space in the example spool.", job.getId(), job.getNumberOfExamplesSpooled());
+
+		finishJob(job, TrainingJobState.Dropped);
+
+		return true;
+	}
+
+	private void releaseSegments(List<File> segmentFiles) {
+
+		for (File segmentFile : segmentFiles)
+			deleteFile(segmentFile);
+
+		synchronized (spaceLock) {
+			numBytesReserved -= (long) segmentFiles.size() * segmentSize;
+			spaceLock.notifyAll();
+		}
+	}
+
+	private void finishJob(TrainingJob job, TrainingJobState finalState) {
+
+		//the job file goes first, so that a crash part way through doesn't bring back a half deleted job
+		deleteFile(getJobFile(job.getId()));
+
+		releaseSegments(job.getSegmentFiles());
+
+		job.finish(finalState);
+	}
+
+	private void addJob(TrainingJob job) {
+
+		synchronized (jobs) {
+
+			jobs.put(job.getId(), job);
+
+			if (jobs.size() <= MAX_FINISHED_JOBS_RETAINED) return;
+
+			//forget about the oldest finished jobs
+			Iterator<TrainingJob> iterator = jobs.values().iterator();
+
+			while (jobs.size() > MAX_FINISHED_JOBS_RETAINED && iterator.hasNext()) {
+				if (iterator.next().isFinished()) iterator.remove();
+			}
+		}
+	}
+
+	/*
+	 * Drainers.
+	 */
+
+	private void drainJobs() {
+
+		while (running) {
+
+			TrainingJob job;
+
+			try {
+				job = queuedJobs.pollFirst(DRAINER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			if (job != null) try {
+				drain(job);
+			}
+			catch (Exception e) {
+				LOGGER.error("Unexpected exception when draining job {}: {}", job.getId(), e.getMessage(), e);
+			}
+		}
+	}
+
+	private void drain(TrainingJob job) {
+
+		long numToSkip = job.startAttempt();
+
+		LOGGER.info("Draining job {}, attempt #{}, starting after example #{}.", job.getId(), job.getNumberOfAttempts(), numToSkip);
+
+		String failureMessage = null;
+
+		try {
+
+			Map<String, String> attributes = new HashMap<String, String>();
+			attributes.put(TRAINING_JOB_ID_ATTRIBUTE, job.getId());
+
+			long numRemaining = job.getNumberOfExamplesSpooled() - numToSkip;
+
+			ExampleProcessor exampleProcessor = exampleProcessorFactory.getExampleProcessor(new ExamplesIterableImpl((int) Math.min(numRemaining, Integer.MAX_VALUE), attributes, new SpooledExampleIterator(job.getSegmentFiles(), numToSkip)));
+
+			ExampleProcessingManager manager = exampleProcessor.submitExamples(new DrainEventHandler(job));
+
+			job.setCurrentManager(manager);
+
+			//training only, so the predictions are just read and dropped
+			for (@SuppressWarnings("unused")
+			Prediction prediction : manager.getPredictionsIterable()) {
+			}
+
+			if (manager.getExampleSubmissionState() != ExampleSubmissionState.Complete || manager.getPredictionFetchState() != PredictionFetchState.Complete) failureMessage = "Example submission state: " + manager.getExampleSubmissionState() + ", prediction fetch state: " + manager.getPredictionFetchState();
+		}
+		catch (ExampleSubmissionException e) {
+			failureMessage = "Failed to submit examples: " + e.getMessage();
+		}
+		catch (RuntimeException e) {
+			failureMessage = "Exception when draining: " + e.getMessage();
+		}
+
+		job.endAttempt(failureMessage);
+
+		if (failureMessage == null) {
+
+			finishJob(job, TrainingJobState.Complete);
+
+			LOGGER.info("Drained job {} after {} attempts. Examples processed: {}, skipped: {}.", job.getId(), job.getNumberOfAttempts(), job.getNumberOfExamplesProcessed(), job.getNumberOfExamplesSkipped());
+		}
+		else if (job.getNumberOfAttempts() >= maxAttempts) {
+
+			LOGGER.error("Giving up on job {} after {} attempts. Last failure: {}", job.getId(), job.getNumberOfAttempts(), failureMessage);
+
+			finishJob(job, TrainingJobState.Failed);
+		}
+		else {
+
+			LOGGER.warn("Attempt #{} at draining job {} failed, retrying in {} ms. Failure: {}", job.getNumberOfAttempts(), job.getId(), retryDelayMillis, failureMessage);
+
+			try {
+				Thread.sleep(retryDelayMillis); //VW is likely having trouble, so hold off for everyone on this drainer
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			queuedJobs.addFirst(job); //put it back at the front, so jobs still get drained in order
+		}
+	}
+
+	/*
+	 * Logs whatever goes wrong while draining a job. The outcome is taken
+	 * from the final states of the manager.
+	 */
+	private static class DrainEventHandler implements ExampleProcessingEventHandler {
+
+		private final TrainingJob job;
+
+		public DrainEventHandler(TrainingJob job) {
+			this.job = job;
+		}
+
+		@Override
+		public void onExampleReadException(ExampleProcessingManager exampleProcessingManager, ExampleReadException theException) {
+			LOGGER.error("Job {}: example read exception: {}", job.getId(), theException.getMessage(), theException);
+		}
+
+		@Override
+		public void onExampleFormatException(ExampleProcessingManager exampleProcessingManager, ExampleFormatException theException) {
+			LOGGER.warn("Job {}: example format exception: {}", job.getId(), theException.getMessage());
+		}
+
+		@Override
+		public void onExampleSubmissionException(ExampleProcessingManager exampleProcessingManager, ExampleSubmissionException theException) {
+			LOGGER.error("Job {}: example submission exception: {}", job.getId(), theException.getMessage(), theException);
+		}
+
+		@Override
+		public void onExampleSubmissionComplete(ExampleProcessingManager exampleProcessingManager) {
+			LOGGER.debug("Job {}: example submission complete.", job.getId());
+		}
+
+		@Override
+		public void onPredictionFetchException(ExampleProcessingManager exampleProcessingManager, PredictionFetchException theException) {
+			LOGGER.error("Job {}: prediction fetch exception: {}", job.getId(), theException.getMessage(), theException);
+		}
+
+		@Override
+		public void onPredictionFetchComplete(ExampleProcessingManager exampleProcessingManager) {
+			LOGGER.debug("Job {}: prediction fetch complete.", job.getId());
+		}
+	}
+
+	/*
+	 * Job files.
+	 */
+
+	private File getJobFile(String jobId) {
+		return new File(directory, jobId + JOB_FILE_SUFFIX);
+	}
+
+	private void writeJobFile(TrainingJob job) throws SpoolException {
+
+		Properties properties = new Properties();
+		properties.setProperty("creationTime", Long.toString(job.getCreationTime()));
+		properties.setProperty("numSegments", Integer.toString(job.getSegmentFiles().size()));
+		properties.setProperty("numExamples", Long.toString(job.getNumberOfExamplesSpooled()));
+		properties.setProperty("numBytes", Long.toString(job.getNumberOfBytesSpooled()));
+
+		File jobFile = getJobFile(job.getId());
+		File tempFile = new File(directory, job.getId() + JOB_FILE_SUFFIX + ".tmp");
+
+		try {
+
+			try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+				properties.store(outputStream, null);
+				outputStream.getFD().sync();
+			}
+
+			if (tempFile.renameTo(jobFile) == false) throw new IOException("Failed to rename " + tempFile + " to " + jobFile);
+
+			//the rename, and the new segments, are only durable once the directory itself is synced
+			try (FileChannel directoryChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+				directoryChannel.force(true);
+			}
+		}
+		catch (IOException e) {
+
+			deleteFile(tempFile);
+
+			throw new SpoolException("Failed to write job file for job " + job.getId() + "! Message: " + e.getMessage(), e);
+		}
+	}
+
+	/*
+	 * Re-queues the jobs in the spool directory, oldest first, and deletes any
+	 * segments that don't belong to a job (ie, from uploads that were cut
+	 * short).
+	 */
+	private void recoverJobs() throws IOException {
+
+		List<TrainingJob> recoveredJobs = new ArrayList<TrainingJob>();
+		List<File> ownedSegments = new ArrayList<File>();
+
+		File[] jobFiles = directory.listFiles(new SuffixFilter(JOB_FILE_SUFFIX));
+
+		for (File jobFile : jobFiles) {
+
+			String jobId = jobFile.getName().substring(0, jobFile.getName().length() - JOB_FILE_SUFFIX.length());
+
+			Properties properties = new Properties();
+
+			try (InputStream inputStream = new FileInputStream(jobFile)) {
+				properties.load(inputStream);
+			}
+
+			List<File> segmentFiles = new ArrayList<File>();
+
+			int numSegments = Integer.parseInt(properties.getProperty("numSegments"));
+
+			for (int x = 0; x < numSegments; x++)
+				segmentFiles.add(new File(directory, jobId + "." + x + SpoolSegmentWriter.SEGMENT_FILE_SUFFIX));
+
+			recoveredJobs.add(new TrainingJob(jobId, Long.parseLong(properties.getProperty("creationTime")), segmentFiles, Long.parseLong(properties.getProperty("numExamples")), Long.parseLong(properties.getProperty("numBytes"))));
+
+			ownedSegments.addAll(segmentFiles);
+		}
+
+		for (File segmentFile : directory.listFiles(new SuffixFilter(SpoolSegmentWriter.SEGMENT_FILE_SUFFIX))) {
+			if (ownedSegments.contains(segmentFile) == false) {
+				LOGGER.warn("Deleting orphaned spool segment: {}", segmentFile);
+				deleteFile(segmentFile);
+			}
+		}
+
+		TrainingJob[] sortedJobs = recoveredJobs.toArray(new TrainingJob[recoveredJobs.size()]);
+
+		Arrays.sort(sortedJobs, new Comparator<TrainingJob>() {
+
+			@Override
+			public int compare(TrainingJob first, TrainingJob second) {
+				return Long.compare(first.getCreationTime(), second.getCreationTime());
+			}
+		});
+
+		for (TrainingJob job : sortedJobs) {
+
+			synchronized (spaceLock) {
+				numBytesReserved += (long) job.getSegmentFiles().size() * segmentSize; //may go over the limit, in which case new uploads wait for these to drain
+			}
+
+			addJob(job);
+			queuedJobs.add(job);
+
+			LOGGER.info("Recovered spooled job {} with {} examples.", job.getId(), job.getNumberOfExamplesSpooled());
+		}
+	}
+
+	private static void deleteFile(File file) {
+		if (file.exists() && file.delete() == false) LOGGER.warn("Failed to delete spool file: {}", file);
+	}
+
+	private static class SuffixFilter implements FilenameFilter {
+
+		private final String suffix;
+
+		public SuffixFilter(String suffix) {
+			this.suffix = suffix;
+		}
+
+		@Override
+		public boolean accept(File dir, String name) {
+			return name.endsWith(suffix);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Thrown when an upload has an example that can't be turned into a VW
+ *         example, ie, when the fault is the client's rather than the spool's.
+ */
+public class InvalidExampleException extends SpoolException {
+
+	/**
+	 * The serial version UID.
+	 */
+	private static final long serialVersionUID = -6153902875516647093L;
+
+	public InvalidExampleException() {
+		super();
+	}
+
+	public InvalidExampleException(String message) {
+		super(message);
+	}
+
+	public InvalidExampleException(Throwable cause) {
+		super(cause);
+	}
+
+	public InvalidExampleException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+/**
+ * @author vrahimtoola
+ *
+ *         What the example spool does when it runs out of space for a new
+ *         upload.
+ */
+public enum OverloadPolicy {
+
+	/*
+	 * Wait for the drainers to free up space, up to a configurable amount of
+	 * time, after which the upload is rejected.
+	 */
+	BLOCK,
+
+	/*
+	 * Reject the upload right away.
+	 */
+	REJECT,
+
+	/*
+	 * Drop the oldest jobs that are still waiting to be drained, until there's
+	 * enough space. If there are no such jobs, the upload is rejected.
+	 */
+	DROP_OLDEST
+}
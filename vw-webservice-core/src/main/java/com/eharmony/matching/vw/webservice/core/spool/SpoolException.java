@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Thrown when examples can't be written to the spool.
+ */
+public class SpoolException extends Exception {
+
+	/**
+	 * The serial version UID.
+	 */
+	private static final long serialVersionUID = -6329466532117950571L;
+
+	public SpoolException() {
+		super();
+	}
+
+	public SpoolException(String message) {
+		super(message);
+	}
+
+	public SpoolException(Throwable cause) {
+		super(cause);
+	}
+
+	public SpoolException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
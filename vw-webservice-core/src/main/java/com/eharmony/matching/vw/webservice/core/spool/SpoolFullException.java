@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Thrown when the spool has no space left for an upload, as per it's
+ *         overload policy.
+ */
+public class SpoolFullException extends SpoolException {
+
+	/**
+	 * The serial version UID.
+	 */
+	private static final long serialVersionUID = 2471019385530736452L;
+
+	public SpoolFullException() {
+		super();
+	}
+
+	public SpoolFullException(String message) {
+		super(message);
+	}
+
+	public SpoolFullException(Throwable cause) {
+		super(cause);
+	}
+
+	public SpoolFullException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
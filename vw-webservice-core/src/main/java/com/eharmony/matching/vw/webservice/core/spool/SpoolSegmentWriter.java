@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Appends the examples of a single job to a series of fixed size,
+ *         memory mapped segment files. Each example is stored as a 4 byte
+ *         length followed by the UTF-8 bytes of the example. Segment files
+ *         start out zero filled, so a length of 0 marks the end of the used
+ *         part of a segment.
+ *
+ *         Space for every new segment is reserved with the spool first, which
+ *         is where the spool's overload policy kicks in.
+ *
+ *         Not thread safe.
+ */
+class SpoolSegmentWriter {
+
+	static final int RECORD_HEADER_SIZE = 4;
+
+	static final String SEGMENT_FILE_SUFFIX = ".seg";
+
+	private final ExampleSpool spool;
+
+	private final File directory;
+
+	private final String jobId;
+
+	private final int segmentSize;
+
+	private final List<File> segmentFiles = new ArrayList<File>();
+
+	private MappedByteBuffer currentSegment = null;
+
+	private long numExamples = 0;
+
+	private long numBytes = 0;
+
+	public SpoolSegmentWriter(ExampleSpool spool, File directory, String jobId, int segmentSize) {
+		this.spool = spool;
+		this.directory = directory;
+		this.jobId = jobId;
+		this.segmentSize = segmentSize;
+	}
+
+	/*
+	 * Appends an example.
+	 *
+	 * @param example The VW string representation of the example.
+	 */
+	public void append(String example) throws SpoolException {
+
+		byte[] bytes = example.getBytes(Charsets.UTF_8);
+
+		if (bytes.length == 0) return; //a zero length would read back as the end of the segment
+
+		if (bytes.length + RECORD_HEADER_SIZE > segmentSize) throw new SpoolException("An example of " + bytes.length + " bytes doesn't fit in a spool segment of " + segmentSize + " bytes!");
+
+		if (currentSegment == null || currentSegment.remaining() < bytes.length + RECORD_HEADER_SIZE) nextSegment();
+
+		currentSegment.putInt(bytes.length);
+		currentSegment.put(bytes);
+
+		numExamples++;
+		numBytes += bytes.length;
+	}
+
+	/*
+	 * Forces everything appended so far out to the storage device. Once this
+	 * returns, the examples will survive a crash.
+	 */
+	public void force() {
+		if (currentSegment != null) currentSegment.force();
+	}
+
+	public List<File> getSegmentFiles() {
+		return segmentFiles;
+	}
+
+	public long getNumberOfExamples() {
+		return numExamples;
+	}
+
+	public long getNumberOfBytes() {
+		return numBytes;
+	}
+
+	private void nextSegment() throws SpoolException {
+
+		//the previous segment is full, so there's no point holding off on writing it out
+		force();
+
+		spool.reserveSegment();
+
+		File segmentFile = new File(directory, jobId + "." + segmentFiles.size() + SEGMENT_FILE_SUFFIX);
+
+		segmentFiles.add(segmentFile);
+
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw")) {
+			currentSegment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); //the mapping stays valid after the file is closed
+		}
+		catch (IOException e) {
+			throw new SpoolException("Failed to create spool segment " + segmentFile + "! Message: " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.List;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Reads examples back out of the segment files written by the
+ *         SpoolSegmentWriter, mapping one segment at a time.
+ *
+ *         Not thread safe.
+ */
+class SpooledExampleIterator extends AbstractIterator<Example> {
+
+	private final Iterator<File> segmentFiles;
+
+	private MappedByteBuffer currentSegment = null;
+
+	private long numToSkip;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param segmentFiles The segment files, in order.
+	 *
+	 * @param numToSkip The number of examples to skip over at the start.
+	 */
+	public SpooledExampleIterator(List<File> segmentFiles, long numToSkip) {
+		this.segmentFiles = segmentFiles.iterator();
+		this.numToSkip = numToSkip;
+	}
+
+	@Override
+	protected Example computeNext() {
+
+		while (true) {
+
+			byte[] record = nextRecord();
+
+			if (record == null) return endOfData();
+
+			if (numToSkip > 0) {
+				numToSkip--;
+				continue;
+			}
+
+			return new StringExample(new String(record, Charsets.UTF_8));
+		}
+	}
+
+	private byte[] nextRecord() {
+
+		while (true) {
+
+			if (currentSegment != null && currentSegment.remaining() >= SpoolSegmentWriter.RECORD_HEADER_SIZE) {
+
+				int length = currentSegment.getInt();
+
+				if (length > 0) {
+
+					if (length > currentSegment.remaining()) throw new ExampleReadException("Corrupt spool segment, record of " + length + " bytes runs past the end of the segment!");
+
+					byte[] record = new byte[length];
+
+					currentSegment.get(record);
+
+					return record;
+				}
+			}
+
+			//the rest of this segment is unused, move on to the next one
+			if (segmentFiles.hasNext() == false) return null;
+
+			currentSegment = map(segmentFiles.next());
+		}
+	}
+
+	private static MappedByteBuffer map(File segmentFile) {
+
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile, "r")) {
+			return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		}
+		catch (IOException e) {
+			throw new ExampleReadException("Failed to map spool segment " + segmentFile + "! Message: " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A batch of training examples that's been spooled to disk, and that
+ *         gets fed into VW by one of the spool's drainers.
+ *
+ *         While the job is being drained, the progress reported here comes
+ *         straight from the counters of the example processing manager doing
+ *         the work.
+ */
+public class TrainingJob {
+
+	private final String id;
+
+	private final long creationTime;
+
+	private final List<File> segmentFiles;
+
+	private final long numExamplesSpooled;
+
+	private final long numBytesSpooled;
+
+	/*
+	 * Everything below is guarded by 'this'.
+	 */
+	private TrainingJobState state = TrainingJobState.Queued;
+
+	private ExampleProcessingManager currentManager = null;
+
+	/*
+	 * The number of examples VW has processed in previous attempts, ie, the
+	 * number of predictions read back. The next attempt picks up from here.
+	 */
+	private long numExamplesProcessedBefore = 0;
+
+	private long numExamplesSkippedBefore = 0;
+
+	private int numAttempts = 0;
+
+	private String failureMessage = null;
+
+	private long completionTime = 0;
+
+	TrainingJob(String id, long creationTime, List<File> segmentFiles, long numExamplesSpooled, long numBytesSpooled) {
+		this.id = id;
+		this.creationTime = creationTime;
+		this.segmentFiles = Collections.unmodifiableList(new ArrayList<File>(segmentFiles));
+		this.numExamplesSpooled = numExamplesSpooled;
+		this.numBytesSpooled = numBytesSpooled;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/*
+	 * Returns the time the job was spooled, in milliseconds since the epoch.
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	/*
+	 * Returns the time the job finished (ie, completed, failed or was
+	 * dropped), in milliseconds since the epoch, or 0 if it hasn't finished
+	 * yet.
+	 */
+	public synchronized long getCompletionTime() {
+		return completionTime;
+	}
+
+	public synchronized TrainingJobState getState() {
+		return state;
+	}
+
+	public long getNumberOfExamplesSpooled() {
+		return numExamplesSpooled;
+	}
+
+	public long getNumberOfBytesSpooled() {
+		return numBytesSpooled;
+	}
+
+	/*
+	 * Returns the number of examples sent to VW so far, across all attempts.
+	 * Examples that were resent after a failed attempt are only counted once.
+	 */
+	public synchronized long getNumberOfExamplesSubmitted() {
+		return numExamplesProcessedBefore + (currentManager != null ? currentManager.getTotalNumberOfExamplesSubmitted() : 0);
+	}
+
+	/*
+	 * Returns the number of examples VW is known to have processed so far,
+	 * ie, the number of predictions read back, across all attempts.
+	 */
+	public synchronized long getNumberOfExamplesProcessed() {
+		return numExamplesProcessedBefore + (currentManager != null ? currentManager.getTotalNumberOfPredictionsFetched() : 0);
+	}
+
+	public synchronized long getNumberOfExamplesSkipped() {
+		return numExamplesSkippedBefore + (currentManager != null ? currentManager.getTotalNumberOfExamplesSkipped() : 0);
+	}
+
+	public synchronized int getNumberOfAttempts() {
+		return numAttempts;
+	}
+
+	/*
+	 * Returns the example submission state of the current attempt, or null if
+	 * the job isn't being drained right now.
+	 */
+	public synchronized ExampleSubmissionState getExampleSubmissionState() {
+		return currentManager != null ? currentManager.getExampleSubmissionState() : null;
+	}
+
+	/*
+	 * Returns the prediction fetch state of the current attempt, or null if
+	 * the job isn't being drained right now.
+	 */
+	public synchronized PredictionFetchState getPredictionFetchState() {
+		return currentManager != null ? currentManager.getPredictionFetchState() : null;
+	}
+
+	/*
+	 * Returns why the last attempt failed, or null if no attempt has failed.
+	 */
+	public synchronized String getFailureMessage() {
+		return failureMessage;
+	}
+
+	public synchronized boolean isFinished() {
+		return state == TrainingJobState.Complete || state == TrainingJobState.Failed || state == TrainingJobState.Dropped;
+	}
+
+	List<File> getSegmentFiles() {
+		return segmentFiles;
+	}
+
+	/*
+	 * Starts a new attempt.
+	 *
+	 * @returns The number of examples to skip, since VW processed them in
+	 * previous attempts.
+	 */
+	synchronized long startAttempt() {
+
+		state = TrainingJobState.Running;
+		numAttempts++;
+
+		return numExamplesProcessedBefore;
+	}
+
+	synchronized void setCurrentManager(ExampleProcessingManager manager) {
+		this.currentManager = manager;
+	}
+
+	/*
+	 * Ends the current attempt, folding the counters of it's manager into the
+	 * totals.
+	 *
+	 * @param failureMessage Why the attempt failed, or null if it succeeded.
+	 */
+	synchronized void endAttempt(String failureMessage) {
+
+		if (currentManager != null) {
+			numExamplesProcessedBefore += currentManager.getTotalNumberOfPredictionsFetched();
+			numExamplesSkippedBefore += currentManager.getTotalNumberOfExamplesSkipped();
+			currentManager = null;
+		}
+
+		if (failureMessage != null) {
+			this.failureMessage = failureMessage;
+			state = TrainingJobState.Retrying;
+		}
+	}
+
+	synchronized void finish(TrainingJobState finalState) {
+		state = finalState;
+		completionTime = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The states a spooled training job goes through.
+ */
+public enum TrainingJobState {
+
+	/*
+	 * The examples are on disk, waiting for a drainer to pick them up.
+	 */
+	Queued,
+
+	/*
+	 * The examples are being fed into VW.
+	 */
+	Running,
+
+	/*
+	 * The last attempt to feed the examples into VW failed, and the job is
+	 * waiting to be retried.
+	 */
+	Retrying,
+
+	/*
+	 * All examples were fed into VW.
+	 */
+	Complete,
+
+	/*
+	 * Feeding the examples into VW failed, and no more attempts will be made.
+	 */
+	Failed,
+
+	/*
+	 * The job was dropped before it was drained, to make space for newer
+	 * jobs.
+	 */
+	Dropped
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.stats;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Keeps count of the requests that got cancelled (eg, because the
+ *         client went away), and of the VW work that went to waste as a
+ *         result.
+ *
+ *         Thread safe.
+ */
+public class CancellationStats {
+
+	private long numCancelledRequests = 0;
+
+	private long numExamplesSubmitted = 0;
+
+	private long numPredictionsDiscarded = 0;
+
+	/*
+	 * Records a cancelled request.
+	 *
+	 * @param numExamplesSubmitted The number of examples that had been sent
+	 * to VW when the request was cancelled.
+	 *
+	 * @param numPredictionsFetched The number of predictions that had been
+	 * read back by then. VW's predictions for the rest are thrown away.
+	 */
+	public synchronized void onCancelled(long numExamplesSubmitted, long numPredictionsFetched) {
+
+		numCancelledRequests++;
+
+		this.numExamplesSubmitted += numExamplesSubmitted;
+
+		numPredictionsDiscarded += Math.max(0, numExamplesSubmitted - numPredictionsFetched);
+	}
+
+	public synchronized long getNumberOfCancelledRequests() {
+		return numCancelledRequests;
+	}
+
+	/*
+	 * Gets the total number of examples sent to VW for requests that ended up
+	 * cancelled.
+	 */
+	public synchronized long getNumberOfExamplesSubmitted() {
+		return numExamplesSubmitted;
+	}
+
+	/*
+	 * Gets the total number of examples sent to VW whose predictions were
+	 * never read, because their requests were cancelled.
+	 */
+	public synchronized long getNumberOfPredictionsDiscarded() {
+		return numPredictionsDiscarded;
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.stats;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Keeps track of the most recent latencies recorded, and computes
+ *         percentiles over them. Only a fixed number of samples is kept, so
+ *         the percentiles follow changes in latency reasonably quickly.
+ *
+ *         Thread safe.
+ */
+public class LatencyTracker {
+
+	private final long[] samples;
+
+	private int nextSample = 0;
+
+	private int numSamples = 0;
+
+	private long totalNumberRecorded = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param maxSamples The number of most recent latencies to keep. Must be >
+	 * 0.
+	 */
+	public LatencyTracker(int maxSamples) {
+
+		checkArgument(maxSamples > 0, "The number of samples must be > 0!");
+
+		this.samples = new long[maxSamples];
+	}
+
+	/*
+	 * Records a latency.
+	 *
+	 * @param latency The latency, in whatever unit the caller likes, as long
+	 * as it's used consistently.
+	 */
+	public synchronized void record(long latency) {
+
+		samples[nextSample] = latency;
+
+		nextSample = (nextSample + 1) % samples.length;
+
+		if (numSamples < samples.length) numSamples++;
+
+		totalNumberRecorded++;
+	}
+
+	/*
+	 * Returns a percentile of the latencies kept.
+	 *
+	 * @param percentile The percentile, between 0 and 100.
+	 *
+	 * @param defaultValue The value to return if nothing has been recorded.
+	 *
+	 * @returns The percentile.
+	 */
+	public long getPercentile(double percentile, long defaultValue) {
+
+		checkArgument(percentile >= 0 && percentile <= 100, "The percentile must be between 0 and 100!");
+
+		long[] sorted;
+
+		synchronized (this) {
+
+			if (numSamples == 0) return defaultValue;
+
+			sorted = Arrays.copyOf(samples, numSamples);
+		}
+
+		Arrays.sort(sorted);
+
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	/*
+	 * Returns the number of latencies kept, ie, the number that percentiles
+	 * are computed over.
+	 */
+	public synchronized int getNumberOfSamples() {
+		return numSamples;
+	}
+
+	/*
+	 * Returns the number of latencies recorded since this tracker was
+	 * created.
+	 */
+	public synchronized long getTotalNumberRecorded() {
+		return totalNumberRecorded;
+	}
+}
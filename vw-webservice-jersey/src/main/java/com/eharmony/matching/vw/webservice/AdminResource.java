@@ -0,0 +1,386 @@
+package com.eharmony.matching.vw.webservice;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.routing.ModelRegistry;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.routing.ModelSettings;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.CircuitBreakingTCPIPSocketFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.ConcurrencyLimitingTCPIPSocketFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.DaemonHealthChecker;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.DaemonWriter;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.DaemonWriterPool;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.RequestClassStats;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.ReplayPolicy;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.ShadowMirror;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TenantStats;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.eharmony.matching.vw.webservice.core.stats.CancellationStats;
+import com.google.gson.Gson;
+
+/**
+ * Root resource (exposed at "admin" path). Reports on the health of the VW
+ * daemons behind the web service, on their concurrency limits, on requests
+ * cancelled because their clients went away, on the memory used by requests
+ * in flight, and on the daemon writers, their tenants and the classes of
+ * requests they serve, and on the models in the model registry, which it can
+ * also reload, on how the shadow daemon's predictions compare with the
+ * primary daemon's, and on the examples replayed after a connection failed.
+ *
+ * Built by Spring, rather than by Jersey's Spring bridge, which can't hand
+ * it the list of every concurrency limiter in the context.
+ */
+@Component
+@Path("/admin")
+public class AdminResource {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdminResource.class);
+
+	private final DaemonHealthChecker daemonHealthChecker;
+
+	private final CancellationStats cancellationStats;
+
+	private final InFlightMemoryBudget memoryBudget;
+
+	private final DaemonWriterPool daemonWriterPool;
+
+	private final ModelRegistry modelRegistry;
+
+	private final ShadowMirror shadowMirror;
+
+	private final List<ConcurrencyLimitingTCPIPSocketFactory> concurrencyLimiters;
+
+	private final ReplayPolicy replayPolicy;
+
+	@Autowired
+	public AdminResource(DaemonHealthChecker daemonHealthChecker, CancellationStats cancellationStats, InFlightMemoryBudget memoryBudget, DaemonWriterPool daemonWriterPool, ModelRegistry modelRegistry, ShadowMirror shadowMirror, List<ConcurrencyLimitingTCPIPSocketFactory> concurrencyLimiters, ReplayPolicy replayPolicy) {
+
+		checkNotNull(daemonHealthChecker, "A daemon health checker must be provided!");
+		checkNotNull(cancellationStats, "Cancellation stats must be provided!");
+		checkNotNull(memoryBudget, "A memory budget must be provided!");
+		checkNotNull(daemonWriterPool, "A daemon writer pool must be provided!");
+		checkNotNull(modelRegistry, "A model registry must be provided!");
+		checkNotNull(shadowMirror, "A shadow mirror must be provided!");
+		checkNotNull(concurrencyLimiters, "A list of concurrency limiters must be provided!");
+		checkNotNull(replayPolicy, "A replay policy must be provided!");
+
+		this.daemonHealthChecker = daemonHealthChecker;
+		this.cancellationStats = cancellationStats;
+		this.memoryBudget = memoryBudget;
+		this.daemonWriterPool = daemonWriterPool;
+		this.modelRegistry = modelRegistry;
+		this.shadowMirror = shadowMirror;
+		this.concurrencyLimiters = concurrencyLimiters;
+		this.replayPolicy = replayPolicy;
+	}
+
+	/*
+	 * Returns the state of the circuit breaker in front of each VW daemon.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/daemons")
+	public Response getDaemons() {
+
+		List<Map<String, Object>> daemons = new ArrayList<Map<String, Object>>();
+
+		for (CircuitBreakingTCPIPSocketFactory daemon : daemonHealthChecker.getDaemons()) {
+
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+
+			status.put("name", daemon.getName());
+			status.put("state", daemon.getState().name());
+			status.put("consecutiveFailures", daemon.getNumberOfConsecutiveFailures());
+			status.put("rejectedRequests", daemon.getNumberOfRejectedRequests());
+			status.put("lastFailure", daemon.getLastFailure());
+
+			daemons.add(status);
+		}
+
+		return Response.ok(new Gson().toJson(daemons)).build();
+	}
+
+	/*
+	 * Returns the concurrency limit of each VW daemon, how much of it is in
+	 * use, and the response times it's based on.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/limits")
+	public Response getLimits() {
+
+		List<Map<String, Object>> limits = new ArrayList<Map<String, Object>>();
+
+		for (ConcurrencyLimitingTCPIPSocketFactory limiter : concurrencyLimiters) {
+
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+
+			status.put("name", limiter.getName());
+			status.put("limit", limiter.getLimit());
+			status.put("inFlight", limiter.getNumberInFlight());
+			status.put("queued", limiter.getNumberQueued());
+			status.put("rejectedRequests", limiter.getNumberOfRejectedRequests());
+			status.put("minRttMillis", limiter.getMinRttMillis());
+			status.put("p50RttMillis", limiter.getRttMillis(50));
+			status.put("p99RttMillis", limiter.getRttMillis(99));
+
+			limits.add(status);
+		}
+
+		return Response.ok(new Gson().toJson(limits)).build();
+	}
+
+	/*
+	 * Returns how many requests were cancelled, and how much VW work went to
+	 * waste because of it.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/cancellations")
+	public Response getCancellations() {
+
+		Map<String, Object> cancellations = new LinkedHashMap<String, Object>();
+
+		cancellations.put("cancelledRequests", cancellationStats.getNumberOfCancelledRequests());
+		cancellations.put("examplesSubmitted", cancellationStats.getNumberOfExamplesSubmitted());
+		cancellations.put("predictionsDiscarded", cancellationStats.getNumberOfPredictionsDiscarded());
+
+		return Response.ok(new Gson().toJson(cancellations)).build();
+	}
+
+	/*
+	 * Returns how much of the memory budget is in use, and how often requests
+	 * have had to wait for it, or been turned away.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/memory")
+	public Response getMemory() {
+
+		Map<String, Object> memory = new LinkedHashMap<String, Object>();
+
+		memory.put("maxBytes", memoryBudget.getMaxBytes());
+		memory.put("reservedBytes", memoryBudget.getReservedBytes());
+		memory.put("peakReservedBytes", memoryBudget.getPeakReservedBytes());
+		memory.put("waits", memoryBudget.getNumberOfWaits());
+		memory.put("rejections", memoryBudget.getNumberOfRejections());
+
+		return Response.ok(new Gson().toJson(memory)).build();
+	}
+
+	/*
+	 * Returns how many batches are queued up for each daemon writer, and how
+	 * much each has written.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/writers")
+	public Response getWriters() {
+
+		List<Map<String, Object>> writers = new ArrayList<Map<String, Object>>();
+
+		for (DaemonWriter writer : daemonWriterPool.getWriters()) {
+
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+
+			status.put("name", writer.getName());
+			status.put("queueDepth", writer.getQueueDepth());
+			status.put("batchesWritten", writer.getNumberOfBatchesWritten());
+			status.put("examplesWritten", writer.getNumberOfExamplesWritten());
+			status.put("connections", writer.getNumberOfConnections());
+
+			writers.add(status);
+		}
+
+		return Response.ok(new Gson().toJson(writers)).build();
+	}
+
+	/*
+	 * Returns the weight, queue depth and throughput of each tenant of the
+	 * daemon writers.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/tenants")
+	public Response getTenants() {
+
+		List<Map<String, Object>> tenants = new ArrayList<Map<String, Object>>();
+
+		for (TenantStats tenant : daemonWriterPool.getTenants()) {
+
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+
+			status.put("name", tenant.getName());
+			status.put("weight", tenant.getWeight());
+			status.put("queueDepth", tenant.getQueueDepth());
+			status.put("batchesWritten", tenant.getNumberOfBatchesWritten());
+			status.put("examplesWritten", tenant.getNumberOfExamplesWritten());
+			status.put("averageQueueMillis", tenant.getAverageQueueMillis());
+			status.put("maxQueueMillis", tenant.getMaxQueueMillis());
+
+			tenants.add(status);
+		}
+
+		return Response.ok(new Gson().toJson(tenants)).build();
+	}
+
+	/*
+	 * Returns the writers reserved for each class of requests, it's queue
+	 * depth and throughput, and how long it's requests take.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/requestClasses")
+	public Response getRequestClasses() {
+
+		List<Map<String, Object>> requestClasses = new ArrayList<Map<String, Object>>();
+
+		for (RequestClassStats requestClass : daemonWriterPool.getRequestClasses()) {
+
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+
+			status.put("name", requestClass.getRequestClass().name());
+			status.put("reservedWriters", requestClass.getReservedWriters());
+			status.put("queueDepth", requestClass.getQueueDepth());
+			status.put("batchesWritten", requestClass.getNumberOfBatchesWritten());
+			status.put("examplesWritten", requestClass.getNumberOfExamplesWritten());
+			status.put("averageQueueMillis", requestClass.getAverageQueueMillis());
+			status.put("maxQueueMillis", requestClass.getMaxQueueMillis());
+			status.put("requestsCompleted", requestClass.getNumberOfRequestsCompleted());
+			status.put("p50LatencyMillis", requestClass.getRequestLatencyMillis(50));
+			status.put("p99LatencyMillis", requestClass.getRequestLatencyMillis(99));
+
+			requestClasses.add(status);
+		}
+
+		return Response.ok(new Gson().toJson(requestClasses)).build();
+	}
+
+	/*
+	 * Returns the models in the model registry, the daemons that serve them,
+	 * and how their requests are sent.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/models")
+	public Response getModels() {
+
+		List<Map<String, Object>> models = new ArrayList<Map<String, Object>>();
+
+		for (String name : modelRegistry.getModelNames()) {
+
+			ModelSettings settings = modelRegistry.getModelSettings(name);
+
+			if (settings == null) continue; //removed by a reload since
+
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+
+			status.put("name", name);
+			status.put("daemons", settings.getDaemons());
+			status.put("maxExamplesPerFlush", settings.getMaxExamplesPerFlush());
+			status.put("maxIdleMicros", settings.getMaxIdleMicros());
+			status.put("inlineMaxExamples", settings.getInlineMaxExamples());
+			status.put("abandonmentTimeoutMillis", settings.getAbandonmentTimeoutMillis());
+			status.put("numWriters", settings.getNumWriters());
+
+			models.add(status);
+		}
+
+		return Response.ok(new Gson().toJson(models)).build();
+	}
+
+	/*
+	 * Reloads the models from the model registry's file.
+	 */
+	@POST
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/models/reload")
+	public Response reloadModels() {
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+
+		try {
+			result.put("changed", modelRegistry.reload());
+		}
+		catch (IOException | IllegalArgumentException e) {
+
+			LOGGER.error("Failed to reload models: {}", e.getMessage(), e);
+
+			result.put("error", e.getMessage());
+
+			return Response.status(Status.BAD_REQUEST).entity(new Gson().toJson(result)).build();
+		}
+
+		result.put("models", modelRegistry.getModelNames());
+
+		return Response.ok(new Gson().toJson(result)).build();
+	}
+
+	/*
+	 * Returns how many examples were mirrored to the shadow daemon, how far
+	 * it's predictions are from the primary daemon's, and how long it takes
+	 * to answer.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/shadow")
+	public Response getShadow() {
+
+		Map<String, Object> shadow = new LinkedHashMap<String, Object>();
+
+		shadow.put("sampleRate", shadowMirror.getSampleRate());
+		shadow.put("examplesSampled", shadowMirror.getNumberOfExamplesSampled());
+		shadow.put("examplesDropped", shadowMirror.getNumberOfExamplesDropped());
+		shadow.put("examplesSent", shadowMirror.getNumberOfExamplesSent());
+		shadow.put("shadowFailures", shadowMirror.getNumberOfShadowFailures());
+		shadow.put("queueDepth", shadowMirror.getQueueDepth());
+		shadow.put("predictionsCompared", shadowMirror.getNumberOfPredictionsCompared());
+		shadow.put("predictionsDisagreeing", shadowMirror.getNumberOfPredictionsDisagreeing());
+		shadow.put("meanAbsoluteDelta", shadowMirror.getMeanAbsoluteDelta());
+		shadow.put("maxAbsoluteDelta", shadowMirror.getMaxAbsoluteDelta());
+		shadow.put("p50LatencyMillis", shadowMirror.getShadowLatencyMillis(50));
+		shadow.put("p99LatencyMillis", shadowMirror.getShadowLatencyMillis(99));
+
+		return Response.ok(new Gson().toJson(shadow)).build();
+	}
+
+	/*
+	 * Returns how many times requests got a new connection to VW, and had
+	 * their unanswered examples sent again, after theirs failed.
+	 */
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/replays")
+	public Response getReplays() {
+
+		Map<String, Object> replays = new LinkedHashMap<String, Object>();
+
+		replays.put("enabled", replayPolicy.isEnabled());
+		replays.put("maxBufferedBytes", replayPolicy.getMaxBufferedBytes());
+		replays.put("maxRetries", replayPolicy.getMaxRetries());
+		replays.put("replays", replayPolicy.getNumberOfReplays());
+		replays.put("failedReplays", replayPolicy.getNumberOfFailedReplays());
+		replays.put("examplesReplayed", replayPolicy.getNumberOfExamplesReplayed());
+		replays.put("bytesReplayed", replayPolicy.getNumberOfBytesReplayed());
+
+		return Response.ok(new Gson().toJson(replays)).build();
+	}
+}
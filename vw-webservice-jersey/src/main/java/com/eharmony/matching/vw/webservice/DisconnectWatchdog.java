@@ -0,0 +1,107 @@
+/**
+ * 
+ */
+package com.eharmony.matching.vw.webservice;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.stats.CancellationStats;
+
+/**
+ * @author vrahimtoola
+ * 
+ *         Cancels requests whose clients have gone away, so that VW stops
+ *         working on them right away instead of whenever the request handler
+ *         next tries to write a prediction.
+ * 
+ *         Jersey closes a request's chunked output once it can no longer write
+ *         to the client, so the watchdog checks every 'checkIntervalMillis'
+ *         whether that has happened. Every cancelled request is accounted for
+ *         in the cancellation stats.
+ */
+public class DisconnectWatchdog {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DisconnectWatchdog.class);
+
+	private final ScheduledExecutorService scheduler;
+	private final long checkIntervalMillis;
+	private final CancellationStats cancellationStats;
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param scheduler The scheduler to run the checks on.
+	 * 
+	 * @param checkIntervalMillis How often to check on each request. 0 turns
+	 * the checks off, in which case requests are only cancelled when writing
+	 * to the client fails.
+	 * 
+	 * @param cancellationStats Where cancelled requests are accounted for.
+	 */
+	public DisconnectWatchdog(ScheduledExecutorService scheduler, long checkIntervalMillis, CancellationStats cancellationStats) {
+
+		checkNotNull(scheduler, "A null scheduler cannot be provided!");
+		checkArgument(checkIntervalMillis >= 0, "The check interval must be >= 0!");
+		checkNotNull(cancellationStats, "Null cancellation stats cannot be provided!");
+
+		this.scheduler = scheduler;
+		this.checkIntervalMillis = checkIntervalMillis;
+		this.cancellationStats = cancellationStats;
+	}
+
+	/*
+	 * Starts watching a request.
+	 * 
+	 * @param exampleProcessingManager The manager of the request.
+	 * 
+	 * @param chunkedOutput The chunked output predictions are written to.
+	 * 
+	 * @returns The handle to cancel once the request is done, or null if
+	 * checks are turned off.
+	 */
+	public ScheduledFuture<?> watch(final ExampleProcessingManager exampleProcessingManager, final ChunkedOutput<?> chunkedOutput) {
+
+		if (checkIntervalMillis == 0) return null;
+
+		return scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				if (chunkedOutput.isClosed()) cancel(exampleProcessingManager, "the client disconnected");
+			}
+		}, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Cancels a request, and accounts for it if it wasn't already done or
+	 * cancelled.
+	 * 
+	 * @param reason Why the request is being cancelled, for the logs.
+	 * 
+	 * @returns True if the request was cancelled by this call.
+	 */
+	public boolean cancel(ExampleProcessingManager exampleProcessingManager, String reason) {
+
+		if (exampleProcessingManager.cancel() == false) return false;
+
+		LOGGER.warn("Cancelled request because {}. Examples submitted: {}, predictions fetched: {}", reason, exampleProcessingManager.getTotalNumberOfExamplesSubmitted(), exampleProcessingManager.getTotalNumberOfPredictionsFetched());
+
+		cancellationStats.onCancelled(exampleProcessingManager.getTotalNumberOfExamplesSubmitted(), exampleProcessingManager.getTotalNumberOfPredictionsFetched());
+
+		return true;
+	}
+
+	public CancellationStats getCancellationStats() {
+		return cancellationStats;
+	}
+}
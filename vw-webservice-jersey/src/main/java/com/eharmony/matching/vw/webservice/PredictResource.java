@@ -4,28 +4,49 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 
-import org.glassfish.jersey.server.ChunkedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
 
 import com.eharmony.matching.vw.webservice.common.example.Example;
 import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
 import com.eharmony.matching.vw.webservice.common.prediction.PredictionMediaTypes;
+import com.eharmony.matching.vw.webservice.compression.CompressingPredictionChunkWriter;
+import com.eharmony.matching.vw.webservice.compression.CompressionSettings;
+import com.eharmony.matching.vw.webservice.compression.ContentEncoding;
+import com.eharmony.matching.vw.webservice.compression.PlainTextPredictionChunkWriter;
+import com.eharmony.matching.vw.webservice.compression.PredictionChunkWriter;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.routing.ModelRegistry;
 
 /**
- * Root resource (exposed at "predict" path)
+ * Root resource (exposed at "predict" path). Requests to "predict/main" go to
+ * the main example processor factory, and requests to "predict/{model}" to
+ * the factory of that model in the model registry.
+ *
+ * Built by Spring, rather than by Jersey's Spring bridge, since the context
+ * has more than one bean of some of the types it takes, and only Spring
+ * honors the qualifiers picking them out.
  */
+@Component
 @Path("/predict")
 public class PredictResource {
 
@@ -33,26 +54,94 @@ public class PredictResource {
 
 	private final ExecutorService executorService;
 
+	private final CompressionSettings compressionSettings;
+
+	private final DisconnectWatchdog disconnectWatchdog;
+
+	private final ModelRegistry modelRegistry;
+
+	private final ScheduledExecutorService scheduler;
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(PredictResource.class);
 
 	@Autowired
-	public PredictResource(ExecutorService executorService, ExampleProcessorFactory exampleProcessorFactory) {
+	public PredictResource(@Qualifier("executorService") ExecutorService executorService, @Qualifier("labelRoutingExampleProcessorFactory") ExampleProcessorFactory exampleProcessorFactory, CompressionSettings compressionSettings, DisconnectWatchdog disconnectWatchdog, ModelRegistry modelRegistry, @Qualifier("scheduler") ScheduledExecutorService scheduler) {
 
+		checkNotNull(executorService, "An executor service must be provided!");
 		checkNotNull(exampleProcessorFactory, "An example processor factory must be provided!");
+		checkNotNull(compressionSettings, "Compression settings must be provided!");
+		checkNotNull(disconnectWatchdog, "A disconnect watchdog must be provided!");
+		checkNotNull(modelRegistry, "A model registry must be provided!");
+		checkNotNull(scheduler, "A scheduler must be provided!");
 
 		this.exampleProcessorFactory = exampleProcessorFactory;
 
 		this.executorService = executorService;
 
+		this.compressionSettings = compressionSettings;
+
+		this.disconnectWatchdog = disconnectWatchdog;
+
+		this.modelRegistry = modelRegistry;
+
+		this.scheduler = scheduler;
+
 	}
 
 	@POST
 	@Consumes({ ExampleMediaTypes.PLAINTEXT_0_1_0, MediaType.TEXT_PLAIN, ExampleMediaTypes.SIMPLE_PROTOBUF_0_1_0, ExampleMediaTypes.SIMPLE_JSON_0_1_0, ExampleMediaTypes.STRUCTURED_JSON_0_1_0 })
 	@Produces({ PredictionMediaTypes.PLAINTEXT_0_1_0 })
 	@Path("/main")
-	public ChunkedOutput<String> doPredict(ExamplesIterable examplesIterable) throws IOException {
+	public Response doPredict(ExamplesIterable examplesIterable, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) throws IOException {
+		return predict(exampleProcessorFactory, examplesIterable, acceptEncoding);
+	}
+
+	@POST
+	@Consumes({ ExampleMediaTypes.PLAINTEXT_0_1_0, MediaType.TEXT_PLAIN, ExampleMediaTypes.SIMPLE_PROTOBUF_0_1_0, ExampleMediaTypes.SIMPLE_JSON_0_1_0, ExampleMediaTypes.STRUCTURED_JSON_0_1_0 })
+	@Produces({ PredictionMediaTypes.PLAINTEXT_0_1_0 })
+	@Path("/{model}")
+	public Response doPredictModel(@PathParam("model") String model, ExamplesIterable examplesIterable, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) throws IOException {
+
+		ExampleProcessorFactory modelExampleProcessorFactory = modelRegistry.getExampleProcessorFactory(model);
+
+		if (modelExampleProcessorFactory == null) {
+
+			LOGGER.warn("Rejecting a request for an unknown model: {}", model);
+
+			return Response.status(Status.NOT_FOUND).type(MediaType.TEXT_PLAIN).entity("No such model: " + model).build();
+		}
+
+		return predict(modelExampleProcessorFactory, examplesIterable, acceptEncoding);
+	}
+
+	private Response predict(ExampleProcessorFactory exampleProcessorFactory, ExamplesIterable examplesIterable, String acceptEncoding) throws IOException {
+
+		if (RequestDeadline.fromAttributes(examplesIterable).hasPassed()) {
+
+			LOGGER.warn("Rejecting a request whose deadline has already passed.");
+
+			return Response.status(Status.GATEWAY_TIMEOUT).type(MediaType.TEXT_PLAIN).entity("The deadline of the request has already passed.").build();
+		}
+
+		ContentEncoding contentEncoding = compressionSettings.negotiate(acceptEncoding);
+
+		LOGGER.debug("Accept-Encoding: {}, responding with: {}", acceptEncoding, contentEncoding.getToken());
+
+		PredictionChunkWriter predictionWriter;
+
+		if (contentEncoding == ContentEncoding.IDENTITY)
+			predictionWriter = new PlainTextPredictionChunkWriter();
+		else {
+			predictionWriter = new CompressingPredictionChunkWriter(contentEncoding, compressionSettings.getCompressionLevel(contentEncoding), compressionSettings.getMaxPredictionsPerFlush(), compressionSettings.getMaxFlushDelayMillis(), scheduler);
+		}
+
+		Response.ResponseBuilder responseBuilder = Response.ok(new RequestHandler(executorService, exampleProcessorFactory, disconnectWatchdog).handleRequest(examplesIterable, predictionWriter));
+
+		if (compressionSettings.getEnabledEncodings().isEmpty() == false) responseBuilder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+		if (contentEncoding != ContentEncoding.IDENTITY) responseBuilder.header(HttpHeaders.CONTENT_ENCODING, contentEncoding.getToken());
 
-		return new RequestHandler(executorService, exampleProcessorFactory).handleRequest(examplesIterable);
+		return responseBuilder.build();
 	}
 
 }
@@ -5,6 +5,7 @@ package com.eharmony.matching.vw.webservice;
 
 import java.io.IOException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import javax.ws.rs.WebApplicationException;
 
@@ -14,52 +15,86 @@ import org.slf4j.LoggerFactory;
 
 import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
 import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.compression.PredictionChunkWriter;
 import com.eharmony.matching.vw.webservice.core.ExampleReadException;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
 import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.ExampleSubmissionWindow;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.FlowControlledExampleProcessingManager;
 
 /**
  * @author vrahimtoola
  * 
  *         Handles an individual request to submit examples to VW and read back
  *         the predictions.
+ * 
+ *         If the client goes away, the request is cancelled, which stops VW
+ *         from working on it any further.
+ * 
+ *         If the request's deadline passes, and the client allows partial
+ *         results, the predictions read so far are followed by a line saying
+ *         the predictions were truncated.
  */
 class RequestHandler implements ExampleProcessingEventHandler {
 
+	/*
+	 * Written after the last prediction when the deadline cut the
+	 * predictions short. VW predictions never start with a '#'.
+	 */
+	static final String TRUNCATION_MARKER = "#truncated: deadline exceeded\n";
+
 	private final ExampleProcessorFactory exampleProcessorFactory;
 
 	private final Logger LOGGER = LoggerFactory.getLogger(RequestHandler.class);
 
 	private final ExecutorService executorService;
 
-	public RequestHandler(ExecutorService executorService, ExampleProcessorFactory exampleProcessorFactory) {
+	private final DisconnectWatchdog disconnectWatchdog;
+
+	private RequestDeadline deadline = RequestDeadline.NONE;
+
+	public RequestHandler(ExecutorService executorService, ExampleProcessorFactory exampleProcessorFactory, DisconnectWatchdog disconnectWatchdog) {
 
 		this.exampleProcessorFactory = exampleProcessorFactory;
 		this.executorService = executorService;
+		this.disconnectWatchdog = disconnectWatchdog;
 	}
 
-	public ChunkedOutput<String> handleRequest(ExamplesIterable examplesIterable) {
+	/*
+	 * Handles the request.
+	 * 
+	 * @param examplesIterable The examples to submit to VW.
+	 * 
+	 * @param predictionWriter The writer used to stream predictions back to
+	 * the client. It's chunked output is what should be returned to Jersey.
+	 * 
+	 * @returns The chunked output of the prediction writer.
+	 */
+	public ChunkedOutput<?> handleRequest(ExamplesIterable examplesIterable, PredictionChunkWriter predictionWriter) {
 
-		ChunkedOutput<String> chunkedOutput = new ChunkedOutput<String>(String.class);
+		deadline = RequestDeadline.fromAttributes(examplesIterable);
 
 		// get the example processor.
 		ExampleProcessor exampleProcessor = exampleProcessorFactory.getExampleProcessor(examplesIterable);
 
 		if (exampleProcessor.getExampleProcessorFeatures().isAsync() == false)
-			submitSynchronously(exampleProcessor, chunkedOutput);
+			submitSynchronously(exampleProcessor, predictionWriter);
 		else {
-			submitAsynchronously(exampleProcessor, chunkedOutput);
+			submitAsynchronously(exampleProcessor, predictionWriter);
 		}
 
-		return chunkedOutput;
+		return predictionWriter.getChunkedOutput();
 	}
 
-	private void submitSynchronously(final ExampleProcessor exampleProcessor, ChunkedOutput<String> chunkedOutput) {
+	private void submitSynchronously(final ExampleProcessor exampleProcessor, PredictionChunkWriter predictionWriter) {
 
 		final ExampleProcessingEventHandler eventHandler = this;
 
@@ -69,6 +104,8 @@ class RequestHandler implements ExampleProcessingEventHandler {
 
 		ExampleProcessingManager exampleProcessingManager = null;
 
+		ScheduledFuture<?> watch = null;
+
 		try {
 
 			LOGGER.info("About to submit examples...");
@@ -78,6 +115,8 @@ class RequestHandler implements ExampleProcessingEventHandler {
 			// thread to submit examples to VW.
 			exampleProcessingManager = exampleProcessor.submitExamples(eventHandler);
 
+			watch = disconnectWatchdog.watch(exampleProcessingManager, predictionWriter.getChunkedOutput());
+
 			predictions = exampleProcessingManager.getPredictionsIterable();
 
 			for (Prediction p : predictions) {
@@ -87,12 +126,13 @@ class RequestHandler implements ExampleProcessingEventHandler {
 
 					LOGGER.trace("Writing prediction: {}", toWrite);
 
-					chunkedOutput.write(toWrite);
+					predictionWriter.write(toWrite);
 
 					numPredictionsWritten++;
 				}
 				catch (IOException e) {
 					LOGGER.error("IOException when writing out prediction! Message: {}", e.getMessage(), e);
+					disconnectWatchdog.cancel(exampleProcessingManager, "writing to the client failed");
 					throw new WebApplicationException(e); //nothing we can do if we can't send any data back to the client!
 				}
 			}
@@ -104,6 +144,21 @@ class RequestHandler implements ExampleProcessingEventHandler {
 			LOGGER.info("Final example submission state: {}", exampleProcessingManager.getExampleSubmissionState());
 			LOGGER.info("Final prediction fetch state: {}", exampleProcessingManager.getPredictionFetchState());
 
+			if (exampleProcessingManager.getPredictionFetchState() == PredictionFetchState.DeadlineExceeded) writeTruncationMarker(predictionWriter);
+
+			if (exampleProcessingManager instanceof FlowControlledExampleProcessingManager) {
+
+				ExampleSubmissionWindow window = ((FlowControlledExampleProcessingManager) exampleProcessingManager).getExampleSubmissionWindow();
+
+				if (window != null) LOGGER.info("Final example submission window: {}", window);
+			}
+
+		}
+		catch (RequestDeadlineExceededException e) {
+
+			LOGGER.warn("The deadline passed before the examples could be submitted.");
+
+			writeTruncationMarker(predictionWriter);
 		}
 		catch (ExampleSubmissionException e) {
 
@@ -112,21 +167,24 @@ class RequestHandler implements ExampleProcessingEventHandler {
 			//output.write(("Exception when submitting examples! Message: " + e.getMessage()).getBytes());
 		}
 		catch (Exception e) {
-			//if any other exception occurs, stop the example submission process.
+			//if any other exception occurs, the predictions can't be sent back, so cancel the request.
 			LOGGER.error("Other exception when reading predictions: {}", e.getMessage(), e);
 
 			if (exampleProcessingManager != null) {
-				LOGGER.info("Stopping example submission...");
-				exampleProcessingManager.stopAll();
-				LOGGER.info("Example submission stopped.");
+				LOGGER.info("Cancelling the request...");
+				disconnectWatchdog.cancel(exampleProcessingManager, "of an exception when sending predictions");
+				LOGGER.info("Request cancelled.");
 			}
 			else {
 				LOGGER.warn("Example processing manager was null!");
 			}
 		}
 		finally {
+
+			if (watch != null) watch.cancel(false); //before closing the chunked output, which would look like a disconnect
+
 			try {
-				chunkedOutput.close();
+				predictionWriter.close();
 			}
 			catch (Exception e2) {
 
@@ -137,14 +195,26 @@ class RequestHandler implements ExampleProcessingEventHandler {
 
 	}
 
-	private void submitAsynchronously(final ExampleProcessor exampleSubmitter, final ChunkedOutput<String> chunkedOutput) {
+	private void writeTruncationMarker(PredictionChunkWriter predictionWriter) {
+
+		if (deadline.isPartialResultsAllowed() == false) return;
+
+		try {
+			predictionWriter.write(TRUNCATION_MARKER);
+		}
+		catch (IOException e) {
+			LOGGER.warn("IOException when writing the truncation marker: {}", e.getMessage());
+		}
+	}
+
+	private void submitAsynchronously(final ExampleProcessor exampleSubmitter, final PredictionChunkWriter predictionWriter) {
 
 		executorService.submit(new Runnable() {
 
 			@Override
 			public void run() {
 
-				submitSynchronously(exampleSubmitter, chunkedOutput);
+				submitSynchronously(exampleSubmitter, predictionWriter);
 
 			}
 
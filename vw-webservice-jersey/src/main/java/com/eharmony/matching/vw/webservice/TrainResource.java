@@ -0,0 +1,130 @@
+package com.eharmony.matching.vw.webservice;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.spool.ExampleSpool;
+import com.eharmony.matching.vw.webservice.core.spool.InvalidExampleException;
+import com.eharmony.matching.vw.webservice.core.spool.SpoolException;
+import com.eharmony.matching.vw.webservice.core.spool.SpoolFullException;
+import com.eharmony.matching.vw.webservice.core.spool.TrainingJob;
+import com.google.gson.Gson;
+
+/**
+ * Root resource (exposed at "train" path). Training examples posted here are
+ * spooled to disk and fed into VW in the background, so the client gets a job
+ * ID back as soon as the examples are safely on disk, instead of waiting for VW
+ * to learn from them.
+ */
+@Path("/train")
+public class TrainResource {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TrainResource.class);
+
+	/*
+	 * How long clients are told to wait before retrying when the spool is full.
+	 */
+	private static final String RETRY_AFTER_SECONDS = "30";
+
+	private final ExampleSpool exampleSpool;
+
+	@Autowired
+	public TrainResource(ExampleSpool exampleSpool) {
+
+		checkNotNull(exampleSpool, "An example spool must be provided!");
+
+		this.exampleSpool = exampleSpool;
+	}
+
+	@POST
+	@Consumes({ ExampleMediaTypes.PLAINTEXT_0_1_0, MediaType.TEXT_PLAIN, ExampleMediaTypes.SIMPLE_JSON_0_1_0, ExampleMediaTypes.STRUCTURED_JSON_0_1_0 })
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Response doTrain(ExamplesIterable examplesIterable) {
+
+		TrainingJob job;
+
+		try {
+			job = exampleSpool.spool(examplesIterable);
+		}
+		catch (SpoolFullException e) {
+
+			LOGGER.warn("Rejecting training upload: {}", e.getMessage());
+
+			return Response.status(Status.SERVICE_UNAVAILABLE).header("Retry-After", RETRY_AFTER_SECONDS).type(MediaType.TEXT_PLAIN).entity(e.getMessage()).build();
+		}
+		catch (InvalidExampleException e) {
+
+			LOGGER.warn("Rejecting training upload: {}", e.getMessage());
+
+			return Response.status(Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN).entity(e.getMessage()).build();
+		}
+		catch (SpoolException e) {
+
+			//not the client's fault, eg, the spool is shutting down or the disk failed
+			LOGGER.error("Failed to spool training upload: {}", e.getMessage(), e);
+
+			return Response.status(Status.INTERNAL_SERVER_ERROR).type(MediaType.TEXT_PLAIN).entity(e.getMessage()).build();
+		}
+		catch (ExampleReadException e) {
+
+			LOGGER.error("Failed to read training upload: {}", e.getMessage(), e);
+
+			return Response.status(Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN).entity(e.getMessage()).build();
+		}
+
+		return Response.status(Status.ACCEPTED).location(URI.create("train/jobs/" + job.getId())).entity(toJson(job)).build();
+	}
+
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON })
+	@Path("/jobs/{jobId}")
+	public Response getJob(@PathParam("jobId") String jobId) {
+
+		TrainingJob job = exampleSpool.getJob(jobId);
+
+		if (job == null) return Response.status(Status.NOT_FOUND).type(MediaType.TEXT_PLAIN).entity("No such job: " + jobId).build();
+
+		return Response.ok(toJson(job)).build();
+	}
+
+	private static String toJson(TrainingJob job) {
+
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+
+		status.put("jobId", job.getId());
+		status.put("state", job.getState().name());
+		status.put("creationTime", job.getCreationTime());
+		status.put("completionTime", job.getCompletionTime());
+		status.put("examplesSpooled", job.getNumberOfExamplesSpooled());
+		status.put("bytesSpooled", job.getNumberOfBytesSpooled());
+		status.put("examplesSubmitted", job.getNumberOfExamplesSubmitted());
+		status.put("examplesProcessed", job.getNumberOfExamplesProcessed());
+		status.put("examplesSkipped", job.getNumberOfExamplesSkipped());
+		status.put("attempts", job.getNumberOfAttempts());
+		status.put("exampleSubmissionState", job.getExampleSubmissionState() != null ? job.getExampleSubmissionState().name() : null);
+		status.put("predictionFetchState", job.getPredictionFetchState() != null ? job.getPredictionFetchState().name() : null);
+		status.put("failureMessage", job.getFailureMessage());
+
+		return new Gson().toJson(status);
+	}
+}
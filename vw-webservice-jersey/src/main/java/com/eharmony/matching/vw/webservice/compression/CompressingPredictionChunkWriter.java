@@ -0,0 +1,216 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.compression;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Compresses predictions into a single encoded stream, and hands the
+ *         compressed bytes to the chunked output at flush boundaries.
+ *
+ *         The first prediction is flushed out on it's own so that the client
+ *         sees it as soon as possible. After that, the number of predictions
+ *         compressed between flushes doubles with every flush, up to a
+ *         configurable maximum, which gives the compressor progressively more
+ *         data to work with on large responses.
+ *
+ *         Predictions that trickle in slowly would sit in the compressor until
+ *         enough of them came along, so with a scheduler, anything compressed
+ *         is also flushed out at most 'maxFlushDelayMillis' after it was
+ *         written, whether or not more predictions follow. The flush then
+ *         happens on the scheduler's thread, while the thread writing the
+ *         predictions is waiting on VW, so the writer's methods are
+ *         synchronized.
+ */
+public class CompressingPredictionChunkWriter implements PredictionChunkWriter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompressingPredictionChunkWriter.class);
+
+	private final ChunkedOutput<byte[]> chunkedOutput;
+
+	/*
+	 * Collects the compressed bytes in between flushes.
+	 */
+	private final ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+
+	private final OutputStream compressingStream;
+
+	private final int maxPredictionsPerFlush;
+
+	private final long maxFlushDelayMillis;
+
+	private final ScheduledExecutorService scheduler;
+
+	/*
+	 * Everything below is guarded by 'this'.
+	 */
+
+	private int predictionsPerFlush = 1;
+
+	private int predictionsSinceLastFlush = 0;
+
+	private ScheduledFuture<?> scheduledFlush = null;
+
+	private boolean closed = false;
+
+	/*
+	 * Constructor. Predictions are only flushed by count.
+	 *
+	 * @param encoding The encoding to use. Cannot be null.
+	 *
+	 * @param compressionLevel The compression level to use.
+	 *
+	 * @param maxPredictionsPerFlush The maximum number of predictions to
+	 * compress before flushing. Must be > 0.
+	 */
+	public CompressingPredictionChunkWriter(ContentEncoding encoding, int compressionLevel, int maxPredictionsPerFlush) throws IOException {
+		this(encoding, compressionLevel, maxPredictionsPerFlush, 0, null);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param encoding The encoding to use. Cannot be null.
+	 *
+	 * @param compressionLevel The compression level to use.
+	 *
+	 * @param maxPredictionsPerFlush The maximum number of predictions to
+	 * compress before flushing. Must be > 0.
+	 *
+	 * @param maxFlushDelayMillis The longest a compressed prediction waits to
+	 * be flushed out. Ignored without a scheduler.
+	 *
+	 * @param scheduler Runs the flushes that are due to 'maxFlushDelayMillis'.
+	 * Can be null, in which case predictions are only flushed by count.
+	 */
+	public CompressingPredictionChunkWriter(ContentEncoding encoding, int compressionLevel, int maxPredictionsPerFlush, long maxFlushDelayMillis, ScheduledExecutorService scheduler) throws IOException {
+		this(new ChunkedOutput<byte[]>(byte[].class), encoding, compressionLevel, maxPredictionsPerFlush, maxFlushDelayMillis, scheduler);
+	}
+
+	CompressingPredictionChunkWriter(ChunkedOutput<byte[]> chunkedOutput, ContentEncoding encoding, int compressionLevel, int maxPredictionsPerFlush, long maxFlushDelayMillis, ScheduledExecutorService scheduler) throws IOException {
+
+		checkNotNull(encoding, "A null encoding was provided!");
+		checkArgument(maxPredictionsPerFlush > 0, "The maximum number of predictions per flush must be > 0!");
+		checkArgument(scheduler == null || maxFlushDelayMillis > 0, "The maximum flush delay must be > 0!");
+
+		this.chunkedOutput = chunkedOutput;
+		this.compressingStream = encoding.wrap(compressedBytes, compressionLevel);
+		this.maxPredictionsPerFlush = maxPredictionsPerFlush;
+		this.maxFlushDelayMillis = maxFlushDelayMillis;
+		this.scheduler = scheduler;
+	}
+
+	@Override
+	public synchronized void write(String prediction) throws IOException {
+
+		compressingStream.write(prediction.getBytes(Charsets.UTF_8));
+
+		predictionsSinceLastFlush++;
+
+		if (predictionsSinceLastFlush >= predictionsPerFlush) {
+
+			flush();
+
+			predictionsPerFlush = Math.min(predictionsPerFlush * 2, maxPredictionsPerFlush);
+		}
+		else if (scheduler != null && scheduledFlush == null) {
+
+			scheduledFlush = scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					flushIfDue();
+				}
+			}, maxFlushDelayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+
+		if (closed) return;
+
+		closed = true;
+
+		cancelScheduledFlush();
+
+		try {
+			compressingStream.close(); //writes out the trailer of the encoded stream
+			writeCompressedBytes();
+		}
+		finally {
+			chunkedOutput.close();
+		}
+	}
+
+	@Override
+	public ChunkedOutput<?> getChunkedOutput() {
+		return chunkedOutput;
+	}
+
+	/*
+	 * Flushes out the predictions written since the last flush, if they're
+	 * still there once the scheduled flush comes around.
+	 */
+	private synchronized void flushIfDue() {
+
+		scheduledFlush = null;
+
+		if (closed || predictionsSinceLastFlush == 0) return;
+
+		try {
+			flush();
+		}
+		catch (IOException e) {
+			//the next write, or the close, fails the same way
+			LOGGER.debug("IOException when flushing predictions: {}", e.getMessage());
+		}
+	}
+
+	private void flush() throws IOException {
+
+		cancelScheduledFlush();
+
+		compressingStream.flush();
+
+		writeCompressedBytes();
+
+		predictionsSinceLastFlush = 0;
+	}
+
+	private void cancelScheduledFlush() {
+
+		if (scheduledFlush == null) return;
+
+		scheduledFlush.cancel(false);
+
+		scheduledFlush = null;
+	}
+
+	private void writeCompressedBytes() throws IOException {
+
+		if (compressedBytes.size() == 0) return;
+
+		chunkedOutput.write(compressedBytes.toByteArray());
+
+		compressedBytes.reset();
+	}
+
+}
@@ -0,0 +1,226 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.compression;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Settings that control how (and whether) the stream of predictions
+ *         sent back to the client gets compressed. Also takes care of
+ *         negotiating the encoding to use, given the Accept-Encoding header
+ *         sent by the client.
+ *
+ *         Instances of this class are immutable.
+ */
+public class CompressionSettings {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompressionSettings.class);
+
+	public static final long DEFAULT_MAX_FLUSH_DELAY_MILLIS = 50;
+
+	/*
+	 * The encodings the web service is willing to apply, in order of
+	 * preference.
+	 */
+	private final List<ContentEncoding> enabledEncodings;
+
+	private final int gzipLevel;
+
+	private final int zstdLevel;
+
+	private final int maxPredictionsPerFlush;
+
+	private final long maxFlushDelayMillis;
+
+	/*
+	 * Constructor. Compressed predictions wait up to
+	 * DEFAULT_MAX_FLUSH_DELAY_MILLIS to be flushed out.
+	 *
+	 * @see #CompressionSettings(String, int, int, int, long)
+	 */
+	public CompressionSettings(String enabledEncodings, int gzipLevel, int zstdLevel, int maxPredictionsPerFlush) {
+		this(enabledEncodings, gzipLevel, zstdLevel, maxPredictionsPerFlush, DEFAULT_MAX_FLUSH_DELAY_MILLIS);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param enabledEncodings A comma separated list of the encodings the web
+	 * service may apply, in order of preference, eg 'zstd,gzip'. Can be
+	 * null/empty, in which case predictions are never compressed. Encodings
+	 * that aren't available in this JVM are dropped with a warning.
+	 *
+	 * @param gzipLevel The gzip compression level, from 1 (fastest) to 9
+	 * (smallest).
+	 *
+	 * @param zstdLevel The zstd compression level, from 1 (fastest) to 22
+	 * (smallest).
+	 *
+	 * @param maxPredictionsPerFlush The maximum number of predictions that will
+	 * be compressed before the compressed bytes are flushed out to the client.
+	 * The very first prediction is always flushed right away, and the number
+	 * of predictions per flush then doubles until it reaches this number. Must
+	 * be > 0.
+	 *
+	 * @param maxFlushDelayMillis The longest a compressed prediction waits to
+	 * be flushed out to the client, even if too few predictions follow it to
+	 * make up a flush, eg, because VW is slow to answer. Must be > 0.
+	 */
+	public CompressionSettings(String enabledEncodings, int gzipLevel, int zstdLevel, int maxPredictionsPerFlush, long maxFlushDelayMillis) {
+
+		checkArgument(gzipLevel >= 1 && gzipLevel <= 9, "The gzip compression level must be between 1 and 9!");
+		checkArgument(zstdLevel >= 1 && zstdLevel <= 22, "The zstd compression level must be between 1 and 22!");
+		checkArgument(maxPredictionsPerFlush > 0, "The maximum number of predictions per flush must be > 0!");
+		checkArgument(maxFlushDelayMillis > 0, "The maximum flush delay must be > 0!");
+
+		List<ContentEncoding> encodings = new ArrayList<ContentEncoding>();
+
+		if (StringUtils.isBlank(enabledEncodings) == false) {
+
+			for (String token : enabledEncodings.split(",")) {
+
+				if (StringUtils.isBlank(token)) continue;
+
+				ContentEncoding encoding = ContentEncoding.fromToken(token);
+
+				checkArgument(encoding != null, "Unknown content encoding: " + token);
+
+				if (encoding == ContentEncoding.IDENTITY || encodings.contains(encoding)) continue;
+
+				if (encoding.isAvailable() == false) {
+					LOGGER.warn("Content encoding '{}' is not available in this JVM, so it will not be offered!", encoding.getToken());
+					continue;
+				}
+
+				encodings.add(encoding);
+			}
+		}
+
+		this.enabledEncodings = Collections.unmodifiableList(encodings);
+		this.gzipLevel = gzipLevel;
+		this.zstdLevel = zstdLevel;
+		this.maxPredictionsPerFlush = maxPredictionsPerFlush;
+		this.maxFlushDelayMillis = maxFlushDelayMillis;
+	}
+
+	/*
+	 * Picks the encoding to use for a response, given the value of the
+	 * Accept-Encoding header sent by the client. Of the encodings the client
+	 * accepts, the one with the highest quality value wins, and ties are
+	 * broken by the order of the enabled encodings. If the client doesn't
+	 * accept any of the enabled encodings, the identity encoding is returned.
+	 *
+	 * @param acceptEncodingHeader The value of the Accept-Encoding header. Can
+	 * be null.
+	 *
+	 * @returns The encoding to use. Never null.
+	 */
+	public ContentEncoding negotiate(String acceptEncodingHeader) {
+
+		if (StringUtils.isBlank(acceptEncodingHeader) || enabledEncodings.isEmpty()) return ContentEncoding.IDENTITY;
+
+		float wildcardQuality = -1;
+
+		float[] qualities = new float[ContentEncoding.values().length];
+
+		for (int x = 0; x < qualities.length; x++)
+			qualities[x] = -1;
+
+		for (String entry : acceptEncodingHeader.split(",")) {
+
+			String[] parts = entry.split(";");
+
+			String token = parts[0].trim();
+
+			if (token.length() == 0) continue;
+
+			float quality = 1.0f;
+
+			for (int x = 1; x < parts.length; x++) {
+
+				String parameter = parts[x].trim();
+
+				if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+					try {
+						quality = Float.parseFloat(parameter.substring(2).trim());
+					}
+					catch (NumberFormatException e) {
+						quality = 0; //ignore entries with malformed quality values
+					}
+				}
+			}
+
+			if (token.equals("*"))
+				wildcardQuality = quality;
+			else {
+				ContentEncoding encoding = ContentEncoding.fromToken(token);
+
+				if (encoding != null) qualities[encoding.ordinal()] = quality;
+			}
+		}
+
+		ContentEncoding bestEncoding = ContentEncoding.IDENTITY;
+		float bestQuality = 0;
+
+		for (ContentEncoding encoding : enabledEncodings) {
+
+			float quality = qualities[encoding.ordinal()] >= 0 ? qualities[encoding.ordinal()] : wildcardQuality;
+
+			if (quality > bestQuality) {
+				bestQuality = quality;
+				bestEncoding = encoding;
+			}
+		}
+
+		return bestEncoding;
+	}
+
+	/*
+	 * Returns the compression level to use with the given encoding.
+	 *
+	 * @param encoding The encoding.
+	 *
+	 * @returns The compression level.
+	 */
+	public int getCompressionLevel(ContentEncoding encoding) {
+		return encoding == ContentEncoding.ZSTD ? zstdLevel : gzipLevel;
+	}
+
+	/*
+	 * Returns the maximum number of predictions compressed between flushes.
+	 *
+	 * @returns The maximum number of predictions per flush.
+	 */
+	public int getMaxPredictionsPerFlush() {
+		return maxPredictionsPerFlush;
+	}
+
+	/*
+	 * Returns the longest a compressed prediction waits to be flushed out.
+	 *
+	 * @returns The maximum flush delay, in milliseconds.
+	 */
+	public long getMaxFlushDelayMillis() {
+		return maxFlushDelayMillis;
+	}
+
+	/*
+	 * Returns the encodings that may be applied, in order of preference.
+	 *
+	 * @returns The enabled encodings. The returned list is unmodifiable.
+	 */
+	public List<ContentEncoding> getEnabledEncodings() {
+		return enabledEncodings;
+	}
+}
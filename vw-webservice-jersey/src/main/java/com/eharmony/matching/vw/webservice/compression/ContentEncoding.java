@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The content encodings that the web service can apply to the stream
+ *         of predictions it sends back to the client.
+ */
+public enum ContentEncoding {
+
+	/*
+	 * No compression.
+	 */
+	IDENTITY("identity") {
+
+		@Override
+		public OutputStream wrap(OutputStream outputStream, int compressionLevel) {
+			return outputStream;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return true;
+		}
+	},
+
+	/*
+	 * Gzip compression. The stream is created in sync flush mode, so that
+	 * calling 'flush()' on it pushes out everything compressed so far as a
+	 * complete deflate block that the client can decompress right away.
+	 */
+	GZIP("gzip") {
+
+		@Override
+		public OutputStream wrap(OutputStream outputStream, final int compressionLevel) throws IOException {
+
+			return new GZIPOutputStream(outputStream, BUFFER_SIZE, true) {
+				{
+					def.setLevel(compressionLevel);
+				}
+			};
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return true;
+		}
+	},
+
+	/*
+	 * Zstandard compression. Calling 'flush()' on the stream ends the current
+	 * zstd block, so everything written so far can be decompressed by the
+	 * client right away. Requires the zstd-jni native library, so this is
+	 * only offered if the library could be loaded.
+	 */
+	ZSTD("zstd") {
+
+		@Override
+		public OutputStream wrap(OutputStream outputStream, int compressionLevel) throws IOException {
+			return new ZstdOutputStream(outputStream, compressionLevel);
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return ZstdAvailability.IS_AVAILABLE;
+		}
+	};
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final String token;
+
+	private ContentEncoding(String token) {
+		this.token = token;
+	}
+
+	/*
+	 * Returns the token used for this encoding in the Accept-Encoding and
+	 * Content-Encoding HTTP headers.
+	 *
+	 * @returns The HTTP token for this encoding, eg, 'gzip'.
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/*
+	 * Wraps an output stream such that everything written to the returned
+	 * stream is encoded using this encoding.
+	 *
+	 * @param outputStream The stream to receive the encoded bytes.
+	 *
+	 * @param compressionLevel The compression level to use. Ignored by the
+	 * identity encoding.
+	 *
+	 * @returns The wrapping output stream. Closing it finishes the encoding and
+	 * closes the wrapped stream.
+	 */
+	public abstract OutputStream wrap(OutputStream outputStream, int compressionLevel) throws IOException;
+
+	/*
+	 * Whether or not this encoding can be used in this JVM.
+	 *
+	 * @returns True if the encoding can be used, false otherwise.
+	 */
+	public abstract boolean isAvailable();
+
+	/*
+	 * Looks up an encoding by it's HTTP token, ignoring case.
+	 *
+	 * @param token The HTTP token, eg, 'gzip'.
+	 *
+	 * @returns The matching encoding, or null if there's no such encoding.
+	 */
+	public static ContentEncoding fromToken(String token) {
+
+		if (token == null) return null;
+
+		String trimmed = token.trim();
+
+		for (ContentEncoding encoding : values()) {
+			if (encoding.token.equalsIgnoreCase(trimmed)) return encoding;
+		}
+
+		return null;
+	}
+
+	/*
+	 * Holder for the result of trying to load the zstd native library, so that
+	 * the (potentially failing) load is attempted just once, and only if zstd
+	 * is actually asked for.
+	 */
+	private static class ZstdAvailability {
+
+		private static final boolean IS_AVAILABLE = checkAvailable();
+
+		private static boolean checkAvailable() {
+			try {
+				Class.forName("com.github.luben.zstd.ZstdOutputStream", true, ContentEncoding.class.getClassLoader());
+				return true;
+			}
+			catch (Throwable e) {
+				return false;
+			}
+		}
+	}
+}
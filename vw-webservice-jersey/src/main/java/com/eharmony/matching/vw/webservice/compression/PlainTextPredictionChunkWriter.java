@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.compression;
+
+import java.io.IOException;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Writes each prediction out, uncompressed, as a chunk of it's own.
+ */
+public class PlainTextPredictionChunkWriter implements PredictionChunkWriter {
+
+	private final ChunkedOutput<String> chunkedOutput = new ChunkedOutput<String>(String.class);
+
+	@Override
+	public void write(String prediction) throws IOException {
+		chunkedOutput.write(prediction);
+	}
+
+	@Override
+	public void close() throws IOException {
+		chunkedOutput.close();
+	}
+
+	@Override
+	public ChunkedOutput<?> getChunkedOutput() {
+		return chunkedOutput;
+	}
+
+}
@@ -0,0 +1,41 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.compression;
+
+import java.io.IOException;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Writes predictions, one at a time, to the chunked output that gets
+ *         streamed back to the client. Implementations decide how predictions
+ *         are encoded and how they get grouped into chunks. Instances are not
+ *         thread safe.
+ */
+public interface PredictionChunkWriter {
+
+	/*
+	 * Writes out a single prediction.
+	 *
+	 * @param prediction The prediction to write, including the trailing
+	 * newline.
+	 */
+	void write(String prediction) throws IOException;
+
+	/*
+	 * Writes out anything still pending and closes the underlying chunked
+	 * output.
+	 */
+	void close() throws IOException;
+
+	/*
+	 * Returns the chunked output that the predictions are written to. This is
+	 * what gets handed back to Jersey as the response entity.
+	 *
+	 * @returns The chunked output.
+	 */
+	ChunkedOutput<?> getChunkedOutput();
+}
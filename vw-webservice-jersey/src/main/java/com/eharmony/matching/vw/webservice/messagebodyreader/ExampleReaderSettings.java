@@ -0,0 +1,65 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.messagebodyreader;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.eharmony.matching.vw.webservice.messagebodyreader.plaintextexamplesmessagebodyreader.StringExampleIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Limits on the examples read off of requests. Examples longer than
+ *         'maxExampleLength' bytes are skipped, and reported as badly
+ *         formatted, rather than read into memory.
+ * 
+ *         The memory used to read examples is reserved from 'memoryBudget'.
+ */
+public class ExampleReaderSettings {
+
+	public static final ExampleReaderSettings DEFAULT = new ExampleReaderSettings(StringExampleIterator.DEFAULT_MAX_EXAMPLE_LENGTH);
+
+	private final int maxExampleLength;
+	private final InFlightMemoryBudget memoryBudget;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param maxExampleLength The longest example, in bytes, that will be
+	 * read.
+	 */
+	public ExampleReaderSettings(int maxExampleLength) {
+		this(maxExampleLength, InFlightMemoryBudget.UNLIMITED);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param memoryBudget The budget to reserve the memory used to read
+	 * examples from.
+	 */
+	public ExampleReaderSettings(int maxExampleLength, InFlightMemoryBudget memoryBudget) {
+
+		checkArgument(maxExampleLength > 0, "The max example length must be > 0!");
+		checkNotNull(memoryBudget, "A null memory budget cannot be provided!");
+
+		this.maxExampleLength = maxExampleLength;
+		this.memoryBudget = memoryBudget;
+	}
+
+	public int getMaxExampleLength() {
+		return maxExampleLength;
+	}
+
+	public InFlightMemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	@Override
+	public String toString() {
+		return "ExampleReaderSettings [maxExampleLength=" + maxExampleLength + ", memoryBudget=" + memoryBudget + "]";
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.messagebodyreader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPExampleProcessorFactory;
+import com.google.common.primitives.Longs;
+
+/**
+ * @author vrahimtoola
+ *
+ *         The HTTP headers that clients can use to describe the examples they
+ *         post, and how they map onto the attributes of an ExamplesIterable.
+ */
+public final class ExampleRequestHeaders {
+
+	/*
+	 * The name of the transport profile to send the examples to VW with, eg,
+	 * 'interactive' or 'bulk'.
+	 */
+	public static final String TRANSPORT_PROFILE = "X-VW-Transport-Profile";
+
+	/*
+	 * The deadline of the request, in milliseconds since the epoch.
+	 */
+	public static final String DEADLINE = "X-VW-Deadline";
+
+	/*
+	 * How long, in milliseconds from when the request is read, the client is
+	 * willing to wait for it's predictions. If both this and the deadline are
+	 * given, whichever comes first wins.
+	 */
+	public static final String TIMEOUT_MILLIS = "X-VW-Timeout-Millis";
+
+	/*
+	 * 'true' if the predictions read before the deadline should still be sent
+	 * back.
+	 */
+	public static final String PARTIAL_RESULTS = "X-VW-Partial-Results";
+
+	/*
+	 * The number of examples in the request. Lets tiny requests skip the
+	 * streaming pipeline.
+	 */
+	public static final String EXAMPLE_COUNT = "X-VW-Example-Count";
+
+	/*
+	 * The tenant, eg, the team, the request belongs to. Tenants share the
+	 * daemon writers according to their weights.
+	 */
+	public static final String TENANT = "X-VW-Tenant";
+
+	/*
+	 * The class of the request, ie, 'interactive', 'batch' or 'training'. The
+	 * daemon writers write the examples of interactive requests first.
+	 */
+	public static final String REQUEST_CLASS = "X-VW-Request-Class";
+
+	private ExampleRequestHeaders() {
+
+	}
+
+	/*
+	 * Returns the examples attributes described by the headers of a request.
+	 */
+	public static Map<String, String> toAttributes(MultivaluedMap<String, String> httpHeaders) {
+
+		Map<String, String> attributes = new HashMap<String, String>();
+
+		if (httpHeaders == null) return attributes;
+
+		String transportProfile = httpHeaders.getFirst(TRANSPORT_PROFILE);
+
+		if (StringUtils.isBlank(transportProfile) == false) attributes.put(TCPIPExampleProcessorFactory.TRANSPORT_PROFILE_ATTRIBUTE, transportProfile.trim());
+
+		String tenant = httpHeaders.getFirst(TENANT);
+
+		if (StringUtils.isBlank(tenant) == false) attributes.put(TCPIPExampleProcessorFactory.TENANT_ATTRIBUTE, tenant.trim());
+
+		String requestClass = httpHeaders.getFirst(REQUEST_CLASS);
+
+		if (StringUtils.isBlank(requestClass) == false) attributes.put(TCPIPExampleProcessorFactory.REQUEST_CLASS_ATTRIBUTE, requestClass.trim());
+
+		Long contentLength = parseLong(httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH));
+
+		if (contentLength != null && contentLength >= 0) attributes.put(ExamplesIterable.CONTENT_LENGTH_ATTRIBUTE, Long.toString(contentLength));
+
+		long deadlineMillis = Long.MAX_VALUE;
+
+		Long deadline = parseLong(httpHeaders.getFirst(DEADLINE));
+
+		if (deadline != null) deadlineMillis = deadline;
+
+		Long timeoutMillis = parseLong(httpHeaders.getFirst(TIMEOUT_MILLIS));
+
+		if (timeoutMillis != null && timeoutMillis >= 0) deadlineMillis = Math.min(deadlineMillis, System.currentTimeMillis() + timeoutMillis);
+
+		if (deadlineMillis != Long.MAX_VALUE) {
+
+			attributes.put(RequestDeadline.DEADLINE_ATTRIBUTE, Long.toString(deadlineMillis));
+
+			String partialResults = httpHeaders.getFirst(PARTIAL_RESULTS);
+
+			if (StringUtils.isBlank(partialResults) == false) attributes.put(RequestDeadline.PARTIAL_RESULTS_ATTRIBUTE, partialResults.trim());
+		}
+
+		return attributes;
+	}
+
+	/*
+	 * Returns the number of examples the headers of a request say it has, or
+	 * Integer.MAX_VALUE if they don't say.
+	 */
+	public static int getNumberOfExamples(MultivaluedMap<String, String> httpHeaders) {
+
+		if (httpHeaders == null) return Integer.MAX_VALUE;
+
+		Long numberOfExamples = parseLong(httpHeaders.getFirst(EXAMPLE_COUNT));
+
+		return numberOfExamples != null && numberOfExamples >= 0 && numberOfExamples < Integer.MAX_VALUE ? numberOfExamples.intValue() : Integer.MAX_VALUE;
+	}
+
+	private static Long parseLong(String value) {
+		return StringUtils.isBlank(value) ? null : Longs.tryParse(value.trim());
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.messagebodyreader;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Settings for reading structured JSON examples. With a fork-join
+ *         pool, requests at least 'minContentLength' bytes long (or of unknown
+ *         length) are split into chunks of about 'chunkSize' bytes, which are
+ *         parsed on the pool, with at most 'maxChunksInFlight' of them read
+ *         ahead per request. Smaller requests, and all requests without a
+ *         pool, are parsed on the request thread.
+ */
+public class StructuredJsonReaderSettings {
+
+	public static final StructuredJsonReaderSettings DISABLED = new StructuredJsonReaderSettings(0, 1, 1, 0);
+
+	private final ForkJoinPool forkJoinPool;
+	private final int chunkSize;
+	private final int maxChunksInFlight;
+	private final long minContentLength;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param parallelism The number of threads to parse chunks on. 0 turns
+	 * parallel parsing off.
+	 */
+	public StructuredJsonReaderSettings(int parallelism, int chunkSize, int maxChunksInFlight, long minContentLength) {
+		this(newForkJoinPool(parallelism), chunkSize, maxChunksInFlight, minContentLength);
+	}
+
+	/*
+	 * Constructor.
+	 *
+	 * @param forkJoinPool The pool to parse chunks on. Null turns parallel
+	 * parsing off.
+	 *
+	 * @param chunkSize The size, in bytes, of the chunks.
+	 *
+	 * @param maxChunksInFlight The most chunks each request reads ahead.
+	 *
+	 * @param minContentLength The smallest request, in bytes, to parse in
+	 * parallel.
+	 */
+	public StructuredJsonReaderSettings(ForkJoinPool forkJoinPool, int chunkSize, int maxChunksInFlight, long minContentLength) {
+
+		checkArgument(chunkSize > 0, "The chunk size must be > 0!");
+		checkArgument(maxChunksInFlight > 0, "The max number of chunks in flight must be > 0!");
+		checkArgument(minContentLength >= 0, "The min content length must be >= 0!");
+
+		this.forkJoinPool = forkJoinPool;
+		this.chunkSize = chunkSize;
+		this.maxChunksInFlight = maxChunksInFlight;
+		this.minContentLength = minContentLength;
+	}
+
+	/*
+	 * Shuts down the fork-join pool, if there is one.
+	 */
+	public void shutdown() {
+		if (forkJoinPool != null) forkJoinPool.shutdown();
+	}
+
+	public boolean isParallel() {
+		return forkJoinPool != null;
+	}
+
+	/*
+	 * Returns true if a request with the given content length should be parsed
+	 * in parallel.
+	 *
+	 * @param contentLength The content length, or null if it isn't known.
+	 */
+	public boolean isParallel(Long contentLength) {
+		return isParallel() && (contentLength == null || contentLength >= minContentLength);
+	}
+
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public int getMaxChunksInFlight() {
+		return maxChunksInFlight;
+	}
+
+	public long getMinContentLength() {
+		return minContentLength;
+	}
+
+	private static ForkJoinPool newForkJoinPool(int parallelism) {
+
+		checkArgument(parallelism >= 0, "The parallelism must be >= 0!");
+
+		return parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+	}
+
+	@Override
+	public String toString() {
+		return "StructuredJsonReaderSettings [forkJoinPool=" + forkJoinPool + ", chunkSize=" + chunkSize + ", maxChunksInFlight=" + maxChunksInFlight + ", minContentLength=" + minContentLength + "]";
+	}
+}
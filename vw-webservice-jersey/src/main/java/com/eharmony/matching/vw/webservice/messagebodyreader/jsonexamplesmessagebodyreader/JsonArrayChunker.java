@@ -0,0 +1,263 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Splits a top level JSON array into chunks of whole elements, without
+ *         parsing the elements. Each chunk is itself a JSON array, so it can
+ *         be parsed on it's own.
+ *
+ *         The elements are found by scanning the bytes for brackets and braces
+ *         that aren't inside strings, which is a lot cheaper than parsing
+ *         them. The bytes have to be UTF-8 (or ASCII), where the bytes of a
+ *         multi-byte character never look like a bracket, brace or quote.
+ *         Problems with the structure of the array (eg, a missing comma) are
+ *         reported with an ExampleReadException. Problems inside the elements
+ *         are left for the parser.
+ *
+ *         Making this package-private for now. Not thread safe.
+ */
+class JsonArrayChunker {
+
+	/*
+	 * A chunk of the array's elements, along with the number (counting
+	 * from 1) of the first element in it.
+	 */
+	static class Chunk {
+
+		private final byte[] bytes;
+		private final long firstElementNumber;
+		private final int numElements;
+
+		Chunk(byte[] bytes, long firstElementNumber, int numElements) {
+			this.bytes = bytes;
+			this.firstElementNumber = firstElementNumber;
+			this.numElements = numElements;
+		}
+
+		byte[] getBytes() {
+			return bytes;
+		}
+
+		long getFirstElementNumber() {
+			return firstElementNumber;
+		}
+
+		int getNumberOfElements() {
+			return numElements;
+		}
+	}
+
+	private final InputStream inputStream;
+	private final int chunkSize;
+
+	private final byte[] buffer = new byte[65536];
+	private int position = 0, limit = 0;
+
+	private boolean begun = false, ended = false;
+
+	/*
+	 * True once an element has been read, and before the comma (or the
+	 * closing bracket) after it.
+	 */
+	private boolean expectingSeparator = false;
+
+	private long numElements = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param chunkSize Elements are added to a chunk until it's at least this
+	 * many bytes. A single element bigger than this gets a chunk of it's own.
+	 */
+	JsonArrayChunker(InputStream inputStream, int chunkSize) {
+		this.inputStream = inputStream;
+		this.chunkSize = chunkSize;
+	}
+
+	/*
+	 * Reads the next chunk.
+	 *
+	 * @returns The chunk, or null once the end of the array has been reached.
+	 */
+	Chunk nextChunk() throws IOException {
+
+		if (begun == false) {
+
+			if (nextNonWhitespace() != '[') throw new ExampleReadException("Expected the examples to be a JSON array!");
+
+			begun = true;
+		}
+
+		if (ended) return null;
+
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream(chunkSize + chunkSize / 8);
+
+		chunk.write('[');
+
+		long firstElementNumber = numElements + 1;
+
+		int numElementsInChunk = 0;
+
+		while (true) {
+
+			int b = nextNonWhitespace();
+
+			if (b < 0) throw new ExampleReadException("Unexpected end of examples after example " + numElements + "!");
+
+			if (expectingSeparator) {
+
+				if (b == ']') {
+					ended = true;
+					break;
+				}
+
+				if (b != ',') throw new ExampleReadException("Expected ',' or ']' after example " + numElements + " but found '" + (char) b + "'!");
+
+				expectingSeparator = false;
+
+				continue;
+			}
+
+			if (b == ']' && numElements == 0) {
+				ended = true;
+				break;
+			}
+
+			if (numElementsInChunk > 0) chunk.write(',');
+
+			copyElement(chunk);
+
+			numElementsInChunk++;
+			numElements++;
+
+			expectingSeparator = true;
+
+			//the separator is left for the next chunk, so that a problem with it doesn't cost this chunk it's elements
+			if (chunk.size() >= chunkSize) break;
+		}
+
+		if (numElementsInChunk == 0) return null;
+
+		chunk.write(']');
+
+		return new Chunk(chunk.toByteArray(), firstElementNumber, numElementsInChunk);
+	}
+
+	/*
+	 * Returns the number of elements read so far.
+	 */
+	long getNumberOfElements() {
+		return numElements;
+	}
+
+	/*
+	 * Copies the element whose first byte was just read.
+	 */
+	private void copyElement(ByteArrayOutputStream chunk) throws IOException {
+
+		int start = position - 1;
+
+		byte first = buffer[start];
+
+		int depth = first == '{' || first == '[' ? 1 : 0;
+
+		boolean inString = first == '"', escaped = false;
+
+		boolean scalar = depth == 0 && inString == false;
+
+		while (true) {
+
+			if (position == limit) {
+
+				chunk.write(buffer, start, limit - start);
+
+				//the array still has to be closed, so the element has been cut short
+				if (fill() == false) throw new ExampleReadException("Unexpected end of examples in example " + (numElements + 1) + "!");
+
+				start = 0;
+			}
+
+			byte c = buffer[position++];
+
+			if (inString) {
+
+				if (escaped)
+					escaped = false;
+				else if (c == '\\')
+					escaped = true;
+				else if (c == '"') {
+					inString = false;
+
+					if (depth == 0) break; //the element was a string
+				}
+			}
+			else if (scalar) {
+
+				if (c == ',' || c == ']' || isWhitespace(c)) {
+					position--; //not part of the element
+					break;
+				}
+			}
+			else if (c == '"')
+				inString = true;
+			else if (c == '{' || c == '[')
+				depth++;
+			else if (c == '}' || c == ']') {
+
+				depth--;
+
+				if (depth == 0) break;
+			}
+		}
+
+		chunk.write(buffer, start, position - start);
+	}
+
+	/*
+	 * Reads (ie, consumes) the next byte that isn't whitespace.
+	 *
+	 * @returns The byte, or -1 at the end of the stream.
+	 */
+	private int nextNonWhitespace() throws IOException {
+
+		while (true) {
+
+			if (position == limit && fill() == false) return -1;
+
+			byte b = buffer[position++];
+
+			if (isWhitespace(b) == false) return b & 0xff;
+		}
+	}
+
+	private boolean fill() throws IOException {
+
+		int numRead;
+
+		do {
+			numRead = inputStream.read(buffer, 0, buffer.length);
+		}
+		while (numRead == 0);
+
+		if (numRead < 0) return false;
+
+		position = 0;
+		limit = numRead;
+
+		return true;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+}
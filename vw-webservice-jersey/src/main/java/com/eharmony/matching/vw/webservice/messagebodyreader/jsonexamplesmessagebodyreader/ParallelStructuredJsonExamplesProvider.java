@@ -0,0 +1,278 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Reads structured JSON examples using more than one core. The array
+ *         of examples is split into chunks of whole examples (see
+ *         JsonArrayChunker), and the chunks are parsed, and the examples in
+ *         them rendered, on a fork-join pool. The examples come out of the
+ *         iterator in their original order.
+ *
+ *         At most 'maxChunksInFlight' chunks are read ahead, so the memory
+ *         used stays under roughly 'maxChunksInFlight' times 'chunkSize'
+ *         bytes of JSON, plus the rendered examples.
+ *
+ *         Otherwise, this behaves just like the StructuredJsonExamplesProvider
+ *         it's given: a badly formatted example stops the iteration with an
+ *         ExampleFormatException, and malformed JSON with an
+ *         ExampleReadException, once the examples before it have been handed
+ *         out.
+ *
+ *         The chunks are split, and parsed, as UTF-8. Examples encoded with any
+ *         other charset are read by the StructuredJsonExamplesProvider, one at
+ *         a time.
+ */
+public class ParallelStructuredJsonExamplesProvider implements JsonExamplesProvider {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParallelStructuredJsonExamplesProvider.class);
+
+	/*
+	 * The examples parsed out of a chunk, and the exception (if any) that
+	 * stopped the parsing part way.
+	 */
+	private static class ParsedChunk {
+
+		private final List<Example> examples;
+		private final RuntimeException exception;
+
+		ParsedChunk(List<Example> examples, RuntimeException exception) {
+			this.examples = examples;
+			this.exception = exception;
+		}
+	}
+
+	/*
+	 * An example that couldn't be rendered. Rendering it again throws the
+	 * same exception, so it gets skipped like it would have been.
+	 */
+	private static class UnrenderableExample implements Example {
+
+		private final ExampleFormatException exception;
+
+		UnrenderableExample(ExampleFormatException exception) {
+			this.exception = exception;
+		}
+
+		@Override
+		public String getVWStringRepresentation() {
+			throw exception;
+		}
+	}
+
+	private final StructuredJsonExamplesProvider examplesProvider;
+	private final ForkJoinPool forkJoinPool;
+	private final int chunkSize;
+	private final int maxChunksInFlight;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param examplesProvider Parses the examples in each chunk.
+	 *
+	 * @param forkJoinPool The pool to parse the chunks on.
+	 *
+	 * @param chunkSize The size, in bytes, of the chunks.
+	 *
+	 * @param maxChunksInFlight The most chunks to read ahead of the examples
+	 * being iterated over.
+	 */
+	public ParallelStructuredJsonExamplesProvider(StructuredJsonExamplesProvider examplesProvider, ForkJoinPool forkJoinPool, int chunkSize, int maxChunksInFlight) {
+
+		checkNotNull(examplesProvider, "A null examples provider cannot be provided!");
+		checkNotNull(forkJoinPool, "A null fork join pool cannot be provided!");
+		checkArgument(chunkSize > 0, "The chunk size must be > 0!");
+		checkArgument(maxChunksInFlight > 0, "The max number of chunks in flight must be > 0!");
+
+		this.examplesProvider = examplesProvider;
+		this.forkJoinPool = forkJoinPool;
+		this.chunkSize = chunkSize;
+		this.maxChunksInFlight = maxChunksInFlight;
+	}
+
+	/*
+	 * Reads examples encoded with UTF-8.
+	 */
+	@Override
+	public Iterator<Example> getExamplesFromStream(InputStream inputStream) throws ExampleReadException {
+		return getExamplesFromStream(inputStream, Charsets.UTF_8);
+	}
+
+	/*
+	 * Allows the caller to consume JSON examples from an input stream.
+	 * 
+	 * @param inputStream The input stream to consume JSON examples from.
+	 * 
+	 * @param charset The charset the examples are encoded with. If it isn't
+	 * UTF-8, the examples are read sequentially.
+	 * 
+	 * @returns An iterator that allows the caller to iterate over the examples.
+	 */
+	public Iterator<Example> getExamplesFromStream(InputStream inputStream, Charset charset) throws ExampleReadException {
+
+		checkNotNull(inputStream);
+		checkNotNull(charset, "A null charset cannot be provided!");
+
+		if (Charsets.UTF_8.equals(charset) == false) {
+
+			LOGGER.debug("Examples are encoded with {}, reading them sequentially.", charset.displayName());
+
+			return examplesProvider.getExamplesFromStream(inputStream, charset);
+		}
+
+		final JsonArrayChunker chunker = new JsonArrayChunker(inputStream, chunkSize);
+
+		return new AbstractIterator<Example>() {
+
+			private final Deque<ForkJoinTask<ParsedChunk>> chunksInFlight = new ArrayDeque<ForkJoinTask<ParsedChunk>>(maxChunksInFlight);
+
+			private Iterator<Example> currentChunk = null;
+
+			private RuntimeException currentChunkException = null;
+
+			private boolean allChunksRead = false;
+
+			@Override
+			protected Example computeNext() {
+
+				while (true) {
+
+					if (currentChunk != null && currentChunk.hasNext()) return currentChunk.next();
+
+					if (currentChunkException != null) throw currentChunkException;
+
+					readAhead();
+
+					if (chunksInFlight.isEmpty()) return endOfData();
+
+					ParsedChunk parsedChunk = chunksInFlight.poll().join();
+
+					currentChunk = parsedChunk.examples.iterator();
+					currentChunkException = parsedChunk.exception;
+				}
+			}
+
+			/*
+			 * Splits off chunks, and hands them to the pool, until enough are
+			 * in flight.
+			 */
+			private void readAhead() {
+
+				while (allChunksRead == false && chunksInFlight.size() < maxChunksInFlight) {
+
+					final JsonArrayChunker.Chunk chunk;
+
+					try {
+						chunk = chunker.nextChunk();
+					}
+					catch (Exception e) {
+
+						allChunksRead = true;
+
+						//goes in line behind the chunks before it, so that their examples are handed out first
+						final RuntimeException exception = e instanceof ExampleReadException ? (ExampleReadException) e : new ExampleReadException(e);
+
+						chunksInFlight.add(forkJoinPool.submit(new Callable<ParsedChunk>() {
+
+							@Override
+							public ParsedChunk call() {
+								return new ParsedChunk(new ArrayList<Example>(0), exception);
+							}
+						}));
+
+						return;
+					}
+
+					if (chunk == null) {
+						allChunksRead = true;
+						return;
+					}
+
+					chunksInFlight.add(forkJoinPool.submit(new Callable<ParsedChunk>() {
+
+						@Override
+						public ParsedChunk call() {
+							return parse(chunk);
+						}
+					}));
+				}
+			}
+		};
+	}
+
+	private ParsedChunk parse(JsonArrayChunker.Chunk chunk) {
+
+		List<Example> examples = new ArrayList<Example>(chunk.getNumberOfElements());
+
+		long exampleNumber = chunk.getFirstElementNumber();
+
+		try (JsonReader jsonReader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(chunk.getBytes()), Charsets.UTF_8))) {
+
+			jsonReader.beginArray();
+
+			while (jsonReader.hasNext()) {
+
+				Example example = examplesProvider.readExample(exampleNumber, jsonReader);
+
+				try {
+					examples.add(new StringExample(example.getVWStringRepresentation()));
+				}
+				catch (ExampleFormatException e) {
+
+					e.setExampleNumber(exampleNumber);
+
+					examples.add(new UnrenderableExample(e));
+				}
+
+				exampleNumber++;
+			}
+
+			jsonReader.endArray();
+
+			return new ParsedChunk(examples, null);
+		}
+		catch (ExampleFormatException e) {
+
+			e.setExampleNumber(exampleNumber);
+
+			return new ParsedChunk(examples, e);
+		}
+		catch (Exception e) {
+
+			LOGGER.error("Example read exception when attempting to read example number {}: {}", exampleNumber, e.getMessage());
+
+			return new ParsedChunk(examples, new ExampleReadException(e));
+		}
+	}
+}
@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleRequestHeaders;
 
 /**
  * @author vrahimtoola
@@ -59,7 +60,7 @@ public class SimpleJsonExamplesMessageBodyReader implements MessageBodyReader<Ex
 		}
 
 		//TODO: hard-coding to GsonJsonExamplesProvider for now
-		return new ExamplesIterableImpl(Integer.MAX_VALUE, null, new GsonJsonExamplesProvider().getExamplesFromStream(entityStream));
+		return new ExamplesIterableImpl(ExampleRequestHeaders.getNumberOfExamples(httpHeaders), ExampleRequestHeaders.toAttributes(httpHeaders), new GsonJsonExamplesProvider().getExamplesFromStream(entityStream));
 
 	}
 
@@ -3,11 +3,16 @@
  */
 package com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.ws.rs.Consumes;
@@ -18,16 +23,24 @@ import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.Provider;
 
 import org.apache.commons.lang3.StringUtils;
+import org.glassfish.jersey.message.internal.ReaderWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 
+import com.eharmony.matching.vw.webservice.common.example.Example;
 import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleRequestHeaders;
+import com.eharmony.matching.vw.webservice.messagebodyreader.StructuredJsonReaderSettings;
 
 /**
  * @author vrahimtoola
  *         Reads structured json examples from a stream.
+ * 
+ *         Large requests are parsed on a fork-join pool when the settings
+ *         have one (see StructuredJsonReaderSettings).
  */
 @Consumes({ ExampleMediaTypes.STRUCTURED_JSON_0_1_0 })
 @Provider
@@ -35,11 +48,26 @@ public class StructuredJsonExamplesMessageBodyReader implements MessageBodyReade
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(StructuredJsonExamplesMessageBodyReader.class);
 
+	private final StructuredJsonReaderSettings structuredJsonReaderSettings;
+
+	public StructuredJsonExamplesMessageBodyReader() {
+		this(StructuredJsonReaderSettings.DISABLED);
+	}
+
+	@Autowired
+	public StructuredJsonExamplesMessageBodyReader(StructuredJsonReaderSettings structuredJsonReaderSettings) {
+
+		checkNotNull(structuredJsonReaderSettings, "Structured json reader settings must be provided!");
+
+		this.structuredJsonReaderSettings = structuredJsonReaderSettings;
+	}
+
 	@Override
 	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
 		LOGGER.debug("Called with media type: {} and type: {}", mediaType.toString(), type);
 
-		boolean willReturn = mediaType.toString().equals(ExampleMediaTypes.STRUCTURED_JSON_0_1_0) && type == ExamplesIterable.class;
+		//the charset, if any, is ignored here
+		boolean willReturn = StringUtils.substringBefore(mediaType.toString(), ";").trim().equals(ExampleMediaTypes.STRUCTURED_JSON_0_1_0) && type == ExamplesIterable.class;
 
 		LOGGER.debug("Returning: {}", willReturn);
 
@@ -57,8 +85,29 @@ public class StructuredJsonExamplesMessageBodyReader implements MessageBodyReade
 			}
 		}
 
+		Map<String, String> attributes = ExampleRequestHeaders.toAttributes(httpHeaders);
+
+		String contentLength = attributes.get(ExamplesIterable.CONTENT_LENGTH_ATTRIBUTE);
+
+		Charset charset = ReaderWriter.getCharset(mediaType);
+
+		LOGGER.debug("Reading examples using charset: {}", charset.displayName());
+
 		//TODO: hard-coding to GsonJsonExamplesProvider for now
-		return new ExamplesIterableImpl(Integer.MAX_VALUE, null, new StructuredJsonExamplesProvider(-1, -1).getExamplesFromStream(entityStream));
+		StructuredJsonExamplesProvider structuredJsonExamplesProvider = new StructuredJsonExamplesProvider(-1, -1);
+
+		Iterator<Example> examples;
+
+		if (structuredJsonReaderSettings.isParallel(contentLength != null ? Long.valueOf(contentLength) : null)) {
+
+			LOGGER.debug("Parsing examples in parallel, content length: {}", contentLength);
+
+			examples = new ParallelStructuredJsonExamplesProvider(structuredJsonExamplesProvider, structuredJsonReaderSettings.getForkJoinPool(), structuredJsonReaderSettings.getChunkSize(), structuredJsonReaderSettings.getMaxChunksInFlight()).getExamplesFromStream(entityStream, charset);
+		}
+		else
+			examples = structuredJsonExamplesProvider.getExamplesFromStream(entityStream, charset);
+
+		return new ExamplesIterableImpl(ExampleRequestHeaders.getNumberOfExamples(httpHeaders), attributes, examples);
 
 	}
 }
@@ -8,6 +8,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 
 import org.apache.commons.lang3.StringUtils;
@@ -64,7 +65,7 @@ public class StructuredJsonExamplesProvider implements JsonExamplesProvider {
 		this.maxNumberOfNamespacesPerExample = maxNumberOfNamespacesPerExample;
 	}
 
-	private StructuredExample readExample(long exampleNumber, JsonReader jsonReader) throws IOException {
+	StructuredExample readExample(long exampleNumber, JsonReader jsonReader) throws IOException {
 
 		jsonReader.beginObject();
 
@@ -306,10 +307,25 @@ public class StructuredJsonExamplesProvider implements JsonExamplesProvider {
 
 	@Override
 	public Iterator<Example> getExamplesFromStream(InputStream inputStream) throws ExampleReadException {
+		return getExamplesFromStream(inputStream, Charset.defaultCharset());
+	}
+
+	/*
+	 * Allows the caller to consume JSON examples from an input stream.
+	 * 
+	 * @param inputStream The input stream to consume JSON examples from.
+	 * 
+	 * @param charset The charset the examples are encoded with.
+	 * 
+	 * @returns An iterator that allows the caller to iterate over the examples.
+	 */
+	public Iterator<Example> getExamplesFromStream(InputStream inputStream, Charset charset) throws ExampleReadException {
 
 		checkNotNull(inputStream);
+		checkNotNull(charset, "A null charset cannot be provided!");
 
 		final InputStream theInputStream = inputStream;
+		final Charset theCharset = charset;
 
 		return new AbstractIterator<Example>() {
 
@@ -327,7 +343,7 @@ public class StructuredJsonExamplesProvider implements JsonExamplesProvider {
 				try {
 					if (!didBeginArray) {
 
-						jsonReader = new TracingJsonReader(new InputStreamReader(theInputStream), LOGGER.isTraceEnabled());
+						jsonReader = new TracingJsonReader(new InputStreamReader(theInputStream, theCharset), LOGGER.isTraceEnabled());
 
 						jsonReader.beginArray();
 						didBeginArray = true;
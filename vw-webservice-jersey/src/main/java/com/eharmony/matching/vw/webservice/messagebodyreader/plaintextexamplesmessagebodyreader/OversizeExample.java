@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.messagebodyreader.plaintextexamplesmessagebodyreader;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.core.io.LineTooLongException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Stands in for an example that was too long to be read. The example
+ *         itself was skipped, so asking for it's VW representation throws an
+ *         ExampleFormatException, which gets the example skipped and reported
+ *         like any other badly formatted example.
+ *
+ *         Making this package-private for now.
+ */
+class OversizeExample implements Example {
+
+	private final LineTooLongException cause;
+
+	public OversizeExample(LineTooLongException cause) {
+		this.cause = cause;
+	}
+
+	@Override
+	public String getVWStringRepresentation() {
+		throw new ExampleFormatException(cause.getLineNumber(), cause.getMessage(), cause);
+	}
+
+	@Override
+	public String toString() {
+		return "OversizeExample [" + cause.getMessage() + "]";
+	}
+}
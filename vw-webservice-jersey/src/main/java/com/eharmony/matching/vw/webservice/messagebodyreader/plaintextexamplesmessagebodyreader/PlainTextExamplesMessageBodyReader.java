@@ -3,6 +3,8 @@
  */
 package com.eharmony.matching.vw.webservice.messagebodyreader.plaintextexamplesmessagebodyreader;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
@@ -15,6 +17,7 @@ import javax.ws.rs.Consumes;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.Provider;
 
@@ -22,23 +25,42 @@ import org.apache.commons.lang3.StringUtils;
 import org.glassfish.jersey.message.internal.ReaderWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
 import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.io.BoundedLineReader;
+import com.eharmony.matching.vw.webservice.core.io.MemoryBudgetExceededException;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleReaderSettings;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleRequestHeaders;
 
 /**
  * @author vrahimtoola
  * 
  *         A message body reader that can read an Iterable<String> from the
  *         message body of an HTTP request.
+ * 
+ *         Requests that arrive when the memory budget is exhausted, and stays
+ *         that way for longer than the budget is willing to wait, are turned
+ *         away with a 503.
  */
 @Consumes({ MediaType.TEXT_PLAIN, ExampleMediaTypes.PLAINTEXT_0_1_0 })
 @Provider
 public class PlainTextExamplesMessageBodyReader implements MessageBodyReader<ExamplesIterable> {
 
+	private final ExampleReaderSettings exampleReaderSettings;
+
 	public PlainTextExamplesMessageBodyReader() {
+		this(ExampleReaderSettings.DEFAULT);
+	}
+
+	@Autowired
+	public PlainTextExamplesMessageBodyReader(ExampleReaderSettings exampleReaderSettings) {
+
+		checkNotNull(exampleReaderSettings, "Example reader settings must be provided!");
 
+		this.exampleReaderSettings = exampleReaderSettings;
 	}
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PlainTextExamplesMessageBodyReader.class);
@@ -78,19 +100,28 @@ public class PlainTextExamplesMessageBodyReader implements MessageBodyReader<Exa
 			}
 		}
 
-		// TODO:
-		// if a content-length has been provided, then use that to read entire
-		// string in one go.
-
 		Charset charset = ReaderWriter.getCharset(mediaType);
 
 		LOGGER.debug("Reading examples using charset: {}", charset.displayName());
 
-		StringExampleIterator theIterator = new StringExampleIterator(entityStream, charset);
+		if (BoundedLineReader.isSupported(charset) == false) {
+			LOGGER.error("Can't read examples encoded with charset: {}", charset.displayName());
+			throw new WebApplicationException(Status.UNSUPPORTED_MEDIA_TYPE);
+		}
+
+		StringExampleIterator theIterator;
+
+		try {
+			theIterator = new StringExampleIterator(entityStream, charset, exampleReaderSettings.getMaxExampleLength(), exampleReaderSettings.getMemoryBudget());
+		}
+		catch (MemoryBudgetExceededException e) {
+			LOGGER.warn("Shedding request: {}", e.getMessage());
+			throw new WebApplicationException(e, Status.SERVICE_UNAVAILABLE);
+		}
 
-		// TODO: provide the proper number of examples here
-		// setting this to Integer.MAX_VALUE for now to force streaming
-		return new ExamplesIterableImpl(Integer.MAX_VALUE, null, theIterator);
+		// the number of examples and the content length are only hints, used
+		// to decide whether or not to stream the examples.
+		return new ExamplesIterableImpl(ExampleRequestHeaders.getNumberOfExamples(httpHeaders), ExampleRequestHeaders.toAttributes(httpHeaders), theIterator);
 	}
 
 }
@@ -5,10 +5,8 @@ package com.eharmony.matching.vw.webservice.messagebodyreader.plaintextexamplesm
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -19,12 +17,25 @@ import org.slf4j.LoggerFactory;
 import com.eharmony.matching.vw.webservice.common.example.Example;
 import com.eharmony.matching.vw.webservice.common.example.StringExample;
 import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.io.BoundedLineReader;
+import com.eharmony.matching.vw.webservice.core.io.ByteArrayPool;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.eharmony.matching.vw.webservice.core.io.LineTooLongException;
 
 /**
  * @author vrahimtoola
  * 
  *         Reads 1 string at a time from some input stream.
  * 
+ *         Examples longer than 'maxExampleLength' bytes are skipped without
+ *         being read into memory, and returned as OversizeExamples, which
+ *         fail to format.
+ * 
+ *         The memory used to read examples is reserved from the memory budget.
+ *         If that's exhausted before the first example is read, the
+ *         constructor throws a MemoryBudgetExceededException. After that, it
+ *         makes for an ExampleReadException.
+ * 
  *         TODO look at guava's abstract iterator and the test that comes with
  *         guava
  */
@@ -32,24 +43,58 @@ public class StringExampleIterator implements Iterator<Example> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(StringExampleIterator.class);
 
+	/*
+	 * The default max example length, in bytes.
+	 */
+	public static final int DEFAULT_MAX_EXAMPLE_LENGTH = 1024 * 1024;
+
 	/*
 	 * The reader.
 	 */
-	private final BufferedReader reader;
+	private final BoundedLineReader reader;
 
 	/*
 	 * The example to be returned, when 'next()' is called.
 	 */
-	private String nextExampleToReturn = null;
+	private Example nextExampleToReturn = null;
 
 	private long numTotalExamples = 0;
 
 	public StringExampleIterator(InputStream inputStream, Charset charset) throws IOException {
+		this(inputStream, charset, DEFAULT_MAX_EXAMPLE_LENGTH);
+	}
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param maxExampleLength The longest example, in bytes, that will be
+	 * read.
+	 */
+	public StringExampleIterator(InputStream inputStream, Charset charset, int maxExampleLength) throws IOException {
+		this(inputStream, charset, maxExampleLength, InFlightMemoryBudget.UNLIMITED);
+	}
+
+	/*
+	 * Constructor.
+	 * 
+	 * @param memoryBudget The budget to reserve the memory used to read
+	 * examples from.
+	 */
+	public StringExampleIterator(InputStream inputStream, Charset charset, int maxExampleLength, InFlightMemoryBudget memoryBudget) throws IOException {
 
 		checkNotNull(inputStream, "A null input stream was provided!");
-		reader = new BufferedReader(new InputStreamReader(inputStream, charset));
+		reader = new BoundedLineReader(inputStream, charset, maxExampleLength, ByteArrayPool.SHARED, memoryBudget);
+
+		try {
+			advance();
+		}
+		catch (IOException e) {
 
-		advance();
+			//hand back the reader's reservation, since nobody else will
+			reader.close();
+
+			throw e;
+		}
 	}
 
 	@Override
@@ -60,7 +105,7 @@ public class StringExampleIterator implements Iterator<Example> {
 	@Override
 	public Example next() {
 
-		String toReturn = nextExampleToReturn;
+		Example toReturn = nextExampleToReturn;
 
 		if (toReturn == null) throw new NoSuchElementException("No element to return! Make sure to call 'hasNext()' and that it returns true before invoking this method!");
 
@@ -72,12 +117,7 @@ public class StringExampleIterator implements Iterator<Example> {
 			throw new ExampleReadException("Exception reading examples! Message: " + e.getMessage(), e);
 		}
 
-		//TODO remove this
-		if (toReturn.length() >= 592) {
-			LOGGER.trace("Received super long example: {}", toReturn);
-		}
-
-		return new StringExample(toReturn);
+		return toReturn;
 	}
 
 	@Override
@@ -87,7 +127,17 @@ public class StringExampleIterator implements Iterator<Example> {
 
 	private void advance() throws IOException {
 
-		nextExampleToReturn = reader.readLine();
+		try {
+			String line = reader.readLine();
+
+			nextExampleToReturn = line != null ? new StringExample(line) : null;
+		}
+		catch (LineTooLongException e) {
+
+			LOGGER.warn("Skipping oversize example: {}", e.getMessage());
+
+			nextExampleToReturn = new OversizeExample(e);
+		}
 
 		if (nextExampleToReturn != null) {
 			numTotalExamples++;
@@ -0,0 +1,152 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.nonblocking;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Splits arbitrary chunks of UTF-8 bytes into lines, carrying over any
+ *         partial line from one chunk to the next. Lines can end with either
+ *         '\n' or '\r\n', and the line terminators are not included in the
+ *         returned lines.
+ *
+ *         Since lines are only split on the '\n' byte, multi-byte characters
+ *         that straddle two chunks are handled correctly.
+ *
+ *         No more than 'maxLineLength' bytes of a line are ever held on to. A
+ *         longer line is skipped as it streams past, so that a request with no
+ *         line breaks in it can't run the JVM out of memory.
+ *
+ *         Not thread safe.
+ */
+class LineSplitter {
+
+	private final int maxLineLength;
+
+	private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+	/*
+	 * True while the rest of a line that's too long is being skipped.
+	 */
+	private boolean skipping = false;
+
+	private long numLinesSkipped = 0;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param maxLineLength The longest line, in bytes, not counting the line
+	 * terminator, that will be returned.
+	 */
+	public LineSplitter(int maxLineLength) {
+
+		checkArgument(maxLineLength > 0, "The max line length must be > 0!");
+
+		this.maxLineLength = maxLineLength;
+	}
+
+	/*
+	 * Appends a chunk of bytes.
+	 *
+	 * @param bytes The buffer holding the chunk.
+	 *
+	 * @param offset The offset of the chunk in the buffer.
+	 *
+	 * @param length The length of the chunk.
+	 *
+	 * @param lines Every line completed by this chunk gets added to this list.
+	 */
+	public void append(byte[] bytes, int offset, int length, List<String> lines) {
+
+		int lineStart = offset;
+
+		for (int x = offset; x < offset + length; x++) {
+
+			if (bytes[x] == '\n') {
+
+				appendToPartialLine(bytes, lineStart, x - lineStart);
+
+				String line = takeLine();
+
+				if (line != null) lines.add(line);
+
+				lineStart = x + 1;
+			}
+		}
+
+		appendToPartialLine(bytes, lineStart, offset + length - lineStart);
+	}
+
+	/*
+	 * Returns whatever is left over after the last line terminator, ie, the
+	 * last line if the input didn't end with a line terminator.
+	 *
+	 * @returns The left over line, or null if there's nothing left over, or
+	 * the left over line was too long.
+	 */
+	public String finish() {
+		return partialLine.size() > 0 || skipping ? takeLine() : null;
+	}
+
+	/*
+	 * Returns the number of lines that were skipped for being longer than
+	 * 'maxLineLength'.
+	 */
+	public long getNumberOfLinesSkipped() {
+		return numLinesSkipped;
+	}
+
+	private void appendToPartialLine(byte[] bytes, int offset, int length) {
+
+		if (skipping) return;
+
+		//a trailing '\r' is part of the line terminator, and doesn't count towards the line's length
+		if (partialLine.size() + length > maxLineLength + 1) {
+
+			skipping = true;
+
+			partialLine.reset();
+
+			return;
+		}
+
+		partialLine.write(bytes, offset, length);
+	}
+
+	/*
+	 * Returns the line pieced together so far, or null if it was too long.
+	 */
+	private String takeLine() {
+
+		if (skipping) {
+
+			skipping = false;
+			numLinesSkipped++;
+
+			return null;
+		}
+
+		byte[] line = partialLine.toByteArray();
+
+		partialLine.reset();
+
+		int length = line.length;
+
+		if (length > 0 && line[length - 1] == '\r') length--;
+
+		if (length > maxLineLength) {
+			numLinesSkipped++;
+			return null;
+		}
+
+		return new String(line, 0, length, Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.nonblocking;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
+import com.eharmony.matching.vw.webservice.common.prediction.PredictionMediaTypes;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPSocketFactory;
+import com.eharmony.matching.vw.webservice.core.stats.CancellationStats;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleReaderSettings;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A predict endpoint built on servlet 3.1 non-blocking I/O, for
+ *         clients that are slow to upload examples or to read predictions.
+ *         Unlike the Jersey based endpoint, no thread is tied up waiting on the
+ *         client, so slow clients don't eat up the executor service.
+ *
+ *         Only plain text examples are supported here, since the JSON readers
+ *         pull from a blocking input stream.
+ *
+ *         The socket factory and the executor service are taken from the
+ *         Spring context. The buffer sizes can be set using the servlet's init
+ *         parameters in the web.xml.
+ */
+public class NonBlockingPredictServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingPredictServlet.class);
+
+	private transient TCPIPSocketFactory socketFactory;
+	private transient ExecutorService executorService;
+	private transient CancellationStats cancellationStats;
+
+	private int readBufferSize;
+	private int maxExampleLength;
+	private int maxBufferedExamples;
+	private int maxOutstandingExamples;
+	private int maxBufferedPredictions;
+	private long asyncTimeoutMillis;
+
+	@Override
+	public void init() throws ServletException {
+
+		WebApplicationContext context = WebApplicationContextUtils.getRequiredWebApplicationContext(getServletContext());
+
+		//by name, since the context has a socket factory for each daemon, and the scheduler is an executor service too
+		socketFactory = context.getBean("primaryConcurrencyLimiter", TCPIPSocketFactory.class);
+		executorService = context.getBean("executorService", ExecutorService.class);
+		cancellationStats = context.getBean(CancellationStats.class);
+		maxExampleLength = context.getBean(ExampleReaderSettings.class).getMaxExampleLength();
+
+		readBufferSize = getIntInitParameter("readBufferSize", 8192);
+		maxBufferedExamples = getIntInitParameter("maxBufferedExamples", 1024);
+		maxOutstandingExamples = getIntInitParameter("maxOutstandingExamples", 1024);
+		maxBufferedPredictions = getIntInitParameter("maxBufferedPredictions", 1024);
+		asyncTimeoutMillis = getIntInitParameter("asyncTimeoutMillis", 600000);
+
+		LOGGER.info("Non-blocking predict servlet initialized. Read buffer size: {}, max example length: {}, max buffered examples: {}, max outstanding examples: {}, max buffered predictions: {}", readBufferSize, maxExampleLength, maxBufferedExamples, maxOutstandingExamples, maxBufferedPredictions);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+
+		if (isPlainText(request.getContentType()) == false) {
+			response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Only plain text examples are supported by this endpoint!");
+			return;
+		}
+
+		Socket socket;
+
+		try {
+			socket = socketFactory.getSocket();
+		}
+		catch (IOException e) {
+
+			LOGGER.error("Failed to connect to VW: {}", e.getMessage(), e);
+
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Failed to connect to VW!");
+			return;
+		}
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(PredictionMediaTypes.PLAINTEXT_0_1_0);
+
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(asyncTimeoutMillis);
+
+		NonBlockingPredictionExchange exchange;
+
+		try {
+			exchange = new NonBlockingPredictionExchange(asyncContext, request.getInputStream(), response.getOutputStream(), socket, executorService, readBufferSize, maxExampleLength, maxBufferedExamples, maxOutstandingExamples, maxBufferedPredictions, cancellationStats);
+		}
+		catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		asyncContext.addListener(exchange);
+
+		exchange.start();
+	}
+
+	private static boolean isPlainText(String contentType) {
+
+		if (StringUtils.isBlank(contentType)) return false;
+
+		String mediaType = contentType.split(";")[0].trim();
+
+		return mediaType.equalsIgnoreCase("text/plain") || mediaType.equalsIgnoreCase(ExampleMediaTypes.PLAINTEXT_0_1_0);
+	}
+
+	private int getIntInitParameter(String name, int defaultValue) throws ServletException {
+
+		String value = getInitParameter(name);
+
+		if (StringUtils.isBlank(value)) return defaultValue;
+
+		try {
+			int toReturn = Integer.parseInt(value.trim());
+
+			if (toReturn <= 0) throw new ServletException("Init parameter '" + name + "' must be > 0!");
+
+			return toReturn;
+		}
+		catch (NumberFormatException e) {
+			throw new ServletException("Init parameter '" + name + "' must be an integer!", e);
+		}
+	}
+}
@@ -0,0 +1,548 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.nonblocking;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.core.stats.CancellationStats;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Moves examples from a client to VW, and predictions from VW back to
+ *         the client, using servlet 3.1 non-blocking I/O on the client side.
+ *
+ *         No thread ever waits on the client. Examples are read from the
+ *         request only when the container says data is available, and
+ *         predictions are written to the response only when the container
+ *         says the client can take more. Work on the VW side is done by short
+ *         lived tasks on the executor service, that only get scheduled when
+ *         there's something for them to do, so the number of threads in use
+ *         doesn't depend on how fast or slow the client is.
+ *
+ *         Backpressure is applied in both directions:
+ *
+ *         - reading from the client is paused once 'maxBufferedExamples'
+ *         examples are waiting to go to VW, and resumed once half of those
+ *         have been sent.
+ *
+ *         - no more than 'maxOutstandingExamples' examples are sent to VW
+ *         ahead of the predictions read back, so that VW never blocks the
+ *         writing task because nobody's reading it's predictions.
+ *
+ *         - reading predictions from VW is paused once
+ *         'maxBufferedPredictions' predictions are waiting to go to the
+ *         client, which in turn stops examples from being sent to VW.
+ *
+ *         Examples longer than 'maxExampleLength' bytes are skipped, like
+ *         they are by the other example readers, without ever being held in
+ *         memory in full.
+ *
+ *         If the request fails or times out, eg, because the client went
+ *         away, the connection to VW is closed right away and the request is
+ *         accounted for in the cancellation stats.
+ *
+ *         Making this package-private for now.
+ */
+class NonBlockingPredictionExchange implements ReadListener, WriteListener, AsyncListener {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingPredictionExchange.class);
+
+	private final AsyncContext asyncContext;
+	private final ServletInputStream inputStream;
+	private final ServletOutputStream outputStream;
+	private final ExecutorService executorService;
+	private final CancellationStats cancellationStats;
+
+	private final Socket socket;
+	private final BufferedWriter vwWriter;
+	private final BufferedReader vwReader;
+
+	private final int maxBufferedExamples;
+	private final int maxOutstandingExamples;
+	private final int maxBufferedPredictions;
+
+	/*
+	 * Only ever used by the one thread reading from the client at any given
+	 * time.
+	 */
+	private final byte[] readBuffer;
+	private final LineSplitter lineSplitter;
+
+	/*
+	 * Everything below is guarded by 'this'.
+	 */
+	private final Queue<String> examples = new ArrayDeque<String>();
+	private final Queue<byte[]> predictions = new ArrayDeque<byte[]>();
+
+	private long numExamplesSubmitted = 0;
+	private long numPredictionsFetched = 0;
+
+	private boolean allDataRead = false;
+	private boolean readingPaused = false;
+	private boolean vwWriterRunning = false;
+	private boolean vwReaderRunning = false;
+	private boolean vwOutputShutdown = false;
+	private boolean allPredictionsRead = false;
+	private boolean writePossibleCalled = false;
+	private boolean finished = false;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param asyncContext The async context of the request.
+	 *
+	 * @param inputStream The request's input stream.
+	 *
+	 * @param outputStream The response's output stream.
+	 *
+	 * @param socket The connection to VW. This exchange owns the socket from
+	 * here on.
+	 *
+	 * @param executorService The executor service to do VW I/O on.
+	 *
+	 * @param readBufferSize The size of the buffer used to read from the
+	 * client.
+	 *
+	 * @param maxExampleLength The longest example, in bytes, that's sent to
+	 * VW. Longer examples are skipped.
+	 *
+	 * @param maxBufferedExamples The number of examples that can be waiting to
+	 * go to VW before reading from the client is paused.
+	 *
+	 * @param maxOutstandingExamples The number of examples that can be sent to
+	 * VW ahead of the predictions read back.
+	 *
+	 * @param maxBufferedPredictions The number of predictions that can be
+	 * waiting to go to the client before reading from VW is paused.
+	 *
+	 * @param cancellationStats Where failed requests are accounted for.
+	 */
+	public NonBlockingPredictionExchange(AsyncContext asyncContext, ServletInputStream inputStream, ServletOutputStream outputStream, Socket socket, ExecutorService executorService, int readBufferSize, int maxExampleLength, int maxBufferedExamples, int maxOutstandingExamples, int maxBufferedPredictions, CancellationStats cancellationStats) throws IOException {
+
+		this.asyncContext = asyncContext;
+		this.inputStream = inputStream;
+		this.outputStream = outputStream;
+		this.socket = socket;
+		this.executorService = executorService;
+		this.cancellationStats = cancellationStats;
+
+		this.vwWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8));
+		this.vwReader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+
+		this.readBuffer = new byte[readBufferSize];
+		this.lineSplitter = new LineSplitter(maxExampleLength);
+		this.maxBufferedExamples = maxBufferedExamples;
+		this.maxOutstandingExamples = maxOutstandingExamples;
+		this.maxBufferedPredictions = maxBufferedPredictions;
+	}
+
+	/*
+	 * Registers the read and write listeners, after which the container
+	 * drives the exchange.
+	 */
+	public void start() {
+		inputStream.setReadListener(this);
+		outputStream.setWriteListener(this);
+	}
+
+	/*
+	 * Client -> examples.
+	 */
+
+	@Override
+	public void onDataAvailable() throws IOException {
+		readFromClient();
+	}
+
+	@Override
+	public void onAllDataRead() throws IOException {
+
+		String lastLine = lineSplitter.finish();
+
+		synchronized (this) {
+
+			if (StringUtils.isBlank(lastLine) == false) examples.add(lastLine);
+
+			allDataRead = true;
+		}
+
+		if (lineSplitter.getNumberOfLinesSkipped() > 0) LOGGER.warn("Skipped {} examples that were too long.", lineSplitter.getNumberOfLinesSkipped());
+
+		LOGGER.debug("Read all examples from the client.");
+
+		scheduleVWWriter();
+	}
+
+	/*
+	 * Reads for as long as the container has data for us, or until enough
+	 * examples are buffered up. In the latter case, we stop reading even
+	 * though there might still be data, which means the container won't call
+	 * 'onDataAvailable' again, so reading gets resumed by the VW writer once
+	 * it has caught up.
+	 */
+	private void readFromClient() throws IOException {
+
+		List<String> lines = new ArrayList<String>();
+
+		while (inputStream.isReady()) {
+
+			int numRead = inputStream.read(readBuffer);
+
+			if (numRead < 0) break;
+
+			lineSplitter.append(readBuffer, 0, numRead, lines);
+
+			if (lines.isEmpty()) continue;
+
+			boolean pause;
+
+			synchronized (this) {
+
+				for (String line : lines) {
+					if (StringUtils.isBlank(line) == false) examples.add(line);
+				}
+
+				pause = readingPaused = examples.size() >= maxBufferedExamples;
+			}
+
+			lines.clear();
+
+			scheduleVWWriter();
+
+			if (pause) {
+				LOGGER.trace("Paused reading from the client.");
+				return;
+			}
+		}
+	}
+
+	private void resumeReadingFromClient() {
+
+		LOGGER.trace("Resuming reading from the client.");
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					readFromClient();
+				}
+				catch (Throwable e) {
+					onError(e);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Examples -> VW.
+	 */
+
+	private void scheduleVWWriter() {
+
+		synchronized (this) {
+
+			if (vwWriterRunning || finished) return;
+
+			vwWriterRunning = true;
+		}
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					writeToVW();
+				}
+				catch (Throwable e) {
+					onError(e);
+				}
+			}
+		});
+	}
+
+	private void writeToVW() throws IOException {
+
+		List<String> batch = new ArrayList<String>();
+
+		while (true) {
+
+			boolean shutdownOutput = false, resumeReading = false;
+
+			batch.clear();
+
+			synchronized (this) {
+
+				long room = maxOutstandingExamples - (numExamplesSubmitted - numPredictionsFetched);
+
+				while (room-- > 0 && examples.isEmpty() == false)
+					batch.add(examples.poll());
+
+				if (readingPaused && examples.size() <= maxBufferedExamples / 2) {
+					readingPaused = false;
+					resumeReading = true;
+				}
+
+				if (batch.isEmpty()) {
+
+					if (allDataRead && examples.isEmpty() && vwOutputShutdown == false) shutdownOutput = vwOutputShutdown = true;
+
+					vwWriterRunning = false;
+				}
+			}
+
+			if (resumeReading) resumeReadingFromClient();
+
+			if (batch.isEmpty()) {
+
+				if (shutdownOutput) {
+
+					LOGGER.debug("Sent all {} examples to VW.", numExamplesSubmitted);
+
+					vwWriter.flush();
+					socket.shutdownOutput(); //VW closes it's end once it's done with all the examples
+
+					scheduleVWReader();
+				}
+
+				return;
+			}
+
+			for (String example : batch) {
+				vwWriter.write(example);
+				vwWriter.newLine();
+			}
+
+			vwWriter.flush();
+
+			synchronized (this) {
+				numExamplesSubmitted += batch.size();
+			}
+
+			scheduleVWReader();
+		}
+	}
+
+	/*
+	 * VW -> predictions.
+	 */
+
+	private synchronized boolean canReadFromVW() {
+		return finished == false && allPredictionsRead == false && (numExamplesSubmitted > numPredictionsFetched || vwOutputShutdown) && predictions.size() < maxBufferedPredictions;
+	}
+
+	private void scheduleVWReader() {
+
+		synchronized (this) {
+
+			if (vwReaderRunning || canReadFromVW() == false) return;
+
+			vwReaderRunning = true;
+		}
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					readFromVW();
+				}
+				catch (Throwable e) {
+					onError(e);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Only reads while there are predictions owed to us (or VW's been told
+	 * there are no more examples), so the blocking reads here are only ever
+	 * waiting on VW, never on the client.
+	 */
+	private void readFromVW() throws IOException {
+
+		while (true) {
+
+			synchronized (this) {
+				if (canReadFromVW() == false) {
+					vwReaderRunning = false;
+					return;
+				}
+			}
+
+			String line = vwReader.readLine();
+
+			synchronized (this) {
+
+				if (line == null)
+					allPredictionsRead = true;
+				else {
+					numPredictionsFetched++;
+					predictions.add((line + "\n").getBytes(Charsets.UTF_8));
+				}
+			}
+
+			if (line == null) {
+
+				LOGGER.debug("Read all {} predictions from VW.", numPredictionsFetched);
+
+				closeSocket();
+			}
+			else {
+				scheduleVWWriter(); //there's room for more examples now
+			}
+
+			writeToClient();
+		}
+	}
+
+	/*
+	 * Predictions -> client.
+	 */
+
+	@Override
+	public void onWritePossible() throws IOException {
+
+		synchronized (this) {
+			writePossibleCalled = true;
+		}
+
+		writeToClient();
+	}
+
+	/*
+	 * Writes for as long as the container lets us. If the container can't
+	 * take any more, it calls 'onWritePossible' once it can.
+	 *
+	 * Nothing's written until the container has called 'onWritePossible' for
+	 * the first time, which it always does once the write listener is set. A
+	 * write started on one of our threads before then can still be pending
+	 * when that first call comes, and Jetty fails the request if it is.
+	 */
+	private void writeToClient() throws IOException {
+
+		synchronized (this) {
+			if (writePossibleCalled == false) return;
+		}
+
+		boolean complete = false;
+
+		synchronized (outputStream) {
+
+			while (outputStream.isReady()) {
+
+				byte[] prediction;
+
+				synchronized (this) {
+
+					prediction = predictions.poll();
+
+					if (prediction == null && allPredictionsRead && finished == false) complete = finished = true;
+				}
+
+				if (prediction == null) {
+
+					//push out whatever we've written so far, there's nothing more to send right now
+					if (complete == false) outputStream.flush();
+
+					break;
+				}
+
+				outputStream.write(prediction);
+			}
+		}
+
+		if (complete) {
+
+			LOGGER.debug("Sent all predictions to the client.");
+
+			asyncContext.complete();
+		}
+		else {
+			scheduleVWReader(); //there might be room for more predictions now
+		}
+	}
+
+	/*
+	 * Errors and cleanup.
+	 */
+
+	@Override
+	public void onError(Throwable t) {
+
+		long numSubmitted, numFetched;
+
+		synchronized (this) {
+
+			if (finished) return;
+
+			finished = true;
+
+			numSubmitted = numExamplesSubmitted;
+			numFetched = numPredictionsFetched;
+		}
+
+		LOGGER.error("Non-blocking predict request failed: {}", t.getMessage(), t);
+
+		closeSocket();
+
+		cancellationStats.onCancelled(numSubmitted, numFetched);
+
+		asyncContext.complete();
+	}
+
+	@Override
+	public void onComplete(AsyncEvent event) throws IOException {
+		closeSocket();
+	}
+
+	@Override
+	public void onTimeout(AsyncEvent event) throws IOException {
+		onError(new IOException("The request timed out!"));
+	}
+
+	@Override
+	public void onError(AsyncEvent event) throws IOException {
+		onError(event.getThrowable() != null ? event.getThrowable() : new IOException("The async request failed!"));
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) throws IOException {
+		//nothing to do here
+	}
+
+	private void closeSocket() {
+
+		if (socket.isClosed() == false) try {
+			socket.close();
+		}
+		catch (IOException e) {
+			LOGGER.warn("Failed to close the socket to VW: {}", e.getMessage(), e);
+		}
+	}
+}
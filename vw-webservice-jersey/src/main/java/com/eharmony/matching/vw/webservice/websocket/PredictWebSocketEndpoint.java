@@ -0,0 +1,281 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.websocket;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.StreamingExampleSession;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.StreamingPredictionListener;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader.GsonJsonExamplesProvider;
+import com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader.JsonExamplesProvider;
+import com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader.StructuredJsonExamplesProvider;
+import com.eharmony.matching.vw.webservice.util.StringIterable;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A websocket endpoint for long lived scoring sessions. The client
+ *         sends text frames containing examples, and every prediction is sent
+ *         back as a text frame on the same session, in the order in which the
+ *         examples were received.
+ *
+ *         The format of the examples is picked using the 'contentType' query
+ *         parameter when opening the session, eg,
+ *         /predict/stream?contentType=application/vowpal-wabbit-example-v0.1.0+structuredjson.
+ *         Plain text examples are assumed if the parameter is left out. A plain
+ *         text frame can have one or more examples, one per line, and a JSON
+ *         frame holds a JSON array of one or more examples.
+ *
+ *         Each session is backed by it's own connection to VW, and every frame
+ *         is flushed to VW as soon as it's been parsed.
+ *
+ *         A new instance of this class is created for every session.
+ */
+public class PredictWebSocketEndpoint extends Endpoint {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PredictWebSocketEndpoint.class);
+
+	/*
+	 * The path the endpoint is registered at, relative to the web app.
+	 */
+	public static final String PATH = "/predict/stream";
+
+	/*
+	 * The query parameter used to specify the format of the examples.
+	 */
+	public static final String CONTENT_TYPE_PARAMETER = "contentType";
+
+	/*
+	 * Frames sent back to the client for examples that had to be skipped start
+	 * with this, and are followed by the reason. These take the place of the
+	 * prediction for the skipped example.
+	 */
+	public static final String SKIPPED_EXAMPLE_FRAME_PREFIX = "#skipped: ";
+
+	/*
+	 * Frames sent back to the client when an entire frame of examples could
+	 * not be parsed start with this, and are followed by the reason.
+	 */
+	public static final String UNREADABLE_FRAME_PREFIX = "#unreadable: ";
+
+	private final TCPIPExampleProcessorFactory exampleProcessorFactory;
+
+	private volatile StreamingExampleSession streamingSession;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param exampleProcessorFactory The factory to open the VW session with.
+	 */
+	public PredictWebSocketEndpoint(TCPIPExampleProcessorFactory exampleProcessorFactory) {
+		this.exampleProcessorFactory = checkNotNull(exampleProcessorFactory, "An example processor factory must be provided!");
+	}
+
+	@Override
+	public void onOpen(final Session session, EndpointConfig config) {
+
+		final String contentType = getContentType(session);
+
+		if (contentType.equals(ExampleMediaTypes.PLAINTEXT_0_1_0) == false && contentType.equals(ExampleMediaTypes.SIMPLE_JSON_0_1_0) == false && contentType.equals(ExampleMediaTypes.STRUCTURED_JSON_0_1_0) == false) {
+			closeSession(session, new CloseReason(CloseCodes.CANNOT_ACCEPT, "Unsupported content type: " + contentType));
+			return;
+		}
+
+		try {
+			streamingSession = exampleProcessorFactory.openStreamingSession(new WebSocketPredictionListener(session));
+		}
+		catch (ExampleSubmissionException e) {
+
+			LOGGER.error("Failed to open VW session for websocket session {}: {}", session.getId(), e.getMessage(), e);
+
+			closeSession(session, new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Failed to connect to VW."));
+			return;
+		}
+
+		session.addMessageHandler(new MessageHandler.Whole<String>() {
+
+			@Override
+			public void onMessage(String frame) {
+				handleFrame(session, contentType, frame);
+			}
+		});
+
+		LOGGER.debug("Opened websocket session {} with content type {}", session.getId(), contentType);
+	}
+
+	@Override
+	public void onClose(Session session, CloseReason closeReason) {
+
+		LOGGER.debug("Websocket session {} closed: {}", session.getId(), closeReason);
+
+		closeStreamingSession();
+	}
+
+	@Override
+	public void onError(Session session, Throwable thr) {
+
+		LOGGER.error("Error in websocket session {}: {}", session.getId(), thr.getMessage(), thr);
+
+		closeStreamingSession();
+	}
+
+	private void handleFrame(Session session, String contentType, String frame) {
+
+		List<Example> examples;
+
+		//parse the whole frame up front, so that a malformed frame doesn't leave VW with half of it's examples.
+		try {
+			examples = parseExamples(contentType, frame);
+		}
+		catch (ExampleReadException e) {
+
+			LOGGER.warn("Unreadable frame in websocket session {}: {}", session.getId(), e.getMessage());
+
+			sendText(session, UNREADABLE_FRAME_PREFIX + e.getMessage());
+			return;
+		}
+
+		try {
+			streamingSession.submitExamples(examples);
+		}
+		catch (ExampleSubmissionException e) {
+
+			LOGGER.error("Failed to submit examples in websocket session {}: {}", session.getId(), e.getMessage(), e);
+
+			closeSession(session, new CloseReason(CloseCodes.UNEXPECTED_CONDITION, "Failed to submit examples to VW."));
+		}
+	}
+
+	private static List<Example> parseExamples(String contentType, String frame) throws ExampleReadException {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		if (contentType.equals(ExampleMediaTypes.PLAINTEXT_0_1_0)) {
+
+			for (String line : new StringIterable(frame)) {
+				if (StringUtils.isBlank(line) == false) examples.add(new StringExample(line));
+			}
+		}
+		else {
+
+			JsonExamplesProvider provider = contentType.equals(ExampleMediaTypes.SIMPLE_JSON_0_1_0) ? new GsonJsonExamplesProvider() : new StructuredJsonExamplesProvider(-1, -1);
+
+			Iterator<Example> iterator = provider.getExamplesFromStream(new ByteArrayInputStream(frame.getBytes(Charsets.UTF_8)));
+
+			while (iterator.hasNext())
+				examples.add(iterator.next());
+		}
+
+		return examples;
+	}
+
+	private static String getContentType(Session session) {
+
+		List<String> values = session.getRequestParameterMap().get(CONTENT_TYPE_PARAMETER);
+
+		if (values == null || values.isEmpty() || StringUtils.isBlank(values.get(0))) return ExampleMediaTypes.PLAINTEXT_0_1_0;
+
+		return values.get(0).trim();
+	}
+
+	/*
+	 * Sends a text frame to the client. The basic remote endpoint doesn't
+	 * allow concurrent sends, and frames get sent both from the thread
+	 * reading predictions and from the thread handling incoming frames, hence
+	 * the synchronization.
+	 */
+	private static void sendText(Session session, String text) {
+
+		synchronized (session) {
+
+			if (session.isOpen() == false) return;
+
+			try {
+				session.getBasicRemote().sendText(text);
+			}
+			catch (IOException e) {
+				LOGGER.warn("Failed to send frame to websocket session {}: {}", session.getId(), e.getMessage());
+			}
+		}
+	}
+
+	private static void closeSession(Session session, CloseReason closeReason) {
+
+		try {
+			session.close(closeReason);
+		}
+		catch (IOException e) {
+			LOGGER.warn("Failed to close websocket session {}: {}", session.getId(), e.getMessage());
+		}
+	}
+
+	private void closeStreamingSession() {
+
+		StreamingExampleSession theSession = streamingSession;
+
+		if (theSession != null) theSession.close();
+	}
+
+	/*
+	 * Sends predictions back over the websocket session as they're read from
+	 * VW.
+	 */
+	private static class WebSocketPredictionListener implements StreamingPredictionListener {
+
+		private final Session session;
+
+		public WebSocketPredictionListener(Session session) {
+			this.session = session;
+		}
+
+		@Override
+		public void onPrediction(Prediction prediction) {
+			sendText(session, prediction.getVWStringRepresentation());
+		}
+
+		@Override
+		public void onExampleFormatException(ExampleFormatException theException) {
+			sendText(session, SKIPPED_EXAMPLE_FRAME_PREFIX + theException.getMessage());
+		}
+
+		@Override
+		public void onPredictionFetchException(PredictionFetchException theException) {
+			closeSession(session, new CloseReason(CloseCodes.UNEXPECTED_CONDITION, "Failed to read predictions from VW."));
+		}
+
+		@Override
+		public void onPredictionFetchComplete() {
+
+			//VW only closes it's end once we've shut down ours, or if something went wrong, so either way the session is done.
+			if (session.isOpen()) closeSession(session, new CloseReason(CloseCodes.NORMAL_CLOSURE, "Done."));
+		}
+	}
+}
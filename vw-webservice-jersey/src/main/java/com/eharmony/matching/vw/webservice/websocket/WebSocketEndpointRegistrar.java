@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.websocket;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.websocket.DeploymentException;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPExampleProcessorFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Registers the websocket endpoint for streaming sessions with the
+ *         container. The endpoint gets it's example processor factory from the
+ *         Spring context, so this must be registered after Spring's
+ *         ContextLoaderListener in the web.xml.
+ *
+ *         If the container doesn't support websockets, this logs a warning and
+ *         the rest of the web service carries on as usual.
+ */
+public class WebSocketEndpointRegistrar implements ServletContextListener {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketEndpointRegistrar.class);
+
+	private static final String SERVER_CONTAINER_ATTRIBUTE = "javax.websocket.server.ServerContainer";
+
+	@Override
+	public void contextInitialized(ServletContextEvent servletContextEvent) {
+
+		ServletContext servletContext = servletContextEvent.getServletContext();
+
+		ServerContainer serverContainer = (ServerContainer) servletContext.getAttribute(SERVER_CONTAINER_ATTRIBUTE);
+
+		if (serverContainer == null) {
+			LOGGER.warn("The servlet container doesn't support websockets, the streaming endpoint will not be available!");
+			return;
+		}
+
+		//by name, since the serving daemons have a TCP example processor factory of their own
+		final TCPIPExampleProcessorFactory exampleProcessorFactory = WebApplicationContextUtils.getRequiredWebApplicationContext(servletContext).getBean("tcpExampleProcessorFactory", TCPIPExampleProcessorFactory.class);
+
+		ServerEndpointConfig.Configurator configurator = new ServerEndpointConfig.Configurator() {
+
+			@Override
+			public <T> T getEndpointInstance(Class<T> endpointClass) throws InstantiationException {
+				return endpointClass.cast(new PredictWebSocketEndpoint(exampleProcessorFactory));
+			}
+		};
+
+		try {
+			serverContainer.addEndpoint(ServerEndpointConfig.Builder.create(PredictWebSocketEndpoint.class, PredictWebSocketEndpoint.PATH).configurator(configurator).build());
+		}
+		catch (DeploymentException e) {
+			throw new IllegalStateException("Failed to register the websocket endpoint!", e);
+		}
+
+		LOGGER.info("Registered websocket endpoint at: {}", PredictWebSocketEndpoint.PATH);
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent servletContextEvent) {
+		//nothing to do here, the container takes care of closing open sessions.
+	}
+}
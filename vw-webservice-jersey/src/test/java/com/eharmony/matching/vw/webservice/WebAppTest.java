@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Properties;
+
+import javax.ws.rs.core.MediaType;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.FakeVWDaemon;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Boots the war, with it's web.xml and Spring context, in an embedded
+ *         Jetty, against a fake VW daemon, and sends requests to it. Catches
+ *         beans that Spring or the Jersey Spring bridge can't pick out of the
+ *         context, which the other tests, wiring things up by hand, don't.
+ */
+public class WebAppTest {
+
+	private FakeVWDaemon daemon;
+
+	private FakeVWDaemon servingDaemon;
+
+	private File configDirectory;
+
+	private Server server;
+
+	@Before
+	public void setUp() throws Exception {
+
+		daemon = new FakeVWDaemon("primary");
+		servingDaemon = new FakeVWDaemon("serving");
+
+		configDirectory = File.createTempFile("vw-webapp-test", "");
+		configDirectory.delete();
+		configDirectory.mkdir();
+
+		//the web service's own properties, pointed at the fake daemon. the
+		//webapp's class loader finds these ahead of the ones on the classpath.
+		Properties properties = new Properties();
+
+		try (InputStream inputStream = getClass().getResourceAsStream("/vw-webservice.properties")) {
+			properties.load(inputStream);
+		}
+
+		properties.setProperty("vw.port", String.valueOf(daemon.getPort()));
+		properties.setProperty("vw.secondary.port", String.valueOf(daemon.getPort()));
+		properties.setProperty("vw.webservice.labelRouting.enabled", "true");
+		properties.setProperty("vw.webservice.labelRouting.servingDaemons", "localhost:" + servingDaemon.getPort());
+		properties.setProperty("vw.webservice.healthCheck.intervalMillis", "0");
+		properties.setProperty("vw.webservice.spool.directory", new File(configDirectory, "spool").getAbsolutePath());
+
+		try (OutputStream outputStream = new FileOutputStream(new File(configDirectory, "vw-webservice.properties"))) {
+			properties.store(outputStream, null);
+		}
+
+		WebAppContext webAppContext = new WebAppContext("src/main/webapp", "/");
+		webAppContext.setExtraClasspath(configDirectory.getAbsolutePath());
+		webAppContext.setThrowUnavailableOnStartupException(true);
+
+		server = new Server(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.setHandler(webAppContext);
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		server.stop();
+
+		daemon.close();
+		servingDaemon.close();
+
+		File spoolDirectory = new File(configDirectory, "spool");
+
+		File[] files = spoolDirectory.listFiles();
+
+		if (files != null) for (File file : files)
+			file.delete();
+
+		spoolDirectory.delete();
+
+		new File(configDirectory, "vw-webservice.properties").delete();
+
+		configDirectory.delete();
+	}
+
+	/*
+	 * Tests that /predict/main gets the example processor factory, executor
+	 * service and scheduler it's meant to. Only the label routing factory
+	 * sends the unlabeled example to the serving daemon.
+	 */
+	@Test(timeout = 30000)
+	public void predictMainTest() throws Exception {
+
+		HttpURLConnection connection = post("/predict/main", "1 | a\n| b\n");
+
+		Assert.assertEquals(200, connection.getResponseCode());
+
+		Assert.assertEquals(daemon.predictionFor("1 | a") + "\n" + servingDaemon.predictionFor("| b") + "\n", readFully(connection.getInputStream()));
+	}
+
+	/*
+	 * Tests that the non-blocking predict servlet, which looks it's beans up
+	 * when the war starts, answers with the daemon's predictions.
+	 */
+	@Test(timeout = 30000)
+	public void predictNonBlockingTest() throws Exception {
+
+		HttpURLConnection connection = post("/predict/nonblocking", "| a\n| b\n");
+
+		Assert.assertEquals(200, connection.getResponseCode());
+
+		Assert.assertEquals(daemon.predictionFor("| a") + "\n" + daemon.predictionFor("| b") + "\n", readFully(connection.getInputStream()));
+	}
+
+	/*
+	 * Tests that the admin resource is handed every concurrency limiter.
+	 */
+	@Test(timeout = 30000)
+	public void adminLimitsTest() throws Exception {
+
+		HttpURLConnection connection = (HttpURLConnection) url("/admin/limits").openConnection();
+
+		Assert.assertEquals(200, connection.getResponseCode());
+
+		String limits = readFully(connection.getInputStream());
+
+		Assert.assertTrue(limits, limits.contains("\"name\":\"primary (localhost:" + daemon.getPort() + ")\""));
+		Assert.assertTrue(limits, limits.contains("\"name\":\"secondary (localhost:" + daemon.getPort() + ")\""));
+	}
+
+	private HttpURLConnection post(String path, String examples) throws IOException {
+
+		HttpURLConnection connection = (HttpURLConnection) url(path).openConnection();
+
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", MediaType.TEXT_PLAIN);
+
+		try (OutputStream outputStream = connection.getOutputStream()) {
+			outputStream.write(examples.getBytes(Charsets.UTF_8));
+		}
+
+		return connection;
+	}
+
+	private URL url(String path) throws IOException {
+		return new URL("http", "localhost", ((ServerConnector) server.getConnectors()[0]).getLocalPort(), path);
+	}
+
+	private static String readFully(InputStream inputStream) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		byte[] buffer = new byte[1024];
+
+		int numRead;
+
+		try (InputStream theInputStream = inputStream) {
+
+			while ((numRead = theInputStream.read(buffer)) >= 0)
+				bytes.write(buffer, 0, numRead);
+		}
+
+		return new String(bytes.toByteArray(), Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.GZIPInputStream;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that the CompressingPredictionChunkWriter produces a stream
+ *         that decodes back to the predictions, and that predictions that
+ *         trickle in are flushed out without waiting for more to follow.
+ */
+public class CompressingPredictionChunkWriterTest {
+
+	private ScheduledExecutorService scheduler;
+
+	private CapturingChunkedOutput chunkedOutput;
+
+	@Before
+	public void setUp() throws Exception {
+		scheduler = Executors.newScheduledThreadPool(1);
+		chunkedOutput = new CapturingChunkedOutput();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void gzipRoundTripTest() throws Exception {
+		roundTrip(ContentEncoding.GZIP);
+	}
+
+	@Test
+	public void zstdRoundTripTest() throws Exception {
+		roundTrip(ContentEncoding.ZSTD);
+	}
+
+	@Test(timeout = 10000)
+	public void gzipSlowPredictionsAreFlushedTest() throws Exception {
+		slowPredictionsAreFlushed(ContentEncoding.GZIP);
+	}
+
+	@Test(timeout = 10000)
+	public void zstdSlowPredictionsAreFlushedTest() throws Exception {
+		slowPredictionsAreFlushed(ContentEncoding.ZSTD);
+	}
+
+	private void roundTrip(ContentEncoding encoding) throws Exception {
+
+		CompressingPredictionChunkWriter writer = new CompressingPredictionChunkWriter(chunkedOutput, encoding, 3, 4, 1000, scheduler);
+
+		StringBuilder expected = new StringBuilder();
+
+		for (int x = 0; x < 100; x++) {
+
+			String prediction = x + " 0.5\n";
+
+			writer.write(prediction);
+
+			expected.append(prediction);
+		}
+
+		writer.close();
+
+		Assert.assertTrue(chunkedOutput.isClosed());
+
+		//1 + 2 + 4 + 4 + ... predictions per flush, plus the trailer
+		Assert.assertTrue(chunkedOutput.getNumberOfChunks() > 20);
+
+		Assert.assertEquals(expected.toString(), new String(readFully(decode(encoding, chunkedOutput.getBytes()), -1), Charsets.UTF_8));
+	}
+
+	private void slowPredictionsAreFlushed(ContentEncoding encoding) throws Exception {
+
+		CompressingPredictionChunkWriter writer = new CompressingPredictionChunkWriter(chunkedOutput, encoding, 3, 1024, 200, scheduler);
+
+		//the first prediction goes out right away, and the second would wait for a third, but for the flush delay
+		writer.write("1\n");
+		writer.write("2\n");
+
+		Assert.assertEquals(1, chunkedOutput.getNumberOfChunks());
+
+		while (chunkedOutput.getNumberOfChunks() < 2)
+			Thread.sleep(5);
+
+		//everything written so far can be decoded, without the stream having been finished
+		Assert.assertEquals("1\n2\n", new String(readFully(decode(encoding, chunkedOutput.getBytes()), 4), Charsets.UTF_8));
+
+		writer.close();
+
+		Assert.assertEquals("1\n2\n", new String(readFully(decode(encoding, chunkedOutput.getBytes()), -1), Charsets.UTF_8));
+	}
+
+	private static InputStream decode(ContentEncoding encoding, byte[] bytes) throws IOException {
+
+		InputStream inputStream = new ByteArrayInputStream(bytes);
+
+		return encoding == ContentEncoding.ZSTD ? new ZstdInputStream(inputStream) : new GZIPInputStream(inputStream);
+	}
+
+	/*
+	 * Reads 'length' bytes, or everything up to the end of the stream if
+	 * 'length' is negative.
+	 */
+	private static byte[] readFully(InputStream inputStream, int length) throws IOException {
+
+		if (length >= 0) {
+
+			byte[] bytes = new byte[length];
+
+			new DataInputStream(inputStream).readFully(bytes);
+
+			return bytes;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		byte[] buffer = new byte[1024];
+
+		int numRead;
+
+		while ((numRead = inputStream.read(buffer)) >= 0)
+			bytes.write(buffer, 0, numRead);
+
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * Keeps the chunks written to it, instead of sending them to a client.
+	 */
+	private static class CapturingChunkedOutput extends ChunkedOutput<byte[]> {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		private int numChunks = 0;
+
+		private boolean closed = false;
+
+		public CapturingChunkedOutput() {
+			super(byte[].class);
+		}
+
+		@Override
+		public synchronized void write(byte[] chunk) throws IOException {
+			bytes.write(chunk);
+			numChunks++;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			closed = true;
+		}
+
+		@Override
+		public synchronized boolean isClosed() {
+			return closed;
+		}
+
+		public synchronized int getNumberOfChunks() {
+			return numChunks;
+		}
+
+		public synchronized byte[] getBytes() {
+			return bytes.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * 
+ */
+package com.eharmony.matching.vw.webservice.compression;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * @author vrahimtoola
+ * 
+ *         Tests the negotiation of content encodings in CompressionSettings.
+ */
+public class CompressionSettingsTest {
+
+	@Test
+	public void noAcceptEncodingMeansIdentityTest() {
+
+		CompressionSettings toTest = new CompressionSettings("gzip", 6, 3, 1024);
+
+		Assert.assertEquals(ContentEncoding.IDENTITY, toTest.negotiate(null));
+		Assert.assertEquals(ContentEncoding.IDENTITY, toTest.negotiate(""));
+		Assert.assertEquals(ContentEncoding.IDENTITY, toTest.negotiate("deflate, br"));
+	}
+
+	@Test
+	public void compressionDisabledTest() {
+
+		CompressionSettings toTest = new CompressionSettings("", 6, 3, 1024);
+
+		Assert.assertEquals(ContentEncoding.IDENTITY, toTest.negotiate("gzip"));
+		Assert.assertTrue(toTest.getEnabledEncodings().isEmpty());
+	}
+
+	@Test
+	public void qualityValuesTest() {
+
+		CompressionSettings toTest = new CompressionSettings("gzip", 6, 3, 1024);
+
+		Assert.assertEquals(ContentEncoding.GZIP, toTest.negotiate("gzip"));
+		Assert.assertEquals(ContentEncoding.GZIP, toTest.negotiate("deflate;q=1.0, GZIP;q=0.5"));
+		Assert.assertEquals(ContentEncoding.IDENTITY, toTest.negotiate("gzip;q=0"));
+		Assert.assertEquals(ContentEncoding.GZIP, toTest.negotiate("*"));
+		Assert.assertEquals(ContentEncoding.IDENTITY, toTest.negotiate("*;q=0"));
+		Assert.assertEquals(ContentEncoding.IDENTITY, toTest.negotiate("gzip;q=0, *;q=1"));
+	}
+
+	@Test
+	public void levelsTest() {
+
+		CompressionSettings toTest = new CompressionSettings("gzip", 9, 12, 1024);
+
+		Assert.assertEquals(9, toTest.getCompressionLevel(ContentEncoding.GZIP));
+		Assert.assertEquals(12, toTest.getCompressionLevel(ContentEncoding.ZSTD));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownEncodingTest() {
+		new CompressionSettings("gzip,lzma", 6, 3, 1024);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidGzipLevelTest() {
+		new CompressionSettings("gzip", 10, 3, 1024);
+	}
+}
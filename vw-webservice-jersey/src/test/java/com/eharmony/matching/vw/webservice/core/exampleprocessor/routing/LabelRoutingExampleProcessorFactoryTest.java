@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.FakeVWDaemon;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPExampleProcessorFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that labeled examples go to the training daemon, unlabeled
+ *         ones to the serving daemon, and that the predictions come back in
+ *         the order of the examples.
+ */
+public class LabelRoutingExampleProcessorFactoryTest {
+
+	private ExecutorService executorService;
+	private FakeVWDaemon trainingDaemon, servingDaemon;
+	private LabelRoutingExampleProcessorFactory factory;
+
+	@Before
+	public void setUp() throws Exception {
+
+		executorService = Executors.newCachedThreadPool();
+
+		trainingDaemon = new FakeVWDaemon("training");
+		servingDaemon = new FakeVWDaemon("serving");
+
+		factory = new LabelRoutingExampleProcessorFactory(new TCPIPExampleProcessorFactory(trainingDaemon, executorService), new TCPIPExampleProcessorFactory(servingDaemon, executorService), true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		trainingDaemon.close();
+		servingDaemon.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void predictionsAreMergedInOrderTest() throws Exception {
+
+		List<String> examples = Arrays.asList("1 | a", "| b", "'tag | c", "0 'tag| d", "-1 | e", "| f");
+
+		ExampleProcessingManager manager = submit(examples);
+
+		List<String> expected = Arrays.asList(trainingDaemon.predictionFor("1 | a"), servingDaemon.predictionFor("| b"), servingDaemon.predictionFor("'tag | c"), trainingDaemon.predictionFor("0 'tag| d"), trainingDaemon.predictionFor("-1 | e"), servingDaemon.predictionFor("| f"));
+
+		Assert.assertEquals(expected, predictions(manager));
+
+		Assert.assertEquals(6, manager.getTotalNumberOfExamplesSubmitted());
+		Assert.assertEquals(6, manager.getTotalNumberOfPredictionsFetched());
+		Assert.assertEquals(ExampleSubmissionState.Complete, manager.getExampleSubmissionState());
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+	}
+
+	@Test(timeout = 10000)
+	public void unlabeledRequestNeverTouchesTheTrainingDaemonTest() throws Exception {
+
+		ExampleProcessingManager manager = submit(Arrays.asList("| a", "| b"));
+
+		Assert.assertEquals(Arrays.asList(servingDaemon.predictionFor("| a"), servingDaemon.predictionFor("| b")), predictions(manager));
+
+		Assert.assertEquals(0, trainingDaemon.getNumberOfConnections());
+		Assert.assertEquals(1, servingDaemon.getNumberOfConnections());
+	}
+
+	@Test(timeout = 10000)
+	public void multiLineExamplesAreSkippedTest() throws Exception {
+
+		ExampleProcessingManager manager = submit(Arrays.asList("1 | a", "| b\n| c", "", "| d"));
+
+		Assert.assertEquals(Arrays.asList(trainingDaemon.predictionFor("1 | a"), servingDaemon.predictionFor("| d")), predictions(manager));
+
+		Assert.assertEquals(2, manager.getTotalNumberOfExamplesSkipped());
+	}
+
+	@Test
+	public void labelsTest() {
+
+		Assert.assertTrue(ExampleSplitter.isLabeled(null, "1 | a"));
+		Assert.assertTrue(ExampleSplitter.isLabeled(null, "1 2 'tag| a"));
+		Assert.assertTrue(ExampleSplitter.isLabeled(null, "1 'tag |a"));
+
+		Assert.assertFalse(ExampleSplitter.isLabeled(null, "| a"));
+		Assert.assertFalse(ExampleSplitter.isLabeled(null, " | a"));
+		Assert.assertFalse(ExampleSplitter.isLabeled(null, "'tag | a"));
+		Assert.assertFalse(ExampleSplitter.isLabeled(null, "tag| a"));
+	}
+
+	private ExampleProcessingManager submit(List<String> lines) throws Exception {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (String line : lines)
+			examples.add(new StringExample(line));
+
+		return factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples.iterator())).submitExamples(null);
+	}
+
+	private static List<String> predictions(ExampleProcessingManager manager) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		return predictions;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.routing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.FakeVWDaemon;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that each model's requests go to it's own daemons, and that
+ *         reloading keeps unchanged models and rejects bad files.
+ */
+public class ModelRegistryTest {
+
+	private ExecutorService executorService;
+	private ScheduledExecutorService scheduler;
+	private FakeVWDaemon spamDaemon, rankingDaemon;
+	private File configFile;
+	private ModelRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+
+		executorService = Executors.newCachedThreadPool();
+		scheduler = Executors.newScheduledThreadPool(1);
+
+		spamDaemon = new FakeVWDaemon("spam");
+		rankingDaemon = new FakeVWDaemon("ranking");
+
+		configFile = File.createTempFile("vw-models", ".properties");
+
+		write("spam.daemons=localhost:" + spamDaemon.getPort(), "ranking.daemons=localhost:" + rankingDaemon.getPort(), "ranking.numWriters=1");
+
+		registry = new ModelRegistry(configFile.getAbsolutePath(), executorService, scheduler, InFlightMemoryBudget.UNLIMITED, 0, 0);
+
+		registry.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		registry.shutdown();
+		spamDaemon.close();
+		rankingDaemon.close();
+		scheduler.shutdownNow();
+		executorService.shutdownNow();
+		configFile.delete();
+	}
+
+	@Test(timeout = 10000)
+	public void modelsGoToTheirOwnDaemonsTest() throws Exception {
+
+		Assert.assertEquals(Arrays.asList("ranking", "spam"), registry.getModelNames());
+
+		Assert.assertEquals(Arrays.asList(spamDaemon.predictionFor("| a"), spamDaemon.predictionFor("| b")), predict("spam", "| a", "| b"));
+		Assert.assertEquals(Arrays.asList(rankingDaemon.predictionFor("| a")), predict("ranking", "| a"));
+
+		Assert.assertNull(registry.getExampleProcessorFactory("nope"));
+	}
+
+	@Test(timeout = 10000)
+	public void reloadKeepsUnchangedModelsTest() throws Exception {
+
+		ExampleProcessorFactory spam = registry.getExampleProcessorFactory("spam");
+		ExampleProcessorFactory ranking = registry.getExampleProcessorFactory("ranking");
+
+		write("spam.daemons=localhost:" + spamDaemon.getPort(), "ranking.daemons=localhost:" + rankingDaemon.getPort(), "ranking.numWriters=2");
+
+		Assert.assertTrue(registry.reload());
+
+		Assert.assertTrue(spam == registry.getExampleProcessorFactory("spam"));
+		Assert.assertFalse(ranking == registry.getExampleProcessorFactory("ranking"));
+		Assert.assertEquals(2, registry.getModelSettings("ranking").getNumWriters());
+
+		Assert.assertEquals(Arrays.asList(rankingDaemon.predictionFor("| a")), predict("ranking", "| a"));
+
+		Assert.assertFalse(registry.reload());
+
+		write("spam.daemons=localhost:" + spamDaemon.getPort());
+
+		Assert.assertTrue(registry.reload());
+
+		Assert.assertEquals(Arrays.asList("spam"), registry.getModelNames());
+		Assert.assertNull(registry.getExampleProcessorFactory("ranking"));
+	}
+
+	@Test
+	public void badFileLeavesTheModelsAloneTest() throws Exception {
+
+		write("spam.daemons=localhost:" + spamDaemon.getPort(), "spam.maxExamplesPerFlsh=1");
+
+		try {
+			registry.reload();
+			Assert.fail("A misspelt setting should be rejected!");
+		}
+		catch (IllegalArgumentException e) {
+			//expected
+		}
+
+		Assert.assertEquals(Arrays.asList("ranking", "spam"), registry.getModelNames());
+	}
+
+	private void write(String... lines) throws Exception {
+
+		StringBuilder builder = new StringBuilder();
+
+		for (String line : lines)
+			builder.append(line).append('\n');
+
+		try (OutputStream out = new FileOutputStream(configFile)) {
+			out.write(builder.toString().getBytes(Charsets.UTF_8));
+		}
+	}
+
+	private List<String> predict(String model, String... lines) throws Exception {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (String line : lines)
+			examples.add(new StringExample(line));
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : registry.getExampleProcessorFactory(model).getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples.iterator())).submitExamples(null).getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		return predictions;
+	}
+}
@@ -3,6 +3,7 @@
  */
 package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
 
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -403,10 +404,24 @@ public class AsyncFailFastTCPIPExampleProcessorTest implements ExampleProcessing
 		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 		when(socket.getOutputStream()).thenReturn(outputStream);
 
+		//the fetch fault mustn't stop the submitter before it's sent everything, or the example submission state would be 'Stopped'
+		final CountDownLatch outputShutDown = new CountDownLatch(1);
+
+		doAnswer(new Answer<Object>() {
+
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				outputShutDown.countDown();
+				return null;
+			}
+
+		}).when(socket).shutdownOutput();
+
 		InputStream inputStream = mock(InputStream.class, new Answer<Object>() {
 
 			@Override
 			public Object answer(InvocationOnMock invocation) throws Throwable {
+				outputShutDown.await();
 				throw new IOException();
 			}
 
@@ -479,6 +494,110 @@ public class AsyncFailFastTCPIPExampleProcessorTest implements ExampleProcessing
 
 	}
 
+	/*
+	 * Tests that a prediction fetch exception that happens before all the
+	 * examples have been submitted stops the example submission.
+	 */
+	@Test(timeout = 5000)
+	public void handlePredictionFetchExceptionBeforeSubmissionCompletes() throws IOException, ExampleSubmissionException, InterruptedException {
+
+		final Iterable<Example> examples = getExamples("One", "Two");
+
+		//holds back the first example till the prediction fetcher has faulted, and stopped the submitter
+		Iterable<Example> heldBackExamples = new Iterable<Example>() {
+
+			@Override
+			public Iterator<Example> iterator() {
+
+				final Iterator<Example> iterator = examples.iterator();
+
+				return new Iterator<Example>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Example next() {
+
+						while (predictionFetchCompleteCalled == false) {
+							try {
+								Thread.sleep(5);
+							}
+							catch (InterruptedException e) {
+								throw new IllegalStateException(e);
+							}
+						}
+
+						return iterator.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+
+		Socket socket = mock(Socket.class);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		when(socket.getOutputStream()).thenReturn(outputStream);
+
+		InputStream inputStream = mock(InputStream.class, new Answer<Object>() {
+
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				throw new IOException();
+			}
+
+		});
+
+		when(socket.getInputStream()).thenReturn(inputStream);
+
+		TCPIPSocketFactory socketFactory = mock(TCPIPSocketFactory.class);
+		when(socketFactory.getSocket()).thenReturn(socket);
+
+		AsyncFailFastTCPIPExampleProcessor toTest = new AsyncFailFastTCPIPExampleProcessor(socketFactory, Executors.newCachedThreadPool(), heldBackExamples);
+
+		//the example that was held back is still sent, but none after it
+		expectedNumberOfSkippedExamples = 0;
+		expectedNumberOfSubmittedExamples = 1;
+		expectedStateOnExampleSubmissionComplete = ExampleSubmissionState.Stopped;
+		expectedStateOnPredictionFetchComplete = PredictionFetchState.PredictionFetchFault;
+
+		Iterable<Prediction> predictions = toTest.submitExamples(this).getPredictionsIterable();
+
+		int x = 0;
+
+		for (Prediction p : predictions) {
+
+			x++;
+		}
+
+		Assert.assertEquals(0, x);
+
+		countDownLatch.await(); //wait till example submission and prediction fetch are both done.
+
+		BufferedReader bReader = new BufferedReader(new StringReader(new String(outputStream.toByteArray())));
+
+		Assert.assertEquals("One", bReader.readLine());
+		Assert.assertNull(bReader.readLine());
+
+		verify(socket, times(1)).close();
+
+		Assert.assertFalse(exampleReadExceptionThrown);
+		Assert.assertFalse(exampleFormatExceptionThrown);
+		Assert.assertFalse(exampleSubmissionExceptionThrown);
+		Assert.assertTrue(predictionFetchExceptionThrown);
+
+		//the completion call backs should have been fired
+		Assert.assertTrue(exampleSubmissionCompleteCalled);
+		Assert.assertTrue(predictionFetchCompleteCalled);
+
+	}
+
 	private Iterable<Example> getExamples(String... examples) {
 
 		List<Example> toReturn = new ArrayList<Example>();
@@ -537,13 +656,17 @@ public class AsyncFailFastTCPIPExampleProcessorTest implements ExampleProcessing
 
 		LOGGER.info("Example submission complete called!");
 
-		Assert.assertTrue(exampleProcessingManager.getExampleSubmissionState() == expectedStateOnExampleSubmissionComplete);
-		Assert.assertEquals(exampleProcessingManager.getTotalNumberOfExamplesSkipped(), expectedNumberOfSkippedExamples);
-		Assert.assertEquals(exampleProcessingManager.getTotalNumberOfExamplesSubmitted(), expectedNumberOfSubmittedExamples);
-
-		exampleSubmissionCompleteCalled = true;
+		//a failed assert mustn't leave the test waiting on the latch
+		try {
+			Assert.assertTrue(exampleProcessingManager.getExampleSubmissionState() == expectedStateOnExampleSubmissionComplete);
+			Assert.assertEquals(exampleProcessingManager.getTotalNumberOfExamplesSkipped(), expectedNumberOfSkippedExamples);
+			Assert.assertEquals(exampleProcessingManager.getTotalNumberOfExamplesSubmitted(), expectedNumberOfSubmittedExamples);
 
-		countDownLatch.countDown();
+			exampleSubmissionCompleteCalled = true;
+		}
+		finally {
+			countDownLatch.countDown();
+		}
 
 	}
 
@@ -560,11 +683,14 @@ public class AsyncFailFastTCPIPExampleProcessorTest implements ExampleProcessing
 
 		LOGGER.info("Prediction fetch complete called!");
 
-		Assert.assertTrue(exampleProcessingManager.getPredictionFetchState() == expectedStateOnPredictionFetchComplete);
-
-		predictionFetchCompleteCalled = true;
+		try {
+			Assert.assertTrue(exampleProcessingManager.getPredictionFetchState() == expectedStateOnPredictionFetchComplete);
 
-		countDownLatch.countDown();
+			predictionFetchCompleteCalled = true;
+		}
+		finally {
+			countDownLatch.countDown();
+		}
 
 	}
 
@@ -0,0 +1,225 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the circuit breaker, failover and health checks in front of
+ *         the VW daemons.
+ */
+public class CircuitBreakingTCPIPSocketFactoryTest {
+
+	private FakeVWDaemon daemon, otherDaemon;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = new FakeVWDaemon("daemon");
+		otherDaemon = new FakeVWDaemon("other");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		otherDaemon.close();
+	}
+
+	@Test(timeout = 10000)
+	public void opensAfterConnectFailuresTest() throws Exception {
+
+		CircuitBreakingTCPIPSocketFactory circuitBreaker = new CircuitBreakingTCPIPSocketFactory("daemon", daemon, 2, 60000, 0);
+
+		daemon.close();
+
+		for (int x = 0; x < 2; x++) {
+
+			Assert.assertEquals(CircuitBreakerState.Closed, circuitBreaker.getState());
+
+			try {
+				circuitBreaker.getSocket();
+				Assert.fail("Expected the connect to fail!");
+			}
+			catch (IOException e) {
+				Assert.assertFalse(e instanceof CircuitOpenException);
+			}
+		}
+
+		Assert.assertEquals(CircuitBreakerState.Open, circuitBreaker.getState());
+
+		try {
+			circuitBreaker.getSocket();
+			Assert.fail("Expected the circuit to be open!");
+		}
+		catch (CircuitOpenException e) {
+			//expected
+		}
+
+		Assert.assertEquals(1, circuitBreaker.getNumberOfRejectedRequests());
+	}
+
+	@Test(timeout = 10000)
+	public void slowResponseTripsBreakerTest() throws Exception {
+
+		daemon.setResponseDelayMillis(300);
+
+		CircuitBreakingTCPIPSocketFactory circuitBreaker = new CircuitBreakingTCPIPSocketFactory("daemon", daemon, 1, 60000, 100);
+
+		try (Socket socket = circuitBreaker.getSocket()) {
+			Assert.assertEquals(daemon.predictionFor("example"), roundTrip(socket, "example"));
+		}
+
+		Assert.assertEquals(CircuitBreakerState.Open, circuitBreaker.getState());
+		Assert.assertTrue(circuitBreaker.getLastFailure().startsWith("Slow response"));
+	}
+
+	@Test(timeout = 10000)
+	public void readTimeoutTripsBreakerTest() throws Exception {
+
+		daemon.setResponseDelayMillis(5000);
+
+		CircuitBreakingTCPIPSocketFactory circuitBreaker = new CircuitBreakingTCPIPSocketFactory("daemon", daemon, 1, 60000, 0);
+
+		try (Socket socket = circuitBreaker.getSocket()) {
+
+			socket.setSoTimeout(100);
+
+			roundTrip(socket, "example");
+
+			Assert.fail("Expected the read to time out!");
+		}
+		catch (SocketTimeoutException e) {
+			//expected
+		}
+
+		Assert.assertEquals(CircuitBreakerState.Open, circuitBreaker.getState());
+	}
+
+	@Test(timeout = 10000)
+	public void idleTimeoutIsNotAFailureTest() throws Exception {
+
+		CircuitBreakingTCPIPSocketFactory circuitBreaker = new CircuitBreakingTCPIPSocketFactory("daemon", daemon, 1, 60000, 0);
+
+		try (Socket socket = circuitBreaker.getSocket()) {
+
+			socket.setSoTimeout(100);
+
+			try {
+				socket.getInputStream().read();
+				Assert.fail("Expected the read to time out!");
+			}
+			catch (SocketTimeoutException e) {
+				//expected, nothing was asked of the daemon
+			}
+
+			Assert.assertEquals(daemon.predictionFor("example"), roundTrip(socket, "example"));
+		}
+
+		Assert.assertEquals(CircuitBreakerState.Closed, circuitBreaker.getState());
+		Assert.assertEquals(0, circuitBreaker.getNumberOfConsecutiveFailures());
+	}
+
+	@Test(timeout = 10000)
+	public void halfOpenTrialClosesBreakerTest() throws Exception {
+
+		daemon.setResponseDelayMillis(300);
+
+		CircuitBreakingTCPIPSocketFactory circuitBreaker = new CircuitBreakingTCPIPSocketFactory("daemon", daemon, 1, 100, 100);
+
+		try (Socket socket = circuitBreaker.getSocket()) {
+			roundTrip(socket, "example");
+		}
+
+		Assert.assertEquals(CircuitBreakerState.Open, circuitBreaker.getState());
+
+		daemon.setResponseDelayMillis(0);
+
+		Thread.sleep(150);
+
+		try (Socket trial = circuitBreaker.getSocket()) {
+
+			Assert.assertEquals(CircuitBreakerState.HalfOpen, circuitBreaker.getState());
+
+			try {
+				circuitBreaker.getSocket();
+				Assert.fail("Only a single trial should be let through!");
+			}
+			catch (CircuitOpenException e) {
+				//expected
+			}
+
+			roundTrip(trial, "example");
+		}
+
+		Assert.assertEquals(CircuitBreakerState.Closed, circuitBreaker.getState());
+	}
+
+	@Test(timeout = 10000)
+	public void failoverSkipsOpenBreakerTest() throws Exception {
+
+		CircuitBreakingTCPIPSocketFactory circuitBreaker = new CircuitBreakingTCPIPSocketFactory("daemon", daemon, 1, 60000, 0);
+		CircuitBreakingTCPIPSocketFactory otherCircuitBreaker = new CircuitBreakingTCPIPSocketFactory("other", otherDaemon, 1, 60000, 0);
+
+		FailoverTCPIPSocketFactory failover = new FailoverTCPIPSocketFactory(Arrays.<TCPIPSocketFactory> asList(circuitBreaker, otherCircuitBreaker));
+
+		try (Socket socket = failover.getSocket()) {
+			Assert.assertEquals(daemon.predictionFor("example"), roundTrip(socket, "example"));
+		}
+
+		circuitBreaker.onFailure("Test failure.");
+
+		int numConnections = daemon.getNumberOfConnections();
+
+		try (Socket socket = failover.getSocket()) {
+			Assert.assertEquals(otherDaemon.predictionFor("example"), roundTrip(socket, "example"));
+		}
+
+		Assert.assertEquals(numConnections, daemon.getNumberOfConnections());
+	}
+
+	@Test(timeout = 10000)
+	public void healthCheckTest() throws Exception {
+
+		CircuitBreakingTCPIPSocketFactory circuitBreaker = new CircuitBreakingTCPIPSocketFactory("daemon", daemon, 1, 60000, 0);
+
+		DaemonHealthChecker healthChecker = new DaemonHealthChecker(Arrays.asList(circuitBreaker), "'canary |", 0, 1000);
+
+		circuitBreaker.onFailure("Test failure.");
+
+		Assert.assertEquals(CircuitBreakerState.Open, circuitBreaker.getState());
+
+		Assert.assertTrue(healthChecker.check(circuitBreaker));
+
+		Assert.assertEquals(CircuitBreakerState.Closed, circuitBreaker.getState());
+
+		daemon.close();
+
+		Assert.assertFalse(healthChecker.check(circuitBreaker));
+
+		Assert.assertEquals(CircuitBreakerState.Open, circuitBreaker.getState());
+	}
+
+	private static String roundTrip(Socket socket, String line) throws IOException {
+
+		OutputStream outputStream = socket.getOutputStream();
+		outputStream.write((line + "\n").getBytes(Charsets.UTF_8));
+		outputStream.flush();
+
+		return new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8)).readLine();
+	}
+}
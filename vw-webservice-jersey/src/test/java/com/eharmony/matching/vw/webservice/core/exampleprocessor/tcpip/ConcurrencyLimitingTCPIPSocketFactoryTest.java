@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that the number of sockets open to a daemon is limited, that
+ *         requests beyond the limit wait or fail over, and that the limit
+ *         follows the daemon's response times.
+ */
+public class ConcurrencyLimitingTCPIPSocketFactoryTest {
+
+	private ExecutorService executorService;
+	private FakeVWDaemon daemon, otherDaemon;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		daemon = new FakeVWDaemon("daemon");
+		otherDaemon = new FakeVWDaemon("other");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		otherDaemon.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void requestsBeyondTheLimitAreRejectedTest() throws Exception {
+
+		ConcurrencyLimitingTCPIPSocketFactory limiter = new ConcurrencyLimitingTCPIPSocketFactory("daemon", daemon, 2, 1, 10, 50);
+
+		Socket first = limiter.getSocket(), second = limiter.getSocket();
+
+		Assert.assertEquals(2, limiter.getNumberInFlight());
+
+		try {
+			limiter.getSocket();
+			Assert.fail("Expected the limit to be hit!");
+		}
+		catch (ConcurrencyLimitExceededException e) {
+			//expected
+		}
+
+		Assert.assertEquals(1, limiter.getNumberOfRejectedRequests());
+
+		first.close();
+		first.close(); //only releases once
+
+		Assert.assertEquals(1, limiter.getNumberInFlight());
+
+		limiter.getSocket().close();
+		second.close();
+
+		Assert.assertEquals(0, limiter.getNumberInFlight());
+	}
+
+	@Test(timeout = 10000)
+	public void queuedRequestGetsTheNextSocketTest() throws Exception {
+
+		final ConcurrencyLimitingTCPIPSocketFactory limiter = new ConcurrencyLimitingTCPIPSocketFactory("daemon", daemon, 1, 1, 10, 5000);
+
+		Socket first = limiter.getSocket();
+
+		Future<Socket> queued = executorService.submit(new Callable<Socket>() {
+
+			@Override
+			public Socket call() throws Exception {
+				return limiter.getSocket();
+			}
+		});
+
+		while (limiter.getNumberQueued() == 0)
+			Thread.sleep(10);
+
+		first.close();
+
+		queued.get().close();
+
+		Assert.assertEquals(0, limiter.getNumberInFlight());
+		Assert.assertEquals(0, limiter.getNumberOfRejectedRequests());
+	}
+
+	@Test(timeout = 10000)
+	public void doesNotFailOverAtTheLimitTest() throws Exception {
+
+		ConcurrencyLimitingTCPIPSocketFactory limiter = new ConcurrencyLimitingTCPIPSocketFactory("daemon", daemon, 1, 1, 10, 0);
+
+		FailoverTCPIPSocketFactory failover = new FailoverTCPIPSocketFactory(Arrays.<TCPIPSocketFactory> asList(limiter, otherDaemon));
+
+		Socket first = failover.getSocket();
+
+		Assert.assertEquals(daemon.getPort(), first.getPort());
+
+		//the daemon is busy, not down, so the overflow isn't sent to the other daemon
+		try {
+			failover.getSocket().close();
+			Assert.fail("Expected the limit to be enforced!");
+		}
+		catch (ConcurrencyLimitExceededException e) {
+		}
+
+		Assert.assertEquals(0, otherDaemon.getNumberOfConnections());
+
+		first.close();
+	}
+
+	@Test
+	public void failsOverWhenTheDaemonIsDownTest() throws Exception {
+
+		daemon.close();
+
+		ConcurrencyLimitingTCPIPSocketFactory limiter = new ConcurrencyLimitingTCPIPSocketFactory("daemon", daemon, 1, 1, 10, 0);
+
+		FailoverTCPIPSocketFactory failover = new FailoverTCPIPSocketFactory(Arrays.<TCPIPSocketFactory> asList(limiter, otherDaemon));
+
+		Socket socket = failover.getSocket();
+
+		Assert.assertEquals(otherDaemon.getPort(), socket.getPort());
+
+		socket.close();
+	}
+
+	@Test
+	public void limitFollowsResponseTimesTest() throws Exception {
+
+		ConcurrencyLimitingTCPIPSocketFactory limiter = new ConcurrencyLimitingTCPIPSocketFactory("daemon", daemon, 4, 2, 8, 0);
+
+		List<Socket> sockets = new ArrayList<Socket>();
+
+		for (int x = 0; x < 4; x++)
+			sockets.add(limiter.getSocket());
+
+		//as fast as ever, and busy, so the limit goes up, but no higher than the max
+		for (int x = 0; x < 10; x++)
+			limiter.onResponse(10);
+
+		Assert.assertEquals(8, limiter.getLimit());
+		Assert.assertEquals(10, limiter.getMinRttMillis());
+
+		//ten times slower, so requests are queueing inside the daemon
+		limiter.onResponse(100);
+
+		Assert.assertEquals(7, limiter.getLimit());
+
+		for (int x = 0; x < 10; x++)
+			limiter.onResponse(100);
+
+		Assert.assertEquals(6, limiter.getLimit());
+
+		limiter.onFailure("Timed out");
+
+		Assert.assertEquals(5, limiter.getLimit());
+
+		for (Socket socket : sockets)
+			socket.close();
+
+		//idle, so fast responses don't raise the limit
+		limiter.onResponse(10);
+
+		Assert.assertEquals(5, limiter.getLimit());
+	}
+}
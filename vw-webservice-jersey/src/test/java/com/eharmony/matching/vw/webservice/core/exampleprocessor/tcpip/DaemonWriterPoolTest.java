@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that requests sent through shared daemon writers each get
+ *         back their own predictions, in order.
+ */
+public class DaemonWriterPoolTest {
+
+	private ExecutorService executorService;
+	private FakeVWDaemon daemon;
+	private DaemonWriterPool daemonWriterPool;
+	private TCPIPExampleProcessorFactory factory;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		daemon = new FakeVWDaemon("daemon");
+		daemonWriterPool = new DaemonWriterPool(daemon, TransportProfile.DEFAULT, 2, 7, 2);
+		daemonWriterPool.start();
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setTransportProfiles(Arrays.asList(TransportProfile.DEFAULT));
+		settings.setDefaultTransportProfileName("default");
+		settings.setDaemonWriterPool(daemonWriterPool);
+
+		factory = new TCPIPExampleProcessorFactory(daemon, executorService, settings);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemonWriterPool.shutdown();
+		daemon.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void requestsShareConnectionsTest() throws Exception {
+
+		List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+
+		for (int x = 0; x < 20; x++) {
+
+			final List<Example> examples = examples("request" + x, 100);
+
+			results.add(executorService.submit(new Callable<List<String>>() {
+
+				@Override
+				public List<String> call() throws Exception {
+					return predictions(factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples.iterator())).submitExamples(null));
+				}
+			}));
+		}
+
+		for (int x = 0; x < 20; x++)
+			Assert.assertEquals(expectedPredictions("request" + x, 100), results.get(x).get(5, TimeUnit.SECONDS));
+
+		Assert.assertEquals(2, daemon.getNumberOfConnections());
+
+		long numExamplesWritten = 0;
+
+		for (DaemonWriter writer : daemonWriterPool.getWriters()) {
+			Assert.assertEquals(0, writer.getQueueDepth());
+			numExamplesWritten += writer.getNumberOfExamplesWritten();
+		}
+
+		Assert.assertEquals(2000, numExamplesWritten);
+	}
+
+	@Test(timeout = 10000)
+	public void examplesThatArentASingleLineAreSkippedTest() throws Exception {
+
+		List<Example> examples = Arrays.<Example> asList(new StringExample("one"), new StringExample("two\nthree"), new StringExample(""), new StringExample("four"));
+
+		ExampleProcessor processor = factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples.iterator()));
+
+		Assert.assertTrue(processor.getExampleProcessorFeatures().isAsync());
+
+		ExampleProcessingManager manager = processor.submitExamples(null);
+
+		Assert.assertEquals(Arrays.asList(daemon.predictionFor("one"), daemon.predictionFor("four")), predictions(manager));
+		Assert.assertEquals(2, manager.getTotalNumberOfExamplesSubmitted());
+		Assert.assertEquals(2, manager.getTotalNumberOfExamplesSkipped());
+		Assert.assertEquals(ExampleSubmissionState.Complete, manager.getExampleSubmissionState());
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+	}
+
+	@Test(timeout = 10000)
+	public void lostConnectionFailsTheRequestTest() throws Exception {
+
+		daemon.setDropConnections(true);
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples("request", 10).iterator())).submitExamples(null);
+
+		Assert.assertEquals(Collections.emptyList(), predictions(manager));
+		Assert.assertEquals(PredictionFetchState.PredictionFetchFault, manager.getPredictionFetchState());
+
+		//the next request gets a new connection
+		daemon.setDropConnections(false);
+
+		manager = factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples("request", 10).iterator())).submitExamples(null);
+
+		Assert.assertEquals(expectedPredictions("request", 10), predictions(manager));
+	}
+
+	@Test(timeout = 10000)
+	public void cancelStopsWaitingOnPredictionsTest() throws Exception {
+
+		daemon.setResponseDelayMillis(60000);
+
+		final ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples("request", 10).iterator())).submitExamples(null);
+
+		Future<List<String>> predictions = executorService.submit(new Callable<List<String>>() {
+
+			@Override
+			public List<String> call() throws Exception {
+				return predictions(manager);
+			}
+		});
+
+		Thread.sleep(100);
+
+		Assert.assertTrue(manager.cancel());
+
+		Assert.assertEquals(Collections.emptyList(), predictions.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(PredictionFetchState.Cancelled, manager.getPredictionFetchState());
+	}
+
+	private static List<String> predictions(ExampleProcessingManager manager) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		return predictions;
+	}
+
+	private List<String> expectedPredictions(String prefix, int numExamples) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (int x = 0; x < numExamples; x++)
+			predictions.add(daemon.predictionFor(prefix + "-example" + x));
+
+		return predictions;
+	}
+
+	private static List<Example> examples(String prefix, int numExamples) {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (int x = 0; x < numExamples; x++)
+			examples.add(new StringExample(prefix + "-example" + x));
+
+		return examples;
+	}
+}
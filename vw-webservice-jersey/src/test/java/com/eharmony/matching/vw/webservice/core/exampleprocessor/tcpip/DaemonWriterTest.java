@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the DaemonWriter.
+ */
+public class DaemonWriterTest {
+
+	private FakeVWDaemon daemon;
+	private DaemonWriter daemonWriter;
+
+	//lets the batches that wait on them be written
+	private CountDownLatch gateOpen, batchTrafficOpen;
+
+	@Before
+	public void setUp() throws Exception {
+		daemon = new FakeVWDaemon("daemon");
+		daemonWriter = new DaemonWriter("writer", daemon, TransportProfile.DEFAULT);
+		daemonWriter.start();
+		gateOpen = new CountDownLatch(1);
+		batchTrafficOpen = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		gateOpen.countDown();
+		batchTrafficOpen.countDown();
+		daemonWriter.shutdown();
+		daemon.close();
+	}
+
+	/*
+	 * Tests that an interactive batch gets it's prediction while batch
+	 * traffic is still queued behind it, rather than once the queue runs dry.
+	 */
+	@Test(timeout = 10000)
+	public void interactiveBatchIsFlushedWhileBatchTrafficIsQueuedTest() throws Exception {
+
+		RequestClassStats interactive = new RequestClassStats(RequestClass.Interactive, 0);
+		RequestClassStats batch = new RequestClassStats(RequestClass.Batch, 0);
+
+		//holds the writer up till the other two batches have been queued
+		daemonWriter.submit(new ExampleBatch(new GatedExamples("gate", gateOpen), null, batch, Long.MAX_VALUE));
+
+		while (daemonWriter.getQueueDepth() > 0)
+			Thread.sleep(5);
+
+		//the batch traffic that the writer is busy with after the interactive batch, keeping the queue from running dry
+		daemonWriter.submit(new ExampleBatch(new GatedExamples("batch", batchTrafficOpen), null, batch, Long.MAX_VALUE));
+
+		ExampleBatch interactiveBatch = new ExampleBatch(Collections.singletonList("interactive"), null, interactive, Long.MAX_VALUE);
+
+		daemonWriter.submit(interactiveBatch);
+
+		gateOpen.countDown();
+
+		Assert.assertEquals(daemon.predictionFor("interactive"), interactiveBatch.awaitPrediction(0, 5000));
+	}
+
+	/*
+	 * A single example that can't be had till the latch is counted down.
+	 */
+	private static class GatedExamples extends AbstractList<String> {
+
+		private final String example;
+		private final CountDownLatch latch;
+
+		GatedExamples(String example, CountDownLatch latch) {
+			this.example = example;
+			this.latch = latch;
+		}
+
+		@Override
+		public String get(int index) {
+
+			try {
+				latch.await();
+			}
+			catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+
+			return example;
+		}
+
+		@Override
+		public int size() {
+			return 1;
+		}
+	}
+}
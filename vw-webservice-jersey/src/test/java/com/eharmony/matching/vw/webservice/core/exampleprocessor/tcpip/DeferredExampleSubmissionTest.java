@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that examples aren't sent to VW until someone asks for the
+ *         predictions, and that requests nobody reads are abandoned.
+ */
+public class DeferredExampleSubmissionTest {
+
+	private ExecutorService executorService;
+	private ScheduledExecutorService scheduler;
+	private FakeVWDaemon daemon;
+
+	private final AtomicInteger numExamplesRead = new AtomicInteger(0);
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		scheduler = Executors.newScheduledThreadPool(1);
+		daemon = new FakeVWDaemon("daemon");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		scheduler.shutdownNow();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void submissionStartsWhenPredictionsAreAskedForTest() throws Exception {
+
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setScheduler(scheduler);
+		settings.setAbandonmentTimeoutMillis(5000);
+
+		TCPIPExampleProcessorFactory factory = new TCPIPExampleProcessorFactory(daemon, executorService, settings);
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(3, null, examples(3))).submitExamples(null);
+
+		Thread.sleep(200);
+
+		Assert.assertEquals(0, numExamplesRead.get());
+		Assert.assertEquals(0, manager.getTotalNumberOfExamplesSubmitted());
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		Assert.assertEquals(3, predictions.size());
+		Assert.assertEquals(daemon.predictionFor("example0"), predictions.get(0));
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+	}
+
+	@Test(timeout = 10000)
+	public void unreadRequestIsAbandonedTest() throws Exception {
+
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setScheduler(scheduler);
+		settings.setAbandonmentTimeoutMillis(100);
+
+		TCPIPExampleProcessorFactory factory = new TCPIPExampleProcessorFactory(daemon, executorService, settings);
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(3, null, examples(3))).submitExamples(null);
+
+		while (((TCPIPExampleProcessingManager) manager).isAbandoned() == false)
+			Thread.sleep(10);
+
+		Assert.assertEquals(ExampleSubmissionState.Stopped, manager.getExampleSubmissionState());
+		Assert.assertEquals(PredictionFetchState.PredictionFetchFault, manager.getPredictionFetchState());
+
+		Assert.assertFalse(manager.getPredictionsIterable().iterator().hasNext());
+
+		Assert.assertEquals(0, numExamplesRead.get());
+	}
+
+	private Iterator<Example> examples(int numExamples) {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (int x = 0; x < numExamples; x++)
+			examples.add(new StringExample("example" + x));
+
+		final Iterator<Example> iterator = examples.iterator();
+
+		return new Iterator<Example>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Example next() {
+				numExamplesRead.incrementAndGet();
+				return iterator.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
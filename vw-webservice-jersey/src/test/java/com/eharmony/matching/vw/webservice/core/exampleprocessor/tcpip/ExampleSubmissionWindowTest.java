@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that the example submission window keeps examples from getting
+ *         too far ahead of the predictions read back for them.
+ */
+public class ExampleSubmissionWindowTest {
+
+	private ExecutorService executorService;
+	private FakeVWDaemon daemon;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		daemon = new FakeVWDaemon("daemon");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void outstandingExamplesAreBoundedTest() throws Exception {
+
+		TransportProfile windowed = new TransportProfile("windowed", FlushPolicy.WHEN_DONE, 8192, false, 0, 0, new FlowControlPolicy(4, 2, 8, 5000));
+
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setTransportProfiles(Arrays.asList(windowed));
+		settings.setDefaultTransportProfileName("windowed");
+
+		TCPIPExampleProcessorFactory factory = new TCPIPExampleProcessorFactory(daemon, executorService, settings);
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (int x = 0; x < 200; x++)
+			examples.add(new StringExample("example" + x));
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(examples.size(), null, examples.iterator())).submitExamples(null);
+
+		int numPredictions = 0;
+
+		for (Prediction prediction : manager.getPredictionsIterable()) {
+
+			Assert.assertEquals(daemon.predictionFor("example" + numPredictions), prediction.getVWStringRepresentation());
+
+			if (++numPredictions % 20 == 0) Thread.sleep(5); //a slowish client
+		}
+
+		Assert.assertEquals(200, numPredictions);
+
+		while (manager.getExampleSubmissionState() == ExampleSubmissionState.OnGoing)
+			Thread.sleep(10);
+
+		Assert.assertEquals(ExampleSubmissionState.Complete, manager.getExampleSubmissionState());
+
+		ExampleSubmissionWindow window = ((FlowControlledExampleProcessingManager) manager).getExampleSubmissionWindow();
+
+		Assert.assertTrue(window.getMaxOutstandingExamples() <= 8);
+		Assert.assertTrue(window.getNumberOfStalls() > 0);
+		Assert.assertFalse(window.isDisabled());
+		Assert.assertEquals(0, window.getNumberOfOutstandingExamples());
+	}
+
+	@Test(timeout = 10000)
+	public void stalledWindowIsDisabledTest() throws Exception {
+
+		ExampleSubmissionWindow window = new FlowControlPolicy(2, 1, 2, 200).newWindow();
+
+		window.onSubmitted();
+		window.onSubmitted();
+
+		Assert.assertFalse(window.hasRoom());
+
+		long startTime = System.currentTimeMillis();
+
+		Assert.assertTrue(window.awaitRoom());
+
+		Assert.assertTrue(System.currentTimeMillis() - startTime >= 200);
+		Assert.assertTrue(window.isDisabled());
+		Assert.assertTrue(window.hasRoom());
+	}
+
+	@Test(timeout = 10000)
+	public void closingReleasesSubmitterTest() throws Exception {
+
+		final ExampleSubmissionWindow window = new FlowControlPolicy(1, 1, 1, 60000).newWindow();
+
+		window.onSubmitted();
+
+		Future<Boolean> awaited = executorService.submit(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() throws Exception {
+				return window.awaitRoom();
+			}
+		});
+
+		Thread.sleep(100);
+
+		Assert.assertFalse(awaited.isDone());
+
+		window.close();
+
+		Assert.assertFalse(awaited.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void unboundedPolicyHasNoWindowTest() {
+		Assert.assertNull(FlowControlPolicy.UNBOUNDED.newWindow());
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that the tenants sharing a daemon writer get turns in
+ *         proportion to their weights.
+ */
+public class FairBatchQueueTest {
+
+	@Test
+	public void weightedTurnsTest() {
+
+		TenantShares shares = new TenantShares("heavy:3,light:1", 1, 10, 10);
+
+		TenantStats heavy = new TenantStats("heavy", shares.getWeight("heavy"));
+		TenantStats light = new TenantStats("light", shares.getWeight("light"));
+
+		FairBatchQueue queue = new FairBatchQueue(shares.getQuantum());
+
+		//the heavy tenant gets all of it's batches in first
+		for (int x = 0; x < 6; x++)
+			queue.add(newBatch(heavy, 10));
+
+		for (int x = 0; x < 6; x++)
+			queue.add(newBatch(light, 10));
+
+		Assert.assertEquals(12, queue.size());
+
+		StringBuilder order = new StringBuilder();
+
+		ExampleBatch batch;
+
+		while ((batch = queue.poll()) != null)
+			order.append(batch.getTenant() == heavy ? 'H' : 'L');
+
+		Assert.assertEquals("HHHLHHHLLLLL", order.toString());
+		Assert.assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void largeBatchesStillGetATurnTest() {
+
+		TenantStats big = new TenantStats("big", 1);
+		TenantStats small = new TenantStats("small", 1);
+
+		FairBatchQueue queue = new FairBatchQueue(10);
+
+		queue.add(newBatch(big, 25));
+		queue.add(newBatch(small, 5));
+		queue.add(newBatch(small, 5));
+		queue.add(newBatch(small, 5));
+		queue.add(newBatch(small, 5));
+		queue.add(newBatch(small, 5));
+		queue.add(newBatch(small, 5));
+
+		List<String> order = new ArrayList<String>();
+
+		ExampleBatch batch;
+
+		while ((batch = queue.poll()) != null)
+			order.add(batch.getTenant().getName() + ":" + batch.size());
+
+		//the big batch waits until it's tenant has saved up enough credit
+		Assert.assertEquals("[small:5, small:5, small:5, small:5, big:25, small:5, small:5]", order.toString());
+	}
+
+	@Test
+	public void batchesOfATenantKeepTheirOrderTest() {
+
+		TenantStats tenant = new TenantStats("tenant", 1);
+
+		FairBatchQueue queue = new FairBatchQueue(1);
+
+		List<ExampleBatch> added = new ArrayList<ExampleBatch>();
+
+		for (int x = 0; x < 5; x++) {
+			ExampleBatch batch = newBatch(tenant, x + 1);
+			added.add(batch);
+			queue.add(batch);
+		}
+
+		//batches without a tenant belong to the default tenant
+		ExampleBatch untenanted = new ExampleBatch(Collections.singletonList("1 | a"));
+
+		queue.add(untenanted);
+
+		List<ExampleBatch> polled = new ArrayList<ExampleBatch>();
+
+		ExampleBatch batch;
+
+		while ((batch = queue.poll()) != null)
+			if (batch != untenanted) polled.add(batch);
+
+		Assert.assertEquals(added, polled);
+	}
+
+	@Test
+	public void earliestDeadlineFirstTest() {
+
+		TenantStats tenant = new TenantStats("tenant", 1);
+
+		FairBatchQueue queue = new FairBatchQueue(10);
+
+		ExampleBatch noDeadline = new ExampleBatch(Collections.singletonList("1 | a"), tenant, null, Long.MAX_VALUE);
+		ExampleBatch late = new ExampleBatch(Collections.singletonList("1 | a"), tenant, null, 2000);
+		ExampleBatch early = new ExampleBatch(Collections.singletonList("1 | a"), tenant, null, 1000);
+		ExampleBatch alsoEarly = new ExampleBatch(Collections.singletonList("1 | a"), tenant, null, 1000);
+
+		queue.add(noDeadline);
+		queue.add(late);
+		queue.add(early);
+		queue.add(alsoEarly);
+
+		Assert.assertSame(early, queue.poll());
+		Assert.assertSame(alsoEarly, queue.poll());
+		Assert.assertSame(late, queue.poll());
+		Assert.assertSame(noDeadline, queue.poll());
+		Assert.assertNull(queue.poll());
+	}
+
+	private static ExampleBatch newBatch(TenantStats tenant, int size) {
+
+		List<String> examples = new ArrayList<String>();
+
+		for (int x = 0; x < size; x++)
+			examples.add("1 | a");
+
+		return new ExampleBatch(examples, tenant);
+	}
+}
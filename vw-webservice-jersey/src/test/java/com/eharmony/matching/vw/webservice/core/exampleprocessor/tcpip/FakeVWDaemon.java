@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A fake VW daemon listening on the loopback interface, for tests. It
+ *         answers every example with a line made up of it's name and the
+ *         example, optionally after a delay. Also acts as a socket factory
+ *         that connects to itself.
+ */
+public class FakeVWDaemon implements TCPIPSocketFactory {
+
+	private final String name;
+
+	private final ServerSocket serverSocket;
+
+	private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+	private final AtomicInteger numConnections = new AtomicInteger(0);
+
+	private volatile long responseDelayMillis = 0;
+
+	private volatile boolean dropConnections = false;
+
+	private volatile int maxAnswersPerConnection = 0;
+
+	private final Future<?> acceptor;
+
+	public FakeVWDaemon(String name) throws IOException {
+
+		this.name = name;
+
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+		acceptor = executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				acceptConnections();
+			}
+		});
+	}
+
+	/*
+	 * Makes the daemon wait this long before answering each connection.
+	 */
+	public void setResponseDelayMillis(long responseDelayMillis) {
+		this.responseDelayMillis = responseDelayMillis;
+	}
+
+	/*
+	 * Makes the daemon close every connection right after accepting it.
+	 */
+	public void setDropConnections(boolean dropConnections) {
+		this.dropConnections = dropConnections;
+	}
+
+	/*
+	 * Makes the daemon close every connection after answering this many
+	 * examples on it, as if it had died. 0 means never.
+	 */
+	public void setMaxAnswersPerConnection(int maxAnswersPerConnection) {
+		this.maxAnswersPerConnection = maxAnswersPerConnection;
+	}
+
+	public int getNumberOfConnections() {
+		return numConnections.get();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/*
+	 * Returns the prediction this daemon gives for an example.
+	 */
+	public String predictionFor(String example) {
+		return name + " " + example;
+	}
+
+	@Override
+	public Socket getSocket() throws UnknownHostException, IOException {
+		return new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+	}
+
+	/*
+	 * Stops listening. Returns once connections are refused.
+	 */
+	public void close() throws IOException {
+
+		serverSocket.close();
+
+		try {
+			acceptor.get(1, TimeUnit.SECONDS); //the port is only released once the accepting thread wakes up
+		}
+		catch (TimeoutException | ExecutionException e) {
+			throw new IOException(e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		executorService.shutdownNow();
+	}
+
+	private void acceptConnections() {
+
+		while (serverSocket.isClosed() == false) {
+
+			try {
+				final Socket socket = serverSocket.accept();
+
+				numConnections.incrementAndGet();
+
+				executorService.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						answer(socket);
+					}
+				});
+			}
+			catch (IOException e) {
+				//closed
+			}
+		}
+	}
+
+	private void answer(Socket socket) {
+
+		try (Socket theSocket = socket) {
+
+			if (dropConnections) return;
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(theSocket.getInputStream(), Charsets.UTF_8));
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(theSocket.getOutputStream(), Charsets.UTF_8));
+
+			boolean delayed = false;
+
+			int numAnswers = 0;
+
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+
+				if (maxAnswersPerConnection > 0 && numAnswers++ == maxAnswersPerConnection) return;
+
+				if (delayed == false && responseDelayMillis > 0) {
+					Thread.sleep(responseDelayMillis);
+					delayed = true;
+				}
+
+				writer.write(predictionFor(line));
+				writer.newLine();
+				writer.flush();
+			}
+		}
+		catch (IOException e) {
+			//the other end went away
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
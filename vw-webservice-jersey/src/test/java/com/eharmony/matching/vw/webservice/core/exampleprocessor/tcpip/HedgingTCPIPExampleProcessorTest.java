@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the HedgingTCPIPExampleProcessor against two fake VW daemons.
+ */
+public class HedgingTCPIPExampleProcessorTest {
+
+	private ExecutorService executorService;
+
+	private FakeVWDaemon primary, secondary;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		primary = new FakeVWDaemon("primary");
+		secondary = new FakeVWDaemon("secondary");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		primary.close();
+		secondary.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void fastPrimaryIsNotHedgedTest() throws Exception {
+
+		HedgingTCPIPExampleProcessorFactory factory = new HedgingTCPIPExampleProcessorFactory(new TCPIPExampleProcessorFactory(primary, executorService), secondary, 10, 95, 1000, 1.0);
+
+		List<String> predictions = predict(factory, 3);
+
+		Assert.assertEquals(expectedPredictions(primary, 3), predictions);
+		Assert.assertEquals(1, factory.getNumberOfHedgeableRequests());
+		Assert.assertEquals(0, factory.getNumberOfHedgedRequests());
+		Assert.assertEquals(0, secondary.getNumberOfConnections());
+	}
+
+	@Test(timeout = 10000)
+	public void slowPrimaryIsHedgedTest() throws Exception {
+
+		primary.setResponseDelayMillis(5000);
+
+		HedgingTCPIPExampleProcessorFactory factory = new HedgingTCPIPExampleProcessorFactory(new TCPIPExampleProcessorFactory(primary, executorService), secondary, 10, 95, 50, 1.0);
+
+		List<String> predictions = predict(factory, 3);
+
+		Assert.assertEquals(expectedPredictions(secondary, 3), predictions);
+		Assert.assertEquals(1, factory.getNumberOfHedgedRequests());
+		Assert.assertEquals(1, factory.getNumberOfHedgeWins());
+	}
+
+	@Test(timeout = 10000)
+	public void failedPrimaryFailsOverTest() throws Exception {
+
+		primary.setDropConnections(true);
+
+		HedgingTCPIPExampleProcessorFactory factory = new HedgingTCPIPExampleProcessorFactory(new TCPIPExampleProcessorFactory(primary, executorService), secondary, 10, 95, 5000, 1.0);
+
+		List<String> predictions = predict(factory, 2);
+
+		Assert.assertEquals(expectedPredictions(secondary, 2), predictions);
+		Assert.assertEquals(1, factory.getNumberOfHedgeWins());
+	}
+
+	@Test(timeout = 10000)
+	public void hedgeRateIsCappedTest() throws Exception {
+
+		primary.setResponseDelayMillis(200);
+
+		HedgingTCPIPExampleProcessorFactory factory = new HedgingTCPIPExampleProcessorFactory(new TCPIPExampleProcessorFactory(primary, executorService), secondary, 10, 95, 10, 0.0);
+
+		List<String> predictions = predict(factory, 2);
+
+		Assert.assertEquals(expectedPredictions(primary, 2), predictions);
+		Assert.assertEquals(0, factory.getNumberOfHedgedRequests());
+		Assert.assertEquals(0, secondary.getNumberOfConnections());
+	}
+
+	@Test(timeout = 10000)
+	public void largeRequestIsNotHedgedTest() throws Exception {
+
+		primary.setResponseDelayMillis(200);
+
+		HedgingTCPIPExampleProcessorFactory factory = new HedgingTCPIPExampleProcessorFactory(new TCPIPExampleProcessorFactory(primary, executorService), secondary, 2, 95, 10, 1.0);
+
+		List<String> predictions = predict(factory, 5);
+
+		Assert.assertEquals(expectedPredictions(primary, 5), predictions);
+		Assert.assertEquals(0, factory.getNumberOfHedgeableRequests());
+		Assert.assertEquals(0, secondary.getNumberOfConnections());
+	}
+
+	@Test(timeout = 10000)
+	public void labeledRequestIsNotHedgedTest() throws Exception {
+
+		primary.setResponseDelayMillis(200);
+
+		HedgingTCPIPExampleProcessorFactory factory = new HedgingTCPIPExampleProcessorFactory(new TCPIPExampleProcessorFactory(primary, executorService), secondary, 10, 95, 0, 1.0);
+
+		List<String> predictions = predict(factory, "| example0", "1 | example1", "| example2");
+
+		List<String> expected = new ArrayList<String>();
+		expected.add(primary.predictionFor("| example0"));
+		expected.add(primary.predictionFor("1 | example1"));
+		expected.add(primary.predictionFor("| example2"));
+
+		Assert.assertEquals(expected, predictions);
+		Assert.assertEquals(0, factory.getNumberOfHedgeableRequests());
+		Assert.assertEquals(0, factory.getNumberOfHedgedRequests());
+		Assert.assertEquals(0, secondary.getNumberOfConnections());
+	}
+
+	private List<String> predict(HedgingTCPIPExampleProcessorFactory factory, int numExamples) throws Exception {
+
+		String[] lines = new String[numExamples];
+
+		for (int x = 0; x < numExamples; x++)
+			lines[x] = "| example" + x;
+
+		return predict(factory, lines);
+	}
+
+	private List<String> predict(HedgingTCPIPExampleProcessorFactory factory, String... lines) throws Exception {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (String line : lines)
+			examples.add(new StringExample(line));
+
+		ExampleProcessor processor = factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples.iterator()));
+
+		ExampleProcessingManager manager = processor.submitExamples(null);
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+
+		while (manager.getExampleSubmissionState() == ExampleSubmissionState.OnGoing)
+			Thread.sleep(10);
+
+		Assert.assertEquals(ExampleSubmissionState.Complete, manager.getExampleSubmissionState());
+
+		return predictions;
+	}
+
+	private static List<String> expectedPredictions(FakeVWDaemon daemon, int numExamples) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (int x = 0; x < numExamples; x++)
+			predictions.add(daemon.predictionFor("| example" + x));
+
+		return predictions;
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that tiny requests are handled inline, and that everything
+ *         else still gets streamed.
+ */
+public class InlineTCPIPExampleProcessorTest {
+
+	private ExecutorService executorService;
+	private FakeVWDaemon daemon;
+	private TCPIPExampleProcessorFactory factory;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		daemon = new FakeVWDaemon("daemon");
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setTransportProfiles(Arrays.asList(TransportProfile.DEFAULT));
+		settings.setDefaultTransportProfileName("default");
+		settings.setInlineSubmissionPolicy(new InlineSubmissionPolicy(2, 100));
+
+		factory = new TCPIPExampleProcessorFactory(daemon, executorService, settings);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void tinyRequestIsHandledInlineTest() throws Exception {
+
+		ExampleProcessor processor = factory.getExampleProcessor(new ExamplesIterableImpl(1, null, examples(1).iterator()));
+
+		Assert.assertFalse(processor.getExampleProcessorFeatures().isAsync());
+
+		ExampleProcessingManager manager = processor.submitExamples(null);
+
+		//all done by the time submitExamples returns
+		Assert.assertEquals(ExampleSubmissionState.Complete, manager.getExampleSubmissionState());
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+		Assert.assertEquals(1, manager.getTotalNumberOfExamplesSubmitted());
+
+		Assert.assertEquals(expectedPredictions(1), predictions(manager));
+	}
+
+	@Test(timeout = 10000)
+	public void smallContentLengthIsHandledInlineTest() throws Exception {
+
+		Assert.assertFalse(factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, contentLength(100), examples(2).iterator())).getExampleProcessorFeatures().isAsync());
+
+		Assert.assertTrue(factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, contentLength(101), examples(2).iterator())).getExampleProcessorFeatures().isAsync());
+
+		Assert.assertTrue(factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples(2).iterator())).getExampleProcessorFeatures().isAsync());
+
+		Assert.assertTrue(factory.getExampleProcessor(new ExamplesIterableImpl(3, null, examples(3).iterator())).getExampleProcessorFeatures().isAsync());
+	}
+
+	@Test(timeout = 10000)
+	public void moreExamplesThanExpectedAreStreamedTest() throws Exception {
+
+		//the request said it had 1 example, but has 5
+		ExampleProcessor processor = factory.getExampleProcessor(new ExamplesIterableImpl(1, null, examples(5).iterator()));
+
+		ExampleProcessingManager manager = processor.submitExamples(null);
+
+		Assert.assertEquals(expectedPredictions(5), predictions(manager));
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+	}
+
+	private static List<String> predictions(ExampleProcessingManager manager) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		return predictions;
+	}
+
+	private List<String> expectedPredictions(int numExamples) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (int x = 0; x < numExamples; x++)
+			predictions.add(daemon.predictionFor("example" + x));
+
+		return predictions;
+	}
+
+	private static List<Example> examples(int numExamples) {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (int x = 0; x < numExamples; x++)
+			examples.add(new StringExample("example" + x));
+
+		return examples;
+	}
+
+	private static Map<String, String> contentLength(long contentLength) {
+
+		Map<String, String> attributes = new HashMap<String, String>();
+
+		attributes.put(ExamplesIterable.CONTENT_LENGTH_ATTRIBUTE, Long.toString(contentLength));
+
+		return attributes;
+	}
+}
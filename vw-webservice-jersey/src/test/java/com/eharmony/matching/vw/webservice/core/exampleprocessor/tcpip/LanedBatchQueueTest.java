@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that the batches of more urgent classes of requests are
+ *         written first, and that writers reserved for a class are only used
+ *         by that class.
+ */
+public class LanedBatchQueueTest {
+
+	//the writers are never started, so they never connect
+	private static final TCPIPSocketFactory UNUSED_SOCKET_FACTORY = new TCPIPSocketFactory() {
+
+		@Override
+		public Socket getSocket() throws IOException {
+			throw new IOException("Not expected to connect!");
+		}
+	};
+
+	@Test
+	public void interactiveBatchesGoFirstTest() {
+
+		RequestClassStats interactive = new RequestClassStats(RequestClass.Interactive, 0);
+		RequestClassStats training = new RequestClassStats(RequestClass.Training, 0);
+
+		LanedBatchQueue queue = new LanedBatchQueue(10);
+
+		ExampleBatch first = newBatch(training);
+		ExampleBatch second = newBatch(training);
+		ExampleBatch untagged = newBatch(null);
+
+		queue.add(first);
+		queue.add(second);
+		queue.add(untagged);
+
+		Assert.assertSame(untagged, queue.poll());
+		Assert.assertSame(first, queue.poll());
+
+		//an interactive batch pre-empts the rest of the training request
+		ExampleBatch urgent = newBatch(interactive);
+
+		queue.add(urgent);
+
+		Assert.assertEquals(2, queue.size());
+
+		Assert.assertSame(urgent, queue.poll());
+		Assert.assertSame(second, queue.poll());
+		Assert.assertNull(queue.poll());
+	}
+
+	@Test
+	public void reservedWritersTest() {
+
+		DaemonWriterPool pool = new DaemonWriterPool(UNUSED_SOCKET_FACTORY, TransportProfile.DEFAULT, 3, 10, 2, TenantShares.DEFAULT, new RequestLanes("interactive:1", "batch"));
+
+		Assert.assertEquals(1, pool.getRequestClass(RequestClass.Interactive).getReservedWriters());
+
+		DaemonWriter reserved = pool.getWriters().get(0);
+
+		for (int x = 0; x < 10; x++) {
+			Assert.assertFalse(pool.getWriter(RequestClass.Batch) == reserved);
+			Assert.assertFalse(pool.getWriter(RequestClass.Training) == reserved);
+		}
+
+		boolean usedReserved = false;
+
+		for (int x = 0; x < 10; x++)
+			usedReserved |= pool.getWriter(RequestClass.Interactive) == reserved;
+
+		Assert.assertTrue(usedReserved);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void someWritersMustBeSharedTest() {
+		new DaemonWriterPool(UNUSED_SOCKET_FACTORY, TransportProfile.DEFAULT, 2, 10, 2, TenantShares.DEFAULT, new RequestLanes("interactive:1,batch:1", "batch"));
+	}
+
+	private static ExampleBatch newBatch(RequestClassStats requestClass) {
+		return new ExampleBatch(Collections.singletonList("1 | a"), null, requestClass, Long.MAX_VALUE);
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that the unanswered examples of a predict-only request are
+ *         sent again over a new connection when theirs fails, and that
+ *         requests with labeled examples, or that are out of retries, fail as
+ *         before.
+ */
+public class ReplayingSocketTest {
+
+	private static final List<String> EXAMPLES = Arrays.asList("| a", "| b", "| c", "| d", "| e", "| f", "| g", "| h", "| i", "| j");
+
+	private ExecutorService executorService;
+	private FakeVWDaemon daemon, otherDaemon;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		daemon = new FakeVWDaemon("daemon");
+		otherDaemon = new FakeVWDaemon("other");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		otherDaemon.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void droppedConnectionsAreReplayedTest() throws Exception {
+
+		daemon.setMaxAnswersPerConnection(4);
+
+		ReplayPolicy replayPolicy = new ReplayPolicy(1024 * 1024, 10);
+
+		ExampleProcessingManager manager = submit(daemon, replayPolicy, EXAMPLES);
+
+		List<String> expected = new ArrayList<String>();
+
+		for (String example : EXAMPLES)
+			expected.add(daemon.predictionFor(example));
+
+		Assert.assertEquals(expected, readPredictions(manager));
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+
+		//at most 4 answers per connection, so at least 3 connections
+		Assert.assertTrue(replayPolicy.getNumberOfReplays() >= 2);
+		Assert.assertTrue(replayPolicy.getNumberOfExamplesReplayed() > 0);
+		Assert.assertTrue(replayPolicy.getNumberOfBytesReplayed() > 0);
+		Assert.assertEquals(0, replayPolicy.getNumberOfFailedReplays());
+	}
+
+	@Test(timeout = 10000)
+	public void failsOverToAnotherDaemonTest() throws Exception {
+
+		daemon.setMaxAnswersPerConnection(3);
+
+		final AtomicBoolean connected = new AtomicBoolean(false);
+
+		//the daemon takes the first connection, and then goes down for good
+		TCPIPSocketFactory goesDown = new TCPIPSocketFactory() {
+
+			@Override
+			public Socket getSocket() throws UnknownHostException, IOException {
+
+				if (connected.getAndSet(true)) throw new IOException("Connection refused");
+
+				return daemon.getSocket();
+			}
+		};
+
+		ReplayPolicy replayPolicy = new ReplayPolicy(1024 * 1024, 2);
+
+		ExampleProcessingManager manager = submit(new FailoverTCPIPSocketFactory(Arrays.<TCPIPSocketFactory> asList(goesDown, otherDaemon)), replayPolicy, EXAMPLES);
+
+		List<String> predictions = readPredictions(manager);
+
+		Assert.assertEquals(EXAMPLES.size(), predictions.size());
+
+		for (int x = 0; x < EXAMPLES.size(); x++)
+			Assert.assertTrue(predictions.get(x).equals(daemon.predictionFor(EXAMPLES.get(x))) || predictions.get(x).equals(otherDaemon.predictionFor(EXAMPLES.get(x))));
+
+		Assert.assertEquals(otherDaemon.predictionFor(EXAMPLES.get(EXAMPLES.size() - 1)), predictions.get(EXAMPLES.size() - 1));
+		Assert.assertEquals(1, replayPolicy.getNumberOfReplays());
+	}
+
+	@Test(timeout = 10000)
+	public void labeledExamplesAreNotReplayedTest() throws Exception {
+
+		daemon.setMaxAnswersPerConnection(2);
+
+		ReplayPolicy replayPolicy = new ReplayPolicy(1024 * 1024, 5);
+
+		List<String> labeled = new ArrayList<String>();
+
+		for (String example : EXAMPLES)
+			labeled.add("1 " + example);
+
+		Assert.assertTrue(readPredictions(submit(daemon, replayPolicy, labeled)).size() < labeled.size());
+
+		Assert.assertEquals(0, replayPolicy.getNumberOfReplays());
+	}
+
+	@Test(timeout = 10000)
+	public void outOfRetriesTest() throws Exception {
+
+		daemon.setMaxAnswersPerConnection(2);
+
+		ReplayPolicy replayPolicy = new ReplayPolicy(1024 * 1024, 1);
+
+		List<String> predictions = readPredictions(submit(daemon, replayPolicy, EXAMPLES));
+
+		Assert.assertTrue(predictions.size() < EXAMPLES.size());
+
+		//whatever was read is still in order
+		for (int x = 0; x < predictions.size(); x++)
+			Assert.assertEquals(daemon.predictionFor(EXAMPLES.get(x)), predictions.get(x));
+
+		//the daemon can drop the new connection before the examples have all been replayed, which uses up the retry too
+		Assert.assertTrue(replayPolicy.getNumberOfReplays() <= 1);
+		Assert.assertEquals(1, replayPolicy.getNumberOfFailedReplays());
+	}
+
+	private ExampleProcessingManager submit(TCPIPSocketFactory socketFactory, ReplayPolicy replayPolicy, List<String> lines) throws Exception {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (String line : lines)
+			examples.add(new StringExample(line));
+
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setReplayPolicy(replayPolicy);
+
+		return new AsyncFailFastTCPIPExampleProcessor(socketFactory, executorService, examples, TransportProfile.DEFAULT, RequestDeadline.NONE, settings).submitExamples(null);
+	}
+
+	private static List<String> readPredictions(ExampleProcessingManager manager) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		return predictions;
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that cancelling a request stops both example submission and
+ *         prediction fetching right away.
+ */
+public class RequestCancellationTest {
+
+	private ExecutorService executorService;
+	private FakeVWDaemon daemon;
+	private TCPIPExampleProcessorFactory factory;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		daemon = new FakeVWDaemon("daemon");
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setTransportProfiles(Arrays.asList(new TransportProfile("interactive", FlushPolicy.PER_EXAMPLE, 8192, true, 0, 0)));
+		settings.setDefaultTransportProfileName("interactive");
+
+		factory = new TCPIPExampleProcessorFactory(daemon, executorService, settings);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void cancelMidStreamTest() throws Exception {
+
+		final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+		//a client that sends one example and then hangs
+		Iterator<Example> examples = new AbstractIterator<Example>() {
+
+			@Override
+			protected Example computeNext() {
+
+				try {
+					return new StringExample(lines.take());
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return endOfData();
+				}
+			}
+		};
+
+		final ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, null, examples)).submitExamples(null);
+
+		lines.add("example");
+
+		final LinkedBlockingQueue<String> predictions = new LinkedBlockingQueue<String>();
+
+		Future<Integer> reader = executorService.submit(new Callable<Integer>() {
+
+			@Override
+			public Integer call() throws Exception {
+
+				int numPredictions = 0;
+
+				for (Prediction prediction : manager.getPredictionsIterable()) {
+					predictions.add(prediction.getVWStringRepresentation());
+					numPredictions++;
+				}
+
+				return numPredictions;
+			}
+		});
+
+		Assert.assertEquals(daemon.predictionFor("example"), predictions.poll(5, TimeUnit.SECONDS));
+
+		Assert.assertTrue(manager.cancel());
+		Assert.assertFalse(manager.cancel());
+
+		//the reader was blocked on VW, and gets out right away
+		Assert.assertEquals(Integer.valueOf(1), reader.get(1, TimeUnit.SECONDS));
+
+		Assert.assertEquals(PredictionFetchState.Cancelled, manager.getPredictionFetchState());
+
+		//and so does the submitter, which was blocked on the client
+		long deadline = System.currentTimeMillis() + 1000;
+
+		while (manager.getExampleSubmissionState() == ExampleSubmissionState.OnGoing && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+
+		Assert.assertEquals(ExampleSubmissionState.Stopped, manager.getExampleSubmissionState());
+	}
+
+	@Test(timeout = 10000)
+	public void cancelBeforePredictionsAreAskedForTest() throws Exception {
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(1, null, examples("example"))).submitExamples(null);
+
+		Assert.assertTrue(manager.cancel());
+
+		Assert.assertFalse(manager.getPredictionsIterable().iterator().hasNext());
+
+		Assert.assertEquals(ExampleSubmissionState.Stopped, manager.getExampleSubmissionState());
+		Assert.assertEquals(PredictionFetchState.Cancelled, manager.getPredictionFetchState());
+		Assert.assertEquals(0, manager.getTotalNumberOfExamplesSubmitted());
+	}
+
+	@Test(timeout = 10000)
+	public void cancelAfterCompletionHasNoEffectTest() throws Exception {
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(2, null, examples("one", "two"))).submitExamples(null);
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		Assert.assertEquals(Arrays.asList(daemon.predictionFor("one"), daemon.predictionFor("two")), predictions);
+
+		while (manager.getExampleSubmissionState() == ExampleSubmissionState.OnGoing)
+			Thread.sleep(10);
+
+		Assert.assertFalse(manager.cancel());
+
+		Assert.assertEquals(ExampleSubmissionState.Complete, manager.getExampleSubmissionState());
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+	}
+
+	private static Iterator<Example> examples(String... lines) {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (String line : lines)
+			examples.add(new StringExample(line));
+
+		return examples.iterator();
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that a request's deadline stops VW from working on it once
+ *         it has passed.
+ */
+public class RequestDeadlineTest {
+
+	private ExecutorService executorService;
+	private ScheduledThreadPoolExecutor scheduler;
+	private FakeVWDaemon daemon;
+	private TCPIPExampleProcessorFactory factory;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		scheduler = new ScheduledThreadPoolExecutor(1);
+		scheduler.setRemoveOnCancelPolicy(true);
+		daemon = new FakeVWDaemon("daemon");
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setScheduler(scheduler);
+		settings.setTransportProfiles(Arrays.asList(new TransportProfile("interactive", FlushPolicy.PER_EXAMPLE, 8192, true, 0, 0)));
+		settings.setDefaultTransportProfileName("interactive");
+		settings.setAbandonmentTimeoutMillis(60000);
+
+		factory = new TCPIPExampleProcessorFactory(daemon, executorService, settings);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		scheduler.shutdownNow();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000, expected = RequestDeadlineExceededException.class)
+	public void deadlinePassedBeforeSubmissionTest() throws Exception {
+
+		factory.getExampleProcessor(new ExamplesIterableImpl(1, attributes(System.currentTimeMillis() - 1), examples(1))).submitExamples(null);
+	}
+
+	@Test(timeout = 10000)
+	public void slowDaemonMissesDeadlineTest() throws Exception {
+
+		daemon.setResponseDelayMillis(5000);
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(3, attributes(System.currentTimeMillis() + 200), examples(3))).submitExamples(null);
+
+		long startTime = System.currentTimeMillis();
+
+		List<String> predictions = predictions(manager);
+
+		Assert.assertTrue(System.currentTimeMillis() - startTime < 2000);
+		Assert.assertTrue(predictions.isEmpty());
+		Assert.assertEquals(PredictionFetchState.DeadlineExceeded, manager.getPredictionFetchState());
+	}
+
+	@Test(timeout = 10000)
+	public void deadlineMetTest() throws Exception {
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(3, attributes(System.currentTimeMillis() + 5000), examples(3))).submitExamples(null);
+
+		Assert.assertEquals(Arrays.asList(daemon.predictionFor("example0"), daemon.predictionFor("example1"), daemon.predictionFor("example2")), predictions(manager));
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+	}
+
+	/*
+	 * Tests that the deadline and abandonment timers of a request that's
+	 * complete don't stay behind on the scheduler.
+	 */
+	@Test(timeout = 10000)
+	public void completedRequestCancelsItsTimersTest() throws Exception {
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(3, attributes(System.currentTimeMillis() + 60000), examples(3))).submitExamples(null);
+
+		Assert.assertEquals(2, scheduler.getQueue().size());
+
+		predictions(manager);
+
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+		Assert.assertTrue(scheduler.getQueue().isEmpty());
+	}
+
+	/*
+	 * Tests that the timers of a request that's cancelled before anyone asks
+	 * for it's predictions don't stay behind on the scheduler.
+	 */
+	@Test(timeout = 10000)
+	public void cancelledRequestCancelsItsTimersTest() throws Exception {
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(3, attributes(System.currentTimeMillis() + 60000), examples(3))).submitExamples(null);
+
+		Assert.assertEquals(2, scheduler.getQueue().size());
+
+		Assert.assertTrue(manager.cancel());
+
+		Assert.assertTrue(scheduler.getQueue().isEmpty());
+	}
+
+	private static List<String> predictions(ExampleProcessingManager manager) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		return predictions;
+	}
+
+	private static Iterator<Example> examples(int numExamples) {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (int x = 0; x < numExamples; x++)
+			examples.add(new StringExample("example" + x));
+
+		return examples.iterator();
+	}
+
+	private static Map<String, String> attributes(long deadlineMillis) {
+
+		Map<String, String> attributes = new HashMap<String, String>();
+
+		attributes.put(RequestDeadline.DEADLINE_ATTRIBUTE, Long.toString(deadlineMillis));
+
+		return attributes;
+	}
+}
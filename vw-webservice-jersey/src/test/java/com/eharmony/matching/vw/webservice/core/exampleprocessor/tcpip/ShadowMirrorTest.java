@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that examples are mirrored to the shadow daemon, that their
+ *         predictions are compared with the primary daemon's, and that the
+ *         primary predictions are unaffected when the mirror drops examples.
+ */
+public class ShadowMirrorTest {
+
+	private ExecutorService executorService;
+	private FakeVWDaemon primaryDaemon, shadowDaemon;
+
+	@Before
+	public void setUp() throws Exception {
+		executorService = Executors.newCachedThreadPool();
+		primaryDaemon = new FakeVWDaemon("primary");
+		shadowDaemon = new FakeVWDaemon("shadow");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		primaryDaemon.close();
+		shadowDaemon.close();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void streamedExamplesAreMirroredTest() throws Exception {
+
+		ShadowMirror mirror = new ShadowMirror(shadowDaemon, 1, 100, 4);
+
+		mirror.start();
+
+		try {
+			List<String> examples = Arrays.asList("| a", "| b", "| c", "| d", "| e", "| f", "| g", "| h", "| i", "| j");
+
+			Assert.assertEquals(expectedPredictions(examples), predict(mirror, InlineSubmissionPolicy.DISABLED, examples));
+
+			awaitComparisons(mirror, examples.size());
+
+			Assert.assertEquals(examples.size(), mirror.getNumberOfExamplesSampled());
+			Assert.assertEquals(0, mirror.getNumberOfExamplesDropped());
+			Assert.assertEquals(examples.size(), mirror.getNumberOfExamplesSent());
+			Assert.assertEquals(0, mirror.getNumberOfShadowFailures());
+
+			//the fake daemons answer with their own names, so every prediction disagrees
+			Assert.assertEquals(examples.size(), mirror.getNumberOfPredictionsDisagreeing());
+			Assert.assertTrue(shadowDaemon.getNumberOfConnections() >= 3);
+		}
+		finally {
+			mirror.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void inlineExamplesAreMirroredTest() throws Exception {
+
+		ShadowMirror mirror = new ShadowMirror(shadowDaemon, 1, 100, 4);
+
+		mirror.start();
+
+		try {
+			List<String> examples = Arrays.asList("| a", "| b");
+
+			Assert.assertEquals(expectedPredictions(examples), predict(mirror, new InlineSubmissionPolicy(16, 4096), examples));
+
+			awaitComparisons(mirror, examples.size());
+		}
+		finally {
+			mirror.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void droppedExamplesDontAffectThePrimaryTest() throws Exception {
+
+		//never started, so every sampled example is dropped
+		ShadowMirror mirror = new ShadowMirror(shadowDaemon, 1, 1, 1);
+
+		List<String> examples = Arrays.asList("| a", "| b", "| c");
+
+		Assert.assertEquals(expectedPredictions(examples), predict(mirror, InlineSubmissionPolicy.DISABLED, examples));
+
+		Assert.assertEquals(3, mirror.getNumberOfExamplesSampled());
+		Assert.assertEquals(3, mirror.getNumberOfExamplesDropped());
+		Assert.assertEquals(0, mirror.getNumberOfPredictionsCompared());
+		Assert.assertEquals(0, shadowDaemon.getNumberOfConnections());
+	}
+
+	@Test
+	public void compareTest() {
+
+		ShadowMirror mirror = new ShadowMirror(shadowDaemon, 1, 1, 1);
+
+		mirror.compare("0.5", "0.25 tag");
+		mirror.compare("1 tag", "1 tag");
+		mirror.compare("-0.5", "0.5");
+		mirror.compare("abc", "abc");
+		mirror.compare("abc", "abd");
+
+		Assert.assertEquals(5, mirror.getNumberOfPredictionsCompared());
+		Assert.assertEquals(3, mirror.getNumberOfPredictionsDisagreeing());
+		Assert.assertEquals(1.25 / 4, mirror.getMeanAbsoluteDelta(), 1e-9);
+		Assert.assertEquals(1, mirror.getMaxAbsoluteDelta(), 1e-9);
+	}
+
+	private List<String> predict(ShadowMirror mirror, InlineSubmissionPolicy inlineSubmissionPolicy, List<String> lines) throws Exception {
+
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setTransportProfiles(Arrays.asList(TransportProfile.DEFAULT));
+		settings.setDefaultTransportProfileName("default");
+		settings.setInlineSubmissionPolicy(inlineSubmissionPolicy);
+		settings.setShadowMirror(mirror);
+
+		TCPIPExampleProcessorFactory factory = new TCPIPExampleProcessorFactory(primaryDaemon, executorService, settings);
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (String line : lines)
+			examples.add(new StringExample(line));
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (Prediction prediction : factory.getExampleProcessor(new ExamplesIterableImpl(lines.size(), null, examples.iterator())).submitExamples(null).getPredictionsIterable())
+			predictions.add(prediction.getVWStringRepresentation());
+
+		return predictions;
+	}
+
+	private List<String> expectedPredictions(List<String> examples) {
+
+		List<String> predictions = new ArrayList<String>();
+
+		for (String example : examples)
+			predictions.add(primaryDaemon.predictionFor(example));
+
+		return predictions;
+	}
+
+	private static void awaitComparisons(ShadowMirror mirror, long numComparisons) throws InterruptedException {
+
+		while (mirror.getNumberOfPredictionsCompared() < numComparisons)
+			Thread.sleep(10);
+
+		Assert.assertEquals(numComparisons, mirror.getNumberOfPredictionsCompared());
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.StreamingExampleSession;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.StreamingPredictionListener;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the TCPIPStreamingExampleSession against a fake VW daemon that
+ *         answers every example with a prediction echoing the example.
+ */
+public class TCPIPStreamingExampleSessionTest implements StreamingPredictionListener {
+
+	private ExecutorService executorService;
+
+	private ServerSocket serverSocket;
+
+	private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+	private volatile boolean predictionFetchExceptionThrown;
+
+	private CountDownLatch completionLatch;
+
+	@Before
+	public void setUp() throws Exception {
+
+		executorService = Executors.newCachedThreadPool();
+
+		serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				runFakeVW();
+			}
+		});
+
+		received.clear();
+		predictionFetchExceptionThrown = false;
+		completionLatch = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		serverSocket.close();
+		executorService.shutdownNow();
+	}
+
+	/*
+	 * Tests that predictions for every batch are returned while the session
+	 * stays open, ie, without the client having to close the session first.
+	 */
+	@Test(timeout = 10000)
+	public void predictionsArriveWhileSessionIsOpenTest() throws Exception {
+
+		StreamingExampleSession session = openSession();
+
+		session.submitExamples(examples("first"));
+
+		waitForNumberReceived(1);
+
+		session.submitExamples(examples("second", "third"));
+
+		waitForNumberReceived(3);
+
+		Assert.assertFalse(session.isClosed());
+
+		session.close();
+
+		Assert.assertTrue(completionLatch.await(5, TimeUnit.SECONDS));
+
+		Assert.assertEquals(3, session.getTotalNumberOfExamplesSubmitted());
+		Assert.assertEquals(3, session.getTotalNumberOfPredictionsFetched());
+		Assert.assertEquals(asList("prediction first", "prediction second", "prediction third"), received);
+		Assert.assertFalse(predictionFetchExceptionThrown);
+	}
+
+	/*
+	 * Tests that invalid examples are skipped, and reported in order with the
+	 * predictions for the examples around them.
+	 */
+	@Test(timeout = 10000)
+	public void skippedExamplesReportedInOrderTest() throws Exception {
+
+		StreamingExampleSession session = openSession();
+
+		List<Example> examples = new ArrayList<Example>();
+		examples.add(new StringExample("first"));
+		examples.add(new InvalidExample());
+		examples.add(new StringExample("second"));
+
+		Assert.assertEquals(2, session.submitExamples(examples));
+
+		session.close();
+
+		Assert.assertTrue(completionLatch.await(5, TimeUnit.SECONDS));
+
+		Assert.assertEquals(asList("prediction first", "skipped", "prediction second"), received);
+	}
+
+	private StreamingExampleSession openSession() throws Exception {
+
+		TCPIPSocketFactory socketFactory = new TCPIPSocketFactory() {
+
+			@Override
+			public Socket getSocket() throws UnknownHostException, IOException {
+				return new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+			}
+		};
+
+		return new TCPIPStreamingExampleSession(socketFactory, executorService, this);
+	}
+
+	private void waitForNumberReceived(int number) throws InterruptedException {
+		while (received.size() < number)
+			Thread.sleep(10);
+	}
+
+	private static List<Example> examples(String... lines) {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (String line : lines)
+			examples.add(new StringExample(line));
+
+		return examples;
+	}
+
+	private static List<String> asList(String... strings) {
+
+		List<String> list = new ArrayList<String>();
+
+		Collections.addAll(list, strings);
+
+		return list;
+	}
+
+	/*
+	 * Accepts a single connection, and answers every line with a prediction
+	 * line until the client shuts down it's output.
+	 */
+	private void runFakeVW() {
+
+		try (Socket socket = serverSocket.accept()) {
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8));
+
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				writer.write("prediction " + line);
+				writer.newLine();
+				writer.flush();
+			}
+		}
+		catch (IOException e) {
+			//the test is over.
+		}
+	}
+
+	@Override
+	public void onPrediction(Prediction prediction) {
+		received.add(prediction.getVWStringRepresentation());
+	}
+
+	@Override
+	public void onExampleFormatException(ExampleFormatException theException) {
+		received.add("skipped");
+	}
+
+	@Override
+	public void onPredictionFetchException(PredictionFetchException theException) {
+		predictionFetchExceptionThrown = true;
+	}
+
+	@Override
+	public void onPredictionFetchComplete() {
+		completionLatch.countDown();
+	}
+
+	private static class InvalidExample implements Example {
+
+		@Override
+		public String getVWStringRepresentation() {
+			throw new ExampleFormatException("invalid example");
+		}
+	}
+}
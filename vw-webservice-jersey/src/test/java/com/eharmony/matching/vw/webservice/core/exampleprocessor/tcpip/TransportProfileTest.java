@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that the flush policy of a transport profile decides when VW
+ *         gets to see streamed examples, and that pipelined profiles keep
+ *         predictions in order.
+ */
+public class TransportProfileTest {
+
+	private static final String END_OF_EXAMPLES = "end of examples";
+
+	private ExecutorService executorService;
+	private ScheduledExecutorService flushScheduler;
+	private FakeVWDaemon daemon;
+	private TCPIPExampleProcessorFactory factory;
+
+	@Before
+	public void setUp() throws Exception {
+
+		executorService = Executors.newCachedThreadPool();
+		flushScheduler = Executors.newScheduledThreadPool(1);
+		daemon = new FakeVWDaemon("daemon");
+
+		TransportProfile interactive = new TransportProfile("interactive", FlushPolicy.PER_EXAMPLE, 8192, true, 0, 0);
+		TransportProfile idle = new TransportProfile("idle", new FlushPolicy(0, 20000), 8192, false, 0, 0);
+		TransportProfile bulk = new TransportProfile("bulk", FlushPolicy.WHEN_DONE, 65536, false, 65536, 65536);
+		TransportProfile pipelined = new TransportProfile("pipelined", FlushPolicy.WHEN_DONE, 65536, false, 0, 0, FlowControlPolicy.UNBOUNDED, 8);
+
+		TCPIPExampleProcessorSettings settings = new TCPIPExampleProcessorSettings();
+
+		settings.setScheduler(flushScheduler);
+		settings.setTransportProfiles(java.util.Arrays.asList(interactive, idle, bulk, pipelined));
+		settings.setDefaultTransportProfileName("bulk");
+
+		factory = new TCPIPExampleProcessorFactory(daemon, executorService, settings);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.close();
+		flushScheduler.shutdownNow();
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void perExampleFlushTest() throws Exception {
+		Assert.assertTrue(firstPredictionArrivesWhileStreamIsOpen("interactive"));
+	}
+
+	@Test(timeout = 10000)
+	public void idleFlushTest() throws Exception {
+		Assert.assertTrue(firstPredictionArrivesWhileStreamIsOpen("idle"));
+	}
+
+	@Test(timeout = 10000)
+	public void flushWhenDoneTest() throws Exception {
+		Assert.assertFalse(firstPredictionArrivesWhileStreamIsOpen("bulk"));
+	}
+
+	@Test(timeout = 10000)
+	public void pipelinedProfileTest() throws Exception {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (int x = 0; x < 5000; x++)
+			examples.add(new StringExample("example" + x));
+
+		ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, attributes("pipelined"), examples.iterator())).submitExamples(null);
+
+		int x = 0;
+
+		for (Prediction prediction : manager.getPredictionsIterable())
+			Assert.assertEquals(daemon.predictionFor("example" + x++), prediction.getVWStringRepresentation());
+
+		Assert.assertEquals(5000, x);
+		Assert.assertEquals(PredictionFetchState.Complete, manager.getPredictionFetchState());
+	}
+
+	@Test(timeout = 10000)
+	public void defaultProfileTest() throws Exception {
+
+		Assert.assertEquals("bulk", factory.getTransportProfile(new ExamplesIterableImpl(1, null, Collections.<Example> emptyIterator())).getName());
+
+		Assert.assertEquals("bulk", factory.getTransportProfile(new ExamplesIterableImpl(1, attributes("no such profile"), Collections.<Example> emptyIterator())).getName());
+
+		Assert.assertEquals("interactive", factory.getTransportProfile(new ExamplesIterableImpl(1, attributes("interactive"), Collections.<Example> emptyIterator())).getName());
+	}
+
+	/*
+	 * Streams a single example, and then waits to see if it's prediction
+	 * comes back before the stream is closed.
+	 */
+	private boolean firstPredictionArrivesWhileStreamIsOpen(String transportProfile) throws Exception {
+
+		final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+		Iterator<Example> examples = new AbstractIterator<Example>() {
+
+			@Override
+			protected Example computeNext() {
+
+				try {
+					String line = lines.take();
+					return line == END_OF_EXAMPLES ? endOfData() : new StringExample(line);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return endOfData();
+				}
+			}
+		};
+
+		final ExampleProcessingManager manager = factory.getExampleProcessor(new ExamplesIterableImpl(Integer.MAX_VALUE, attributes(transportProfile), examples)).submitExamples(null);
+
+		lines.add("example");
+
+		Future<String> firstPrediction = executorService.submit(new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+
+				Iterator<Prediction> predictions = manager.getPredictionsIterable().iterator();
+
+				return predictions.hasNext() ? predictions.next().getVWStringRepresentation() : null;
+			}
+		});
+
+		boolean arrived;
+
+		try {
+			Assert.assertEquals(daemon.predictionFor("example"), firstPrediction.get(1, TimeUnit.SECONDS));
+			arrived = true;
+		}
+		catch (TimeoutException e) {
+			arrived = false;
+		}
+
+		lines.add(END_OF_EXAMPLES);
+
+		Assert.assertEquals(daemon.predictionFor("example"), firstPrediction.get(5, TimeUnit.SECONDS));
+
+		return arrived;
+	}
+
+	private static Map<String, String> attributes(String transportProfile) {
+
+		Map<String, String> attributes = new HashMap<String, String>();
+
+		attributes.put(TCPIPExampleProcessorFactory.TRANSPORT_PROFILE_ATTRIBUTE, transportProfile);
+
+		return attributes;
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the BoundedLineReader.
+ */
+public class BoundedLineReaderTest {
+
+	@Test
+	public void lineTerminatorsTest() throws IOException {
+
+		//a tiny buffer, so that lines and '\r\n' pairs get split across reads
+		ByteArrayPool pool = new ByteArrayPool(3, 1);
+
+		Assert.assertEquals(Arrays.asList("one", "two", "three", "", "four", "caf\u00e9"), readAll("one\ntwo\r\nthree\r\rfour\ncaf\u00e9", 100, pool));
+
+		Assert.assertEquals(Arrays.asList("one", ""), readAll("one\r\n\n", 100, pool));
+
+		Assert.assertEquals(1, pool.getNumberOfPooledArrays());
+	}
+
+	@Test
+	public void oversizeLineIsSkippedTest() throws IOException {
+
+		String input = "short\n" + Strings.repeat("x", 100000) + "\nafter\n" + Strings.repeat("y", 11);
+
+		BoundedLineReader reader = new BoundedLineReader(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)), Charsets.UTF_8, 10, new ByteArrayPool(16, 1));
+
+		Assert.assertEquals("short", reader.readLine());
+
+		try {
+			reader.readLine();
+			Assert.fail();
+		}
+		catch (LineTooLongException e) {
+			Assert.assertEquals(2, e.getLineNumber());
+			Assert.assertEquals(100000, e.getLineLength());
+		}
+
+		Assert.assertEquals("after", reader.readLine());
+
+		try {
+			reader.readLine();
+			Assert.fail();
+		}
+		catch (LineTooLongException e) {
+			Assert.assertEquals(4, e.getLineNumber());
+		}
+
+		Assert.assertNull(reader.readLine());
+	}
+
+	@Test
+	public void endlessLineDoesNotBufferTest() throws IOException {
+
+		//100 MB without a single line break
+		InputStream endless = new InputStream() {
+
+			private long remaining = 100L * 1024 * 1024;
+
+			@Override
+			public int read() throws IOException {
+				return remaining-- > 0 ? 'x' : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+
+				if (remaining <= 0) return -1;
+
+				int toRead = (int) Math.min(len, remaining);
+
+				Arrays.fill(b, off, off + toRead, (byte) 'x');
+
+				remaining -= toRead;
+
+				return toRead;
+			}
+		};
+
+		BoundedLineReader reader = new BoundedLineReader(endless, Charsets.UTF_8, 1024, new ByteArrayPool(8192, 1));
+
+		try {
+			reader.readLine();
+			Assert.fail();
+		}
+		catch (LineTooLongException e) {
+			Assert.assertEquals(100L * 1024 * 1024, e.getLineLength());
+		}
+
+		Assert.assertNull(reader.readLine());
+	}
+
+	@Test
+	public void unsupportedCharsetTest() {
+		Assert.assertTrue(BoundedLineReader.isSupported(Charsets.UTF_8));
+		Assert.assertTrue(BoundedLineReader.isSupported(Charsets.ISO_8859_1));
+		Assert.assertFalse(BoundedLineReader.isSupported(Charsets.UTF_16));
+	}
+
+	private static List<String> readAll(String input, int maxLineLength, ByteArrayPool pool) throws IOException {
+
+		BoundedLineReader reader = new BoundedLineReader(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)), Charsets.UTF_8, maxLineLength, pool);
+
+		List<String> lines = new ArrayList<String>();
+
+		String line;
+
+		while ((line = reader.readLine()) != null)
+			lines.add(line);
+
+		return lines;
+	}
+}
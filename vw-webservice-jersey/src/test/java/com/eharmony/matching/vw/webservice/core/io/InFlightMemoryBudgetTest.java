@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the InFlightMemoryBudget.
+ */
+public class InFlightMemoryBudgetTest {
+
+	@Test
+	public void reserveAndReleaseTest() throws IOException {
+
+		InFlightMemoryBudget budget = new InFlightMemoryBudget(100, 0);
+
+		budget.reserve(60);
+		budget.reserve(40);
+
+		Assert.assertEquals(100, budget.getReservedBytes());
+		Assert.assertFalse(budget.tryReserve(1));
+
+		budget.release(60);
+
+		Assert.assertEquals(40, budget.getReservedBytes());
+		Assert.assertEquals(100, budget.getPeakReservedBytes());
+		Assert.assertTrue(budget.tryReserve(60));
+	}
+
+	@Test(timeout = 10000)
+	public void reservationIsRejectedAfterWaitingTest() throws IOException {
+
+		InFlightMemoryBudget budget = new InFlightMemoryBudget(100, 50);
+
+		budget.reserve(100);
+
+		long startTime = System.currentTimeMillis();
+
+		try {
+			budget.reserve(1);
+			Assert.fail("Expected a MemoryBudgetExceededException!");
+		}
+		catch (MemoryBudgetExceededException e) {
+			Assert.assertTrue(System.currentTimeMillis() - startTime >= 50);
+		}
+
+		//more than the whole budget is rejected without waiting
+		try {
+			budget.reserve(101);
+			Assert.fail("Expected a MemoryBudgetExceededException!");
+		}
+		catch (MemoryBudgetExceededException e) {
+		}
+
+		Assert.assertEquals(1, budget.getNumberOfWaits());
+		Assert.assertEquals(2, budget.getNumberOfRejections());
+		Assert.assertEquals(100, budget.getReservedBytes());
+	}
+
+	@Test(timeout = 10000)
+	public void reservationWaitsForReleaseTest() throws Exception {
+
+		final InFlightMemoryBudget budget = new InFlightMemoryBudget(100, 5000);
+
+		budget.reserve(100);
+
+		Thread releaser = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+
+				budget.release(50);
+			}
+		});
+
+		releaser.start();
+
+		budget.reserve(50);
+
+		releaser.join();
+
+		Assert.assertEquals(100, budget.getReservedBytes());
+		Assert.assertEquals(1, budget.getNumberOfWaits());
+		Assert.assertEquals(0, budget.getNumberOfRejections());
+	}
+
+	@Test
+	public void lineReaderReleasesReservationTest() throws IOException {
+
+		InFlightMemoryBudget budget = new InFlightMemoryBudget(1000, 0);
+
+		ByteArrayPool pool = new ByteArrayPool(10, 1);
+
+		//a line that spans several reads needs more than just the read buffer
+		BoundedLineReader reader = new BoundedLineReader(new ByteArrayInputStream((Strings.repeat("a", 25) + "\nb").getBytes(Charsets.UTF_8)), Charsets.UTF_8, 100, pool, budget);
+
+		Assert.assertEquals(10, budget.getReservedBytes());
+
+		Assert.assertEquals(Strings.repeat("a", 25), reader.readLine());
+
+		Assert.assertTrue(budget.getReservedBytes() > 10);
+
+		Assert.assertEquals("b", reader.readLine());
+		Assert.assertNull(reader.readLine());
+
+		Assert.assertEquals(0, budget.getReservedBytes());
+
+		//and a reader that can't get it's read buffer never takes one from the pool
+		InFlightMemoryBudget exhausted = new InFlightMemoryBudget(5, 0);
+
+		try {
+			new BoundedLineReader(new ByteArrayInputStream(new byte[0]), Charsets.UTF_8, 100, pool, exhausted);
+			Assert.fail("Expected a MemoryBudgetExceededException!");
+		}
+		catch (MemoryBudgetExceededException e) {
+		}
+
+		Assert.assertEquals(1, pool.getNumberOfPooledArrays());
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that pipelined examples come out in order, and that format
+ *         and read exceptions come out where they would have without the
+ *         pipeline.
+ */
+public class PipelinedExampleIteratorTest {
+
+	private ExecutorService executorService;
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void examplesStayInOrderTest() throws Exception {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (int x = 0; x < 10000; x++)
+			examples.add(new StringExample("example" + x));
+
+		PipelinedExampleIterator iterator = new PipelinedExampleIterator(examples.iterator(), 16, executorService);
+
+		int x = 0;
+
+		while (iterator.hasNext())
+			Assert.assertEquals("example" + x++, iterator.next().getVWStringRepresentation());
+
+		Assert.assertEquals(10000, x);
+	}
+
+	@Test(timeout = 10000)
+	public void formatExceptionIsThrownByItsExampleTest() throws Exception {
+
+		Example badExample = new Example() {
+
+			@Override
+			public String getVWStringRepresentation() {
+				throw new ExampleFormatException(2, "Bad example!", null);
+			}
+		};
+
+		PipelinedExampleIterator iterator = new PipelinedExampleIterator(Arrays.asList(new StringExample("one"), badExample, new StringExample("three")).iterator(), 2, executorService);
+
+		List<String> vwStrings = new ArrayList<String>();
+
+		int numFormatExceptions = 0;
+
+		while (iterator.hasNext()) {
+			try {
+				vwStrings.add(iterator.next().getVWStringRepresentation());
+			}
+			catch (ExampleFormatException e) {
+				numFormatExceptions++;
+			}
+		}
+
+		Assert.assertEquals(Arrays.asList("one", "three"), vwStrings);
+		Assert.assertEquals(1, numFormatExceptions);
+	}
+
+	@Test(timeout = 10000)
+	public void readExceptionComesAfterEarlierExamplesTest() throws Exception {
+
+		Iterator<Example> examples = new AbstractIterator<Example>() {
+
+			private int numReturned = 0;
+
+			@Override
+			protected Example computeNext() {
+
+				if (numReturned == 3) throw new ExampleReadException("Client went away!");
+
+				return new StringExample("example" + numReturned++);
+			}
+		};
+
+		PipelinedExampleIterator iterator = new PipelinedExampleIterator(examples, 4, executorService);
+
+		List<String> vwStrings = new ArrayList<String>();
+
+		try {
+			while (iterator.hasNext())
+				vwStrings.add(iterator.next().getVWStringRepresentation());
+
+			Assert.fail("Expected an ExampleReadException!");
+		}
+		catch (ExampleReadException e) {
+			Assert.assertEquals(Arrays.asList("example0", "example1", "example2"), vwStrings);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.pipeline;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the SpscRingBuffer.
+ */
+public class SpscRingBufferTest {
+
+	private static class LongSlot {
+		long value;
+	}
+
+	private static final SpscRingBuffer.SlotFactory<LongSlot> SLOT_FACTORY = new SpscRingBuffer.SlotFactory<LongSlot>() {
+
+		@Override
+		public LongSlot newSlot() {
+			return new LongSlot();
+		}
+	};
+
+	private ExecutorService executorService;
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void everythingArrivesInOrderTest() throws Exception {
+
+		final SpscRingBuffer<LongSlot> ringBuffer = new SpscRingBuffer<LongSlot>(8, SLOT_FACTORY);
+
+		final long numItems = 100000;
+
+		executorService.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+
+				for (long x = 0; x < numItems; x++) {
+					ringBuffer.claim().value = x;
+					ringBuffer.publish();
+				}
+
+				ringBuffer.close();
+
+				return null;
+			}
+		});
+
+		long expected = 0;
+
+		LongSlot slot;
+
+		while ((slot = ringBuffer.take()) != null) {
+
+			Assert.assertEquals(expected++, slot.value);
+
+			ringBuffer.release();
+		}
+
+		Assert.assertEquals(numItems, expected);
+	}
+
+	@Test(timeout = 10000)
+	public void abortWakesUpAFullProducerTest() throws Exception {
+
+		final SpscRingBuffer<LongSlot> ringBuffer = new SpscRingBuffer<LongSlot>(2, SLOT_FACTORY);
+
+		//fill it up, nobody is consuming
+		ringBuffer.claim();
+		ringBuffer.publish();
+		ringBuffer.claim();
+		ringBuffer.publish();
+
+		Assert.assertEquals(2, ringBuffer.getNumberOfPublishedSlots());
+
+		Future<LongSlot> claimed = executorService.submit(new Callable<LongSlot>() {
+
+			@Override
+			public LongSlot call() throws Exception {
+				return ringBuffer.claim();
+			}
+		});
+
+		Thread.sleep(100);
+
+		Assert.assertFalse(claimed.isDone());
+
+		ringBuffer.abort();
+
+		Assert.assertNull(claimed.get(5, TimeUnit.SECONDS));
+		Assert.assertNull(ringBuffer.take());
+	}
+}
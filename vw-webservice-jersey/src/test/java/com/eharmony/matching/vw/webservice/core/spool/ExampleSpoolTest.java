@@ -0,0 +1,399 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.core.spool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.example.StringExample;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeatures;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeaturesImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the ExampleSpool, using a fake example processor factory that
+ *         records the examples it's handed.
+ */
+public class ExampleSpoolTest {
+
+	private static final int SEGMENT_SIZE = 64;
+
+	private File directory;
+
+	private ExecutorService executorService;
+
+	private final List<String> drained = Collections.synchronizedList(new ArrayList<String>());
+
+	private volatile int numFailuresToSimulate;
+
+	private final CountDownLatch blockedExecutorLatch = new CountDownLatch(1);
+
+	private final List<ExecutorService> blockedExecutors = new ArrayList<ExecutorService>();
+
+	private final ExampleProcessorFactory fakeFactory = new ExampleProcessorFactory() {
+
+		@Override
+		public ExampleProcessor getExampleProcessor(ExamplesIterable theExamples) {
+			return new FakeExampleProcessor(theExamples);
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+
+		directory = File.createTempFile("vw-spool-test", "");
+		directory.delete();
+
+		executorService = Executors.newCachedThreadPool();
+
+		drained.clear();
+		numFailuresToSimulate = 0;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		executorService.shutdownNow();
+
+		for (ExecutorService blockedExecutor : blockedExecutors)
+			blockedExecutor.shutdownNow();
+
+		blockedExecutors.clear();
+
+		File[] files = directory.listFiles();
+
+		if (files != null) for (File file : files)
+			file.delete();
+
+		directory.delete();
+	}
+
+	/*
+	 * Tests that examples spanning several segments get drained in order, and
+	 * that the segments are removed afterwards.
+	 */
+	@Test(timeout = 10000)
+	public void spoolAndDrainTest() throws Exception {
+
+		ExampleSpool spool = newSpool(1024, OverloadPolicy.REJECT, 1);
+
+		spool.start();
+
+		TrainingJob job = spool.spool(examples(20));
+
+		Assert.assertEquals(20, job.getNumberOfExamplesSpooled());
+
+		waitForFinish(job);
+
+		spool.shutdown();
+
+		Assert.assertEquals(TrainingJobState.Complete, job.getState());
+		Assert.assertEquals(20, job.getNumberOfExamplesProcessed());
+		Assert.assertEquals(examplesAsStrings(20), drained);
+		Assert.assertEquals(0, spool.getNumberOfBytesReserved());
+		Assert.assertEquals(0, directory.listFiles().length);
+	}
+
+	/*
+	 * Tests that a failed attempt is retried, picking up after the examples
+	 * that were already processed.
+	 */
+	@Test(timeout = 10000)
+	public void retryResumesAfterProcessedExamplesTest() throws Exception {
+
+		numFailuresToSimulate = 1;
+
+		ExampleSpool spool = newSpool(1024, OverloadPolicy.REJECT, 3);
+
+		spool.start();
+
+		TrainingJob job = spool.spool(examples(10));
+
+		waitForFinish(job);
+
+		spool.shutdown();
+
+		Assert.assertEquals(TrainingJobState.Complete, job.getState());
+		Assert.assertEquals(2, job.getNumberOfAttempts());
+		Assert.assertEquals(10, job.getNumberOfExamplesProcessed());
+
+		//the first attempt fails after processing 5 examples, so those shouldn't be sent again
+		Assert.assertEquals(examplesAsStrings(10), drained);
+	}
+
+	@Test
+	public void spoolRejectedWhenNotRunningTest() throws Exception {
+
+		ExampleSpool spool = newSpool(1024, OverloadPolicy.REJECT, 1);
+
+		try {
+			spool.spool(examples(1));
+			Assert.fail("Shouldn't be able to spool before the spool is started!");
+		}
+		catch (SpoolException e) {
+			//expected
+		}
+	}
+
+	/*
+	 * Tests that an upload with an invalid example is told apart from the
+	 * spool's own failures, and leaves no job behind.
+	 */
+	@Test
+	public void invalidExampleRejectedTest() throws Exception {
+
+		ExampleSpool spool = newSpool(1024, OverloadPolicy.REJECT, 1);
+		spool.start();
+
+		List<Example> examples = examples(3);
+		examples.add(new Example() {
+
+			@Override
+			public String getVWStringRepresentation() {
+				throw new ExampleFormatException("invalid example");
+			}
+		});
+
+		try {
+			spool.spool(examples);
+			Assert.fail("The invalid example should have been rejected!");
+		}
+		catch (InvalidExampleException e) {
+			//expected
+		}
+
+		spool.shutdown();
+
+		Assert.assertEquals(0, directory.listFiles().length);
+	}
+
+	/*
+	 * Tests that the spool goes over it's limit neither with REJECT nor with
+	 * DROP_OLDEST, and that DROP_OLDEST drops queued jobs to make space.
+	 */
+	@Test
+	public void overloadPoliciesTest() throws Exception {
+
+		ExampleSpool rejectingSpool = new ExampleSpool(directory.getPath(), SEGMENT_SIZE, SEGMENT_SIZE * 2, OverloadPolicy.REJECT, 0, 1, 1, 0, fakeFactory, newBlockedExecutor());
+		rejectingSpool.start();
+
+		rejectingSpool.spool(examples(2));
+
+		try {
+			rejectingSpool.spool(examples(10));
+			Assert.fail("The spool should have been full!");
+		}
+		catch (SpoolFullException e) {
+			//expected
+		}
+
+		Assert.assertTrue(rejectingSpool.getNumberOfBytesReserved() <= SEGMENT_SIZE * 2);
+		Assert.assertEquals(1, rejectingSpool.getNumberOfQueuedJobs());
+
+		tearDown();
+		setUp();
+
+		ExampleSpool droppingSpool = new ExampleSpool(directory.getPath(), SEGMENT_SIZE, SEGMENT_SIZE, OverloadPolicy.DROP_OLDEST, 0, 1, 1, 0, fakeFactory, newBlockedExecutor());
+		droppingSpool.start();
+
+		TrainingJob oldest = droppingSpool.spool(examples(2));
+		TrainingJob newest = droppingSpool.spool(examples(3));
+
+		Assert.assertEquals(TrainingJobState.Dropped, oldest.getState());
+		Assert.assertEquals(TrainingJobState.Queued, newest.getState());
+		Assert.assertEquals(1, droppingSpool.getNumberOfQueuedJobs());
+		Assert.assertEquals(SEGMENT_SIZE, droppingSpool.getNumberOfBytesReserved());
+	}
+
+	/*
+	 * Tests that spooled jobs survive a restart.
+	 */
+	@Test(timeout = 10000)
+	public void recoveryTest() throws Exception {
+
+		ExampleSpool spool = new ExampleSpool(directory.getPath(), SEGMENT_SIZE, 1024, OverloadPolicy.REJECT, 0, 1, 1, 0, fakeFactory, newBlockedExecutor());
+		spool.start();
+
+		TrainingJob job = spool.spool(examples(7));
+
+		//a new spool on the same directory, as if the web service had been restarted
+		ExampleSpool restartedSpool = newSpool(1024, OverloadPolicy.REJECT, 1);
+
+		restartedSpool.start();
+
+		TrainingJob recoveredJob = restartedSpool.getJob(job.getId());
+
+		Assert.assertNotNull(recoveredJob);
+		Assert.assertEquals(7, recoveredJob.getNumberOfExamplesSpooled());
+
+		waitForFinish(recoveredJob);
+
+		while (drained.size() < 7)
+			Thread.sleep(10);
+
+		restartedSpool.shutdown();
+
+		Assert.assertEquals(examplesAsStrings(7), drained);
+	}
+
+	private ExampleSpool newSpool(long maxSpoolSize, OverloadPolicy overloadPolicy, int maxAttempts) {
+		return new ExampleSpool(directory.getPath(), SEGMENT_SIZE, maxSpoolSize, overloadPolicy, 0, 1, maxAttempts, 0, fakeFactory, executorService);
+	}
+
+	/*
+	 * An executor whose only thread is kept busy, so that drainers submitted
+	 * to it never get to run.
+	 */
+	private ExecutorService newBlockedExecutor() {
+
+		ExecutorService blockedExecutor = Executors.newSingleThreadExecutor();
+
+		blockedExecutor.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					blockedExecutorLatch.await();
+				}
+				catch (InterruptedException e) {
+					//the test is over
+				}
+			}
+		});
+
+		blockedExecutors.add(blockedExecutor);
+
+		return blockedExecutor;
+	}
+
+	private static void waitForFinish(TrainingJob job) throws InterruptedException {
+		while (job.isFinished() == false)
+			Thread.sleep(10);
+	}
+
+	private static List<Example> examples(int number) {
+
+		List<Example> examples = new ArrayList<Example>();
+
+		for (int x = 0; x < number; x++)
+			examples.add(new StringExample(x + " |a b" + x));
+
+		return examples;
+	}
+
+	private static List<String> examplesAsStrings(int number) {
+
+		List<String> strings = new ArrayList<String>();
+
+		for (int x = 0; x < number; x++)
+			strings.add(x + " |a b" + x);
+
+		return strings;
+	}
+
+	/*
+	 * Processes examples synchronously, and fails half way through if asked
+	 * to.
+	 */
+	private class FakeExampleProcessor implements ExampleProcessor, ExampleProcessingManager {
+
+		private final ExamplesIterable examples;
+
+		private long numSubmitted = 0;
+
+		private ExampleSubmissionState state = ExampleSubmissionState.OnGoing;
+
+		public FakeExampleProcessor(ExamplesIterable examples) {
+			this.examples = examples;
+		}
+
+		@Override
+		public ExampleProcessingManager submitExamples(ExampleProcessingEventHandler callback) throws ExampleSubmissionException {
+
+			boolean fail = numFailuresToSimulate > 0;
+
+			for (Example example : examples) {
+
+				if (fail && numSubmitted == 5) {
+					numFailuresToSimulate--;
+					state = ExampleSubmissionState.ExampleSubmissionFault;
+					return this;
+				}
+
+				drained.add(example.getVWStringRepresentation());
+				numSubmitted++;
+			}
+
+			state = ExampleSubmissionState.Complete;
+
+			return this;
+		}
+
+		@Override
+		public ExampleProcessorFeatures getExampleProcessorFeatures() {
+			return new ExampleProcessorFeaturesImpl(false, null);
+		}
+
+		@Override
+		public Iterable<Prediction> getPredictionsIterable() {
+			return Collections.<Prediction> emptyList();
+		}
+
+		@Override
+		public void stopAll() {
+		}
+
+		@Override
+		public boolean cancel() {
+			return false;
+		}
+
+		@Override
+		public long getTotalNumberOfExamplesSubmitted() {
+			return numSubmitted;
+		}
+
+		@Override
+		public long getTotalNumberOfExamplesSkipped() {
+			return 0;
+		}
+
+		@Override
+		public long getTotalNumberOfPredictionsFetched() {
+			return numSubmitted;
+		}
+
+		@Override
+		public ExampleSubmissionState getExampleSubmissionState() {
+			return state;
+		}
+
+		@Override
+		public PredictionFetchState getPredictionFetchState() {
+			return state == ExampleSubmissionState.Complete ? PredictionFetchState.Complete : PredictionFetchState.PredictionFetchFault;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.google.common.base.Charsets;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that the JsonArrayChunker splits arrays between, and only
+ *         between, their elements.
+ */
+public class JsonArrayChunkerTest {
+
+	@Test
+	public void splitsBetweenElementsTest() throws IOException {
+
+		String[] elements = new String[] { "{\"tag\":\"a}],{[\\\"b\"}", "{\"namespaces\":[{\"features\":[{\"name\":\"f\\\\\"}]}]}", "\"caf\u00e9 \\u00e9\"", "12.5", "null", "[1,[2,{}]]", "{}" };
+
+		String json = " [ " + elements[0];
+
+		for (int x = 1; x < elements.length; x++)
+			json += " ,\n\t" + elements[x];
+
+		json += " ] ";
+
+		for (int chunkSize = 1; chunkSize < json.length() + 2; chunkSize++) {
+
+			JsonArrayChunker chunker = new JsonArrayChunker(new ByteArrayInputStream(json.getBytes(Charsets.UTF_8)), chunkSize);
+
+			List<String> readElements = new ArrayList<String>();
+
+			JsonArrayChunker.Chunk chunk;
+
+			while ((chunk = chunker.nextChunk()) != null) {
+
+				Assert.assertEquals(readElements.size() + 1, chunk.getFirstElementNumber());
+
+				JsonArray array = new JsonParser().parse(new String(chunk.getBytes(), Charsets.UTF_8)).getAsJsonArray();
+
+				Assert.assertEquals(chunk.getNumberOfElements(), array.size());
+
+				for (int x = 0; x < array.size(); x++)
+					readElements.add(array.get(x).toString());
+			}
+
+			Assert.assertEquals(elements.length, chunker.getNumberOfElements());
+
+			List<String> expectedElements = new ArrayList<String>();
+
+			for (String element : elements)
+				expectedElements.add(new JsonParser().parse(element).toString());
+
+			Assert.assertEquals(expectedElements, readElements);
+		}
+	}
+
+	@Test
+	public void emptyArrayTest() throws IOException {
+
+		JsonArrayChunker chunker = new JsonArrayChunker(new ByteArrayInputStream(" [ ] ".getBytes(Charsets.UTF_8)), 16);
+
+		Assert.assertNull(chunker.nextChunk());
+		Assert.assertEquals(0, chunker.getNumberOfElements());
+	}
+
+	@Test
+	public void chunksHoldWholeElementsTest() throws IOException {
+
+		JsonArrayChunker chunker = new JsonArrayChunker(new ByteArrayInputStream("[{\"a\":1},{\"b\":2},{\"c\":3}]".getBytes(Charsets.UTF_8)), 10);
+
+		Assert.assertEquals("[{\"a\":1},{\"b\":2}]", new String(chunker.nextChunk().getBytes(), Charsets.UTF_8));
+		Assert.assertEquals("[{\"c\":3}]", new String(chunker.nextChunk().getBytes(), Charsets.UTF_8));
+		Assert.assertNull(chunker.nextChunk());
+	}
+
+	@Test
+	public void missingCommaTest() throws IOException {
+
+		JsonArrayChunker chunker = new JsonArrayChunker(new ByteArrayInputStream("[{\"a\":1} {\"b\":2}]".getBytes(Charsets.UTF_8)), 1);
+
+		Assert.assertEquals(1, chunker.nextChunk().getNumberOfElements());
+
+		try {
+			chunker.nextChunk();
+			Assert.fail("Expected an ExampleReadException!");
+		}
+		catch (ExampleReadException e) {
+			//expected
+		}
+	}
+
+	@Test(expected = ExampleReadException.class)
+	public void truncatedArrayTest() throws IOException {
+
+		JsonArrayChunker chunker = new JsonArrayChunker(new ByteArrayInputStream("[{\"a\":\"}".getBytes(Charsets.UTF_8)), 1);
+
+		chunker.nextChunk();
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests that examples parsed in parallel come out just like they do
+ *         when parsed sequentially.
+ */
+public class ParallelStructuredJsonExamplesProviderTest {
+
+	private ForkJoinPool forkJoinPool;
+
+	@Before
+	public void setUp() {
+		forkJoinPool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		forkJoinPool.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void sameAsSequentialTest() throws Exception {
+
+		StringBuilder json = new StringBuilder("[");
+
+		for (int x = 0; x < 2000; x++) {
+
+			if (x > 0) json.append(",\n");
+
+			json.append("{\"label\":\"" + x + "\",\"tag\":\"t}],{\\\"" + x + "\",\"namespaces\":[{\"name\":\"ns\",\"features\":[{\"name\":\"f" + x + "\",\"value\":" + x + "}]}]}");
+		}
+
+		json.append("]");
+
+		List<String> expected = render(new StructuredJsonExamplesProvider(-1, -1).getExamplesFromStream(new ByteArrayInputStream(json.toString().getBytes(Charsets.UTF_8))));
+
+		Assert.assertEquals(2000, expected.size());
+
+		for (int chunkSize : new int[] { 1, 100, 4096, 1 << 20 }) {
+
+			ParallelStructuredJsonExamplesProvider toTest = new ParallelStructuredJsonExamplesProvider(new StructuredJsonExamplesProvider(-1, -1), forkJoinPool, chunkSize, 3);
+
+			Assert.assertEquals(expected, render(toTest.getExamplesFromStream(new ByteArrayInputStream(json.toString().getBytes(Charsets.UTF_8)))));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void formatExceptionComesAfterEarlierExamplesTest() throws Exception {
+
+		String json = "[{\"label\":\"1\"},{\"label\":\"2\"},{\"bogus\":true},{\"label\":\"4\"}]";
+
+		ParallelStructuredJsonExamplesProvider toTest = new ParallelStructuredJsonExamplesProvider(new StructuredJsonExamplesProvider(-1, -1), forkJoinPool, 1, 2);
+
+		Iterator<Example> examples = toTest.getExamplesFromStream(new ByteArrayInputStream(json.getBytes(Charsets.UTF_8)));
+
+		List<String> vwStrings = new ArrayList<String>();
+
+		try {
+			while (examples.hasNext())
+				vwStrings.add(examples.next().getVWStringRepresentation());
+
+			Assert.fail("Expected an ExampleFormatException!");
+		}
+		catch (ExampleFormatException e) {
+			Assert.assertEquals(3, e.getExampleNumber());
+			Assert.assertEquals(2, vwStrings.size());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void readExceptionComesAfterEarlierExamplesTest() throws Exception {
+
+		String json = "[{\"label\":\"1\"},{\"label\":\"2\"} {\"label\":\"3\"}]";
+
+		ParallelStructuredJsonExamplesProvider toTest = new ParallelStructuredJsonExamplesProvider(new StructuredJsonExamplesProvider(-1, -1), forkJoinPool, 1, 4);
+
+		Iterator<Example> examples = toTest.getExamplesFromStream(new ByteArrayInputStream(json.getBytes(Charsets.UTF_8)));
+
+		List<String> vwStrings = new ArrayList<String>();
+
+		try {
+			while (examples.hasNext())
+				vwStrings.add(examples.next().getVWStringRepresentation());
+
+			Assert.fail("Expected an ExampleReadException!");
+		}
+		catch (ExampleReadException e) {
+			Assert.assertEquals(2, vwStrings.size());
+		}
+	}
+
+	/*
+	 * Tests that examples encoded with a charset other than UTF-8, which the
+	 * chunks can't be split out of, are read sequentially.
+	 */
+	@Test(timeout = 10000)
+	public void nonUtf8CharsetIsReadSequentiallyTest() throws Exception {
+
+		String json = "[{\"label\":\"1\",\"tag\":\"caf\u00e9\"},{\"label\":\"2\",\"tag\":\"\u00fcber\"}]";
+
+		List<String> expected = render(new StructuredJsonExamplesProvider(-1, -1).getExamplesFromStream(new ByteArrayInputStream(json.getBytes(Charsets.UTF_8)), Charsets.UTF_8));
+
+		Assert.assertEquals(2, expected.size());
+
+		ParallelStructuredJsonExamplesProvider toTest = new ParallelStructuredJsonExamplesProvider(new StructuredJsonExamplesProvider(-1, -1), forkJoinPool, 1, 2);
+
+		Assert.assertEquals(expected, render(toTest.getExamplesFromStream(new ByteArrayInputStream(json.getBytes(Charsets.UTF_16)), Charsets.UTF_16)));
+		Assert.assertEquals(expected, render(toTest.getExamplesFromStream(new ByteArrayInputStream(json.getBytes(Charsets.ISO_8859_1)), Charsets.ISO_8859_1)));
+	}
+
+	private static List<String> render(Iterator<Example> examples) {
+
+		List<String> vwStrings = new ArrayList<String>();
+
+		while (examples.hasNext())
+			vwStrings.add(examples.next().getVWStringRepresentation());
+
+		return vwStrings;
+	}
+}
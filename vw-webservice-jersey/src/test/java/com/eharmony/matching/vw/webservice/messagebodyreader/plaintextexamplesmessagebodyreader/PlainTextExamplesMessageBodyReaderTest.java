@@ -7,6 +7,7 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Iterator;
 import java.util.zip.GZIPInputStream;
 
 import javax.ws.rs.WebApplicationException;
@@ -20,6 +21,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleReaderSettings;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 
 /**
  * @author vrahimtoola Tests the PlainTextPredictionsMessageBodyReader.
@@ -94,6 +99,34 @@ public class PlainTextExamplesMessageBodyReaderTest {
 
 	}
 
+	/*
+	 * Tests that an example that's too long is skipped, and reported as badly
+	 * formatted, without affecting the examples around it.
+	 */
+	@Test
+	public void oversizeExampleTest() throws WebApplicationException, IOException {
+
+		PlainTextExamplesMessageBodyReader toTest = new PlainTextExamplesMessageBodyReader(new ExampleReaderSettings(16));
+
+		String theExamples = "Example 1\n" + Strings.repeat("x", 10000) + "\nExample 3\n";
+
+		Iterator<Example> theIterator = toTest.readFrom(null, null, null, MediaType.TEXT_PLAIN_TYPE, null, new ByteArrayInputStream(theExamples.getBytes(Charsets.UTF_8))).iterator();
+
+		Assert.assertEquals("Example 1", theIterator.next().getVWStringRepresentation());
+
+		try {
+			theIterator.next().getVWStringRepresentation();
+			Assert.fail();
+		}
+		catch (ExampleFormatException e) {
+			Assert.assertEquals(2, e.getExampleNumber());
+		}
+
+		Assert.assertEquals("Example 3", theIterator.next().getVWStringRepresentation());
+
+		Assert.assertFalse(theIterator.hasNext());
+	}
+
 	/*
 	 * Tests a massive number of examples using the ner.train.gz training set
 	 * from the vowpal wabbit github repository. This training set was taken
@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.nonblocking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the LineSplitter.
+ */
+public class LineSplitterTest {
+
+	@Test
+	public void linesSplitAcrossChunksTest() {
+
+		LineSplitter lineSplitter = new LineSplitter(1024);
+
+		List<String> lines = new ArrayList<String>();
+
+		append(lineSplitter, "1 |a b", lines);
+		Assert.assertEquals(0, lines.size());
+
+		append(lineSplitter, " c\n0 |a d\r\n-1 |", lines);
+		Assert.assertEquals(2, lines.size());
+		Assert.assertEquals("1 |a b c", lines.get(0));
+		Assert.assertEquals("0 |a d", lines.get(1));
+
+		append(lineSplitter, "a e", lines);
+		Assert.assertEquals(2, lines.size());
+
+		Assert.assertEquals("-1 |a e", lineSplitter.finish());
+		Assert.assertNull(lineSplitter.finish());
+	}
+
+	@Test
+	public void multiByteCharacterSplitAcrossChunksTest() {
+
+		LineSplitter lineSplitter = new LineSplitter(1024);
+
+		List<String> lines = new ArrayList<String>();
+
+		byte[] bytes = "1 |a caf\u00e9\n".getBytes(Charsets.UTF_8);
+
+		//split right in the middle of the two byte 'e acute'
+		int split = bytes.length - 2;
+
+		lineSplitter.append(bytes, 0, split, lines);
+		lineSplitter.append(bytes, split, bytes.length - split, lines);
+
+		Assert.assertEquals(1, lines.size());
+		Assert.assertEquals("1 |a caf\u00e9", lines.get(0));
+		Assert.assertNull(lineSplitter.finish());
+	}
+
+	@Test
+	public void emptyLinesTest() {
+
+		LineSplitter lineSplitter = new LineSplitter(1024);
+
+		List<String> lines = new ArrayList<String>();
+
+		append(lineSplitter, "\n\nabc\n", lines);
+
+		Assert.assertEquals(3, lines.size());
+		Assert.assertEquals("", lines.get(0));
+		Assert.assertEquals("", lines.get(1));
+		Assert.assertEquals("abc", lines.get(2));
+	}
+
+	/*
+	 * Tests that lines that are too long are skipped, even when they're spread
+	 * over many chunks, or never end, and that the lines around them survive.
+	 */
+	@Test
+	public void tooLongLinesAreSkippedTest() {
+
+		LineSplitter lineSplitter = new LineSplitter(8);
+
+		List<String> lines = new ArrayList<String>();
+
+		append(lineSplitter, "1 |a b\r\n", lines);
+		append(lineSplitter, "12345678\r\n", lines);
+
+		//9 bytes, over 3 chunks
+		append(lineSplitter, "123", lines);
+		append(lineSplitter, "456", lines);
+		append(lineSplitter, "789\n0 |c", lines);
+
+		Assert.assertEquals(2, lines.size());
+		Assert.assertEquals("1 |a b", lines.get(0));
+		Assert.assertEquals("12345678", lines.get(1));
+		Assert.assertEquals(1, lineSplitter.getNumberOfLinesSkipped());
+
+		Assert.assertEquals("0 |c", lineSplitter.finish());
+
+		//a line with no end in sight is dropped as it streams past
+		lineSplitter = new LineSplitter(8);
+
+		for (int x = 0; x < 1000; x++)
+			append(lineSplitter, "1 |a b c d e f g", lines);
+
+		Assert.assertEquals(2, lines.size());
+		Assert.assertNull(lineSplitter.finish());
+		Assert.assertEquals(1, lineSplitter.getNumberOfLinesSkipped());
+	}
+
+	private static void append(LineSplitter lineSplitter, String text, List<String> lines) {
+
+		byte[] bytes = text.getBytes(Charsets.UTF_8);
+
+		lineSplitter.append(bytes, 0, bytes.length, lines);
+	}
+}
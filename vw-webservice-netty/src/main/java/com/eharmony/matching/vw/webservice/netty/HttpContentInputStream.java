@@ -0,0 +1,174 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A blocking InputStream over the body of an HTTP request, fed with the
+ *         content buffers that Netty reads, so that the example readers shared
+ *         with the Jersey web service can read the examples as they arrive.
+ *
+ *         The buffers are read straight out of, and released back to, Netty's
+ *         pool, without being copied anywhere in between. Once
+ *         'maxQueuedBuffers' buffers are waiting to be read, the channel stops
+ *         reading from the client until the examples are caught up on. Once
+ *         the whole body has been read, the stream leaves the channel alone.
+ *
+ *         Making this package-private for now.
+ */
+class HttpContentInputStream extends InputStream {
+
+	//marks the end of the body
+	private static final ByteBuf END = Unpooled.buffer(0);
+
+	private final Channel channel;
+	private final int maxQueuedBuffers;
+
+	private final BlockingQueue<ByteBuf> buffers = new LinkedBlockingQueue<ByteBuf>();
+
+	private ByteBuf current = null;
+
+	private volatile boolean closed = false, ended = false;
+	private volatile IOException failure = null;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param channel The channel the body is read from.
+	 *
+	 * @param maxQueuedBuffers The most buffers to hold on to before reading
+	 * from the channel is paused.
+	 */
+	public HttpContentInputStream(Channel channel, int maxQueuedBuffers) {
+		this.channel = channel;
+		this.maxQueuedBuffers = maxQueuedBuffers;
+	}
+
+	/*
+	 * Hands the stream the next part of the body. Called on the channel's
+	 * event loop.
+	 */
+	public void offer(ByteBuf content) {
+
+		if (closed || content.isReadable() == false) return;
+
+		buffers.add(content.retain());
+
+		//the reader may have closed the stream in the meantime, in which case nobody else will release the buffer
+		if (closed) {
+			releaseQueued();
+			return;
+		}
+
+		if (buffers.size() >= maxQueuedBuffers) channel.config().setAutoRead(false);
+	}
+
+	/*
+	 * Marks the end of the body.
+	 */
+	public void end() {
+		ended = true;
+		buffers.add(END);
+	}
+
+	/*
+	 * Ends the body early, eg, because the client went away. Reads that are
+	 * waiting on the body throw the exception.
+	 */
+	public void fail(IOException e) {
+		failure = e;
+		ended = true;
+		buffers.add(END);
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		byte[] oneByte = new byte[1];
+
+		return read(oneByte, 0, 1) == -1 ? -1 : oneByte[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (len == 0) return 0;
+
+		if (closed) throw new IOException("The stream is closed!");
+
+		if (current == null || (current != END && current.isReadable() == false)) {
+
+			if (current != null) current.release();
+
+			current = null;
+
+			try {
+				current = buffers.take();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting on the body of the request!", e);
+			}
+
+			//caught up, so read more from the client
+			if (ended == false && buffers.size() <= maxQueuedBuffers / 2 && channel.config().isAutoRead() == false) {
+				channel.config().setAutoRead(true);
+				channel.read();
+			}
+		}
+
+		if (current == END) {
+
+			if (failure != null) throw failure;
+
+			return -1;
+		}
+
+		int numBytes = Math.min(len, current.readableBytes());
+
+		current.readBytes(b, off, numBytes);
+
+		return numBytes;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current != null && current != END ? current.readableBytes() : 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		if (closed) return;
+
+		closed = true;
+
+		if (current != null && current != END) current.release();
+
+		current = null;
+
+		releaseQueued();
+
+		//whatever's left of the body is thrown away, but it still has to be read
+		if (ended == false) channel.config().setAutoRead(true);
+	}
+
+	private void releaseQueued() {
+
+		ByteBuf buffer;
+
+		while ((buffer = buffers.poll()) != null)
+			if (buffer != END) buffer.release();
+	}
+}
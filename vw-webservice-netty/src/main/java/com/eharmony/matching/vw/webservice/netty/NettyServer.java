@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.netty;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.tcpip.TCPIPSocketFactoryImpl;
+import com.eharmony.matching.vw.webservice.core.io.InFlightMemoryBudget;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleReaderSettings;
+import com.eharmony.matching.vw.webservice.netty.exampleprocessor.NettyVWExampleProcessorFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         A standalone web service, built on Netty rather than on Jersey and a
+ *         servlet container, that serves the same POST /predict/main as the
+ *         Jersey web service. There's no Spring here: everything is built from
+ *         the properties in vw-webservice-netty.properties, or in the file
+ *         named on the command line.
+ *
+ *         The examples are sent to VW either through Netty ('netty'), or
+ *         through the same blocking example processors the Jersey web service
+ *         uses ('tcpip'), depending on 'vw.webservice.netty.vwClient'.
+ */
+public class NettyServer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NettyServer.class);
+
+	private static final String DEFAULT_PROPERTIES = "vw-webservice-netty.properties";
+
+	private final int port;
+	private final EventLoopGroup bossGroup;
+	private final EventLoopGroup workerGroup;
+	private final ExecutorService executorService;
+	private final ExampleProcessorFactory exampleProcessorFactory;
+	private final ExampleReaderSettings exampleReaderSettings;
+	private final int maxQueuedBuffers;
+	private final int flushBytes;
+
+	private Channel serverChannel = null;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param properties The settings of the server, see
+	 * vw-webservice-netty.properties.
+	 */
+	public NettyServer(Properties properties) {
+
+		checkNotNull(properties, "Null properties cannot be provided!");
+
+		this.port = getInt(properties, "vw.webservice.netty.port");
+
+		checkArgument(port > 0, "The port must be > 0!");
+
+		this.bossGroup = new NioEventLoopGroup(1);
+		this.workerGroup = new NioEventLoopGroup(getInt(properties, "vw.webservice.netty.workerThreads"));
+		this.executorService = Executors.newCachedThreadPool();
+
+		String vwHost = properties.getProperty("vw.hostName");
+		int vwPort = getInt(properties, "vw.port");
+		int connectTimeoutMillis = getInt(properties, "vw.connectTimeoutMillis");
+
+		String vwClient = properties.getProperty("vw.webservice.netty.vwClient", "netty").trim();
+
+		if (vwClient.equals("netty"))
+			this.exampleProcessorFactory = new NettyVWExampleProcessorFactory(vwHost, vwPort, connectTimeoutMillis, workerGroup, executorService, getInt(properties, "vw.webservice.netty.maxQueuedPredictions"));
+		else if (vwClient.equals("tcpip"))
+			this.exampleProcessorFactory = new TCPIPExampleProcessorFactory(new TCPIPSocketFactoryImpl(vwHost, vwPort, connectTimeoutMillis, getInt(properties, "vw.readTimeoutMillis")), executorService);
+		else {
+			throw new IllegalArgumentException("Unknown VW client: " + vwClient + "!");
+		}
+
+		this.exampleReaderSettings = new ExampleReaderSettings(getInt(properties, "vw.webservice.maxExampleLength"), new InFlightMemoryBudget(Long.parseLong(properties.getProperty("vw.webservice.memoryBudget.maxBytes").trim()), Long.parseLong(properties.getProperty("vw.webservice.memoryBudget.maxWaitMillis").trim())));
+
+		this.maxQueuedBuffers = getInt(properties, "vw.webservice.netty.maxQueuedBuffers");
+		this.flushBytes = getInt(properties, "vw.webservice.netty.flushBytes");
+
+		checkArgument(maxQueuedBuffers > 0, "The max number of queued buffers must be > 0!");
+		checkArgument(flushBytes > 0, "The flush size must be > 0!");
+	}
+
+	public synchronized void start() throws InterruptedException {
+
+		if (serverChannel != null) return;
+
+		ServerBootstrap bootstrap = new ServerBootstrap().group(bossGroup, workerGroup).channel(NioServerSocketChannel.class).option(ChannelOption.SO_BACKLOG, 1024).childOption(ChannelOption.TCP_NODELAY, true).childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT).childHandler(new ChannelInitializer<SocketChannel>() {
+
+			@Override
+			protected void initChannel(SocketChannel channel) throws Exception {
+				channel.pipeline().addLast(new HttpServerCodec(), new PredictHandler(exampleProcessorFactory, executorService, exampleReaderSettings, maxQueuedBuffers, flushBytes));
+			}
+		});
+
+		serverChannel = bootstrap.bind(port).sync().channel();
+
+		LOGGER.info("Serving {} on port {} with {}.", PredictHandler.PREDICT_PATH, port, exampleProcessorFactory);
+	}
+
+	public synchronized void shutdown() {
+
+		if (serverChannel != null) serverChannel.close().awaitUninterruptibly();
+
+		serverChannel = null;
+
+		bossGroup.shutdownGracefully();
+		workerGroup.shutdownGracefully();
+		executorService.shutdownNow();
+	}
+
+	public void awaitShutdown() throws InterruptedException {
+
+		Channel theChannel;
+
+		synchronized (this) {
+			theChannel = serverChannel;
+		}
+
+		if (theChannel != null) theChannel.closeFuture().sync();
+	}
+
+	private static int getInt(Properties properties, String name) {
+
+		String value = properties.getProperty(name);
+
+		checkArgument(value != null, "The property " + name + " must be set!");
+
+		return Integer.parseInt(value.trim());
+	}
+
+	/*
+	 * Starts the server.
+	 *
+	 * @param args The path to a properties file to use instead of the bundled
+	 * vw-webservice-netty.properties, if any.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		Properties properties = new Properties();
+
+		try (InputStream defaults = NettyServer.class.getClassLoader().getResourceAsStream(DEFAULT_PROPERTIES)) {
+			if (defaults != null) properties.load(defaults);
+		}
+
+		if (args.length > 0) try (InputStream overrides = new FileInputStream(args[0])) {
+			properties.load(overrides);
+		}
+
+		final NettyServer server = new NettyServer(properties);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				server.shutdown();
+			}
+		}));
+
+		server.start();
+		server.awaitShutdown();
+	}
+}
@@ -0,0 +1,444 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.common.prediction.PredictionMediaTypes;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.ExamplesIterableImpl;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+import com.eharmony.matching.vw.webservice.core.io.BoundedLineReader;
+import com.eharmony.matching.vw.webservice.core.io.MemoryBudgetExceededException;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleReaderSettings;
+import com.eharmony.matching.vw.webservice.messagebodyreader.ExampleRequestHeaders;
+import com.eharmony.matching.vw.webservice.messagebodyreader.jsonexamplesmessagebodyreader.StructuredJsonExamplesProvider;
+import com.eharmony.matching.vw.webservice.messagebodyreader.plaintextexamplesmessagebodyreader.StringExampleIterator;
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Longs;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Serves POST /predict/main, with the same headers, example media
+ *         types and prediction media type as the PredictResource of the Jersey
+ *         web service.
+ *
+ *         The body of the request is handed to the example readers as it
+ *         arrives (see HttpContentInputStream), the predictions are iterated
+ *         over on the executor, and written back in chunks out of pooled
+ *         buffers. If the client can't keep up, the predictions wait for it.
+ *
+ *         A connection serves one request at a time: nothing more is read from
+ *         it until the predictions of the current request have been sent.
+ *
+ *         Making this package-private for now.
+ */
+class PredictHandler extends SimpleChannelInboundHandler<HttpObject> implements ExampleProcessingEventHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PredictHandler.class);
+
+	static final String PREDICT_PATH = "/predict/main";
+
+	//the same marker the Jersey web service sends
+	static final String TRUNCATION_MARKER = "#truncated: deadline exceeded\n";
+
+	//the headers the example readers look at
+	private static final String[] EXAMPLE_HEADERS = { ExampleRequestHeaders.TRANSPORT_PROFILE, ExampleRequestHeaders.DEADLINE, ExampleRequestHeaders.TIMEOUT_MILLIS, ExampleRequestHeaders.PARTIAL_RESULTS, ExampleRequestHeaders.EXAMPLE_COUNT, ExampleRequestHeaders.TENANT, ExampleRequestHeaders.REQUEST_CLASS, HttpHeaders.Names.CONTENT_LENGTH };
+
+	private final ExampleProcessorFactory exampleProcessorFactory;
+	private final ExecutorService executorService;
+	private final ExampleReaderSettings exampleReaderSettings;
+	private final int maxQueuedBuffers;
+	private final int flushBytes;
+
+	//only touched on the channel's event loop
+	private HttpContentInputStream body = null;
+
+	private volatile ExampleProcessingManager exampleProcessingManager = null;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param exampleProcessorFactory The factory of the example processors
+	 * the examples are sent to VW with.
+	 *
+	 * @param executorService The executor the examples are read, and the
+	 * predictions written, on.
+	 *
+	 * @param exampleReaderSettings The limits on reading plain text examples.
+	 *
+	 * @param maxQueuedBuffers The most buffers of a request's body to hold on
+	 * to before reading from the client is paused.
+	 *
+	 * @param flushBytes The number of bytes of predictions to gather up before
+	 * sending them to the client.
+	 */
+	public PredictHandler(ExampleProcessorFactory exampleProcessorFactory, ExecutorService executorService, ExampleReaderSettings exampleReaderSettings, int maxQueuedBuffers, int flushBytes) {
+		this.exampleProcessorFactory = exampleProcessorFactory;
+		this.executorService = executorService;
+		this.exampleReaderSettings = exampleReaderSettings;
+		this.maxQueuedBuffers = maxQueuedBuffers;
+		this.flushBytes = flushBytes;
+	}
+
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+
+		if (msg instanceof HttpRequest) body = onRequest(ctx, (HttpRequest) msg);
+
+		if (msg instanceof HttpContent && body != null) {
+
+			body.offer(((HttpContent) msg).content());
+
+			if (msg instanceof LastHttpContent) {
+
+				body.end();
+				body = null;
+
+				//the next request is read once this one has been answered
+				ctx.channel().config().setAutoRead(false);
+			}
+		}
+	}
+
+	/*
+	 * Starts handling a request.
+	 *
+	 * @returns The stream the body of the request is fed into, or null if the
+	 * request was rejected.
+	 */
+	private HttpContentInputStream onRequest(final ChannelHandlerContext ctx, final HttpRequest request) {
+
+		if (PREDICT_PATH.equals(new QueryStringDecoder(request.getUri()).path()) == false) {
+			sendError(ctx, HttpResponseStatus.NOT_FOUND, "No such resource.");
+			return null;
+		}
+
+		if (HttpMethod.POST.equals(request.getMethod()) == false) {
+			sendError(ctx, HttpResponseStatus.METHOD_NOT_ALLOWED, "Only POST is supported.");
+			return null;
+		}
+
+		String contentType = HttpHeaders.getHeader(request, HttpHeaders.Names.CONTENT_TYPE, "text/plain");
+
+		final String mediaType = StringUtils.substringBefore(contentType, ";").trim().toLowerCase();
+
+		final Charset charset = getCharset(contentType);
+
+		boolean isPlainText = mediaType.equals("text/plain") || mediaType.equals(ExampleMediaTypes.PLAINTEXT_0_1_0);
+
+		if ((isPlainText == false && mediaType.equals(ExampleMediaTypes.STRUCTURED_JSON_0_1_0) == false) || charset == null || BoundedLineReader.isSupported(charset) == false) {
+			LOGGER.warn("Rejecting a request with content type: {}", contentType);
+			sendError(ctx, HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE, "Unsupported content type: " + contentType);
+			return null;
+		}
+
+		final MultivaluedMap<String, String> httpHeaders = new MultivaluedHashMap<String, String>();
+
+		for (String name : EXAMPLE_HEADERS) {
+
+			String value = request.headers().get(name);
+
+			if (value != null) httpHeaders.putSingle(name, value);
+		}
+
+		final Map<String, String> attributes = ExampleRequestHeaders.toAttributes(httpHeaders);
+
+		Long deadlineMillis = attributes.containsKey(RequestDeadline.DEADLINE_ATTRIBUTE) ? Longs.tryParse(attributes.get(RequestDeadline.DEADLINE_ATTRIBUTE)) : null;
+
+		if (deadlineMillis != null && System.currentTimeMillis() >= deadlineMillis) {
+			LOGGER.warn("Rejecting a request whose deadline has already passed.");
+			sendError(ctx, HttpResponseStatus.GATEWAY_TIMEOUT, "The deadline of the request has already passed.");
+			return null;
+		}
+
+		if (HttpHeaders.is100ContinueExpected(request)) ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+
+		final HttpContentInputStream theBody = new HttpContentInputStream(ctx.channel(), maxQueuedBuffers);
+
+		final boolean keepAlive = HttpHeaders.isKeepAlive(request);
+
+		final boolean readPlainText = isPlainText;
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					Iterator<Example> exampleIterator = readPlainText ? new StringExampleIterator(theBody, charset, exampleReaderSettings.getMaxExampleLength(), exampleReaderSettings.getMemoryBudget()) : new StructuredJsonExamplesProvider(-1, -1).getExamplesFromStream(theBody);
+
+					predict(ctx, new ExamplesIterableImpl(ExampleRequestHeaders.getNumberOfExamples(httpHeaders), attributes, exampleIterator), keepAlive);
+				}
+				catch (MemoryBudgetExceededException e) {
+					LOGGER.warn("Shedding request: {}", e.getMessage());
+					sendError(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE, e.getMessage());
+				}
+				catch (Exception e) {
+					LOGGER.error("Exception when handling a predict request: {}", e.getMessage(), e);
+					ctx.close();
+				}
+				finally {
+					try {
+						theBody.close();
+					}
+					catch (IOException e) {
+						LOGGER.warn("IOException when closing the body of the request: {}", e.getMessage());
+					}
+				}
+			}
+		});
+
+		return theBody;
+	}
+
+	/*
+	 * Sends the examples to VW, and the predictions back to the client. Runs
+	 * on the executor.
+	 */
+	private void predict(ChannelHandlerContext ctx, ExamplesIterable examples, boolean keepAlive) {
+
+		RequestDeadline deadline = RequestDeadline.fromAttributes(examples);
+
+		ExampleProcessingManager manager;
+
+		try {
+			manager = exampleProcessorFactory.getExampleProcessor(examples).submitExamples(this);
+		}
+		catch (RequestDeadlineExceededException e) {
+			LOGGER.warn("The deadline passed before the examples could be submitted.");
+			sendError(ctx, HttpResponseStatus.GATEWAY_TIMEOUT, "The deadline of the request passed before the examples could be submitted.");
+			return;
+		}
+		catch (ExampleSubmissionException e) {
+			LOGGER.error("Exception when submitting examples! Message: {}", e.getMessage(), e);
+			sendError(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Failed to submit the examples to VW.");
+			return;
+		}
+
+		exampleProcessingManager = manager;
+
+		//the client may have gone away while the examples were being submitted
+		if (ctx.channel().isActive() == false) manager.cancel();
+
+		HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+
+		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, PredictionMediaTypes.PLAINTEXT_0_1_0);
+
+		HttpHeaders.setTransferEncodingChunked(response);
+
+		if (keepAlive == false) response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+
+		ctx.write(response);
+
+		ByteBuf buffer = ctx.alloc().buffer(flushBytes);
+
+		long numPredictionsWritten = 0;
+
+		try {
+			for (Prediction p : manager.getPredictionsIterable()) {
+
+				buffer.writeBytes(p.getVWStringRepresentation().getBytes(Charsets.UTF_8));
+				buffer.writeByte('\n');
+
+				numPredictionsWritten++;
+
+				if (buffer.readableBytes() >= flushBytes) {
+					ByteBuf toWrite = buffer;
+					buffer = null;
+					write(ctx, toWrite);
+					buffer = ctx.alloc().buffer(flushBytes);
+				}
+			}
+
+			LOGGER.info("Submitted a total of {} examples", manager.getTotalNumberOfExamplesSubmitted());
+			LOGGER.info("Skipped a total of {} examples", manager.getTotalNumberOfExamplesSkipped());
+			LOGGER.info("Read a total of {} predictions from VW", manager.getTotalNumberOfPredictionsFetched());
+			LOGGER.info("Wrote a total of {} predictions", numPredictionsWritten);
+			LOGGER.info("Final example submission state: {}", manager.getExampleSubmissionState());
+			LOGGER.info("Final prediction fetch state: {}", manager.getPredictionFetchState());
+
+			if (manager.getPredictionFetchState() == PredictionFetchState.DeadlineExceeded && deadline.isPartialResultsAllowed()) buffer.writeBytes(TRUNCATION_MARKER.getBytes(Charsets.UTF_8));
+
+			ByteBuf lastBuffer = buffer;
+
+			buffer = null;
+
+			ChannelFuture lastWrite = ctx.writeAndFlush(new DefaultLastHttpContent(lastBuffer));
+
+			if (keepAlive)
+				lastWrite.addListener(new ChannelFutureListener() {
+
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception {
+
+						//ready for the next request
+						if (future.isSuccess()) future.channel().config().setAutoRead(true);
+					}
+				});
+			else {
+				lastWrite.addListener(ChannelFutureListener.CLOSE);
+			}
+		}
+		catch (IOException e) {
+			LOGGER.error("IOException when writing out predictions! Message: {}", e.getMessage(), e);
+			manager.cancel();
+			ctx.close();
+		}
+		finally {
+			if (buffer != null) buffer.release();
+
+			exampleProcessingManager = null;
+		}
+	}
+
+	/*
+	 * Sends a chunk of predictions to the client, and waits for the client to
+	 * catch up if the connection can't take any more.
+	 */
+	private void write(ChannelHandlerContext ctx, ByteBuf buffer) throws IOException {
+
+		ChannelFuture writeFuture = ctx.writeAndFlush(new DefaultHttpContent(buffer));
+
+		if (ctx.channel().isWritable() == false) writeFuture.awaitUninterruptibly();
+
+		if (writeFuture.isDone() && writeFuture.isSuccess() == false) throw new IOException("Failed to write predictions to the client!", writeFuture.cause());
+	}
+
+	private void sendError(ChannelHandlerContext ctx, HttpResponseStatus status, String message) {
+
+		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(message, Charsets.UTF_8));
+
+		response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
+		response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, response.content().readableBytes());
+		response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+
+		//the rest of the request isn't read, so the connection can't be used again
+		ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+	}
+
+	/*
+	 * Returns the charset named by a content type, UTF-8 if it doesn't name
+	 * one, or null if it names one that isn't supported.
+	 */
+	private static Charset getCharset(String contentType) {
+
+		for (String parameter : StringUtils.split(contentType, ';')) {
+
+			String[] nameAndValue = StringUtils.split(parameter, "=", 2);
+
+			if (nameAndValue.length == 2 && nameAndValue[0].trim().equalsIgnoreCase("charset")) {
+
+				String charsetName = StringUtils.strip(nameAndValue[1].trim(), "\"");
+
+				try {
+					return Charset.forName(charsetName);
+				}
+				catch (IllegalArgumentException e) {
+					return null;
+				}
+			}
+		}
+
+		return Charsets.UTF_8;
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+
+		if (body != null) body.fail(new IOException("The client closed the connection!"));
+
+		body = null;
+
+		ExampleProcessingManager manager = exampleProcessingManager;
+
+		if (manager != null && manager.cancel()) LOGGER.warn("Cancelled a request because the client closed the connection.");
+
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+
+		LOGGER.error("Exception on a client connection: {}", cause.getMessage(), cause);
+
+		ctx.close();
+	}
+
+	@Override
+	public void onExampleReadException(ExampleProcessingManager exampleProcessingManager, ExampleReadException theException) {
+		LOGGER.error("Example read exception: {}", theException.getMessage(), theException);
+	}
+
+	@Override
+	public void onExampleFormatException(ExampleProcessingManager exampleProcessingManager, ExampleFormatException theException) {
+		LOGGER.warn("Example format exception: {}", theException.getMessage(), theException);
+	}
+
+	@Override
+	public void onExampleSubmissionException(ExampleProcessingManager exampleProcessingManager, ExampleSubmissionException theException) {
+		LOGGER.error("Example submission exception: {}", theException.getMessage(), theException);
+	}
+
+	@Override
+	public void onExampleSubmissionComplete(ExampleProcessingManager exampleProcessingManager) {
+		LOGGER.debug("Example submission complete.");
+	}
+
+	@Override
+	public void onPredictionFetchException(ExampleProcessingManager exampleProcessingManager, PredictionFetchException theException) {
+		LOGGER.error("Prediction fetch exception: {}", theException.getMessage(), theException);
+	}
+
+	@Override
+	public void onPredictionFetchComplete(ExampleProcessingManager exampleProcessingManager) {
+		LOGGER.debug("Prediction fetch complete.");
+	}
+}
@@ -0,0 +1,493 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.netty.exampleprocessor;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.common.example.ExampleFormatException;
+import com.eharmony.matching.vw.webservice.common.prediction.Prediction;
+import com.eharmony.matching.vw.webservice.common.prediction.StringPrediction;
+import com.eharmony.matching.vw.webservice.core.ExampleReadException;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionState;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.PredictionFetchState;
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An implementation of ExampleProcessingManager for use by the
+ *         NettyVWExampleProcessor.
+ *
+ *         The examples are written to VW on the executor, a pooled buffer at a
+ *         time. When the connection can't take any more, the writing waits for
+ *         VW to catch up. The predictions are read on the connection's event
+ *         loop and queued up, and once 'maxQueuedPredictions' of them are
+ *         waiting to be iterated over, the connection stops reading from VW.
+ *
+ *         Making this package-private for now.
+ */
+class NettyVWExampleProcessingManager implements ExampleProcessingManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NettyVWExampleProcessingManager.class);
+
+	//the number of bytes of examples to gather up before writing them to VW
+	private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+	//marks the end of the predictions, compared by reference
+	private static final String END_OF_PREDICTIONS = new String();
+
+	private final Iterable<Example> examples;
+	private final RequestDeadline deadline;
+	private final ExampleProcessingEventHandler callback;
+	private final int maxQueuedPredictions;
+
+	private final BlockingQueue<String> predictions = new LinkedBlockingQueue<String>();
+	private final PredictionReader predictionReader = new PredictionReader();
+
+	private volatile SocketChannel channel = null;
+	private volatile Throwable readFault = null;
+
+	private long numExamplesSubmitted, numExamplesSkipped, numPredictionsFetched;
+	private ExampleSubmissionState exampleSubmissionState = ExampleSubmissionState.OnGoing;
+	private PredictionFetchState predictionFetchState = PredictionFetchState.OnGoing;
+	private boolean isStopped = false;
+
+	private Iterator<Prediction> predictionsIterator = null;
+
+	public NettyVWExampleProcessingManager(Iterable<Example> examples, RequestDeadline deadline, ExampleProcessingEventHandler callback, int maxQueuedPredictions) {
+		this.examples = examples;
+		this.deadline = deadline;
+		this.callback = callback;
+		this.maxQueuedPredictions = maxQueuedPredictions;
+	}
+
+	/*
+	 * Reads the predictions off of the connection to VW. Runs on the
+	 * connection's event loop.
+	 */
+	class PredictionReader extends SimpleChannelInboundHandler<ByteBuf> {
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) throws Exception {
+
+			predictions.add(frame.toString(Charsets.UTF_8));
+
+			if (predictions.size() >= maxQueuedPredictions) ctx.channel().config().setAutoRead(false);
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+
+			predictions.add(END_OF_PREDICTIONS);
+
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+
+			synchronized (this) {
+				notifyAll();
+			}
+
+			super.channelWritabilityChanged(ctx);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+
+			if (readFault == null) readFault = cause;
+
+			ctx.close();
+		}
+
+		/*
+		 * Waits until the connection can take more, or is closed.
+		 */
+		synchronized void awaitWritable(SocketChannel theChannel) throws InterruptedException {
+
+			while (theChannel.isActive() && theChannel.isWritable() == false)
+				wait(100);
+		}
+	}
+
+	PredictionReader getPredictionReader() {
+		return predictionReader;
+	}
+
+	/*
+	 * Starts writing the examples to VW.
+	 */
+	void start(SocketChannel theChannel, ExecutorService executorService) {
+
+		this.channel = theChannel;
+
+		executorService.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				submitExamples();
+			}
+		});
+	}
+
+	private void submitExamples() {
+
+		ByteBuf buffer = channel.alloc().buffer(WRITE_BUFFER_SIZE);
+
+		long numExamplesRead = 0;
+
+		try {
+			for (Example example : examples) {
+
+				numExamplesRead++;
+
+				if (isStopped()) {
+					LOGGER.warn("Example submission process was stopped for some reason!");
+					finishSubmission(ExampleSubmissionState.Stopped);
+					break;
+				}
+
+				if (deadline.hasPassed()) {
+					LOGGER.warn("The deadline passed while submitting examples!");
+					expire();
+					break;
+				}
+
+				try {
+					buffer.writeBytes(example.getVWStringRepresentation().getBytes(Charsets.UTF_8));
+					buffer.writeByte('\n');
+				}
+				catch (ExampleFormatException e) {
+
+					if (e.getExampleNumber() <= 0) e.setExampleNumber(numExamplesRead);
+
+					synchronized (this) {
+						numExamplesSkipped++;
+					}
+
+					if (callback != null) callback.onExampleFormatException(this, e);
+
+					continue;
+				}
+
+				synchronized (this) {
+					numExamplesSubmitted++;
+				}
+
+				if (buffer.readableBytes() >= WRITE_BUFFER_SIZE) {
+					write(buffer);
+					buffer = channel.alloc().buffer(WRITE_BUFFER_SIZE);
+				}
+			}
+
+			//cancelled, or expired, in which case the connection is already closed
+			if (getPredictionFetchState() != PredictionFetchState.OnGoing) return;
+
+			ByteBuf lastBuffer = buffer;
+
+			buffer = null;
+
+			if (lastBuffer.isReadable())
+				write(lastBuffer);
+			else {
+				lastBuffer.release();
+			}
+
+			//VW will finish up with the examples it already has, and then close it's end
+			channel.shutdownOutput();
+
+			finishSubmission(ExampleSubmissionState.Complete);
+		}
+		catch (ExampleReadException e) {
+
+			LOGGER.error("ExampleReadException when reading examples: {}", e.getMessage(), e);
+
+			if (setExampleSubmissionState(ExampleSubmissionState.ExampleReadFault) == ExampleSubmissionState.OnGoing && callback != null) {
+				callback.onExampleReadException(this, e);
+				callback.onExampleSubmissionComplete(this);
+			}
+
+			channel.close();
+		}
+		catch (IOException e) {
+
+			LOGGER.error("IOException when writing examples: {}", e.getMessage(), e);
+
+			if (setExampleSubmissionState(ExampleSubmissionState.ExampleSubmissionFault) == ExampleSubmissionState.OnGoing && callback != null) {
+				callback.onExampleSubmissionException(this, new ExampleSubmissionException(e));
+				callback.onExampleSubmissionComplete(this);
+			}
+
+			channel.close();
+		}
+		catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+
+			cancel();
+		}
+		finally {
+			if (buffer != null) buffer.release();
+		}
+	}
+
+	/*
+	 * Writes a buffer of examples to VW, and waits for the connection to drain
+	 * if it can't take any more. The buffer is released once it's written.
+	 */
+	private void write(ByteBuf buffer) throws IOException, InterruptedException {
+
+		ChannelFuture writeFuture = channel.writeAndFlush(buffer);
+
+		if (channel.isWritable()) return;
+
+		predictionReader.awaitWritable(channel);
+
+		if (writeFuture.isDone() && writeFuture.isSuccess() == false) throw new IOException("Failed to write examples to VW!", writeFuture.cause());
+
+		if (channel.isActive() == false) throw new IOException("The connection to VW was closed!");
+	}
+
+	/*
+	 * Takes the predictions off of the queue as they're iterated over.
+	 */
+	private class PredictionsIterator extends AbstractIterator<Prediction> {
+
+		@Override
+		protected Prediction computeNext() {
+
+			String prediction;
+
+			try {
+				prediction = deadline.isSet() ? predictions.poll(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS) : predictions.take();
+			}
+			catch (InterruptedException e) {
+
+				Thread.currentThread().interrupt();
+
+				cancel();
+
+				return endOfData();
+			}
+
+			if (prediction == null) {
+
+				if (expire()) LOGGER.warn("The deadline passed while waiting for predictions!");
+
+				return endOfData();
+			}
+
+			if (prediction == END_OF_PREDICTIONS) {
+
+				//leave the marker for anyone that asks again
+				predictions.add(END_OF_PREDICTIONS);
+
+				Throwable fault = readFault;
+
+				if (fault != null) {
+
+					LOGGER.error("Exception when reading predictions: {}", fault.getMessage(), fault);
+
+					terminate(PredictionFetchState.PredictionFetchFault, fault);
+				}
+				else {
+					finishPredictionFetch(PredictionFetchState.Complete);
+				}
+
+				return endOfData();
+			}
+
+			//caught up, so read more from VW
+			if (predictions.size() <= maxQueuedPredictions / 2 && channel.config().isAutoRead() == false) {
+				channel.config().setAutoRead(true);
+				channel.read();
+			}
+
+			synchronized (NettyVWExampleProcessingManager.this) {
+				numPredictionsFetched++;
+			}
+
+			return new StringPrediction(prediction);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessingManager#getPredictionsIterable()
+	 */
+	@Override
+	public Iterable<Prediction> getPredictionsIterable() {
+
+		return new Iterable<Prediction>() {
+
+			@Override
+			public Iterator<Prediction> iterator() {
+
+				synchronized (NettyVWExampleProcessingManager.this) {
+
+					if (predictionsIterator == null) predictionsIterator = new PredictionsIterator();
+
+					return predictionsIterator;
+				}
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessingManager#stopAll()
+	 */
+	@Override
+	public synchronized void stopAll() {
+		isStopped = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessingManager#cancel()
+	 */
+	@Override
+	public boolean cancel() {
+		return terminate(PredictionFetchState.Cancelled, null);
+	}
+
+	/*
+	 * Stops the request because it's deadline has passed. Works just like
+	 * 'cancel()', except that the prediction fetch state becomes
+	 * 'DeadlineExceeded'.
+	 *
+	 * @returns True if this call stopped the request.
+	 */
+	public boolean expire() {
+		return terminate(PredictionFetchState.DeadlineExceeded, null);
+	}
+
+	/*
+	 * Ends the request early, and closes the connection to VW.
+	 *
+	 * @param fault The exception that ended it, if any.
+	 */
+	private boolean terminate(PredictionFetchState finalState, Throwable fault) {
+
+		boolean submissionWasOnGoing;
+
+		synchronized (this) {
+
+			if (predictionFetchState != PredictionFetchState.OnGoing) return false;
+
+			isStopped = true;
+			predictionFetchState = finalState;
+
+			submissionWasOnGoing = exampleSubmissionState == ExampleSubmissionState.OnGoing;
+
+			if (submissionWasOnGoing) exampleSubmissionState = ExampleSubmissionState.Stopped;
+		}
+
+		LOGGER.info("Stopping request ({}) after submitting {} examples and fetching {} predictions.", finalState, getTotalNumberOfExamplesSubmitted(), getTotalNumberOfPredictionsFetched());
+
+		SocketChannel theChannel = channel;
+
+		if (theChannel != null) theChannel.close();
+
+		if (callback != null) {
+
+			if (fault != null) callback.onPredictionFetchException(this, new PredictionFetchException(fault));
+
+			if (submissionWasOnGoing) callback.onExampleSubmissionComplete(this);
+
+			callback.onPredictionFetchComplete(this);
+		}
+
+		return true;
+	}
+
+	private void finishSubmission(ExampleSubmissionState finalState) {
+
+		if (setExampleSubmissionState(finalState) == ExampleSubmissionState.OnGoing && callback != null) callback.onExampleSubmissionComplete(this);
+	}
+
+	private void finishPredictionFetch(PredictionFetchState finalState) {
+
+		synchronized (this) {
+
+			if (predictionFetchState != PredictionFetchState.OnGoing) return;
+
+			predictionFetchState = finalState;
+		}
+
+		if (callback != null) callback.onPredictionFetchComplete(this);
+	}
+
+	/*
+	 * Moves example submission out of 'OnGoing'. Has no effect if it's
+	 * already out of it.
+	 *
+	 * @returns The previous state.
+	 */
+	private synchronized ExampleSubmissionState setExampleSubmissionState(ExampleSubmissionState newState) {
+
+		ExampleSubmissionState previousState = exampleSubmissionState;
+
+		if (previousState == ExampleSubmissionState.OnGoing) exampleSubmissionState = newState;
+
+		return previousState;
+	}
+
+	public synchronized boolean isStopped() {
+		return isStopped;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfExamplesSubmitted() {
+		return numExamplesSubmitted;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfExamplesSkipped() {
+		return numExamplesSkipped;
+	}
+
+	@Override
+	public synchronized long getTotalNumberOfPredictionsFetched() {
+		return numPredictionsFetched;
+	}
+
+	@Override
+	public synchronized ExampleSubmissionState getExampleSubmissionState() {
+		return exampleSubmissionState;
+	}
+
+	@Override
+	public synchronized PredictionFetchState getPredictionFetchState() {
+		return predictionFetchState;
+	}
+}
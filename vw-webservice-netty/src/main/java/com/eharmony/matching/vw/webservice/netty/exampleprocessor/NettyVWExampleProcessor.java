@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.netty.exampleprocessor;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+
+import java.util.concurrent.ExecutorService;
+
+import com.eharmony.matching.vw.webservice.common.example.Example;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingEventHandler;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessingManager;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeatures;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFeaturesImpl;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleSubmissionException;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.RequestDeadlineExceededException;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An example processor that connects to VW through Netty. The examples
+ *         are written on the executor, and the predictions are read on the
+ *         connection's event loop, and queued up for whoever iterates over
+ *         them (see NettyVWExampleProcessingManager).
+ *
+ *         Making this package-private for now.
+ */
+class NettyVWExampleProcessor implements ExampleProcessor {
+
+	//the longest prediction VW could reasonably send back, anything longer means something's wrong
+	private static final int MAX_PREDICTION_LENGTH = 1024 * 1024;
+
+	private final Bootstrap bootstrap;
+	private final ExecutorService executorService;
+	private final int maxQueuedPredictions;
+	private final Iterable<Example> examples;
+	private final RequestDeadline deadline;
+
+	public NettyVWExampleProcessor(Bootstrap bootstrap, ExecutorService executorService, int maxQueuedPredictions, Iterable<Example> examples, RequestDeadline deadline) {
+		this.bootstrap = bootstrap;
+		this.executorService = executorService;
+		this.maxQueuedPredictions = maxQueuedPredictions;
+		this.examples = examples;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public ExampleProcessingManager submitExamples(ExampleProcessingEventHandler callback) throws ExampleSubmissionException {
+
+		if (deadline.hasPassed()) throw new RequestDeadlineExceededException("The deadline passed before the examples could be submitted!");
+
+		final NettyVWExampleProcessingManager manager = new NettyVWExampleProcessingManager(examples, deadline, callback, maxQueuedPredictions);
+
+		ChannelFuture connectFuture = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+
+			@Override
+			protected void initChannel(SocketChannel channel) throws Exception {
+				channel.pipeline().addLast(new LineBasedFrameDecoder(MAX_PREDICTION_LENGTH), manager.getPredictionReader());
+			}
+		}).connect();
+
+		connectFuture.awaitUninterruptibly();
+
+		if (connectFuture.isSuccess() == false) throw new ExampleSubmissionException("Failed to connect to VW!", connectFuture.cause());
+
+		manager.start((SocketChannel) connectFuture.channel(), executorService);
+
+		return manager;
+	}
+
+	@Override
+	public ExampleProcessorFeatures getExampleProcessorFeatures() {
+		return new ExampleProcessorFeaturesImpl(true, null);
+	}
+}
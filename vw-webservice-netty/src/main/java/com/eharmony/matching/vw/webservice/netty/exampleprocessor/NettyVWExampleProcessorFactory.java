@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.netty.exampleprocessor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.util.concurrent.ExecutorService;
+
+import com.eharmony.matching.vw.webservice.core.ExamplesIterable;
+import com.eharmony.matching.vw.webservice.core.RequestDeadline;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessor;
+import com.eharmony.matching.vw.webservice.core.exampleprocessor.ExampleProcessorFactory;
+
+/**
+ * @author vrahimtoola
+ *
+ *         An ExampleProcessorFactory whose example processors talk to VW
+ *         through Netty, rather than through blocking sockets, so that the
+ *         predictions are read on the same event loops that serve the HTTP
+ *         requests, and the examples are written out of pooled buffers.
+ *
+ *         Each request still gets a connection to VW of it's own, just like
+ *         with the TCPIPExampleProcessorFactory, but no thread sits on it
+ *         waiting for predictions.
+ */
+public class NettyVWExampleProcessorFactory implements ExampleProcessorFactory {
+
+	private final String vwHost;
+	private final int vwPort;
+	private final Bootstrap bootstrap;
+	private final ExecutorService executorService;
+	private final int maxQueuedPredictions;
+
+	/*
+	 * Constructor.
+	 *
+	 * @param vwHost The host VW is running on.
+	 *
+	 * @param vwPort The port VW is listening on.
+	 *
+	 * @param connectTimeoutMillis How long to wait for a connection to VW.
+	 *
+	 * @param eventLoopGroup The event loops the connections to VW are served
+	 * by.
+	 *
+	 * @param executorService The executor the examples are read, and written
+	 * to VW, on.
+	 *
+	 * @param maxQueuedPredictions The most predictions of a request to read
+	 * ahead of whoever is iterating over them.
+	 */
+	public NettyVWExampleProcessorFactory(String vwHost, int vwPort, int connectTimeoutMillis, EventLoopGroup eventLoopGroup, ExecutorService executorService, int maxQueuedPredictions) {
+
+		checkNotNull(vwHost, "A null VW host cannot be provided!");
+		checkArgument(vwPort > 0, "The VW port must be > 0!");
+		checkArgument(connectTimeoutMillis >= 0, "The connect timeout must be >= 0!");
+		checkNotNull(eventLoopGroup, "A null event loop group cannot be provided!");
+		checkNotNull(executorService, "A null executor service cannot be provided!");
+		checkArgument(maxQueuedPredictions > 0, "The max number of queued predictions must be > 0!");
+
+		this.vwHost = vwHost;
+		this.vwPort = vwPort;
+		this.bootstrap = new Bootstrap().group(eventLoopGroup).channel(NioSocketChannel.class).remoteAddress(vwHost, vwPort).option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis).option(ChannelOption.TCP_NODELAY, true).option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+
+		this.executorService = executorService;
+		this.maxQueuedPredictions = maxQueuedPredictions;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.eharmony.matching.vw.webservice.core.exampleprocessor.
+	 * ExampleProcessorFactory
+	 * #getExampleProcessor(com.eharmony.matching.vw.webservice
+	 * .core.ExamplesIterable)
+	 */
+	@Override
+	public ExampleProcessor getExampleProcessor(ExamplesIterable theExamples) {
+
+		return new NettyVWExampleProcessor(bootstrap, executorService, maxQueuedPredictions, theExamples, RequestDeadline.fromAttributes(theExamples));
+	}
+
+	@Override
+	public String toString() {
+		return "NettyVWExampleProcessorFactory [vwHost=" + vwHost + ", vwPort=" + vwPort + ", maxQueuedPredictions=" + maxQueuedPredictions + "]";
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Tests the HttpContentInputStream.
+ */
+public class HttpContentInputStreamTest {
+
+	@Test(timeout = 5000)
+	public void readsTheBodyAndReleasesTheBuffersTest() throws IOException {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+		HttpContentInputStream body = new HttpContentInputStream(channel, 10);
+
+		ByteBuf first = Unpooled.copiedBuffer("1 | a\n2 |", Charsets.UTF_8);
+		ByteBuf second = Unpooled.copiedBuffer(" b\n", Charsets.UTF_8);
+
+		body.offer(first);
+		body.offer(second);
+		body.end();
+
+		//netty releases the content once it's been handed to the stream
+		first.release();
+		second.release();
+
+		assertEquals("1 | a\n2 | b\n", new String(ByteStreams.toByteArray(body), Charsets.UTF_8));
+
+		assertEquals(0, first.refCnt());
+		assertEquals(0, second.refCnt());
+
+		body.close();
+	}
+
+	@Test(timeout = 5000)
+	public void pausesReadingUntilCaughtUpTest() throws IOException {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+		HttpContentInputStream body = new HttpContentInputStream(channel, 2);
+
+		body.offer(Unpooled.copiedBuffer("a", Charsets.UTF_8));
+
+		assertTrue(channel.config().isAutoRead());
+
+		body.offer(Unpooled.copiedBuffer("b", Charsets.UTF_8));
+
+		assertFalse(channel.config().isAutoRead());
+
+		assertEquals('a', body.read());
+
+		assertTrue(channel.config().isAutoRead());
+
+		body.close();
+	}
+
+	@Test(timeout = 5000)
+	public void failedBodyThrowsTest() throws IOException {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+		HttpContentInputStream body = new HttpContentInputStream(channel, 10);
+
+		ByteBuf buffer = Unpooled.copiedBuffer("a", Charsets.UTF_8);
+
+		body.offer(buffer);
+		body.fail(new IOException("The client went away!"));
+
+		assertEquals('a', body.read());
+
+		try {
+			body.read();
+			fail("The read should have failed!");
+		}
+		catch (IOException e) {
+			assertEquals("The client went away!", e.getMessage());
+		}
+
+		body.close();
+
+		assertEquals(1, buffer.refCnt());
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package com.eharmony.matching.vw.webservice.netty;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.eharmony.matching.vw.webservice.common.example.ExampleMediaTypes;
+import com.google.common.base.Charsets;
+
+/**
+ * @author vrahimtoola
+ *
+ *         Posts the same plain text examples to a predict endpoint from a
+ *         number of clients at once, and reports the throughput and the
+ *         latencies of the requests. Point it at the Netty web service and at
+ *         the Jersey web service, in turn, in front of the same VW daemon, to
+ *         compare the two (see the README).
+ *
+ *         Usage: PredictBenchmark url numClients requestsPerClient
+ *         examplesPerRequest
+ */
+public class PredictBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length != 4) {
+			System.err.println("Usage: PredictBenchmark url numClients requestsPerClient examplesPerRequest");
+			System.exit(1);
+		}
+
+		final URL url = new URL(args[0]);
+		int numClients = Integer.parseInt(args[1]);
+		final int requestsPerClient = Integer.parseInt(args[2]);
+		int examplesPerRequest = Integer.parseInt(args[3]);
+
+		StringBuilder examples = new StringBuilder();
+
+		for (int x = 0; x < examplesPerRequest; x++)
+			examples.append(x % 2 == 0 ? "1" : "-1").append(" 'ex").append(x).append(" | a:").append(x % 7).append(" b:").append(x % 13).append(" c\n");
+
+		final byte[] body = examples.toString().getBytes(Charsets.UTF_8);
+
+		//warm up both ends first
+		for (int x = 0; x < 10; x++)
+			post(url, body);
+
+		ExecutorService executorService = Executors.newFixedThreadPool(numClients);
+
+		List<Future<long[]>> clients = new ArrayList<Future<long[]>>();
+
+		long start = System.nanoTime();
+
+		for (int x = 0; x < numClients; x++)
+			clients.add(executorService.submit(new Callable<long[]>() {
+
+				@Override
+				public long[] call() throws Exception {
+
+					long[] latencies = new long[requestsPerClient];
+
+					for (int y = 0; y < requestsPerClient; y++) {
+
+						long requestStart = System.nanoTime();
+
+						post(url, body);
+
+						latencies[y] = System.nanoTime() - requestStart;
+					}
+
+					return latencies;
+				}
+			}));
+
+		long[] latencies = new long[numClients * requestsPerClient];
+
+		int numLatencies = 0;
+
+		for (Future<long[]> client : clients)
+			for (long latency : client.get())
+				latencies[numLatencies++] = latency;
+
+		long elapsedNanos = System.nanoTime() - start;
+
+		executorService.shutdown();
+
+		Arrays.sort(latencies);
+
+		double elapsedSeconds = elapsedNanos / 1e9;
+
+		System.out.printf("%s: %d requests of %d examples in %.2f s%n", url, latencies.length, examplesPerRequest, elapsedSeconds);
+		System.out.printf("  %.1f requests/s, %.1f predictions/s%n", latencies.length / elapsedSeconds, (double) latencies.length * examplesPerRequest / elapsedSeconds);
+		System.out.printf("  latency ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n", percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), latencies[latencies.length - 1] / 1e6);
+	}
+
+	private static double percentile(long[] sortedLatencies, int percentile) {
+		return sortedLatencies[Math.min(sortedLatencies.length - 1, sortedLatencies.length * percentile / 100)] / 1e6;
+	}
+
+	/*
+	 * Posts the examples, and reads all of the predictions.
+	 *
+	 * @returns The number of predictions read.
+	 */
+	private static int post(URL url, byte[] body) throws IOException {
+
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(body.length);
+		connection.setRequestProperty("Content-Type", ExampleMediaTypes.PLAINTEXT_0_1_0);
+
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body);
+		}
+
+		if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) throw new IOException("Got a " + connection.getResponseCode() + " from " + url + "!");
+
+		int numPredictions = 0;
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), Charsets.UTF_8))) {
+			while (reader.readLine() != null)
+				numPredictions++;
+		}
+
+		return numPredictions;
+	}
+}